@@ -0,0 +1,182 @@
+package org.jcvi.vigor.benchmark;
+
+import org.jcvi.jillion.core.datastore.DataStoreProviderHint;
+import org.jcvi.jillion.core.residue.nt.NucleotideSequenceBuilder;
+import org.jcvi.jillion.fasta.nt.NucleotideFastaDataStore;
+import org.jcvi.jillion.fasta.nt.NucleotideFastaFileDataStoreBuilder;
+import org.jcvi.jillion.fasta.nt.NucleotideFastaRecord;
+import org.jcvi.jillion.fasta.nt.NucleotideFastaRecordBuilder;
+import org.jcvi.vigor.Application;
+import org.jcvi.vigor.component.Alignment;
+import org.jcvi.vigor.component.ReferenceDatabase;
+import org.jcvi.vigor.component.VirusGenome;
+import org.jcvi.vigor.exception.VigorException;
+import org.jcvi.vigor.service.ExonerateService;
+import org.jcvi.vigor.service.ViralProteinService;
+import org.jcvi.vigor.service.VigorInitializationService;
+import org.jcvi.vigor.service.VirusGenomeService;
+import org.jcvi.vigor.service.exception.ServiceException;
+import org.jcvi.vigor.utils.ConfigurationParameters;
+import org.jcvi.vigor.utils.NullUtil;
+import org.jcvi.vigor.utils.VigorConfiguration;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Loads the services, configuration and inputs the benchmarks run against. The reference database path is taken from
+ * the usual configuration, so set vigor.reference_database_path or VIGOR_REFERENCE_DATABASE_PATH before running.
+ */
+public class BenchmarkSupport {
+
+    private static final char[] BASES = { 'A', 'C', 'G', 'T' };
+
+    private static AnnotationConfigApplicationContext context;
+
+    /**
+     * @return the application context, created on first use and shared by the benchmarks of a fork
+     */
+    public static synchronized AnnotationConfigApplicationContext getContext () {
+
+        if (context == null) {
+            context = new AnnotationConfigApplicationContext(Application.class);
+        }
+        return context;
+    }
+
+    public static <T> T getBean ( Class<T> type ) {
+
+        return getContext().getBean(type);
+    }
+
+    public static VigorConfiguration getDefaultConfiguration () throws VigorException {
+
+        VigorInitializationService initializationService = getBean(VigorInitializationService.class);
+        return initializationService.mergeConfigurations(initializationService.getDefaultConfigurations());
+    }
+
+    /**
+     * @param fixture
+     * @return the default configuration overridden by the virus specific configuration of the fixture's reference
+     * database
+     * @throws VigorException
+     */
+    public static VigorConfiguration getConfiguration ( Fixture fixture ) throws VigorException {
+
+        VigorInitializationService initializationService = getBean(VigorInitializationService.class);
+        List<VigorConfiguration> configurations = new ArrayList<>(initializationService.getDefaultConfigurations());
+        // set from the command line when running vigor
+        configurations.get(configurations.size() - 1).putString(ConfigurationParameters.Verbose, "false");
+        if (fixture.referenceDB != null) {
+            String referenceDB = getReferenceDB(fixture);
+            configurations.get(configurations.size() - 1).put(ConfigurationParameters.ReferenceDatabaseFile, referenceDB);
+            configurations.addAll(1, initializationService.loadVirusConfiguration(new File(referenceDB + ".ini")));
+        }
+        return initializationService.mergeConfigurations(configurations);
+    }
+
+    /**
+     * @param fixture
+     * @return the first record of the fixture's fasta
+     * @throws VigorException
+     */
+    public static NucleotideFastaRecord readGenome ( Fixture fixture ) throws VigorException {
+
+        File fasta = getResource(fixture.fasta);
+        try (NucleotideFastaDataStore dataStore = new NucleotideFastaFileDataStoreBuilder(fasta).hint(DataStoreProviderHint.RANDOM_ACCESS_OPTIMIZE_SPEED)
+                                                                                               .build()) {
+            return dataStore.records()
+                            .findFirst()
+                            .orElseThrow(() -> new ServiceException(String.format("No sequences in %s", fasta)));
+        } catch (IOException e) {
+            throw new ServiceException(String.format("Problem reading fasta file %s", fasta), e);
+        }
+    }
+
+    /**
+     * @param fixture
+     * @param config
+     * @return the fixture's alignments with the viral protein attributes set, as the annotation pipeline sees them
+     * @throws VigorException
+     */
+    public static List<Alignment> getAlignments ( Fixture fixture, VigorConfiguration config ) throws VigorException {
+
+        if (! fixture.hasAlignments()) {
+            throw new VigorException(String.format("Fixture %s has no alignments", fixture));
+        }
+        VirusGenome virusGenome = VirusGenomeService.fastaRecordToVirusGenome(readGenome(fixture), config);
+        List<Alignment> alignments = getBean(ExonerateService.class).parseExonerateOutput(getAlignmentOutput(fixture),
+                                                                                         virusGenome,
+                                                                                         getReferenceDatabase(config));
+        ViralProteinService viralProteinService = getBean(ViralProteinService.class);
+        for (int i = 0; i < alignments.size(); i++) {
+            alignments.set(i, viralProteinService.setViralProteinAttributes(alignments.get(i), config));
+        }
+        return alignments;
+    }
+
+    public static File getAlignmentOutput ( Fixture fixture ) throws VigorException {
+
+        return getResource(fixture.alignmentOutput);
+    }
+
+    public static ReferenceDatabase getReferenceDatabase ( VigorConfiguration config ) throws VigorException {
+
+        String referenceDB = config.get(ConfigurationParameters.ReferenceDatabaseFile);
+        try {
+            return ReferenceDatabase.read(referenceDB);
+        } catch (IOException e) {
+            throw new ServiceException(String.format("Problem reading reference database %s", referenceDB), e);
+        }
+    }
+
+    /**
+     * @param length
+     * @param gapEvery average distance between runs of Ns
+     * @param seed
+     * @return a random genome of the given length with runs of 20 to 100 Ns, for scaling past the fixture sizes
+     */
+    public static NucleotideFastaRecord syntheticGenome ( int length, int gapEvery, long seed ) {
+
+        Random random = new Random(seed);
+        StringBuilder sequence = new StringBuilder(length);
+        while (sequence.length() < length) {
+            if (gapEvery > 0 && random.nextInt(gapEvery) == 0) {
+                int gapLength = Math.min(20 + random.nextInt(81), length - sequence.length());
+                for (int i = 0; i < gapLength; i++) {
+                    sequence.append('N');
+                }
+            } else {
+                sequence.append(BASES[ random.nextInt(BASES.length) ]);
+            }
+        }
+        return new NucleotideFastaRecordBuilder(String.format("synthetic_%s", length),
+                                                new NucleotideSequenceBuilder(sequence.toString()).build())
+                .comment(String.format("synthetic genome length=%s seed=%s", length, seed))
+                .build();
+    }
+
+    private static String getReferenceDB ( Fixture fixture ) throws VigorException {
+
+        String referenceDBPath = getDefaultConfiguration().get(ConfigurationParameters.ReferenceDatabasePath);
+        if (NullUtil.isNullOrEmpty(referenceDBPath)) {
+            throw new VigorException(String.format("reference database path must be set to benchmark %s", fixture));
+        }
+        return Paths.get(referenceDBPath, fixture.referenceDB).toString();
+    }
+
+    private static File getResource ( String resource ) throws VigorException {
+
+        URL url = BenchmarkSupport.class.getResource(resource);
+        if (url == null) {
+            throw new VigorException(String.format("benchmark input %s not found", resource));
+        }
+        return new File(url.getFile());
+    }
+}
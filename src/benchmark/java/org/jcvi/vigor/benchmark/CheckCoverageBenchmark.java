@@ -0,0 +1,58 @@
+package org.jcvi.vigor.benchmark;
+
+import org.jcvi.jillion.core.residue.nt.NucleotideSequence;
+import org.jcvi.vigor.component.Model;
+import org.jcvi.vigor.exception.VigorException;
+import org.jcvi.vigor.service.CheckCoverage;
+import org.jcvi.vigor.service.HomologyCache;
+import org.jcvi.vigor.service.ModelGenerationService;
+import org.jcvi.vigor.utils.VigorConfiguration;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Scoring the candidate models of a fixture against their reference proteins. A new homology cache is used for each
+ * invocation, so models translating to the same protein are aligned once per invocation as they are once per genome.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CheckCoverageBenchmark {
+
+    @Param({ "FLUA", "VEEV" })
+    public Fixture fixture;
+
+    // alignment band, 0 for a full alignment
+    @Param({ "0", "16" })
+    public int band;
+
+    private CheckCoverage checkCoverage;
+    private List<Model> models;
+    private List<NucleotideSequence> cdsList;
+
+    @Setup(Level.Trial)
+    public void setup () throws VigorException {
+
+        VigorConfiguration config = BenchmarkSupport.getConfiguration(fixture);
+        checkCoverage = BenchmarkSupport.getBean(CheckCoverage.class);
+        models = BenchmarkSupport.getBean(ModelGenerationService.class)
+                                 .generateModels(BenchmarkSupport.getAlignments(fixture, config), config);
+        cdsList = models.stream().map(checkCoverage::determineCDS).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public void determineHomology ( Blackhole blackhole ) {
+
+        HomologyCache cache = new HomologyCache();
+        for (int i = 0; i < models.size(); i++) {
+            blackhole.consume(checkCoverage.determineHomology(models.get(i), cdsList.get(i), cache, band));
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.jcvi.vigor.benchmark;
+
+import org.jcvi.vigor.component.Alignment;
+import org.jcvi.vigor.component.ReferenceDatabase;
+import org.jcvi.vigor.component.VirusGenome;
+import org.jcvi.vigor.exception.VigorException;
+import org.jcvi.vigor.service.ExonerateService;
+import org.jcvi.vigor.service.VirusGenomeService;
+import org.jcvi.vigor.service.exception.ServiceException;
+import org.jcvi.vigor.utils.VigorConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing exonerate output into alignments, including looking up the aligned proteins in the reference database
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExonerateParseBenchmark {
+
+    @Param({ "FLUA", "VEEV" })
+    public Fixture fixture;
+
+    private ExonerateService exonerateService;
+    private File exonerateOutput;
+    private VirusGenome virusGenome;
+    private ReferenceDatabase referenceDatabase;
+
+    @Setup(Level.Trial)
+    public void setup () throws VigorException {
+
+        VigorConfiguration config = BenchmarkSupport.getConfiguration(fixture);
+        exonerateService = BenchmarkSupport.getBean(ExonerateService.class);
+        exonerateOutput = BenchmarkSupport.getAlignmentOutput(fixture);
+        virusGenome = VirusGenomeService.fastaRecordToVirusGenome(BenchmarkSupport.readGenome(fixture), config);
+        referenceDatabase = BenchmarkSupport.getReferenceDatabase(config);
+    }
+
+    @Benchmark
+    public List<Alignment> parseExonerateOutput () throws ServiceException {
+
+        return exonerateService.parseExonerateOutput(exonerateOutput, virusGenome, referenceDatabase);
+    }
+}
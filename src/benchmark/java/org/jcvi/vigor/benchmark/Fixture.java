@@ -0,0 +1,28 @@
+package org.jcvi.vigor.benchmark;
+
+/**
+ * Genomes from the unit test inputs, with the exonerate output and reference database they were aligned with where
+ * there is one
+ */
+public enum Fixture {
+
+    FLUA("/vigorUnitTestInput/Flua_RiboSlippage_Test.fasta", "/vigorUnitTestInput/Flua_RiboSlippage_Test.txt", "flua_db"),
+    VEEV("/vigorUnitTestInput/Veev_StopTranslationEx_Test.fasta", "/vigorUnitTestInput/Veev_StopTranslationEx_Test.txt", "veev_db"),
+    CHIKV("/vigorUnitTestInput/chikv.ungapped.fasta.JF274082.1.ref.fasta", null, null);
+
+    final String fasta;
+    final String alignmentOutput;
+    final String referenceDB;
+
+    Fixture ( String fasta, String alignmentOutput, String referenceDB ) {
+
+        this.fasta = fasta;
+        this.alignmentOutput = alignmentOutput;
+        this.referenceDB = referenceDB;
+    }
+
+    public boolean hasAlignments () {
+
+        return alignmentOutput != null;
+    }
+}
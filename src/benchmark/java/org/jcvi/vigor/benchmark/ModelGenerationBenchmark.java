@@ -0,0 +1,85 @@
+package org.jcvi.vigor.benchmark;
+
+import org.jcvi.vigor.component.Alignment;
+import org.jcvi.vigor.component.AlignmentFragment;
+import org.jcvi.vigor.exception.VigorException;
+import org.jcvi.vigor.service.ModelGenerationService;
+import org.jcvi.vigor.utils.ConfigurationParameters;
+import org.jcvi.vigor.utils.VigorConfiguration;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Chaining and merging the alignment fragments of each of a fixture's alignments, as done when turning alignments into
+ * candidate models
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelGenerationBenchmark {
+
+    @Param({ "FLUA", "VEEV" })
+    public Fixture fixture;
+
+    private ModelGenerationService modelGenerationService;
+    private List<Alignment> alignments;
+    // fragments of each alignment by direction, as alignmentToModels chains them
+    private List<List<AlignmentFragment>> fragmentGroups;
+    private List<Alignment> fragmentGroupAlignments;
+
+    @Setup(Level.Trial)
+    public void setup () throws VigorException {
+
+        VigorConfiguration config = BenchmarkSupport.getConfiguration(fixture);
+        modelGenerationService = BenchmarkSupport.getBean(ModelGenerationService.class);
+        alignments = BenchmarkSupport.getAlignments(fixture, config);
+        fragmentGroups = new ArrayList<>();
+        fragmentGroupAlignments = new ArrayList<>();
+        for (Alignment alignment : alignments) {
+            for (List<AlignmentFragment> fragments : alignment.getAlignmentFragments()
+                                                              .stream()
+                                                              .collect(Collectors.groupingBy(AlignmentFragment::getDirection))
+                                                              .values()) {
+                fragmentGroups.add(fragments);
+                fragmentGroupAlignments.add(alignment);
+            }
+        }
+    }
+
+    @Benchmark
+    public void generateCompatibleFragsChains ( Blackhole blackhole ) {
+
+        for (int i = 0; i < fragmentGroups.size(); i++) {
+            blackhole.consume(modelGenerationService.generateCompatibleFragsChains(fragmentGroups.get(i),
+                                                                                   configuration(fragmentGroupAlignments.get(i))));
+        }
+    }
+
+    @Benchmark
+    public void mergeAlignmentFragments ( Blackhole blackhole ) {
+
+        for (int i = 0; i < fragmentGroups.size(); i++) {
+            Alignment alignment = fragmentGroupAlignments.get(i);
+            int maxAlignMergeAAGap = configuration(alignment).getOrDefault(ConfigurationParameters.MaxAlignMergeAAGap, 10);
+            // merging sorts the fragments it is given
+            blackhole.consume(modelGenerationService.mergeAlignmentFragments(new ArrayList<>(fragmentGroups.get(i)),
+                                                                             alignment.getVirusGenome(),
+                                                                             maxAlignMergeAAGap * 3,
+                                                                             maxAlignMergeAAGap,
+                                                                             alignment.getViralProtein()));
+        }
+    }
+
+    private static VigorConfiguration configuration ( Alignment alignment ) {
+
+        return alignment.getViralProtein().getConfiguration();
+    }
+}
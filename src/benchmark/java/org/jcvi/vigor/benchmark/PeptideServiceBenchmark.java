@@ -0,0 +1,72 @@
+package org.jcvi.vigor.benchmark;
+
+import org.jcvi.vigor.component.Model;
+import org.jcvi.vigor.exception.VigorException;
+import org.jcvi.vigor.service.GeneModelGenerationService;
+import org.jcvi.vigor.service.ModelGenerationService;
+import org.jcvi.vigor.service.PeptideMatchingService;
+import org.jcvi.vigor.service.PeptideService;
+import org.jcvi.vigor.service.exception.ServiceException;
+import org.jcvi.vigor.utils.ConfigurationParameters;
+import org.jcvi.vigor.utils.NullUtil;
+import org.jcvi.vigor.utils.VigorConfiguration;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Finding the mature peptides of a fixture's gene models which have a mature peptide database
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PeptideServiceBenchmark {
+
+    @Param({ "VEEV" })
+    public Fixture fixture;
+
+    private PeptideService peptideService;
+    private List<Model> models;
+    private PeptideMatchingService.Scores scores;
+
+    @Setup(Level.Trial)
+    public void setup () throws VigorException {
+
+        VigorConfiguration config = BenchmarkSupport.getConfiguration(fixture);
+        peptideService = BenchmarkSupport.getBean(PeptideService.class);
+        List<Model> candidateModels = BenchmarkSupport.getBean(ModelGenerationService.class)
+                                                      .generateModels(BenchmarkSupport.getAlignments(fixture, config), config);
+        models = BenchmarkSupport.getBean(GeneModelGenerationService.class)
+                                 .generateGeneModel(candidateModels, config)
+                                 .stream()
+                                 .filter(m -> ! NullUtil.isNullOrEmpty(maturePeptideDB(m)))
+                                 .collect(Collectors.toList());
+        if (models.isEmpty()) {
+            throw new VigorException(String.format("No gene models of %s have a mature peptide database", fixture));
+        }
+        double minIdentity = config.get(ConfigurationParameters.MaturePeptideMinimumIdentity);
+        double minCoverage = config.get(ConfigurationParameters.MaturePeptideMinimumCoverage);
+        double minSimilarity = config.get(ConfigurationParameters.MaturePeptideMinimumSimilarity);
+        scores = PeptideMatchingService.Scores.of(minIdentity / 100.0d, minCoverage / 100.0d, minSimilarity / 100.0d);
+    }
+
+    @Benchmark
+    public void findPeptides ( Blackhole blackhole ) throws ServiceException {
+
+        for (Model model : models) {
+            blackhole.consume(peptideService.findPeptides(model, new File(maturePeptideDB(model)), scores));
+        }
+    }
+
+    private static String maturePeptideDB ( Model model ) {
+
+        return model.getAlignment().getAlignmentEvidence().getMatpep_db();
+    }
+}
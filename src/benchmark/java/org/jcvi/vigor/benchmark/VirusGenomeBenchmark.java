@@ -0,0 +1,43 @@
+package org.jcvi.vigor.benchmark;
+
+import org.jcvi.jillion.fasta.nt.NucleotideFastaRecord;
+import org.jcvi.vigor.component.VirusGenome;
+import org.jcvi.vigor.exception.VigorException;
+import org.jcvi.vigor.service.VirusGenomeService;
+import org.jcvi.vigor.utils.VigorConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a virus genome from a fasta record, which finds its sequence gaps. Genomes are a fixture name or the length
+ * of a synthetic genome.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VirusGenomeBenchmark {
+
+    @Param({ "FLUA", "VEEV", "CHIKV", "100000", "1000000" })
+    public String genome;
+
+    private NucleotideFastaRecord record;
+    private VigorConfiguration config;
+
+    @Setup(Level.Trial)
+    public void setup () throws VigorException {
+
+        config = BenchmarkSupport.getDefaultConfiguration();
+        record = genome.chars().allMatch(Character::isDigit) ? BenchmarkSupport.syntheticGenome(Integer.parseInt(genome), 5000, 1)
+                                                             : BenchmarkSupport.readGenome(Fixture.valueOf(genome));
+    }
+
+    @Benchmark
+    public VirusGenome fastaRecordToVirusGenome () {
+
+        return VirusGenomeService.fastaRecordToVirusGenome(record, config);
+    }
+}
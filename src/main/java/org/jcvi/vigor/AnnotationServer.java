@@ -0,0 +1,262 @@
+package org.jcvi.vigor;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jcvi.vigor.exception.VigorException;
+import org.jcvi.vigor.service.exception.UserFacingException;
+import org.jcvi.vigor.utils.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Local HTTP server annotating the fasta posted to /annotate, so that many small jobs share a single process, with its
+ * configurations, reference databases and other caches loaded once, rather than starting Vigor for each.
+ *
+ * The server's command line gives the defaults of each request, and the URL query of a request may set the reference
+ * database and configuration parameters, see {@link AnnotationRequest}. Each request is annotated into its own
+ * temporary output directory. The response is the file written if there is only one, such as for
+ * output_formats=TBL, and otherwise a zip archive of the files written. GET /status reports the requests in progress.
+ */
+public class AnnotationServer {
+
+    private static final Logger LOGGER = LogManager.getLogger(AnnotationServer.class);
+    private static final String OUTPUT_PREFIX = "vigor";
+    private static final int CONFIGURATION_CACHE_SIZE = 16;
+
+    private final Vigor vigor;
+    private final List<String> arguments;
+    private final int port;
+    private final int threads;
+    private final int maximumRequests;
+    private final Semaphore annotationPermits;
+    private final Path workspace;
+    private final String referenceDatabasePath;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicLong requestIDs = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    // configurations by request arguments. Reusing a configuration also reuses the reference databases loaded with it,
+    // which are released with the configuration
+    private final Map<List<String>, VigorConfiguration> configurations =
+            new LinkedHashMap<List<String>, VigorConfiguration>(CONFIGURATION_CACHE_SIZE, 0.75f, true) {
+
+                @Override
+                protected boolean removeEldestEntry ( Map.Entry<List<String>, VigorConfiguration> eldest ) {
+
+                    if (size() <= CONFIGURATION_CACHE_SIZE) {
+                        return false;
+                    }
+                    vigor.releaseConfiguration(eldest.getValue());
+                    return true;
+                }
+            };
+
+    /**
+     * @param vigor
+     * @param arguments command line of the server, giving the defaults of each request
+     * @param config configuration of the server's command line
+     * @throws IOException if the server's temporary directory can't be created
+     */
+    AnnotationServer ( Vigor vigor, String[] arguments, VigorConfiguration config ) throws IOException {
+
+        this.vigor = vigor;
+        this.arguments = Arrays.asList(arguments);
+        this.port = config.getOrDefault(ConfigurationParameters.ServerPort, 8086);
+        this.threads = config.getOrDefault(ConfigurationParameters.ServerThreads, 1);
+        this.maximumRequests = threads + config.<Integer>getOrDefault(ConfigurationParameters.ServerQueueSize, 16);
+        this.annotationPermits = new Semaphore(threads, true);
+        // requests name databases, which are found where the server's database is
+        this.referenceDatabasePath = config.get(ConfigurationParameters.ReferenceDatabasePath);
+        Path temporaryDirectory = Files.createDirectories(Paths.get((String) config.get(ConfigurationParameters.TemporaryDirectory)));
+        this.workspace = Files.createTempDirectory(temporaryDirectory, "vigor4-server");
+    }
+
+    /**
+     * Serve requests until the process is stopped
+     *
+     * @throws IOException if the server can't be started
+     * @throws InterruptedException
+     */
+    public void serve () throws IOException, InterruptedException {
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("server-%d")
+                                                                                           .setDaemon(true)
+                                                                                           .build());
+        server.setExecutor(executor);
+        server.createContext("/annotate", this::annotate);
+        server.createContext("/status", this::status);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(0);
+            VigorUtils.deleteDirectory(workspace);
+            stopped.countDown();
+        }));
+        server.start();
+        LOGGER.info("annotation server listening on http://{}:{}/annotate, annotating {} request(s) at a time",
+                    server.getAddress().getHostString(), server.getAddress().getPort(), threads);
+        stopped.await();
+    }
+
+    private void annotate ( HttpExchange exchange ) throws IOException {
+
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            sendError(exchange, 405, "post the fasta to annotate");
+            return;
+        }
+        if (requests.incrementAndGet() > maximumRequests) {
+            requests.decrementAndGet();
+            sendError(exchange, 503, String.format("busy with %s requests", maximumRequests));
+            return;
+        }
+        long requestID = requestIDs.incrementAndGet();
+        Path requestDirectory = null;
+        try {
+            AnnotationRequest request = AnnotationRequest.parse(exchange.getRequestURI().getRawQuery());
+            VigorConfiguration config = getConfiguration(request);
+            requestDirectory = Files.createTempDirectory(workspace, "request");
+            Path input = requestDirectory.resolve("input.fasta");
+            Files.copy(exchange.getRequestBody(), input);
+            if (Files.size(input) == 0) {
+                throw new UserFacingException("no sequences posted");
+            }
+            List<Path> outputs;
+            annotationPermits.acquire();
+            long start = System.nanoTime();
+            try (Outfiles outfiles = new Outfiles(requestDirectory, OUTPUT_PREFIX, true)) {
+                LOGGER.debug("request {} annotating {} with arguments {}", requestID, input, request.getArguments());
+                vigor.generateAnnotations(input.toString(), config.get(ConfigurationParameters.ReferenceDatabaseFile),
+                                          config, outfiles);
+                outputs = new ArrayList<>(outfiles.getSizes().keySet());
+            } finally {
+                annotationPermits.release();
+            }
+            LOGGER.info("request {} annotated in {} ms", requestID, ( System.nanoTime() - start ) / 1000000);
+            sendOutputs(exchange, outputs);
+            completed.incrementAndGet();
+        } catch (UserFacingException | ConfigurationParameterFunctions.InvalidValue e) {
+            failed.incrementAndGet();
+            LOGGER.info("request {} rejected: {}", requestID, e.getMessage());
+            sendError(exchange, 400, e.getMessage());
+        } catch (InterruptedException e) {
+            failed.incrementAndGet();
+            Thread.currentThread().interrupt();
+            sendError(exchange, 503, "server stopping");
+        } catch (VigorException | RuntimeException e) {
+            failed.incrementAndGet();
+            LOGGER.error(String.format("request %s failed", requestID), e);
+            sendError(exchange, 500, e.getMessage());
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            LOGGER.warn("request {} failed: {}", requestID, e.getMessage());
+            sendError(exchange, 500, e.getMessage());
+        } finally {
+            requests.decrementAndGet();
+            if (requestDirectory != null) {
+                VigorUtils.deleteDirectory(requestDirectory);
+            }
+            exchange.close();
+        }
+    }
+
+    /**
+     * @param request
+     * @return the configuration of the server's command line with the request's parameters
+     * @throws UserFacingException if the request's parameters are invalid
+     */
+    private synchronized VigorConfiguration getConfiguration ( AnnotationRequest request ) throws UserFacingException {
+
+        List<String> requestArguments = request.getArguments();
+        VigorConfiguration config = configurations.get(requestArguments);
+        if (config == null) {
+            List<String> commandLine = new ArrayList<>(arguments);
+            commandLine.addAll(requestArguments);
+            if (request.getReferenceDatabase().isPresent() && !NullUtil.isNullOrEmpty(referenceDatabasePath)) {
+                commandLine.add("--reference-database-path=" + referenceDatabasePath);
+            }
+            // outputs are written to a directory for each request, but the configuration must have one
+            commandLine.add("--output-prefix=" + workspace.resolve(OUTPUT_PREFIX));
+            try {
+                config = vigor.getVigorConfiguration(vigor.parseArgs(commandLine.toArray(new String[ 0 ])));
+                vigor.checkConfig(config);
+            } catch (VigorException e) {
+                // the server's own command line was valid
+                throw new UserFacingException(e.getMessage(), e);
+            }
+            configurations.put(requestArguments, config);
+        }
+        return config;
+    }
+
+    private void sendOutputs ( HttpExchange exchange, List<Path> outputs ) throws IOException {
+
+        if (outputs.size() == 1) {
+            Path output = outputs.get(0);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.getResponseHeaders().set("Content-Disposition", String.format("attachment; filename=\"%s\"", output.getFileName()));
+            exchange.sendResponseHeaders(200, Files.size(output));
+            try (OutputStream body = exchange.getResponseBody()) {
+                Files.copy(output, body);
+            }
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/zip");
+        exchange.sendResponseHeaders(200, 0);
+        try (ZipOutputStream zip = new ZipOutputStream(exchange.getResponseBody())) {
+            for (Path output : outputs) {
+                zip.putNextEntry(new ZipEntry(output.getFileName().toString()));
+                Files.copy(output, zip);
+                zip.closeEntry();
+            }
+        }
+    }
+
+    private void status ( HttpExchange exchange ) throws IOException {
+
+        int waiting = annotationPermits.getQueueLength();
+        sendText(exchange, 200, String.join("\n",
+                                            "annotating\t" + ( threads - annotationPermits.availablePermits() ),
+                                            "waiting\t" + waiting,
+                                            "completed\t" + completed.get(),
+                                            "failed\t" + failed.get()));
+        exchange.close();
+    }
+
+    private static void sendError ( HttpExchange exchange, int status, String message ) {
+
+        try {
+            sendText(exchange, status, message);
+        } catch (IOException e) {
+            LOGGER.debug("unable to send error {} {}: {}", status, message, e.getMessage());
+        }
+    }
+
+    private static void sendText ( HttpExchange exchange, int status, String message ) throws IOException {
+
+        byte[] bytes = ( message + "\n" ).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(bytes);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.jcvi.vigor;
 
 import net.sourceforge.argparse4j.inf.Namespace;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -15,6 +16,7 @@ import org.jcvi.jillion.core.Direction;
 import org.jcvi.jillion.core.Range;
 import org.jcvi.jillion.core.datastore.DataStoreException;
 import org.jcvi.jillion.core.datastore.DataStoreProviderHint;
+import org.jcvi.jillion.core.util.iter.StreamingIterator;
 import org.jcvi.jillion.fasta.nt.NucleotideFastaDataStore;
 import org.jcvi.jillion.fasta.nt.NucleotideFastaFileDataStoreBuilder;
 import org.jcvi.jillion.fasta.nt.NucleotideFastaRecord;
@@ -32,10 +34,15 @@ import org.springframework.stereotype.Component;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.nio.file.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -55,6 +62,10 @@ public class Vigor {
     private GeneModelGenerationService geneModelGenerationService;
     @Autowired
     private PeptideMatchingService peptideMatchingService;
+    @Autowired
+    private AnnotationCacheService annotationCacheService;
+    @Autowired
+    private ReferenceDatabaseService referenceDatabaseService;
 
 
     public void run ( String... args ) {
@@ -74,11 +85,26 @@ public class Vigor {
                 printDatabaseInfo(referenceDatabasePath, databases);
                 System.exit(0);
             }
+            Integer mergeShards = parsedArgs.getInt(CommandLineParameters.mergeShards);
+            if (mergeShards != null) {
+                mergeShards(vigorConfiguration, mergeShards);
+                System.exit(0);
+            }
+            if (parsedArgs.getBoolean(CommandLineParameters.server)) {
+                new AnnotationServer(this, args, vigorConfiguration).serve();
+                System.exit(0);
+            }
+            InputShard shard = vigorConfiguration.get(ConfigurationParameters.Shard);
+            if (shard != null) {
+                vigorConfiguration.put(ConfigurationParameters.OutputPrefix,
+                                       shard.getOutputPrefix(vigorConfiguration.get(ConfigurationParameters.OutputPrefix)));
+            }
             checkConfig(vigorConfiguration);
             File outputDirectory = new File((String) vigorConfiguration.get(ConfigurationParameters.OutputDirectory));
 
             String outputPrefix = vigorConfiguration.get(ConfigurationParameters.OutputPrefix);
-            initiateReportFile(outputDirectory.getAbsolutePath(), outputPrefix, verbosity);
+            initiateReportFile(outputDirectory.getAbsolutePath(), outputPrefix, verbosity,
+                               vigorConfiguration.getOrDefault(ConfigurationParameters.Resume, false));
 
             String referenceDB = vigorConfiguration.get(ConfigurationParameters.ReferenceDatabaseFile);
             LOGGER.info("Command line arguments: {}", String.join(" ", args));
@@ -94,6 +120,32 @@ public class Vigor {
         }
     }
 
+    /**
+     * Merge the output of the shards of a run
+     *
+     * @param config
+     * @param shards number of shards
+     * @throws VigorException
+     * @throws IOException
+     */
+    private void mergeShards(VigorConfiguration config, int shards) throws VigorException, IOException {
+        String outputDirectory = config.get(ConfigurationParameters.OutputDirectory);
+        String outputPrefix = config.get(ConfigurationParameters.OutputPrefix);
+        if (NullUtil.isNullOrEmpty(outputDirectory) || NullUtil.isNullOrEmpty(outputPrefix)) {
+            throw new UserFacingException("output prefix is required to merge shards");
+        }
+        if (shards < 1) {
+            throw new UserFacingException(String.format("invalid number of shards %s", shards));
+        }
+        boolean overwrite = config.getOrDefault(ConfigurationParameters.OverwriteOutputFiles, false);
+        try {
+            int genomes = new ShardMerger(Paths.get(outputDirectory), outputPrefix, shards).merge(overwrite);
+            LOGGER.info("merged {} genome(s) from {} shard(s) into {}", genomes, shards, Paths.get(outputDirectory, outputPrefix));
+        } catch (FileAlreadyExistsException e) {
+            throw new UserFacingException(String.format("File already exists %s", e.getMessage()));
+        }
+    }
+
     private void printDatabaseInfo(String referenceDatabasePath, List<VigorInitializationService.DatabaseInfo> databases) {
         LOGGER.info("Databases found under {}", referenceDatabasePath);
         List<VigorInitializationService.DatabaseInfo> sortedDatabases = databases.stream()
@@ -140,7 +192,7 @@ public class Vigor {
      * @param config
      * @throws VigorException
      */
-    private void checkConfig(VigorConfiguration config) throws VigorException {
+    void checkConfig(VigorConfiguration config) throws VigorException {
         List<String> errors =  new ArrayList<>();
 
         String outputDirectoryPath = config.get(ConfigurationParameters.OutputDirectory);
@@ -208,44 +260,108 @@ public class Vigor {
     }
 
     public void generateAnnotations(String inputFileName, String referenceDB, VigorConfiguration vigorParameters) throws VigorException {
+        try (Outfiles outfiles = getOutfiles(vigorParameters)) {
+            generateAnnotations(inputFileName, referenceDB, vigorParameters, outfiles);
+        } catch (IOException e) {
+            throw new VigorException(String.format("File issue. Got %s: %s", e.getClass().getSimpleName(), e.getMessage()), e);
+        }
+    }
+
+    /**
+     * @param inputFileName
+     * @param referenceDB
+     * @param vigorParameters
+     * @param outfiles output files of the run, closed by the caller. The output directory and prefix configured are not used
+     * @throws VigorException
+     */
+    public void generateAnnotations(String inputFileName, String referenceDB, VigorConfiguration vigorParameters,
+                                    Outfiles outfiles) throws VigorException {
         try {
-            VigorUtils.checkFilePath("input file", inputFileName, VigorUtils.FileCheck.EXISTS, VigorUtils.FileCheck.READ);
+            if (! FastaRecordReader.STANDARD_INPUT.equals(inputFileName)) {
+                VigorUtils.checkFilePath("input file", inputFileName, VigorUtils.FileCheck.EXISTS, VigorUtils.FileCheck.READ);
+            }
         } catch (VigorException e) {
             throw new UserFacingException(e.getMessage());
         }
         printConfiguration(vigorParameters);
-        String outputDir = vigorParameters.get(ConfigurationParameters.OutputDirectory);
-        String outputPrefix = vigorParameters.get(ConfigurationParameters.OutputPrefix);
+        String outputDir = outfiles.getRootPath().toString();
+        String outputPrefix = outfiles.getBaseName();
         VigorUtils.checkFilePath("output directory", outputDir,
                                  VigorUtils.FileCheck.EXISTS,
                                  VigorUtils.FileCheck.WRITE,
                                  VigorUtils.FileCheck.DIRECTORY);
         List<IOutputWriter> writers = getWriters(vigorParameters);
-        try (NucleotideFastaDataStore dataStore = new NucleotideFastaFileDataStoreBuilder(new File(inputFileName))
-                .hint(DataStoreProviderHint.RANDOM_ACCESS_OPTIMIZE_SPEED)
-                .build();
-             Outfiles outfiles = getOutfiles(vigorParameters);
+        boolean streamInput = isStreamedInput(inputFileName, vigorParameters);
+        // records are only iterated once, so large inputs may be read a record at a time
+        try (NucleotideFastaDataStore dataStore = streamInput ? null :
+                new NucleotideFastaFileDataStoreBuilder(new File(inputFileName))
+                        .hint(DataStoreProviderHint.RANDOM_ACCESS_OPTIMIZE_SPEED)
+                        .build();
+             StreamingIterator<NucleotideFastaRecord> recordIterator = streamInput ?
+                     FastaRecordReader.open(inputFileName) : dataStore.iterator()
         ) {
             // TODO move all this file handling to method
             // TODO checkout output earlier.
             writeEffectiveConfig(outputDir, outputPrefix, vigorParameters);
-            // initialize the writers. This will fail if the files exist and we're not overwriting
-            for (IOutputWriter writer: writers) {
-                writer.getWriter(outfiles, new OutputContext());
+            Path journal = outfiles.getBaseFilePath(Checkpoint.EXTENSION);
+            Optional<Checkpoint.State> resumeState = Optional.empty();
+            if (vigorParameters.<Boolean>getOrDefault(ConfigurationParameters.Resume, false)) {
+                resumeState = Checkpoint.read(journal);
+                if (! resumeState.isPresent()) {
+                    LOGGER.info("no checkpoint {} to resume from, annotating all genomes", journal);
+                }
+            }
+            InputShard shard = vigorParameters.get(ConfigurationParameters.Shard);
+            Iterator<NucleotideFastaRecord> records = shard == null ? recordIterator : shard.select(recordIterator);
+            if (shard != null) {
+                LOGGER.info("annotating shard {} of the input", shard);
             }
-            Iterator<NucleotideFastaRecord> recordIterator = dataStore.records().iterator();
-            while (recordIterator.hasNext()) {
-                NucleotideFastaRecord record = recordIterator.next();
-                LOGGER.debug("processing {}", record.getId());
-                List<Model> geneModels = modelsFromNucleotideRecord(record, referenceDB, vigorParameters);
-                if (geneModels.isEmpty()) {
-                    LOGGER.warn("No gene models generated for sequence {}", record.getId());
-                    continue;
+            // check the input matches the checkpoint before any output is truncated
+            if (resumeState.isPresent()) {
+                skipCompletedRecords(records, resumeState.get());
+            }
+            try (Checkpoint checkpoint = openCheckpoint(journal, inputFileName, resumeState, outfiles, vigorParameters)) {
+                // initialize the writers. This will fail if the files exist and we're not overwriting
+                for (IOutputWriter writer: writers) {
+                    writer.getWriter(outfiles, new OutputContext());
+                }
+                if (checkpoint.getRecords() == 0) {
+                    checkpoint.start(outfiles.getSizes());
                 }
-                outputModels(writers, outfiles, geneModels);
+                int threads = vigorParameters.getOrDefault(ConfigurationParameters.Threads, 1);
+                if (vigorParameters.<Boolean>getOrDefault(ConfigurationParameters.ExonerateServer, false)
+                        && "exonerate".equals(vigorParameters.get(ConfigurationParameters.AlignmentModule))) {
+                    if (threads == 1) {
+                        LOGGER.warn("{} only batches genomes aligned at the same time, which requires {} greater than 1. Each genome will be aligned by its own exonerate process",
+                                    ConfigurationParameters.ExonerateServer.configKey, ConfigurationParameters.Threads.configKey);
+                    }
+                    if (vigorParameters.<Boolean>getOrDefault(ConfigurationParameters.CandidatePrefilter, false)) {
+                        LOGGER.warn("{} only batches genomes aligned against the same database, but {} gives each genome its own. Each genome will be aligned by its own exonerate process",
+                                    ConfigurationParameters.ExonerateServer.configKey, ConfigurationParameters.CandidatePrefilter.configKey);
+                    }
+                }
+                RunMetrics runMetrics = new RunMetrics();
+                if (threads > 1) {
+                    annotateConcurrently(records, referenceDB, vigorParameters, writers, outfiles, checkpoint, runMetrics, threads);
+                } else if (vigorParameters.<Boolean>getOrDefault(ConfigurationParameters.Pipeline, false)) {
+                    annotatePipelined(records, referenceDB, vigorParameters, writers, outfiles, checkpoint, runMetrics);
+                } else {
+                    while (records.hasNext()) {
+                        NucleotideFastaRecord record = records.next();
+                        LOGGER.debug("processing {}", record.getId());
+                        GenomeMetrics metrics = new GenomeMetrics(record.getId());
+                        writeRecordModels(writers, outfiles, checkpoint, runMetrics, metrics,
+                                          modelsFromNucleotideRecord(record, referenceDB, vigorParameters, metrics));
+                    }
+                }
+                reportMetrics(writers, outfiles, runMetrics);
+                checkpoint.finish(outfiles.getSizes());
+                LOGGER.debug("{} genome(s) recorded in checkpoint {}", checkpoint.getRecords(), journal);
             }
         } catch (DataStoreException e) {
             throw new VigorException(String.format("problem reading input file %s", inputFileName), e);
+        } catch (UncheckedIOException e) {
+            throw new VigorException(String.format("problem reading input file %s: %s", inputFileName, e.getCause().getMessage()), e);
         } catch (FileAlreadyExistsException e) {
             throw new UserFacingException(String.format("File already exists %s", e.getMessage()));
         } catch (IOException e) {
@@ -253,6 +369,264 @@ public class Vigor {
         }
     }
 
+    /**
+     * @param inputFileName
+     * @param config
+     * @return true if the input is to be read a record at a time, as configured or because it can only be read sequentially
+     * @throws UserFacingException
+     */
+    private boolean isStreamedInput(String inputFileName, VigorConfiguration config) throws UserFacingException {
+        try {
+            if (FastaRecordReader.isSequentialOnly(inputFileName)) {
+                LOGGER.debug("reading compressed or standard input {} a record at a time", inputFileName);
+                return true;
+            }
+        } catch (IOException e) {
+            throw new UserFacingException(String.format("unable to read input file %s: %s", inputFileName, e.getMessage()));
+        }
+        return config.<Boolean>getOrDefault(ConfigurationParameters.StreamInput, false);
+    }
+
+    /**
+     * Start the checkpoint journal, or continue it when resuming. When resuming, the output files are truncated to
+     * their sizes after the last genome recorded and are appended to, and any others are replaced.
+     *
+     * @param journal
+     * @param inputFileName
+     * @param resumeState
+     * @param outfiles
+     * @param config
+     * @return
+     * @throws IOException
+     * @throws VigorException
+     */
+    private Checkpoint openCheckpoint(Path journal, String inputFileName, Optional<Checkpoint.State> resumeState,
+                                      Outfiles outfiles, VigorConfiguration config) throws IOException, VigorException {
+        String inputPath = FastaRecordReader.STANDARD_INPUT.equals(inputFileName) ? inputFileName :
+                new File(inputFileName).getAbsolutePath();
+        if (! resumeState.isPresent()) {
+            boolean resume = config.getOrDefault(ConfigurationParameters.Resume, false);
+            if (resume) {
+                // nothing was recorded, so any output is from a run interrupted before its first genome
+                outfiles.resume(Collections.emptySet());
+            }
+            return Checkpoint.create(journal, inputPath, resume || config.<Boolean>getOrDefault(ConfigurationParameters.OverwriteOutputFiles, false));
+        }
+        Checkpoint.State state = resumeState.get();
+        if (! inputPath.equals(state.getInputFile())) {
+            LOGGER.warn("resuming annotation of {} from checkpoint of {}", inputPath, state.getInputFile());
+        }
+        try {
+            Checkpoint checkpoint = Checkpoint.resume(journal, state);
+            outfiles.resume(state.getOffsets().keySet());
+            return checkpoint;
+        } catch (IOException e) {
+            throw new UserFacingException(String.format("unable to resume from checkpoint %s: %s", journal, e.getMessage()));
+        }
+    }
+
+    /**
+     * Skip the records written by the run being resumed, which must be the first records of the input
+     *
+     * @param recordIterator
+     * @param state
+     * @throws UserFacingException if the input doesn't match the checkpoint
+     */
+    private void skipCompletedRecords(Iterator<NucleotideFastaRecord> recordIterator, Checkpoint.State state) throws UserFacingException {
+        for (String recordID: state.getRecordIDs()) {
+            if (! recordIterator.hasNext()) {
+                throw new UserFacingException(String.format("input ends before checkpointed sequence %s", recordID));
+            }
+            String nextID = recordIterator.next().getId();
+            if (! nextID.equals(recordID)) {
+                throw new UserFacingException(String.format("input sequence %s does not match checkpointed sequence %s",
+                                                            nextID, recordID));
+            }
+        }
+        LOGGER.info("resuming after {} genome(s) already annotated", state.getRecordIDs().size());
+    }
+
+    /**
+     * Annotate records on a pool of worker threads. At most 2 * threads records are in flight at once, and results
+     * are written by the calling thread in input order so that output is identical to a serial run.
+     *
+     * @param recordIterator
+     * @param referenceDB
+     * @param vigorParameters
+     * @param writers
+     * @param outfiles
+     * @param checkpoint
+     * @param runMetrics
+     * @param threads
+     * @throws VigorException
+     * @throws IOException
+     */
+    private void annotateConcurrently(Iterator<NucleotideFastaRecord> recordIterator, String referenceDB,
+                                      VigorConfiguration vigorParameters, List<IOutputWriter> writers,
+                                      Outfiles outfiles, Checkpoint checkpoint, RunMetrics runMetrics, int threads) throws VigorException, IOException {
+        LOGGER.info("annotating using {} threads", threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("vigor-annotate-%d")
+                .setDaemon(true)
+                .build());
+        Deque<PendingRecord> pending = new ArrayDeque<>();
+        int maxPending = threads * 2;
+        try {
+            while (recordIterator.hasNext() || ! pending.isEmpty()) {
+                while (recordIterator.hasNext() && pending.size() < maxPending) {
+                    NucleotideFastaRecord record = recordIterator.next();
+                    LOGGER.debug("submitting {}", record.getId());
+                    GenomeMetrics metrics = new GenomeMetrics(record.getId());
+                    pending.add(new PendingRecord(metrics,
+                                                  executor.submit(() -> modelsFromNucleotideRecord(record, referenceDB, vigorParameters, metrics))));
+                }
+                PendingRecord next = pending.remove();
+                writeRecordModels(writers, outfiles, checkpoint, runMetrics, next.metrics, next.getModels());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Annotate records in stages, each on its own thread: alignment, model generation, peptide search and writing.
+     * While one record is being aligned the previous one can be refined and the one before that written. Results
+     * are written by the calling thread in input order.
+     *
+     * @param recordIterator
+     * @param referenceDB
+     * @param vigorParameters
+     * @param writers
+     * @param outfiles
+     * @param checkpoint
+     * @param runMetrics
+     * @throws VigorException
+     */
+    private void annotatePipelined(Iterator<NucleotideFastaRecord> recordIterator, String referenceDB,
+                                   VigorConfiguration vigorParameters, List<IOutputWriter> writers,
+                                   Outfiles outfiles, Checkpoint checkpoint, RunMetrics runMetrics) throws VigorException {
+        int queueSize = vigorParameters.getOrDefault(ConfigurationParameters.PipelineQueueSize, 2);
+        LOGGER.info("annotating in pipelined stages with queues of {} genome(s)", queueSize);
+        Pipeline<NucleotideFastaRecord, RecordResult<List<Model>>> pipeline = Pipeline.<NucleotideFastaRecord>builder(queueSize)
+                .stage("alignment", (NucleotideFastaRecord record) -> {
+                    GenomeMetrics metrics = new GenomeMetrics(record.getId());
+                    Optional<List<Model>> cachedModels = getCachedModels(record, referenceDB, vigorParameters, metrics);
+                    if (cachedModels.isPresent()) {
+                        return new RecordResult<List<Alignment>>(record, metrics, null, cachedModels.get());
+                    }
+                    return new RecordResult<>(record, metrics, alignRecord(record, referenceDB, vigorParameters, metrics), null);
+                })
+                .stage("models", (RecordResult<List<Alignment>> aligned) -> new RecordResult<>(aligned.record, aligned.metrics,
+                        aligned.cachedModels != null ? aligned.cachedModels :
+                                modelsFromAlignments(aligned.id, aligned.value, vigorParameters, aligned.metrics),
+                        aligned.cachedModels))
+                .stage("peptides", (RecordResult<List<Model>> modelled) -> modelled.cachedModels != null ? modelled :
+                        new RecordResult<>(modelled.record, modelled.metrics,
+                                           cacheModels(modelled.record, referenceDB, vigorParameters,
+                                                       finishModels(modelled.id, modelled.value, vigorParameters, modelled.metrics)),
+                                           null))
+                .build("write");
+        pipeline.run(recordIterator, result -> writeRecordModels(writers, outfiles, checkpoint, runMetrics, result.metrics, result.value));
+    }
+
+    private static class RecordResult<T> {
+
+        final String id;
+        final NucleotideFastaRecord record;
+        final GenomeMetrics metrics;
+        final T value;
+        // set when the record's models were cached, which pass through the remaining stages
+        final List<Model> cachedModels;
+
+        RecordResult(NucleotideFastaRecord record, GenomeMetrics metrics, T value, List<Model> cachedModels) {
+            this.id = metrics.getGenomeID();
+            this.record = record;
+            this.metrics = metrics;
+            this.value = value;
+            this.cachedModels = cachedModels;
+        }
+    }
+
+    /**
+     * Write a record's models and metrics, then record in the checkpoint that the record is complete
+     */
+    private void writeRecordModels(List<IOutputWriter> writers, Outfiles outfiles, Checkpoint checkpoint, RunMetrics runMetrics,
+                                   GenomeMetrics metrics, List<Model> geneModels) throws IOException, VigorException {
+        if (geneModels.isEmpty()) {
+            LOGGER.warn("No gene models generated for sequence {}", metrics.getGenomeID());
+        } else {
+            outputModels(writers, outfiles, geneModels, metrics);
+        }
+        runMetrics.add(metrics);
+        for (IOutputWriter writer: writers) {
+            if (writer instanceof MetricsWriter) {
+                ((MetricsWriter) writer).writeMetrics(outfiles, metrics);
+            }
+        }
+        checkpoint.record(metrics.getGenomeID(), outfiles.getSizes());
+    }
+
+    /**
+     * Log a summary of the time spent in each stage per genome, and write it out if metrics are an output format
+     *
+     * @param writers
+     * @param outfiles
+     * @param runMetrics
+     * @throws IOException
+     * @throws VigorException
+     */
+    private void reportMetrics(List<IOutputWriter> writers, Outfiles outfiles, RunMetrics runMetrics) throws IOException, VigorException {
+        for (RunMetrics.StageSummary summary: runMetrics.getSummaries()) {
+            LOGGER.info("stage {}: {} genome(s), total {} ms, per genome mean {} p50 {} p90 {} p99 {} max {} ms, created {} pruned {}",
+                        summary.getName(),
+                        summary.getGenomes(),
+                        MetricsWriter.formatMillis(summary.getTotalNanos()),
+                        MetricsWriter.formatMillis(summary.getMeanNanos()),
+                        MetricsWriter.formatMillis(summary.getPercentileNanos(50)),
+                        MetricsWriter.formatMillis(summary.getPercentileNanos(90)),
+                        MetricsWriter.formatMillis(summary.getPercentileNanos(99)),
+                        MetricsWriter.formatMillis(summary.getPercentileNanos(100)),
+                        summary.getCreated(),
+                        summary.getPruned());
+        }
+        for (IOutputWriter writer: writers) {
+            if (writer instanceof MetricsWriter) {
+                ((MetricsWriter) writer).writeSummary(outfiles, runMetrics);
+            }
+        }
+    }
+
+    private static class PendingRecord {
+
+        final String id;
+        final GenomeMetrics metrics;
+        final Future<List<Model>> models;
+
+        PendingRecord(GenomeMetrics metrics, Future<List<Model>> models) {
+            this.id = metrics.getGenomeID();
+            this.metrics = metrics;
+            this.models = models;
+        }
+
+        List<Model> getModels() throws VigorException {
+            try {
+                return models.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new VigorException(String.format("interrupted while annotating %s", id), e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof VigorException) {
+                    throw (VigorException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new VigorException(String.format("problem annotating %s", id), cause);
+            }
+        }
+    }
+
     private List<IOutputWriter> getWriters(VigorConfiguration config) throws VigorException {
         // TODO get writer preferences from config
         List<IOutputWriter> writers = new ArrayList<>();
@@ -278,9 +652,19 @@ public class Vigor {
     }
 
     public void outputModels(List<IOutputWriter> writers, Outfiles outfiles, List<Model> geneModels) throws IOException, VigorException {
+        outputModels(writers, outfiles, geneModels, new GenomeMetrics(null));
+    }
+
+    public void outputModels(List<IOutputWriter> writers, Outfiles outfiles, List<Model> geneModels, GenomeMetrics metrics) throws IOException, VigorException {
         for (IOutputWriter writer: writers) {
+            // metrics are written once all the other writers are timed
+            if (writer instanceof MetricsWriter) {
+                continue;
+            }
+            long start = System.nanoTime();
             writer.writeModels(outfiles, geneModels);
             outfiles.flush();
+            metrics.addTime(GenomeMetrics.WRITE_PREFIX + writer.getExtension(), System.nanoTime() - start);
         }
 //        generateAlignmentOutput(geneModels, outfiles);
 //        generateOutput(geneModels, outfiles);
@@ -290,22 +674,73 @@ public class Vigor {
     }
 
     public List<Model> modelsFromNucleotideRecord(NucleotideFastaRecord record, String referenceDB, VigorConfiguration vigorParameters) throws VigorException {
+        return modelsFromNucleotideRecord(record, referenceDB, vigorParameters, new GenomeMetrics(record.getId()));
+    }
+
+    public List<Model> modelsFromNucleotideRecord(NucleotideFastaRecord record, String referenceDB, VigorConfiguration vigorParameters,
+                                                  GenomeMetrics metrics) throws VigorException {
+        Optional<List<Model>> cachedModels = getCachedModels(record, referenceDB, vigorParameters, metrics);
+        if (cachedModels.isPresent()) {
+            return cachedModels.get();
+        }
+        List<Alignment> alignments = alignRecord(record, referenceDB, vigorParameters, metrics);
+        List<Model> geneModels = modelsFromAlignments(record.getId(), alignments, vigorParameters, metrics);
+        return cacheModels(record, referenceDB, vigorParameters,
+                           finishModels(record.getId(), geneModels, vigorParameters, metrics));
+    }
+
+    private Optional<List<Model>> getCachedModels(NucleotideFastaRecord record, String referenceDB, VigorConfiguration vigorParameters,
+                                                  GenomeMetrics metrics) throws VigorException {
+        if (! annotationCacheService.isEnabled(vigorParameters)) {
+            return Optional.empty();
+        }
+        Optional<List<Model>> cachedModels = metrics.time(GenomeMetrics.ANNOTATION_CACHE,
+                                                          () -> annotationCacheService.getModels(record, referenceDB, vigorParameters));
+        if (cachedModels.isPresent()) {
+            metrics.addCreated(GenomeMetrics.ANNOTATION_CACHE, cachedModels.get().size());
+            LOGGER.info("using {} cached gene model(s) for sequence {}", cachedModels.get().size(), record.getId());
+        }
+        return cachedModels;
+    }
+
+    private List<Model> cacheModels(NucleotideFastaRecord record, String referenceDB, VigorConfiguration vigorParameters,
+                                    List<Model> geneModels) throws VigorException {
+        annotationCacheService.putModels(record, referenceDB, vigorParameters, geneModels);
+        return geneModels;
+    }
+
+    private List<Alignment> alignRecord(NucleotideFastaRecord record, String referenceDB, VigorConfiguration vigorParameters,
+                                        GenomeMetrics metrics) throws VigorException {
         LOGGER.info("Getting alignments for {}", record.getId());
-        VirusGenome virusGenome = VirusGenomeService.fastaRecordToVirusGenome(record, vigorParameters);
-        List<Alignment> alignments = generateAlignments(virusGenome, referenceDB, vigorParameters);
-        alignments = handleReverseAlignments(vigorParameters, alignments);
+        List<Alignment> alignments = metrics.time(GenomeMetrics.ALIGNMENT, () -> {
+            VirusGenome virusGenome = VirusGenomeService.fastaRecordToVirusGenome(record, vigorParameters);
+            return handleReverseAlignments(vigorParameters, generateAlignments(virusGenome, referenceDB, vigorParameters));
+        });
+        metrics.addCreated(GenomeMetrics.ALIGNMENT, alignments.size());
         LOGGER.info("{} alignment(s) found for sequence {}", alignments.size(), record.getId());
-        List<Model> candidateModels = generateModels(alignments, vigorParameters);
-        LOGGER.info("{} candidate model(s) found for sequence {}", candidateModels.size(), record.getId());
-        List<Model> geneModels = generateGeneModels(candidateModels, vigorParameters);
-        LOGGER.info("{} gene model(s) found for sequence {}", geneModels.size(), record.getId());
-        geneModels = findPeptides(vigorParameters, geneModels);
+        return alignments;
+    }
+
+    private List<Model> modelsFromAlignments(String recordID, List<Alignment> alignments, VigorConfiguration vigorParameters,
+                                             GenomeMetrics metrics) throws VigorException {
+        List<Model> candidateModels = generateModels(alignments, vigorParameters, metrics);
+        LOGGER.info("{} candidate model(s) found for sequence {}", candidateModels.size(), recordID);
+        List<Model> geneModels = generateGeneModels(candidateModels, vigorParameters, metrics);
+        LOGGER.info("{} gene model(s) found for sequence {}", geneModels.size(), recordID);
+        return geneModels;
+    }
+
+    private List<Model> finishModels(String recordID, List<Model> models, VigorConfiguration vigorParameters,
+                                     GenomeMetrics metrics) throws VigorException {
+        List<Model> geneModels = metrics.time(GenomeMetrics.PEPTIDES, () -> findPeptides(vigorParameters, models));
+        int peptides = geneModels.stream()
+                                 .mapToInt(m -> m.getMaturePeptides().size())
+                                 .sum();
+        metrics.addCreated(GenomeMetrics.PEPTIDES, peptides);
         LOGGER.debug("Found {} peptides for {} models for sequence {}",
-                     geneModels.stream()
-                               .map( m -> m.getMaturePeptides().size() )
-                               .reduce(Integer::sum).orElse(0),
+                     peptides,
                      geneModels.size(),
-                     record.getId());
+                     recordID);
 
         // sort by begin,end
         return geneModels.stream()
@@ -318,15 +753,18 @@ public class Vigor {
     }
 
     /**
-     * Handle alignments on the opposite strand by reverse complementing the sequence and recalculating stops and gaps
+     * Handle alignments on the opposite strand by reverse complementing the sequence and recalculating stops and gaps.
+     * The reverse complement of a genome is created once and shared by all of its reverse alignments.
      * @param vigorParameters
      * @param alignments
      * @return
      */
     private List<Alignment> handleReverseAlignments(VigorConfiguration vigorParameters, List<Alignment> alignments) {
+        Map<VirusGenome, VirusGenome> complements = new IdentityHashMap<>();
         for (Alignment alignment: alignments) {
             if (alignment.getDirection() == Direction.REVERSE) {
-                VirusGenome complement = VirusGenomeService.reverseComplementVirusGenome(alignment.getVirusGenome(),vigorParameters);
+                VirusGenome complement = complements.computeIfAbsent(alignment.getVirusGenome(),
+                                                                     genome -> VirusGenomeService.reverseComplementVirusGenome(genome, vigorParameters));
                 alignment.setVirusGenome(complement);
             }
         }
@@ -383,6 +821,16 @@ public class Vigor {
         return initializationService.initializeVigor(args);
     }
 
+    /**
+     * Release what was loaded for a configuration that won't be used again, such as its reference databases
+     *
+     * @param configuration
+     */
+    public void releaseConfiguration ( VigorConfiguration configuration ) {
+
+        referenceDatabaseService.release(configuration);
+    }
+
     public List<Alignment> generateAlignments ( VirusGenome genome, String referenceDB, VigorConfiguration configuration ) throws VigorException {
 
         return alignmentGenerationService.generateAlignment(genome, referenceDB, configuration);
@@ -393,11 +841,21 @@ public class Vigor {
         return modelGenerationService.generateModels(alignments, configuration);
     }
 
+    public List<Model> generateModels ( List<Alignment> alignments, VigorConfiguration configuration, GenomeMetrics metrics ) throws ServiceException {
+
+        return modelGenerationService.generateModels(alignments, configuration, metrics);
+    }
+
     public List<Model> generateGeneModels ( List<Model> models, VigorConfiguration configuration ) throws ServiceException {
 
         return geneModelGenerationService.generateGeneModel(models, configuration);
     }
 
+    public List<Model> generateGeneModels ( List<Model> models, VigorConfiguration configuration, GenomeMetrics metrics ) throws ServiceException {
+
+        return geneModelGenerationService.generateGeneModel(models, configuration, metrics);
+    }
+
     private Outfiles getOutfiles (VigorConfiguration config) throws IOException, VigorException {
         String outputDir = config.get(ConfigurationParameters.OutputDirectory);
         VigorUtils.checkFilePath("output directory", outputDir,
@@ -442,12 +900,22 @@ public class Vigor {
     }
 
     public void initiateReportFile(String outputDir, String outputPrefix, int verbose){
+        initiateReportFile(outputDir, outputPrefix, verbose, false);
+    }
+
+    /**
+     * @param outputDir
+     * @param outputPrefix
+     * @param verbose
+     * @param append continue the report of a resumed run
+     */
+    public void initiateReportFile(String outputDir, String outputPrefix, int verbose, boolean append){
         LoggerContext lc = (LoggerContext) LogManager.getContext(false);
         Configuration config = lc.getConfiguration();
 
         FileAppender fa = FileAppender.newBuilder()
                                       .withName("mylogger")
-                                      .withAppend(false)
+                                      .withAppend(append)
                                       .withFileName(new File(outputDir, outputPrefix+".rpt").toString())
                                       .build();
         fa.start();
@@ -462,7 +930,7 @@ public class Vigor {
 
         FileAppender warnings = FileAppender.newBuilder()
                                             .withName("__warnings")
-                                            .withAppend(false)
+                                            .withAppend(append)
                                             .withLayout(warningLayout)
                                             .withFileName(new File(outputDir, outputPrefix + ".warnings").toString())
                                             .build();
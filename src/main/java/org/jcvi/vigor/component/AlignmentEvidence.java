@@ -15,6 +15,8 @@ public class AlignmentEvidence {
     private String matpep_db;
     private File results_directory;
     private File raw_alignment;
+    // text of raw_alignment, kept once the aligner's files are removed
+    private String raw_alignment_text;
 
     public AlignmentEvidence ( String ref_db ) {
 
@@ -35,7 +37,9 @@ public class AlignmentEvidence {
 
     public AlignmentEvidence copy () {
 
-        return new AlignmentEvidence(this.reference_db, this.matpep_db, results_directory, raw_alignment);
+        AlignmentEvidence copy = new AlignmentEvidence(this.reference_db, this.matpep_db, results_directory, raw_alignment);
+        copy.setRaw_alignment_text(raw_alignment_text);
+        return copy;
     }
 }
 
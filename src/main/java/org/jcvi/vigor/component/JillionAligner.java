@@ -0,0 +1,26 @@
+package org.jcvi.vigor.component;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+@Component
+@Scope("prototype")
+@Data
+@EqualsAndHashCode(callSuper = false)
+public class JillionAligner extends AlignmentTool {
+
+    private String name;
+
+    public JillionAligner ( String name ) {
+
+        this.name = name;
+    }
+
+    @Override
+    public String getToolName () {
+
+        return this.name;
+    }
+}
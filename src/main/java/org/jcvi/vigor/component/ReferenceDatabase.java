@@ -0,0 +1,129 @@
+package org.jcvi.vigor.component;
+
+import org.jcvi.jillion.core.datastore.DataStoreProviderHint;
+import org.jcvi.jillion.fasta.aa.ProteinFastaDataStore;
+import org.jcvi.jillion.fasta.aa.ProteinFastaFileDataStoreBuilder;
+import org.jcvi.jillion.fasta.aa.ProteinFastaRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Reference proteins of a database by ID, in database order.
+ *
+ * The proteins may be shared between alignments, genomes and threads and must not be modified.
+ */
+public class ReferenceDatabase {
+
+    private final String referenceDB;
+    private final String alignmentDB;
+    private final Map<String, ViralProtein> proteins;
+    private final Set<String> skippedProteinIDs;
+
+    public ReferenceDatabase ( String referenceDB, Map<String, ViralProtein> proteins ) {
+
+        this(referenceDB, proteins, Collections.emptySet());
+    }
+
+    /**
+     * @param referenceDB
+     * @param proteins
+     * @param skippedProteinIDs proteins of the database file which couldn't be loaded
+     */
+    public ReferenceDatabase ( String referenceDB, Map<String, ViralProtein> proteins, Set<String> skippedProteinIDs ) {
+
+        this(referenceDB, referenceDB, proteins, skippedProteinIDs);
+    }
+
+    private ReferenceDatabase ( String referenceDB, String alignmentDB, Map<String, ViralProtein> proteins, Set<String> skippedProteinIDs ) {
+
+        this.referenceDB = referenceDB;
+        this.alignmentDB = alignmentDB;
+        this.proteins = Collections.unmodifiableMap(proteins);
+        this.skippedProteinIDs = Collections.unmodifiableSet(skippedProteinIDs);
+    }
+
+    /**
+     * @param referenceDB
+     * @return database of the proteins in the file, with only ID, defline and sequence set
+     * @throws IOException
+     */
+    public static ReferenceDatabase read ( String referenceDB ) throws IOException {
+
+        Map<String, ViralProtein> proteins = new LinkedHashMap<>();
+        try (ProteinFastaDataStore datastore = new ProteinFastaFileDataStoreBuilder(new File(referenceDB))
+                .hint(DataStoreProviderHint.ITERATION_ONLY).build();
+             Stream<ProteinFastaRecord> records = datastore.records()) {
+            Iterator<ProteinFastaRecord> recordIterator = records.iterator();
+            while (recordIterator.hasNext()) {
+                ProteinFastaRecord record = recordIterator.next();
+                ViralProtein viralProtein = new ViralProtein();
+                viralProtein.setProteinID(record.getId());
+                viralProtein.setDefline(record.getComment());
+                viralProtein.setSequence(record.getSequence());
+                proteins.put(record.getId(), viralProtein);
+            }
+        }
+        return new ReferenceDatabase(referenceDB, proteins);
+    }
+
+    /**
+     * @return path of the reference database
+     */
+    public String getReferenceDB () {
+
+        return referenceDB;
+    }
+
+    /**
+     * @return path of the file containing these proteins for external aligners. This is the reference database
+     * unless this is a subset
+     */
+    public String getAlignmentDB () {
+
+        return alignmentDB;
+    }
+
+    public Optional<ViralProtein> getProtein ( String proteinID ) {
+
+        return Optional.ofNullable(proteins.get(proteinID));
+    }
+
+    /**
+     * @param proteinID
+     * @return true if the protein is in the database file but couldn't be loaded, so that its alignments are ignored
+     */
+    public boolean isSkipped ( String proteinID ) {
+
+        return skippedProteinIDs.contains(proteinID);
+    }
+
+    public Collection<ViralProtein> getProteins () {
+
+        return proteins.values();
+    }
+
+    public int size () {
+
+        return proteins.size();
+    }
+
+    /**
+     * @param proteinIDs
+     * @param alignmentDB file containing only the given proteins
+     * @return a view of this database restricted to the given proteins
+     */
+    public ReferenceDatabase subset ( Collection<String> proteinIDs, String alignmentDB ) {
+
+        Map<String, ViralProtein> subset = new LinkedHashMap<>();
+        for (String proteinID : proteinIDs) {
+            ViralProtein viralProtein = proteins.get(proteinID);
+            if (viralProtein != null) {
+                subset.put(proteinID, viralProtein);
+            }
+        }
+        return new ReferenceDatabase(referenceDB, alignmentDB, subset, skippedProteinIDs);
+    }
+}
@@ -3,9 +3,16 @@ package org.jcvi.vigor.component;
 import org.jcvi.jillion.core.Range;
 import org.jcvi.jillion.core.residue.Frame;
 import org.jcvi.jillion.core.residue.nt.NucleotideSequence;
+import org.jcvi.vigor.utils.CodonIndex;
+import org.jcvi.vigor.utils.IntervalIndex;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -21,7 +28,18 @@ public class VirusGenome {
     private String id;
     private Boolean isCircular = false;
     private List<Range> sequenceGaps = Collections.EMPTY_LIST;
-    private Map<Frame, List<Long>> internalStops = Collections.EMPTY_MAP;
+    // found from the codon index on first use unless set
+    private volatile Map<Frame, List<Long>> internalStops;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private volatile CodonIndex codonIndex;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private volatile IntervalIndex sequenceGapIndex;
 
     public VirusGenome ( NucleotideSequence sequence, String defline, String id, boolean isCircular ) {
 
@@ -38,9 +56,70 @@ public class VirusGenome {
     public VirusGenome(VirusGenome copyFrom) {
         this(copyFrom.getSequence(), copyFrom.getDefline(), copyFrom.getId(), copyFrom.getIsCircular());
         setSequenceGaps(new ArrayList<>(copyFrom.getSequenceGaps()));
-        setInternalStops(copyFrom.getInternalStops()
-                                 .entrySet()
-                                 .stream()
-                                 .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)));
+        if (copyFrom.internalStops != null) {
+            setInternalStops(copyFrom.internalStops
+                                     .entrySet()
+                                     .stream()
+                                     .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)));
+        }
+        // the index only depends on the sequence
+        this.codonIndex = copyFrom.codonIndex;
+    }
+
+    public void setSequence ( NucleotideSequence sequence ) {
+
+        this.sequence = sequence;
+        this.codonIndex = null;
+        this.internalStops = null;
+    }
+
+    public void setSequenceGaps ( List<Range> sequenceGaps ) {
+
+        this.sequenceGaps = sequenceGaps;
+        this.sequenceGapIndex = null;
+    }
+
+    /**
+     * @return index of the sequence gaps, built on first use
+     */
+    public IntervalIndex getSequenceGapIndex () {
+
+        IntervalIndex index = sequenceGapIndex;
+        if (index == null) {
+            index = IntervalIndex.of(sequenceGaps);
+            sequenceGapIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * @return stops in the sequence by sequence frame
+     */
+    public Map<Frame, List<Long>> getInternalStops () {
+
+        Map<Frame, List<Long>> stops = internalStops;
+        if (stops == null) {
+            stops = sequence == null ? Collections.EMPTY_MAP : getCodonIndex().getStops();
+            internalStops = stops;
+        }
+        return stops;
+    }
+
+    /**
+     * @return index of the stops and motifs in the sequence, built on first use
+     */
+    public CodonIndex getCodonIndex () {
+
+        CodonIndex index = codonIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = codonIndex;
+                if (index == null) {
+                    index = new CodonIndex(sequence);
+                    codonIndex = index;
+                }
+            }
+        }
+        return index;
     }
 }
\ No newline at end of file
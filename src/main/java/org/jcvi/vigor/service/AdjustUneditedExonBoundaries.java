@@ -1,19 +1,18 @@
 package org.jcvi.vigor.service;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 import com.google.common.collect.Lists;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jcvi.jillion.core.Range;
 import org.jcvi.jillion.core.residue.Frame;
-import org.jcvi.jillion.core.residue.nt.NucleotideSequence;
 import org.jcvi.vigor.component.Exon;
 import org.jcvi.vigor.component.Model;
 import org.jcvi.vigor.component.VirusGenome;
 import org.jcvi.vigor.component.SpliceSite;
 import org.jcvi.vigor.service.exception.ServiceException;
+import org.jcvi.vigor.utils.CodonIndex;
 import org.jcvi.vigor.utils.ConfigurationParameters;
 import org.jcvi.vigor.utils.VigorConfiguration;
 import org.jcvi.vigor.utils.VigorFunctionalUtils;
@@ -73,7 +72,7 @@ public class AdjustUneditedExonBoundaries implements DetermineGeneFeatures {
         List<Model> models = new ArrayList<>();
         List<Model> tempModels = new ArrayList<>();
         VirusGenome virusGenome = model.getAlignment().getVirusGenome();
-        NucleotideSequence virusGenomeSequence = virusGenome.getSequence();
+        CodonIndex codonIndex = virusGenome.getCodonIndex();
 
         List<SpliceSite> splicePairs = model.getAlignment().getViralProtein().getGeneAttributes().getSpliceSites();
         // -2 to skip the last exon
@@ -90,10 +89,9 @@ public class AdjustUneditedExonBoundaries implements DetermineGeneFeatures {
                 //Check if donor and acceptor are found at start and end of intron respectively
                 boolean foundSplicePair = false;
                 // expected donor is two nucleotides after end of upstream exon. expected acceptor is two nucleotides before start of the next exon
-                String expectedDonor = virusGenomeSequence.toBuilder(Range.of(currentExon.getEnd() + 1, currentExon.getEnd() + 2)).build().toString();
-                String expectedAcceptor = virusGenomeSequence.toBuilder(Range.of(nextExon.getBegin() - 2, nextExon.getBegin() - 1)).build().toString();
                 for (SpliceSite spliceSite : splicePairs) {
-                    if (spliceSite.donor.equals(expectedDonor) && spliceSite.acceptor.equals(expectedAcceptor)) {
+                    if (codonIndex.isMatch(spliceSite.donor, currentExon.getEnd() + 1) &&
+                            codonIndex.isMatch(spliceSite.acceptor, nextExon.getBegin() - spliceSite.acceptor.length())) {
                         boolean isCompatible = checkSplicePairCompatibility(currentExon, nextExon, currentExon, nextExon, upExon.getFrame(), downExon.getFrame());
                         if (isCompatible) {
                             foundSplicePair = true;
@@ -119,8 +117,6 @@ public class AdjustUneditedExonBoundaries implements DetermineGeneFeatures {
                             donorSearchWindow = Range.of(donorStart, stopCoordinate);
                         }
                     }
-                    NucleotideSequence donorSearchSeq = virusGenomeSequence.toBuilder(donorSearchWindow)
-                                                                           .build();
                     //determine acceptor search window
                     long acceptorStart = Math.max(nextExon.getBegin() - defaultSearchWindow,0);
                     long acceptorEnd = Math.min(nextExon.getBegin() + defaultSearchWindow, nextExon.getEnd());
@@ -135,21 +131,11 @@ public class AdjustUneditedExonBoundaries implements DetermineGeneFeatures {
                             acceptorSearchWindow = Range.of(stopCoordinate, acceptorEnd);
                         }
                     }
-                    NucleotideSequence acceptorSearchSeq = virusGenomeSequence.toBuilder(acceptorSearchWindow)
-                                                                              .build();
                     for (SpliceSite splicePair : splicePairs) {
                         String donor = splicePair.donor;
                         String acceptor = splicePair.acceptor;
-                        List<Range> donorRanges = donorSearchSeq.findMatches(donor, true).distinct().collect(Collectors.toList());
-                        List<Range> acceptorRanges = acceptorSearchSeq.findMatches(acceptor, true).distinct().collect(Collectors.toList());
-                        final long acceptorStartTemp1 = acceptorSearchWindow.getBegin();
-                        final long donorStartTemp1 = donorSearchWindow.getBegin();
-                        donorRanges = donorRanges.stream()
-                                                 .map(range -> range.toBuilder().shift(donorStartTemp1).build())
-                                                 .collect(Collectors.toList());
-                        acceptorRanges = acceptorRanges.stream()
-                                                       .map(range -> range.toBuilder().shift(acceptorStartTemp1).build())
-                                                       .collect(Collectors.toList());
+                        List<Range> donorRanges = codonIndex.findMatches(donor, donorSearchWindow);
+                        List<Range> acceptorRanges = codonIndex.findMatches(acceptor, acceptorSearchWindow);
                         boolean isNewSpliceSite = true;
                         tempModels.add(model);
                         //Upstream exon should be trimmed/extended till the donor splice site and downstream exon should be trimmed/extended till the acceptor splice site.
@@ -23,7 +23,7 @@ import org.springframework.stereotype.Service;
 public class AdjustViralTricks implements DetermineGeneFeatures {
 
     private static final Logger LOGGER = LogManager.getLogger(AdjustViralTricks.class);
-    private static double DEFAULT_LEAKYSTOP_NOTFOUND_SCORE = .80d;
+    private static final double DEFAULT_LEAKYSTOP_NOTFOUND_SCORE = .80d;
     @Override
     public List<Model> determine ( Model model) throws ServiceException {
 
@@ -58,20 +58,17 @@ public class AdjustViralTricks implements DetermineGeneFeatures {
         Ribosomal_Slippage riboSlippage = model.getAlignment().getViralProtein().getGeneAttributes().getRibosomal_slippage();
         List<Model> models = new ArrayList<Model>();
         if (riboSlippage.isHas_ribosomal_slippage()) {
-            List<Range> sequenceGaps = model.getAlignment().getVirusGenome().getSequenceGaps();
+            IntervalIndex sequenceGaps = model.getAlignment().getVirusGenome().getSequenceGapIndex();
             long CDSStart = model.getExons().get(0).getRange().getBegin();
             long CDSEnd = model.getExons().get(model.getExons().size() - 1).getRange().getEnd();
-            NucleotideSequence cds = model.getAlignment().getVirusGenome().getSequence().toBuilder(Range.of(CDSStart, CDSEnd))
-                    .build();
             int offset = riboSlippage.getSlippage_offset();
             //+1 is added if offset is negative, this is to start count from the point where match is found.
             if (offset < 0) {
                 offset = offset + 1;
             }
             //Once the matches are found, get the coordinates relative to complete sequence
-            List<Range> matches = cds.findMatches(riboSlippage.getSlippage_motif()).map(x -> x.toBuilder().shift(CDSStart).build())
-                    .sequential()
-                    .collect(Collectors.toList());
+            List<Range> matches = model.getAlignment().getVirusGenome().getCodonIndex()
+                                       .findPatternMatches(riboSlippage.getSlippage_motif(), Range.of(CDSStart, CDSEnd));
             //If no match found and model is not partial then model is marked is pseudogene
             if (matches.isEmpty() && !( model.isPartial3p() || model.isPartial5p() )) {
                 model.setPseudogene(true);
@@ -146,14 +143,12 @@ public class AdjustViralTricks implements DetermineGeneFeatures {
             RNA_Editing rna_editing = model.getAlignment().getViralProtein().getGeneAttributes().getRna_editing();
             Range modelRange = model.getRange();
             long CDSStart = modelRange.getBegin();
-            NucleotideSequence cds = model.getAlignment().getVirusGenome().getSequence().toBuilder(modelRange)
-                    .build();
-            List<Range> matches = cds.findMatches(rna_editing.getRegExp())
-                    .distinct()
-                    .map(x -> x = x.toBuilder().shift(CDSStart).build())
-                    .sequential()
-                    .collect(Collectors.toList());
-            List<Range> sequenceGaps = model.getAlignment().getVirusGenome().getSequenceGaps();
+            List<Range> matches = model.getAlignment().getVirusGenome().getCodonIndex()
+                                       .findPatternMatches(rna_editing.getRegExp(), modelRange)
+                                       .stream()
+                                       .distinct()
+                                       .collect(Collectors.toList());
+            IntervalIndex sequenceGaps = model.getAlignment().getVirusGenome().getSequenceGapIndex();
             int offset = rna_editing.getOffset();
             //+1 is added if offset is negative, this is to start count from the point where match is found.
             if (rna_editing.getOffset() < 0) {
@@ -216,11 +211,23 @@ public class AdjustViralTricks implements DetermineGeneFeatures {
     public List<Model> checkForLeakyStop (Model model, double leakyStopNotFoundScore ) throws CloneNotSupportedException {
 
         List<Model> newModels = new ArrayList<Model>();
-        List<Range> sequenceGaps = model.getAlignment().getVirusGenome().getSequenceGaps();
+        IntervalIndex sequenceGaps = model.getAlignment().getVirusGenome().getSequenceGapIndex();
         StopTranslationException stopTransExce = model.getAlignment().getViralProtein().getGeneAttributes().getStopTranslationException();
         if (stopTransExce.isHasStopTranslationException()) {
-            NucleotideSequence cds = VigorFunctionalUtils.getCDS(model);
-            List<Range> matches = cds.findMatches(stopTransExce.getMotif()).distinct().collect(Collectors.toList());
+            List<Range> matches;
+            if (model.getExons().size() == 1) {
+                // the CDS is a single window of the genome, so use the genome's motif index
+                Range exonRange = model.getExons().get(0).getRange();
+                matches = model.getAlignment().getVirusGenome().getCodonIndex()
+                               .findPatternMatches(stopTransExce.getMotif(), exonRange)
+                               .stream()
+                               .map(match -> match.toBuilder().shift(- exonRange.getBegin()).build())
+                               .distinct()
+                               .collect(Collectors.toList());
+            } else {
+                NucleotideSequence cds = VigorFunctionalUtils.getCDS(model);
+                matches = cds.findMatches(stopTransExce.getMotif()).distinct().collect(Collectors.toList());
+            }
             int offset = stopTransExce.getOffset();
             //+1 is added if offset is negative, this is to start count from the point where match is found.
             if (offset < 0) {
@@ -6,14 +6,21 @@ import org.jcvi.vigor.service.exception.ServiceException;
 import org.jcvi.vigor.utils.ConfigurationParameters;
 import org.jcvi.vigor.utils.FormatVigorOutput;
 
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.jcvi.vigor.utils.ProteinKmerIndex;
+import org.jcvi.vigor.utils.SequenceUtils;
 import org.jcvi.vigor.utils.VigorConfiguration;
 import org.jcvi.vigor.utils.VigorUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -30,6 +37,33 @@ public class AlignmentGenerationService {
     private ViralProteinService viralProteinService;
     @Autowired
     private ExonerateService exonerateService;
+    @Autowired
+    private JillionAlignmentService jillionAlignmentService;
+    @Autowired
+    private ReferenceDatabaseService referenceDatabaseService;
+    // k-mer indexes of the reference databases, by database file
+    private final Map<File, KmerIndexEntry> kmerIndexes = new ConcurrentHashMap<>();
+    // workspaces of the alignments in progress, removed if the process is stopped
+    private final Set<Path> workspaces = ConcurrentHashMap.newKeySet();
+
+    private static class KmerIndexEntry {
+
+        final long length;
+        final long lastModified;
+        final ProteinKmerIndex index;
+
+        KmerIndexEntry ( long length, long lastModified, ProteinKmerIndex index ) {
+
+            this.length = length;
+            this.lastModified = lastModified;
+            this.index = index;
+        }
+    }
+
+    public AlignmentGenerationService () {
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> workspaces.forEach(VigorUtils::deleteDirectory)));
+    }
 
     public List<Alignment> generateAlignment ( VirusGenome virusGenome, String referenceDB, VigorConfiguration config ) throws VigorException {
         boolean isDebug = config.getOrDefault(ConfigurationParameters.Verbose, false);
@@ -40,18 +74,138 @@ public class AlignmentGenerationService {
         Path workspace;
         try {
             workspace = Files.createTempDirectory(Paths.get(tempDir), "vigor4");
-            Runtime.getRuntime().addShutdownHook(new Thread(() -> VigorUtils.deleteDirectory(workspace)));
+            workspaces.add(workspace);
         } catch (IOException e) {
             throw new VigorException(String.format("Unable to create temporary directory under %s", tempDir));
         }
-        List<Alignment> alignments = alignmentService.getAlignment(config, virusGenome, referenceDB, workspace.toString());
-        for (int i = 0; i < alignments.size(); i++) {
-            alignments.set(i, viralProteinService.setViralProteinAttributes(alignments.get(i), config));
+        try {
+            ReferenceDatabase referenceDatabase = referenceDatabaseService.getReferenceDatabase(referenceDB, config);
+            if (config.getOrDefault(ConfigurationParameters.CandidatePrefilter, false)) {
+                referenceDatabase = getCandidateDatabase(virusGenome, referenceDatabase, workspace,
+                                                         config.getOrDefault(ConfigurationParameters.CandidatePrefilterMinimumSeeds, 3));
+                if (referenceDatabase.size() == 0) {
+                    return new ArrayList<>();
+                }
+            }
+            List<Alignment> alignments = alignmentService.getAlignment(config, virusGenome, referenceDatabase, workspace.toString());
+            for (Alignment alignment : alignments) {
+                viralProteinService.setMaturePeptideDB(alignment);
+            }
+            if (isDebug) {
+                FormatVigorOutput.printAlignments(alignments);
+            }
+            Set<String> outputFormats = config.getOrDefault(ConfigurationParameters.OutputFormats, Collections.EMPTY_SET);
+            keepRawAlignments(alignments, outputFormats.contains("ALN"));
+            return alignments;
+        } finally {
+            // the alignments have been read, and a long running process mustn't accumulate workspaces
+            workspaces.remove(workspace);
+            VigorUtils.deleteDirectory(workspace);
+        }
+    }
+
+    /**
+     * Copy the raw aligner output the ALN output prints into the alignments' evidence, as the workspace holding it is
+     * removed once the alignments have been generated.
+     *
+     * @param alignments
+     * @param keepText false to only drop the references to the aligner's files, when there is no ALN output
+     * @throws VigorException if the raw output can't be read
+     */
+    private void keepRawAlignments ( List<Alignment> alignments, boolean keepText ) throws VigorException {
+
+        Map<File, String> rawAlignments = new HashMap<>();
+        for (Alignment alignment : alignments) {
+            AlignmentEvidence evidence = alignment.getAlignmentEvidence();
+            File rawAlignment = evidence.getRaw_alignment();
+            if (rawAlignment == null) {
+                continue;
+            }
+            String text = rawAlignments.get(rawAlignment);
+            if (text == null && keepText) {
+                try {
+                    text = new String(Files.readAllBytes(rawAlignment.toPath()), StandardCharsets.ISO_8859_1);
+                } catch (IOException e) {
+                    throw new VigorException(String.format("unable to read alignment output %s", rawAlignment), e);
+                }
+                rawAlignments.put(rawAlignment, text);
+            }
+            evidence.setRaw_alignment_text(text);
+            evidence.setRaw_alignment(null);
+            evidence.setResults_directory(null);
+        }
+    }
+
+    /**
+     * Restrict the reference database to the proteins passing the k-mer prefilter, writing them to a database in the
+     * workspace for external aligners.
+     *
+     * @param virusGenome
+     * @param referenceDatabase
+     * @param workspace
+     * @param minimumSeeds
+     * @return the candidate database
+     * @throws VigorException
+     */
+    private ReferenceDatabase getCandidateDatabase ( VirusGenome virusGenome, ReferenceDatabase referenceDatabase, Path workspace, int minimumSeeds ) throws VigorException {
+
+        String referenceDB = referenceDatabase.getReferenceDB();
+        File referenceDBFile = new File(referenceDB);
+        try {
+            ProteinKmerIndex index = getKmerIndex(referenceDBFile);
+            Set<String> candidates = index.getCandidates(virusGenome.getSequence(), minimumSeeds);
+            LOGGER.info("candidate prefilter kept {} of {} reference proteins for {} ({} pruned)",
+                        candidates.size(), index.getProteinCount(), virusGenome.getId(), index.getProteinCount() - candidates.size());
+            if (candidates.size() == referenceDatabase.size()) {
+                return referenceDatabase;
+            }
+            // keep the database file name so that results are stored under the same folder
+            Path candidateDB = Files.createDirectories(workspace.resolve("candidates")).resolve(referenceDBFile.getName());
+            ReferenceDatabase candidateDatabase = referenceDatabase.subset(candidates, candidateDB.toString());
+            try (BufferedWriter writer = Files.newBufferedWriter(candidateDB)) {
+                for (ViralProtein viralProtein : candidateDatabase.getProteins()) {
+                    writer.write(">" + viralProtein.getProteinID());
+                    if (viralProtein.getDefline() != null) {
+                        writer.write(" " + viralProtein.getDefline());
+                    }
+                    writer.newLine();
+                    Iterator<String> lines = SequenceUtils.steamOf(viralProtein.getSequence(), 70).iterator();
+                    while (lines.hasNext()) {
+                        writer.write(lines.next());
+                        writer.newLine();
+                    }
+                }
+            }
+            return candidateDatabase;
+        } catch (IOException e) {
+            throw new VigorException(String.format("problem prefiltering reference database %s", referenceDB), e);
+        }
+    }
+
+    private ProteinKmerIndex getKmerIndex ( File referenceDB ) throws IOException {
+
+        // reload a database changed since its index was loaded, as is done for the index file
+        long length = referenceDB.length();
+        long lastModified = referenceDB.lastModified();
+        KmerIndexEntry entry = kmerIndexes.get(referenceDB);
+        if (entry != null && entry.length == length && entry.lastModified == lastModified) {
+            return entry.index;
         }
-        if (isDebug) {
-            FormatVigorOutput.printAlignments(alignments);
+        // only genomes needing the same database wait while its index is loaded
+        try {
+            return kmerIndexes.compute(referenceDB, (file, current) -> {
+                if (current != null && current.length == length && current.lastModified == lastModified) {
+                    return current;
+                }
+                try {
+                    return new KmerIndexEntry(length, lastModified, ProteinKmerIndex.load(file));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).index;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
-        return alignments;
     }
 
     /**
@@ -64,6 +218,9 @@ public class AlignmentGenerationService {
         if (alignmentTool != null && "exonerate".equals(alignmentTool.getToolName())) {
                 return exonerateService;
         }
+        if (alignmentTool != null && "jillion".equals(alignmentTool.getToolName())) {
+            return jillionAlignmentService;
+        }
         throw new ServiceException(String.format("Unsupported alignment tool %s", alignmentTool));
     }
 }
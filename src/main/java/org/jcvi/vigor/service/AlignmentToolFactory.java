@@ -2,6 +2,7 @@ package org.jcvi.vigor.service;
 
 import org.jcvi.vigor.component.AlignmentTool;
 import org.jcvi.vigor.component.Exonerate;
+import org.jcvi.vigor.component.JillionAligner;
 
 public class AlignmentToolFactory {
 
@@ -10,6 +11,9 @@ public class AlignmentToolFactory {
         if (alignmentModule.equalsIgnoreCase("exonerate")) {
             return new Exonerate("exonerate");
         }
+        if (alignmentModule.equalsIgnoreCase("jillion")) {
+            return new JillionAligner("jillion");
+        }
         return null;
     }
 }
@@ -0,0 +1,635 @@
+package org.jcvi.vigor.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jcvi.jillion.core.Direction;
+import org.jcvi.jillion.core.Range;
+import org.jcvi.jillion.core.residue.Frame;
+import org.jcvi.jillion.core.residue.aa.ProteinSequence;
+import org.jcvi.jillion.core.residue.aa.ProteinSequenceBuilder;
+import org.jcvi.jillion.fasta.nt.NucleotideFastaRecord;
+import org.jcvi.vigor.component.*;
+import org.jcvi.vigor.exception.VigorException;
+import org.jcvi.vigor.service.exception.ServiceException;
+import org.jcvi.vigor.utils.AnnotationCache;
+import org.jcvi.vigor.utils.ConfigurationParameters;
+import org.jcvi.vigor.utils.NullUtil;
+import org.jcvi.vigor.utils.VigorConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Caches the final gene models of genomes on disk so that genomes seen before, such as identical genomes of an
+ * outbreak or the genomes of a batch which is run again, are not aligned and modelled again.
+ *
+ * Entries are keyed by a digest of the genome sequence, the contents of the reference and mature peptide databases,
+ * the configuration which affects annotation, whether there is ALN output and the Vigor version. Models are stored
+ * without the genome or reference proteins, and are rebuilt on a hit with the genome of the new record and its gene
+ * IDs. The alignment tool output is stored for the ALN output.
+ */
+@Service
+public class AnnotationCacheService {
+
+    private static final Logger LOGGER = LogManager.getLogger(AnnotationCacheService.class);
+    private static final int MAGIC = 0x5641434d;
+    private static final int VERSION = 2;
+
+    // parameters which only affect how or where a run is done, not its annotation
+    private static final EnumSet<ConfigurationParameters> RUN_PARAMETERS = EnumSet.of(
+            ConfigurationParameters.AnnotationCacheDirectory,
+            ConfigurationParameters.AnnotationCacheMaximumSize,
+            ConfigurationParameters.ExonerateServer,
+            ConfigurationParameters.ExonerateServerBatchSize,
+            ConfigurationParameters.ExonerateServerWorkers,
+            ConfigurationParameters.ModelThreads,
+            ConfigurationParameters.MultiFile,
+            ConfigurationParameters.OutputDirectory,
+            ConfigurationParameters.OutputFormats,
+            ConfigurationParameters.OutputPrefix,
+            ConfigurationParameters.OverwriteOutputFiles,
+            ConfigurationParameters.Pipeline,
+            ConfigurationParameters.PipelineQueueSize,
+            // the databases are identified by their contents
+            ConfigurationParameters.ReferenceDatabaseFile,
+            ConfigurationParameters.ReferenceDatabasePath,
+            ConfigurationParameters.Resume,
+            ConfigurationParameters.ServerPort,
+            ConfigurationParameters.ServerQueueSize,
+            ConfigurationParameters.ServerThreads,
+            ConfigurationParameters.Shard,
+            ConfigurationParameters.StreamInput,
+            ConfigurationParameters.TemporaryDirectory,
+            ConfigurationParameters.Threads,
+            ConfigurationParameters.Verbose,
+            // loaded into the configuration
+            ConfigurationParameters.VirusSpecificConfiguration,
+            ConfigurationParameters.VirusSpecificConfigurationPath);
+
+    @Autowired
+    private ReferenceDatabaseService referenceDatabaseService;
+    @Autowired
+    private ViralProteinService viralProteinService;
+
+    private final Map<Path, AnnotationCache> caches = new HashMap<>();
+    private final Map<VigorConfiguration, String> configurationDigests = new WeakHashMap<>();
+    private final Map<String, DatabaseDigest> databaseDigests = new HashMap<>();
+    private String vigorVersion;
+
+    private static class DatabaseDigest {
+
+        final VigorConfiguration config;
+        final long lastModified;
+        final String digest;
+
+        DatabaseDigest ( VigorConfiguration config, long lastModified, String digest ) {
+
+            this.config = config;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+    }
+
+    /**
+     * @param config
+     * @return true if an annotation cache directory is configured
+     */
+    public boolean isEnabled ( VigorConfiguration config ) {
+
+        return !NullUtil.isNullOrEmpty(config.<String>getOrDefault(ConfigurationParameters.AnnotationCacheDirectory, ""));
+    }
+
+    /**
+     * @param record
+     * @param referenceDB
+     * @param config
+     * @return the gene models cached for the record's sequence, rebuilt for the record, if any
+     * @throws VigorException
+     */
+    public Optional<List<Model>> getModels ( NucleotideFastaRecord record, String referenceDB, VigorConfiguration config ) throws VigorException {
+
+        if (!isEnabled(config)) {
+            return Optional.empty();
+        }
+        AnnotationCache cache = getCache(config);
+        String key = getKey(record, referenceDB, config);
+        Optional<byte[]> value = cache.get(key);
+        if (!value.isPresent()) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(decode(value.get(), record, referenceDB, config));
+        } catch (IOException e) {
+            LOGGER.warn("removing unusable annotation cache entry for {}: {}", record.getId(), e.getMessage());
+            cache.remove(key);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @param record
+     * @param referenceDB
+     * @param config
+     * @param models final gene models of the record
+     * @throws VigorException
+     */
+    public void putModels ( NucleotideFastaRecord record, String referenceDB, VigorConfiguration config, List<Model> models ) throws VigorException {
+
+        if (!isEnabled(config)) {
+            return;
+        }
+        AnnotationCache cache = getCache(config);
+        try {
+            cache.put(getKey(record, referenceDB, config), encode(models));
+        } catch (IOException e) {
+            LOGGER.warn("unable to cache annotation of {}: {}", record.getId(), e.getMessage());
+        }
+    }
+
+    private AnnotationCache getCache ( VigorConfiguration config ) throws VigorException {
+
+        Path directory = Paths.get(config.<String>get(ConfigurationParameters.AnnotationCacheDirectory)).toAbsolutePath();
+        long maximumSize = config.<Integer>getOrDefault(ConfigurationParameters.AnnotationCacheMaximumSize, 1024) * 1024L * 1024L;
+        synchronized (caches) {
+            AnnotationCache cache = caches.get(directory);
+            if (cache == null) {
+                try {
+                    cache = new AnnotationCache(directory, maximumSize);
+                } catch (IOException e) {
+                    throw new ServiceException(String.format("unable to open annotation cache %s", directory), e);
+                }
+                LOGGER.info("using annotation cache {} of {} bytes", directory, cache.getSize());
+                caches.put(directory, cache);
+            }
+            return cache;
+        }
+    }
+
+    private String getKey ( NucleotideFastaRecord record, String referenceDB, VigorConfiguration config ) throws VigorException {
+
+        MessageDigest digest = newDigest();
+        update(digest, Integer.toString(VERSION));
+        update(digest, getVigorVersion());
+        update(digest, getDatabaseDigest(referenceDB, config));
+        update(digest, getConfigurationDigest(config));
+        // the alignment tool output is only kept for the ALN output
+        Set<String> outputFormats = config.getOrDefault(ConfigurationParameters.OutputFormats, Collections.EMPTY_SET);
+        update(digest, Boolean.toString(outputFormats.contains("ALN")));
+        update(digest, record.getSequence().toString());
+        return toHex(digest.digest());
+    }
+
+    private synchronized String getVigorVersion () {
+
+        if (vigorVersion == null) {
+            Properties buildProperties = new Properties();
+            try (InputStream in = getClass().getResourceAsStream("/build.properties")) {
+                if (in != null) {
+                    buildProperties.load(in);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("unable to read build properties: {}", e.getMessage());
+            }
+            vigorVersion = buildProperties.getProperty("vigor.version", "unknown");
+        }
+        return vigorVersion;
+    }
+
+    /**
+     * @param referenceDB
+     * @param config
+     * @return digest of the reference database and of the mature peptide databases of its proteins, computed when
+     * the reference database is first used with this configuration or has changed since
+     * @throws VigorException
+     */
+    private String getDatabaseDigest ( String referenceDB, VigorConfiguration config ) throws VigorException {
+
+        long lastModified = new File(referenceDB).lastModified();
+        synchronized (databaseDigests) {
+            DatabaseDigest entry = databaseDigests.get(referenceDB);
+            if (entry == null || entry.config != config || entry.lastModified != lastModified) {
+                ReferenceDatabase database = referenceDatabaseService.getReferenceDatabase(referenceDB, config);
+                SortedSet<String> maturePeptideDBs = new TreeSet<>();
+                for (ViralProtein viralProtein : database.getProteins()) {
+                    String maturePeptideDB = newAlignment(viralProtein, referenceDB).getAlignmentEvidence().getMatpep_db();
+                    if (!NullUtil.isNullOrEmpty(maturePeptideDB)) {
+                        maturePeptideDBs.add(maturePeptideDB);
+                    }
+                }
+                MessageDigest digest = newDigest();
+                update(digest, fileDigest(referenceDB));
+                for (String maturePeptideDB : maturePeptideDBs) {
+                    update(digest, maturePeptideDB);
+                    update(digest, new File(maturePeptideDB).exists() ? fileDigest(maturePeptideDB) : "");
+                }
+                entry = new DatabaseDigest(config, lastModified, toHex(digest.digest()));
+                databaseDigests.put(referenceDB, entry);
+            }
+            return entry.digest;
+        }
+    }
+
+    private String fileDigest ( String path ) throws VigorException {
+
+        MessageDigest digest = newDigest();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(path))) {
+            byte[] buffer = new byte[ 8192 ];
+            int read;
+            while (( read = in.read(buffer) ) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new ServiceException(String.format("problem reading %s", path), e);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @param config
+     * @return digest of the configuration values of each section, other than those which only affect how the run is
+     * done
+     */
+    private String getConfigurationDigest ( VigorConfiguration config ) {
+
+        synchronized (configurationDigests) {
+            return configurationDigests.computeIfAbsent(config, c -> {
+                MessageDigest digest = newDigest();
+                for (String section : new TreeSet<>(c.getSections())) {
+                    update(digest, section);
+                    SortedMap<String, String> values = new TreeMap<>();
+                    for (Map.Entry<ConfigurationParameters, Object> entry : c.getSectionConfig(section).entrySet()) {
+                        if (!RUN_PARAMETERS.contains(entry.getKey())) {
+                            values.put(entry.getKey().configKey, valueToString(entry.getKey(), entry.getValue()));
+                        }
+                    }
+                    for (Map.Entry<String, String> value : values.entrySet()) {
+                        update(digest, value.getKey());
+                        update(digest, value.getValue());
+                    }
+                }
+                return toHex(digest.digest());
+            });
+        }
+    }
+
+    private static String valueToString ( ConfigurationParameters parameter, Object value ) {
+
+        try {
+            return parameter.valueToString(value);
+        } catch (RuntimeException e) {
+            return String.valueOf(value);
+        }
+    }
+
+    private static MessageDigest newDigest () {
+
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void update ( MessageDigest digest, String value ) {
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) ':');
+        digest.update(bytes);
+    }
+
+    private static String toHex ( byte[] bytes ) {
+
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private Alignment newAlignment ( ViralProtein viralProtein, String referenceDB ) {
+
+        Alignment alignment = new Alignment();
+        alignment.setViralProtein(viralProtein);
+        alignment.setAlignmentEvidence(new AlignmentEvidence(referenceDB));
+        viralProteinService.setMaturePeptideDB(alignment);
+        return alignment;
+    }
+
+    private byte[] encode ( List<Model> models ) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            // models of a genome share the alignment tool output
+            List<String> rawAlignments = models.stream()
+                                               .map(m -> m.getAlignment().getAlignmentEvidence().getRaw_alignment_text())
+                                               .filter(Objects::nonNull)
+                                               .distinct()
+                                               .collect(Collectors.toList());
+            out.writeInt(rawAlignments.size());
+            for (String rawAlignment : rawAlignments) {
+                writeText(out, rawAlignment);
+            }
+            out.writeInt(models.size());
+            for (Model model : models) {
+                out.writeInt(rawAlignments.indexOf(model.getAlignment().getAlignmentEvidence().getRaw_alignment_text()));
+                writeModel(out, model);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private void writeModel ( DataOutputStream out, Model model ) throws IOException {
+
+        Alignment alignment = model.getAlignment();
+        out.writeUTF(alignment.getViralProtein().getProteinID());
+        writeFragments(out, alignment.getAlignmentFragments());
+        writeScores(out, alignment.getAlignmentScore());
+        writeNullable(out, model.getDirection(), d -> out.writeUTF(d.name()));
+        out.writeInt(model.getExons().size());
+        for (Exon exon : model.getExons()) {
+            writeNullable(out, exon.getRange(), r -> writeRange(out, r));
+            writeNullable(out, exon.getFrame(), f -> out.writeUTF(f.name()));
+            writeNullable(out, exon.getAlignmentFragment(), f -> writeFragment(out, f));
+            out.writeBoolean(exon.is_5p_adjusted());
+            out.writeBoolean(exon.is_3p_adjusted());
+            writeNullable(out, exon.getSequenceFrame(), f -> out.writeUTF(f.name()));
+        }
+        writeScores(out, model.getScores());
+        writeNullable(out, model.getGeneSymbol(), out::writeUTF);
+        writeStrings(out, model.getStatus());
+        out.writeBoolean(model.isPartial5p());
+        out.writeBoolean(model.isPartial3p());
+        out.writeBoolean(model.isPseudogene());
+        writeNullable(out, model.getReplaceStopCodonRange(), r -> writeRange(out, r));
+        writeNullable(out, model.getRibosomalSlippageRange(), r -> writeRange(out, r));
+        writeNullable(out, model.getInsertRNAEditingRange(), r -> writeRange(out, r));
+        writeNullable(out, model.getTranslatedSeq(), s -> out.writeUTF(s.toString()));
+        // gene IDs are stored without the genome's prefix and restamped with the new record's
+        String prefix = GeneModelGenerationService.getGeneIDPrefix(alignment.getVirusGenome().getId());
+        String geneID = model.getGeneID();
+        boolean prefixed = geneID != null && geneID.startsWith(prefix);
+        out.writeBoolean(prefixed);
+        writeNullable(out, prefixed ? geneID.substring(prefix.length()) : geneID, out::writeUTF);
+        writeStrings(out, model.getNotes());
+        List<MaturePeptideMatch> peptides = model.getMaturePeptides();
+        out.writeInt(peptides.size());
+        if (!peptides.isEmpty()) {
+            // peptides are matched against the same protein
+            out.writeUTF(peptides.get(0).getProtein().toString());
+        }
+        for (MaturePeptideMatch peptide : peptides) {
+            ViralProtein reference = peptide.getReference();
+            out.writeUTF(reference.getProteinID());
+            writeNullable(out, reference.getDefline(), out::writeUTF);
+            writeNullable(out, reference.getProduct(), out::writeUTF);
+            out.writeUTF(reference.getSequence().toString());
+            writeRange(out, peptide.getProteinRange());
+            writeNullable(out, peptide.getReferenceRange(), r -> writeRange(out, r));
+            out.writeBoolean(peptide.isFuzzyBegin());
+            out.writeBoolean(peptide.isFuzzyEnd());
+            out.writeDouble(peptide.getIdentity());
+            out.writeDouble(peptide.getCoverage());
+            out.writeDouble(peptide.getSimilarity());
+        }
+    }
+
+    private List<Model> decode ( byte[] value, NucleotideFastaRecord record, String referenceDB, VigorConfiguration config ) throws IOException, VigorException {
+
+        ReferenceDatabase database = referenceDatabaseService.getReferenceDatabase(referenceDB, config);
+        VirusGenome genome = VirusGenomeService.fastaRecordToVirusGenome(record, config);
+        VirusGenome[] complement = new VirusGenome[ 1 ];
+        Supplier<VirusGenome> reverseGenome = () -> {
+            if (complement[ 0 ] == null) {
+                complement[ 0 ] = VirusGenomeService.reverseComplementVirusGenome(genome, config);
+            }
+            return complement[ 0 ];
+        };
+        String prefix = GeneModelGenerationService.getGeneIDPrefix(record.getId());
+        AlignmentTool alignmentTool = AlignmentToolFactory.getAlignmentTool(config.get(ConfigurationParameters.AlignmentModule));
+
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(value)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not an annotation cache entry");
+            }
+            String[] rawAlignments = new String[ in.readInt() ];
+            for (int i = 0; i < rawAlignments.length; i++) {
+                rawAlignments[ i ] = readText(in);
+            }
+            int modelCount = in.readInt();
+            List<Model> models = new ArrayList<>(modelCount);
+            for (int i = 0; i < modelCount; i++) {
+                int rawAlignment = in.readInt();
+                String proteinID = in.readUTF();
+                ViralProtein viralProtein = database.getProtein(proteinID)
+                                                    .orElseThrow(() -> new IOException(String.format("unknown reference protein %s", proteinID)));
+                Alignment alignment = newAlignment(viralProtein, referenceDB);
+                alignment.setAlignmentTool(alignmentTool);
+                alignment.getAlignmentEvidence().setRaw_alignment_text(rawAlignment < 0 ? null : rawAlignments[ rawAlignment ]);
+                alignment.setAlignmentFragments(readFragments(in));
+                alignment.setAlignmentScore(readScores(in));
+                alignment.setVirusGenome(alignment.getDirection() == Direction.REVERSE ? reverseGenome.get() : genome);
+                models.add(readModel(in, alignment, prefix));
+            }
+            return models;
+        }
+    }
+
+    private Model readModel ( DataInputStream in, Alignment alignment, String prefix ) throws IOException {
+
+        Model model = new Model();
+        model.setAlignment(alignment);
+        model.setDirection(readNullable(in, () -> Direction.valueOf(in.readUTF())));
+        int exonCount = in.readInt();
+        List<Exon> exons = new ArrayList<>(exonCount);
+        for (int i = 0; i < exonCount; i++) {
+            Exon exon = new Exon();
+            exon.setRange(readNullable(in, () -> readRange(in)));
+            exon.setFrame(readNullable(in, () -> Frame.valueOf(in.readUTF())));
+            exon.setAlignmentFragment(readNullable(in, () -> readFragment(in)));
+            exon.set_5p_adjusted(in.readBoolean());
+            exon.set_3p_adjusted(in.readBoolean());
+            exon.setSequenceFrame(readNullable(in, () -> Frame.valueOf(in.readUTF())));
+            exons.add(exon);
+        }
+        model.setExons(exons);
+        model.setScores(readScores(in));
+        model.setGeneSymbol(readNullable(in, in::readUTF));
+        model.setStatus(readStrings(in));
+        model.setPartial5p(in.readBoolean());
+        model.setPartial3p(in.readBoolean());
+        model.setPseudogene(in.readBoolean());
+        model.setReplaceStopCodonRange(readNullable(in, () -> readRange(in)));
+        model.setRibosomalSlippageRange(readNullable(in, () -> readRange(in)));
+        model.setInsertRNAEditingRange(readNullable(in, () -> readRange(in)));
+        model.setTranslatedSeq(readNullable(in, () -> readProtein(in)));
+        boolean prefixed = in.readBoolean();
+        String geneID = readNullable(in, in::readUTF);
+        model.setGeneID(prefixed ? prefix + geneID : geneID);
+        model.setNotes(readStrings(in));
+        int peptideCount = in.readInt();
+        List<MaturePeptideMatch> peptides = new ArrayList<>(peptideCount);
+        ProteinSequence protein = peptideCount > 0 ? readProtein(in) : null;
+        for (int i = 0; i < peptideCount; i++) {
+            ViralProtein reference = new ViralProtein();
+            reference.setProteinID(in.readUTF());
+            reference.setDefline(readNullable(in, in::readUTF));
+            reference.setProduct(readNullable(in, in::readUTF));
+            reference.setSequence(readProtein(in));
+            Range proteinRange = readRange(in);
+            Range referenceRange = readNullable(in, () -> readRange(in));
+            boolean fuzzyBegin = in.readBoolean();
+            boolean fuzzyEnd = in.readBoolean();
+            double identity = in.readDouble();
+            double coverage = in.readDouble();
+            double similarity = in.readDouble();
+            peptides.add(MaturePeptideMatch.of(protein, reference, proteinRange, referenceRange,
+                                               fuzzyBegin, fuzzyEnd, identity, similarity, coverage));
+        }
+        model.setMaturePeptides(peptides);
+        return model;
+    }
+
+    @FunctionalInterface
+    private interface FieldWriter<T> {
+
+        void write ( T value ) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface FieldReader<T> {
+
+        T read () throws IOException;
+    }
+
+    private static <T> void writeNullable ( DataOutputStream out, T value, FieldWriter<T> writer ) throws IOException {
+
+        out.writeBoolean(value != null);
+        if (value != null) {
+            writer.write(value);
+        }
+    }
+
+    private static <T> T readNullable ( DataInputStream in, FieldReader<T> reader ) throws IOException {
+
+        return in.readBoolean() ? reader.read() : null;
+    }
+
+    /**
+     * Text of any length, unlike writeUTF
+     */
+    private static void writeText ( DataOutputStream out, String text ) throws IOException {
+
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readText ( DataInputStream in ) throws IOException {
+
+        byte[] bytes = new byte[ in.readInt() ];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeRange ( DataOutputStream out, Range range ) throws IOException {
+
+        out.writeLong(range.getBegin());
+        out.writeLong(range.getEnd());
+    }
+
+    private static Range readRange ( DataInputStream in ) throws IOException {
+
+        return Range.of(in.readLong(), in.readLong());
+    }
+
+    private static ProteinSequence readProtein ( DataInputStream in ) throws IOException {
+
+        return new ProteinSequenceBuilder(in.readUTF()).build();
+    }
+
+    private static void writeFragment ( DataOutputStream out, AlignmentFragment fragment ) throws IOException {
+
+        writeRange(out, fragment.getProteinSeqRange());
+        writeRange(out, fragment.getNucleotideSeqRange());
+        out.writeUTF(fragment.getDirection().name());
+        writeNullable(out, fragment.getFrame(), f -> out.writeUTF(f.name()));
+    }
+
+    private static AlignmentFragment readFragment ( DataInputStream in ) throws IOException {
+
+        Range proteinRange = readRange(in);
+        Range nucleotideRange = readRange(in);
+        Direction direction = Direction.valueOf(in.readUTF());
+        Frame frame = readNullable(in, () -> Frame.valueOf(in.readUTF()));
+        return new AlignmentFragment(proteinRange, nucleotideRange, direction, frame);
+    }
+
+    private static void writeFragments ( DataOutputStream out, List<AlignmentFragment> fragments ) throws IOException {
+
+        out.writeInt(fragments.size());
+        for (AlignmentFragment fragment : fragments) {
+            writeFragment(out, fragment);
+        }
+    }
+
+    private static List<AlignmentFragment> readFragments ( DataInputStream in ) throws IOException {
+
+        int count = in.readInt();
+        List<AlignmentFragment> fragments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            fragments.add(readFragment(in));
+        }
+        return fragments;
+    }
+
+    private static void writeScores ( DataOutputStream out, Map<String, Double> scores ) throws IOException {
+
+        out.writeInt(scores.size());
+        for (Map.Entry<String, Double> score : scores.entrySet()) {
+            out.writeUTF(score.getKey());
+            out.writeDouble(score.getValue());
+        }
+    }
+
+    private static Map<String, Double> readScores ( DataInputStream in ) throws IOException {
+
+        int count = in.readInt();
+        Map<String, Double> scores = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            scores.put(in.readUTF(), in.readDouble());
+        }
+        return scores;
+    }
+
+    private static void writeStrings ( DataOutputStream out, List<String> strings ) throws IOException {
+
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static List<String> readStrings ( DataInputStream in ) throws IOException {
+
+        int count = in.readInt();
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+}
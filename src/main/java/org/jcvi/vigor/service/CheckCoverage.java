@@ -17,6 +17,7 @@ import org.jcvi.jillion.core.residue.aa.ProteinSequence;
 import org.jcvi.jillion.core.residue.aa.ProteinSequenceBuilder;
 import org.jcvi.jillion.core.residue.nt.NucleotideSequence;
 import org.jcvi.jillion.core.residue.nt.NucleotideSequenceBuilder;
+import org.jcvi.vigor.component.AlignmentFragment;
 import org.jcvi.vigor.component.Exon;
 import org.jcvi.vigor.component.Model;
 import org.jcvi.vigor.utils.*;
@@ -28,13 +29,25 @@ public class CheckCoverage implements EvaluateModel {
     @Override
     public Model evaluate ( Model model, VigorConfiguration configuration ) {
 
+        return evaluate(model, configuration, null);
+    }
+
+    /**
+     * @param model
+     * @param configuration
+     * @param cache homology scores of the genome's models so far, may be null
+     * @return
+     */
+    public Model evaluate ( Model model, VigorConfiguration configuration, HomologyCache cache ) {
+
         NucleotideSequence cds = determineCDS(model);
         List<Range> internalStops = getInternalStops(model);
         if (internalStops.size() > 0) {
             model.setPseudogene(true);
             model.addNote(internalStops.size() > 1 ? NoteType.StopCodonsInterruption : NoteType.StopCodonInterruption);
         }
-        model = determineHomology(model, cds);
+        int band = configuration.getOrDefault(ConfigurationParameters.CoverageAlignmentBand, 0);
+        model = determineHomology(model, cds, cache, band);
         return model;
     }
 
@@ -45,6 +58,19 @@ public class CheckCoverage implements EvaluateModel {
      */
     public Model determineHomology ( Model model, NucleotideSequence cds ) {
 
+        return determineHomology(model, cds, null, 0);
+    }
+
+    /**
+     * @param model
+     * @param cds
+     * @param cache homology scores of the genome's models so far, may be null
+     * @param band when greater than 0, proteins differing in length by at most this much are aligned within this many
+     *             diagonals of those given by the model's alignment fragments
+     * @return
+     */
+    public Model determineHomology ( Model model, NucleotideSequence cds, HomologyCache cache, int band ) {
+
         long replacementOffset = 0;
         if (model.getReplaceStopCodonRange() != null) {
             replacementOffset = model.getReplaceStopCodonRange().getBegin();
@@ -63,20 +89,23 @@ public class CheckCoverage implements EvaluateModel {
         ProteinSequence querySeq = proteinSeqBuilder.build();
         model.setTranslatedSeq(querySeq);
         ProteinSequence subSeq = model.getAlignment().getViralProtein().getSequence();
-        AminoAcidSubstitutionMatrix blosom62 = BlosumMatrices.blosum62();
-        ProteinPairwiseSequenceAlignment actual = PairwiseAlignmentBuilder
-                .createProtienAlignmentBuilder(querySeq,
-                        subSeq, blosom62).gapPenalty(-8, -8)
-                .build();
+        Range diagonals = null;
+        if (band > 0 && Math.abs(querySeq.getLength() - subSeq.getLength()) <= band) {
+            Range seedDiagonals = getSeedDiagonals(model);
+            diagonals = Range.of(seedDiagonals.getBegin() - band, seedDiagonals.getEnd() + band);
+        }
+        Range alignmentDiagonals = diagonals;
+        HomologyCache.Homology homology = cache == null ?
+                alignToReference(querySeq, subSeq, diagonals) :
+                cache.get(querySeq, model.getAlignment().getViralProtein().getProteinID(), diagonals,
+                          () -> alignToReference(querySeq, subSeq, alignmentDiagonals));
         Map<String, Double> scores = new HashMap<String, Double>();
         if (model.getScores() != null) {
             scores.putAll(model.getScores());
         }
-        double percentIdentity = actual.getPercentIdentity() * 100;
-        long maxSeqLength = Long.max(querySeq.getLength(), subSeq.getLength());
-        double percentSimilarity = SequenceUtils.computePercentSimilarity(actual.getGappedQueryAlignment(), actual.getGappedSubjectAlignment(), maxSeqLength, blosom62);
-        double maxAlignmentLength = Long.max(actual.getQueryRange().getLength(), actual.getSubjectRange().getLength());
-        double percentCoverage = Double.min( (maxAlignmentLength / maxSeqLength ) * 100, 100d);
+        double percentIdentity = homology.getPercentIdentity();
+        double percentSimilarity = homology.getPercentSimilarity();
+        double percentCoverage = homology.getPercentCoverage();
 
         scores.put(Scores.IDENTITY_SCORE, percentIdentity);
         scores.put(Scores.SIMILARITY_SCORE, percentSimilarity);
@@ -87,6 +116,63 @@ public class CheckCoverage implements EvaluateModel {
         return model;
     }
 
+    /**
+     * @param querySeq
+     * @param subSeq
+     * @param diagonals diagonals to limit the alignment to, or null to align the whole of both sequences. The whole
+     *                  sequences are also aligned when no alignment within the diagonals scores above 0
+     * @return
+     */
+    private HomologyCache.Homology alignToReference ( ProteinSequence querySeq, ProteinSequence subSeq, Range diagonals ) {
+
+        AminoAcidSubstitutionMatrix blosom62 = BlosumMatrices.blosum62();
+        long maxSeqLength = Long.max(querySeq.getLength(), subSeq.getLength());
+        if (diagonals != null) {
+            BandedProteinAligner.Result banded = BandedProteinAligner.align(querySeq, subSeq, blosom62, -8,
+                                                                            (int) diagonals.getBegin(),
+                                                                            (int) diagonals.getEnd());
+            if (banded != null) {
+                double maxAlignmentLength = Long.max(banded.getQueryRange().getLength(), banded.getSubjectRange().getLength());
+                return new HomologyCache.Homology(banded.getPercentIdentity() * 100,
+                                                  SequenceUtils.computePercentSimilarity(banded.getGappedQueryAlignment(), banded.getGappedSubjectAlignment(), maxSeqLength, blosom62),
+                                                  Double.min(( maxAlignmentLength / maxSeqLength ) * 100, 100d));
+            }
+            // nothing scores within the band, so align the whole of both sequences as without a band
+        }
+        ProteinPairwiseSequenceAlignment actual = PairwiseAlignmentBuilder
+                .createProtienAlignmentBuilder(querySeq,
+                        subSeq, blosom62).gapPenalty(-8, -8)
+                .build();
+        double percentIdentity = actual.getPercentIdentity() * 100;
+        double percentSimilarity = SequenceUtils.computePercentSimilarity(actual.getGappedQueryAlignment(), actual.getGappedSubjectAlignment(), maxSeqLength, blosom62);
+        double maxAlignmentLength = Long.max(actual.getQueryRange().getLength(), actual.getSubjectRange().getLength());
+        double percentCoverage = Double.min( (maxAlignmentLength / maxSeqLength ) * 100, 100d);
+        return new HomologyCache.Homology(percentIdentity, percentSimilarity, percentCoverage);
+    }
+
+    /**
+     * @param model
+     * @return range of reference protein position minus translated model position at the starts of the model's
+     * alignment fragments, including the main diagonal
+     */
+    private Range getSeedDiagonals ( Model model ) {
+
+        long minDiagonal = 0;
+        long maxDiagonal = 0;
+        long cdsOffset = 0;
+        for (Exon exon : model.getExons()) {
+            AlignmentFragment fragment = exon.getAlignmentFragment();
+            if (fragment != null) {
+                long intoExon = Long.max(0, fragment.getNucleotideSeqRange().getBegin() - exon.getRange().getBegin());
+                long diagonal = fragment.getProteinSeqRange().getBegin() - ( cdsOffset + intoExon ) / 3;
+                minDiagonal = Long.min(minDiagonal, diagonal);
+                maxDiagonal = Long.max(maxDiagonal, diagonal);
+            }
+            cdsOffset += exon.getRange().getLength();
+        }
+        return Range.of(minDiagonal, maxDiagonal);
+    }
+
     /**
      * @param model
      * @return coding sequence of model
@@ -16,10 +16,15 @@ public final class CommandLineParameters {
     public final static String configFile = "config_file";
     public final static String referenceDB_Path = "reference_database_path";
     public final static String overwriteOutputFiles = "overwrite_output_files";
+    public final static String resume = "resume";
+    public final static String shard = "shard";
+    public final static String mergeShards = "merge_shards";
+    public final static String server = "server";
     public final static String virusSpecificConfig = "virusSpecificConfig";
     public final static String virusSpecificConfigPath = "virusSpecificConfigPath";
     public final static String temporaryDirectory = "temporaryDirectory";
     public final static String listDatabases = "listDatabases";
+    public final static String threads = "threads";
 
     /**
      * Not to be instantiated
@@ -2,7 +2,6 @@ package org.jcvi.vigor.service;
 
 import java.util.*;
 
-import com.google.common.collect.Lists;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jcvi.jillion.align.AminoAcidSubstitutionMatrix;
@@ -25,6 +24,8 @@ import org.jcvi.jillion.core.Direction;
 public class DetermineMissingExons implements DetermineGeneFeatures {
 
     private static Logger LOGGER = LogManager.getLogger(DetermineMissingExons.class);
+    // diagonals either side of the best seeded diagonal searched by the seeded alignment
+    private static final int SEED_BAND = 16;
 
     @Override
     public List<Model> determine ( Model model ) {
@@ -33,6 +34,7 @@ public class DetermineMissingExons implements DetermineGeneFeatures {
         VigorConfiguration config = model.getAlignment().getViralProtein().getConfiguration();
         int maxIntronSize = config.getOrDefault(ConfigurationParameters.IntronMaximumSize, 2500);
         int min_missing_AA_size = config.getOrDefault(ConfigurationParameters.MinimumMissingAASize, 10);
+        int seedSize = config.getOrDefault(ConfigurationParameters.MissingExonSeedSize, 0);
         String proteinID = model.getProteinID();
         LOGGER.trace(() ->
                      {
@@ -51,7 +53,7 @@ public class DetermineMissingExons implements DetermineGeneFeatures {
 
                      });
         model.getExons().sort(Exon.Comparators.Ascending);
-        model.getExons().addAll(findMissingExons(model, maxIntronSize, min_missing_AA_size));
+        model.getExons().addAll(findMissingExons(model, maxIntronSize, min_missing_AA_size, seedSize));
         model.getExons().sort(Exon.Comparators.Ascending);
         outModels.add(model);
         return outModels;
@@ -75,7 +77,8 @@ public class DetermineMissingExons implements DetermineGeneFeatures {
         ProteinPairwiseSequenceAlignment actual = null;
         ProteinSequence subjectAASequence = AASequence.toBuilder(AARange)
                                                       .build();
-        Map<Frame, ProteinPairwiseSequenceAlignment> alignments = new HashMap<Frame, ProteinPairwiseSequenceAlignment>();
+        // frames are tried in order, so that ties and the start offset don't depend on hash order
+        Map<Frame, ProteinPairwiseSequenceAlignment> alignments = new EnumMap<>(Frame.class);
         ProteinPairwiseSequenceAlignment bestAlignment = null;
         for (Frame frame : Frame.forwardFrames()) {
             ProteinSequence queryAASequence = IupacTranslationTables.STANDARD.translate(NTSubSequence, frame);
@@ -103,35 +106,114 @@ public class DetermineMissingExons implements DetermineGeneFeatures {
 
        // A model should have all the alignment fragments in the same direction. Hence the bestAlignment has to be in the same direction as model.
         if (bestAlignment != null && bestAlignment.getQueryRange().getDirection().equals(modelDirection)) {
-            Range modelExonAARange = Range.of(bestAlignment.getSubjectRange()
-                                                           .getRange().getBegin()
-                                                      + AARange.getBegin(), bestAlignment.getSubjectRange()
-                                                                                         .getRange().getEnd()
-                                                      + AARange.getBegin());
-            exon = new Exon();
-            Range range = bestAlignment.getQueryRange().getRange();
-            Range modelExonNTRange = Range.of(
-                    (range.getBegin() * 3) + NTRange.getBegin(),
-                    (((range.getEnd() + 1) * 3) - 1) + NTRange.getBegin());
-            exon.setRange(modelExonNTRange);
-            AlignmentFragment alignmentFragment = new AlignmentFragment(modelExonAARange, modelExonNTRange,
-                                                                        bestAlignment.getQueryRange()
-                                                                                     .getDirection(),
-                                                                        Frame.ONE);
-            exon.setAlignmentFragment(alignmentFragment);
-            exon.setFrame(Frame.ONE);
-
+            exon = toExon(bestAlignment.getQueryRange().getRange(), bestAlignment.getSubjectRange().getRange(),
+                          NTRange, AARange, bestAlignment.getQueryRange().getDirection());
         }
 
         return Optional.ofNullable(exon);
     }
 
+    /**
+     * Find the missing exon by aligning around shared k-mers rather than aligning the whole region in each frame. Each
+     * forward frame of the region is searched for k-mers of the missing protein segment, and only the frame and
+     * diagonal with the most shared k-mers is aligned, within SEED_BAND diagonals. The sequence is already in the
+     * direction of the model, so the reverse frames are not searched.
+     *
+     * @param NTRange
+     * @param AARange
+     * @param NTSequence
+     * @param AASequence
+     * @param modelDirection
+     * @param seedSize k-mer length, at most 6
+     * @return the exon, or empty if no k-mer is shared
+     */
+    public Optional<Exon> performSeededAlignment ( Range NTRange, Range AARange, NucleotideSequence NTSequence,
+                                                   ProteinSequence AASequence, Direction modelDirection, int seedSize ) {
+
+        // alignments found here are always forward, as checked for the full alignment
+        if (modelDirection != Direction.FORWARD) {
+            return Optional.empty();
+        }
+        NucleotideSequence NTSubSequence = NTSequence.toBuilder(NTRange).build();
+        ProteinSequence subjectAASequence = AASequence.toBuilder(AARange).build();
+        Map<Integer, List<Integer>> subjectKmers = new HashMap<>();
+        int[] subjectCodes = ProteinKmerIndex.kmers(subjectAASequence, seedSize);
+        for (int i = 0; i < subjectCodes.length; i++) {
+            if (subjectCodes[ i ] >= 0) {
+                subjectKmers.computeIfAbsent(subjectCodes[ i ], code -> new ArrayList<>()).add(i);
+            }
+        }
+        if (subjectKmers.isEmpty()) {
+            return Optional.empty();
+        }
+
+        Frame bestFrame = null;
+        ProteinSequence bestQuery = null;
+        int bestDiagonal = 0;
+        int bestSeeds = 0;
+        for (Frame frame : Frame.forwardFrames()) {
+            ProteinSequence queryAASequence = IupacTranslationTables.STANDARD.translate(NTSubSequence, frame);
+            Map<Integer, Integer> diagonalSeeds = new HashMap<>();
+            int[] queryCodes = ProteinKmerIndex.kmers(queryAASequence, seedSize);
+            for (int i = 0; i < queryCodes.length; i++) {
+                for (int subjectPosition : subjectKmers.getOrDefault(queryCodes[ i ], Collections.emptyList())) {
+                    diagonalSeeds.merge(subjectPosition - i, 1, Integer::sum);
+                }
+            }
+            for (Map.Entry<Integer, Integer> entry : diagonalSeeds.entrySet()) {
+                if (entry.getValue() > bestSeeds || ( entry.getValue() == bestSeeds && frame == bestFrame && entry.getKey() < bestDiagonal )) {
+                    bestSeeds = entry.getValue();
+                    bestDiagonal = entry.getKey();
+                    bestFrame = frame;
+                    bestQuery = queryAASequence;
+                }
+            }
+        }
+        if (bestFrame == null) {
+            return Optional.empty();
+        }
+        BandedProteinAligner.Result alignment = BandedProteinAligner.align(bestQuery, subjectAASequence, BlosumMatrices.blosum62(), -8,
+                                                                           bestDiagonal - SEED_BAND, bestDiagonal + SEED_BAND);
+        if (alignment == null) {
+            return Optional.empty();
+        }
+        Range frameNTRange = Range.of(NTRange.getBegin() + bestFrame.getFrame() - 1, NTRange.getEnd());
+        return Optional.of(toExon(alignment.getQueryRange(), alignment.getSubjectRange(), frameNTRange, AARange, Direction.FORWARD));
+    }
+
+    private Exon toExon ( Range queryRange, Range subjectRange, Range NTRange, Range AARange, Direction direction ) {
+
+        Range modelExonAARange = Range.of(subjectRange.getBegin() + AARange.getBegin(),
+                                          subjectRange.getEnd() + AARange.getBegin());
+        Exon exon = new Exon();
+        Range modelExonNTRange = Range.of(
+                (queryRange.getBegin() * 3) + NTRange.getBegin(),
+                (((queryRange.getEnd() + 1) * 3) - 1) + NTRange.getBegin());
+        exon.setRange(modelExonNTRange);
+        AlignmentFragment alignmentFragment = new AlignmentFragment(modelExonAARange, modelExonNTRange, direction, Frame.ONE);
+        exon.setAlignmentFragment(alignmentFragment);
+        exon.setFrame(Frame.ONE);
+        return exon;
+    }
+
     /**
      * @param model
      * @return
      */
     public List<Exon> findMissingExons ( Model model, int maxIntronSize, int min_missing_AA_size ) {
 
+        return findMissingExons(model, maxIntronSize, min_missing_AA_size, 0);
+    }
+
+    /**
+     * @param model
+     * @param maxIntronSize
+     * @param min_missing_AA_size
+     * @param seedSize when greater than 0, k-mer size used to seed the alignments
+     * @return
+     */
+    public List<Exon> findMissingExons ( Model model, int maxIntronSize, int min_missing_AA_size, int seedSize ) {
+
         List<Exon> exons = model.getExons();
         List<Exon> missingExons = new ArrayList<>();
         if (exons.isEmpty()) {
@@ -140,7 +222,7 @@ public class DetermineMissingExons implements DetermineGeneFeatures {
         long proteinLength = model.getAlignment().getViralProtein().getSequence().getLength();
         NucleotideSequence NTSeq = model.getAlignment().getVirusGenome().getSequence();
         ProteinSequence AASeq = model.getAlignment().getViralProtein().getSequence();
-        List<Range> sequenceGaps = model.getAlignment().getVirusGenome().getSequenceGaps();
+        IntervalIndex sequenceGaps = model.getAlignment().getVirusGenome().getSequenceGapIndex();
         long NTSeqLength = NTSeq.getLength();
         Range preNTRange = exons.get(0).getRange();
         Range preAARange = exons.get(0).getAlignmentFragment().getProteinSeqRange();
@@ -185,7 +267,7 @@ public class DetermineMissingExons implements DetermineGeneFeatures {
                     missingNTRange = Range.of(missingNTRange.getBegin(), missingNTRange.getBegin() + temp);
                 }
                 boolean sequenceGap = false;
-                Optional<Range> gapRange = Lists.reverse(sequenceGaps).stream().filter(missingNTRange::intersects).findFirst();
+                Optional<Range> gapRange = sequenceGaps.findLastIntersecting(missingNTRange);
                 if (gapRange.isPresent()) {
                     Range intersection = gapRange.get().intersection(missingNTRange);
                     Range leftOver;
@@ -207,8 +289,9 @@ public class DetermineMissingExons implements DetermineGeneFeatures {
                                  model.getProteinID(),
                                  missingAARange.toString(Range.CoordinateSystem.RESIDUE_BASED),
                                  missingNTRange.toString(Range.CoordinateSystem.RESIDUE_BASED));
-                    Optional<Exon> determinedExon = performJillionPairWiseAlignment(missingNTRange,
-                                                                                    missingAARange, NTSeq, AASeq, model.getDirection());
+                    Optional<Exon> determinedExon = seedSize > 0 ?
+                            performSeededAlignment(missingNTRange, missingAARange, NTSeq, AASeq, model.getDirection(), seedSize) :
+                            performJillionPairWiseAlignment(missingNTRange, missingAARange, NTSeq, AASeq, model.getDirection());
                     if (determinedExon.isPresent()) {
                         LOGGER.trace("For reference {} adding exon {}", model.getProteinID(), determinedExon.get());
                         missingExons.add(determinedExon.get());
@@ -8,7 +8,6 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jcvi.jillion.core.Range;
 import org.jcvi.jillion.core.residue.Frame;
-import org.jcvi.jillion.core.residue.nt.NucleotideSequence;
 import org.jcvi.jillion.core.residue.nt.Triplet;
 import org.jcvi.vigor.service.exception.ServiceException;
 import org.springframework.stereotype.Service;
@@ -84,7 +83,7 @@ public class DetermineStart implements DetermineGeneFeatures {
 
         String proteinID = model.getProteinID();
         List<Model> newModels = new ArrayList<Model>();
-        List<Range> sequenceGaps = model.getAlignment().getVirusGenome().getSequenceGaps();
+        IntervalIndex sequenceGaps = model.getAlignment().getVirusGenome().getSequenceGapIndex();
         long start;
         long end;
         Range startSearchRange;
@@ -116,43 +115,21 @@ public class DetermineStart implements DetermineGeneFeatures {
             LOGGER.trace("For reference {} start search range is {}", proteinID,
                          startSearchRange.toString(Range.CoordinateSystem.RESIDUE_BASED));
             //find any internal stops
-            Map<Frame, List<Long>> internalStops = model.getAlignment().getVirusGenome().getInternalStops();
-            List<Long> stopsInFrame = new ArrayList<>();
-            if (internalStops != null) {
-                for (Frame frame : internalStops.keySet()) {
-                    if (frame.equals(firstExonFrame)) {
-                        List<Long> tempList = internalStops.get(firstExonFrame);
-                        for (Long stop : tempList) {
-                            Range tempRange = Range.of(stop);
-                            if (tempRange.isSubRangeOf(startSearchRange)) {
-                                stopsInFrame.add(stop);
-                            }
-                        }
-                    }
-                }
-            }
+            CodonIndex codonIndex = model.getAlignment().getVirusGenome().getCodonIndex();
+            List<Long> stopsInFrame = codonIndex.getStops(firstExonFrame, startSearchRange);
             // Do not allow sequence gaps in the search window
-            for (int j = sequenceGaps.size() - 1; j >= 0; j--) {
-                Range range = sequenceGaps.get(j);
-                if (startSearchRange.intersects(range) || Range.of(startSearchRange.getEnd(), firstExon.getRange().getEnd()).intersects(range)) {
-                    long endTemp = ( ( range.getEnd() + 1 + windowSize < firstExon.getRange().getBegin() + 2 ) ? firstExon.getRange().getBegin() + windowSize : range.getEnd() + 1 + windowSize );
-                    startSearchRange = Range.of(range.getEnd() + 1, endTemp);
-                    sequenceGapRange = range;
-                    isSequenceGap = true;
-                    break;
-                }
+            // the window and the stretch from its end to the end of the first exon
+            Optional<Range> gap = sequenceGaps.findLastIntersecting(Range.of(startSearchRange.getBegin(), firstExon.getRange().getEnd()));
+            if (gap.isPresent()) {
+                Range range = gap.get();
+                long endTemp = ( ( range.getEnd() + 1 + windowSize < firstExon.getRange().getBegin() + 2 ) ? firstExon.getRange().getBegin() + windowSize : range.getEnd() + 1 + windowSize );
+                startSearchRange = Range.of(range.getEnd() + 1, endTemp);
+                sequenceGapRange = range;
+                isSequenceGap = true;
             }
-            final long tempStart = startSearchRange.getBegin();
-            NucleotideSequence NTSequence = model.getAlignment()
-                                                 .getVirusGenome()
-                                                 .getSequence()
-                                                 .toBuilder(startSearchRange).build();
             // List all starts in frame and assign a score for each match (match closer to expected start scores high)
             for (Triplet triplet : startCodons) {
-                List<Range> rangesInFrame = NTSequence.findMatches(triplet.toString())
-                                                      .map(r -> r.toBuilder().shift(tempStart).build())
-                                                      .filter(r -> (VigorFunctionalUtils.getSequenceFrame(r.getBegin()).compareTo(firstExonFrame) == 0)
-                                                      ).collect(Collectors.toList());
+                List<Range> rangesInFrame = codonIndex.findMatches(triplet.toString(), startSearchRange, firstExonFrame);
                 for (Range range : rangesInFrame) {
                     boolean isValid = true;
                     for (Long stop : stopsInFrame) {
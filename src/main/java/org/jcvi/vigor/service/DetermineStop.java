@@ -79,21 +79,7 @@ public class DetermineStop implements DetermineGeneFeatures {
         }
         stopSearchRange = Range.of(start, end);
         Map<Range, Double> rangeScoreMap = new HashMap<Range, Double>();
-        Map<Frame, List<Long>> stops = model.getAlignment().getVirusGenome().getInternalStops();
-        List<Long> stopsInFrame = new ArrayList<Long>();
-        if (stops != null) {
-            for (Frame frame : stops.keySet()) {
-                if (frame.equals(lastExonFrame)) {
-                    List<Long> tempList = stops.get(lastExonFrame);
-                    for (Long stop : tempList) {
-                        Range tempRange = Range.of(stop);
-                        if (tempRange.isSubRangeOf(stopSearchRange)) {
-                            stopsInFrame.add(stop);
-                        }
-                    }
-                }
-            }
-        }
+        List<Long> stopsInFrame = model.getAlignment().getVirusGenome().getCodonIndex().getStops(lastExonFrame, stopSearchRange);
         // List all stops in frame and assign a score for each match (match closer to expected start scores high)
         if (stopsInFrame != null && stopsInFrame.size() > 0) {
             for (Long stop : stopsInFrame) {
@@ -1,5 +1,6 @@
 package org.jcvi.vigor.service;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.jcvi.vigor.component.Model;
@@ -11,31 +12,48 @@ import org.springframework.stereotype.Service;
 public class EvaluateScores implements EvaluateModel {
 
 
+    // weighting factor of each score, in the order the weighted scores are added up
+    private static final Map<String, ConfigurationParameters> SCORE_FACTORS = new LinkedHashMap<>();
+
+    static {
+        SCORE_FACTORS.put(Scores.ALIGNMENT_SCORE, ConfigurationParameters.ScoreFactorAlignment);
+        SCORE_FACTORS.put(Scores.START_CODON_SCORE, ConfigurationParameters.ScoreFactorStart);
+        SCORE_FACTORS.put(Scores.LEAKY_STOP_SCORE, ConfigurationParameters.ScoreFactorLeakyStop);
+        SCORE_FACTORS.put(Scores.SPLICE_SCORE, ConfigurationParameters.ScoreFactorSplicing);
+        SCORE_FACTORS.put(Scores.STOP_CODON_SCORE, ConfigurationParameters.ScoreFactorStop);
+    }
+
     @Override
     public Model evaluate ( Model model, VigorConfiguration defaultConfiguration ) {
 
         Map<String, Double> scores = model.getScores();
         VigorConfiguration configuration = model.getAlignment().getViralProtein().getConfiguration();
-        double alignmentScoreFactor = configuration.getOrDefault(ConfigurationParameters.ScoreFactorAlignment, 1d);
-
-        double startScoreFactor = configuration.getOrDefault(ConfigurationParameters.ScoreFactorStart, 1d);
-        double splicingScoreFactor = configuration.getOrDefault(ConfigurationParameters.ScoreFactorSplicing, 1d);
-        double stopScoreFactor = configuration.getOrDefault(ConfigurationParameters.ScoreFactorStop, 1d);
-        double leakyStopScoreFactor = configuration.getOrDefault(ConfigurationParameters.ScoreFactorLeakyStop, 1d);
-
-        double alignmentScore = scores.getOrDefault(Scores.ALIGNMENT_SCORE,0d) * alignmentScoreFactor;
-        double startCodonScore = scores.getOrDefault(Scores.START_CODON_SCORE,0d) * startScoreFactor;;
-        double splicingScore = scores.getOrDefault(Scores.SPLICE_SCORE,0d) * splicingScoreFactor;
-        double leakyStopScore = scores.getOrDefault(Scores.LEAKY_STOP_SCORE,0d) * leakyStopScoreFactor;
-        double stopScore = scores.getOrDefault(Scores.STOP_CODON_SCORE,0d) * stopScoreFactor;;
-        double totalScore;
-        scores.put(Scores.ALIGNMENT_SCORE, alignmentScore);
-        scores.put(Scores.START_CODON_SCORE, startCodonScore);
-        scores.put(Scores.LEAKY_STOP_SCORE, leakyStopScore);
-        scores.put(Scores.SPLICE_SCORE, splicingScore);
-        scores.put(Scores.STOP_CODON_SCORE, stopScore);
-        totalScore = alignmentScore + startCodonScore + leakyStopScore + splicingScore + stopScore;
+        double totalScore = partialScore(model);
+        for (String score : SCORE_FACTORS.keySet()) {
+            scores.put(score, weightedScore(scores, configuration, score));
+        }
         scores.put(Scores.TOTAL_SCORE, totalScore);
         return model;
     }
+
+    /**
+     * @param model
+     * @return total of the weighted scores the model has so far, as evaluate would calculate it, without changing the
+     * model
+     */
+    public double partialScore ( Model model ) {
+
+        Map<String, Double> scores = model.getScores();
+        VigorConfiguration configuration = model.getAlignment().getViralProtein().getConfiguration();
+        double totalScore = 0;
+        for (String score : SCORE_FACTORS.keySet()) {
+            totalScore += weightedScore(scores, configuration, score);
+        }
+        return totalScore;
+    }
+
+    private static double weightedScore ( Map<String, Double> scores, VigorConfiguration configuration, String score ) {
+
+        return scores.getOrDefault(score, 0d) * configuration.<Double>getOrDefault(SCORE_FACTORS.get(score), 1d);
+    }
 }
@@ -0,0 +1,287 @@
+package org.jcvi.vigor.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jcvi.vigor.component.VirusGenome;
+import org.jcvi.vigor.exception.VigorException;
+import org.jcvi.vigor.service.exception.ServiceException;
+import org.jcvi.vigor.utils.GenerateExonerateOutput;
+import org.jcvi.vigor.utils.VigorUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Long-lived exonerate front end. Genomes are submitted as requests; a dispatcher thread coalesces the requests
+ * queued while workers are busy into a single exonerate run against a multi-sequence target file and splits the
+ * output back out per genome. This pays for process startup and reference database parsing once per batch rather
+ * than once per genome.
+ *
+ * exonerate-server itself only serves target databases, while the reference proteins are the query in
+ * protein2genome mode, so the resident server cannot hold the reference database.
+ */
+@Service
+public class ExonerateServer implements DisposableBean {
+
+    private static final Logger LOGGER = LogManager.getLogger(ExonerateServer.class);
+
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    private final Deque<Request> deferred = new LinkedBlockingDeque<>();
+    private final Set<Process> running = ConcurrentHashMap.newKeySet();
+    private String exoneratePath;
+    private int workerCount;
+    private int batchSize;
+    private String tempDirectory;
+    private Path workspace;
+    private Semaphore workerPermits;
+    private ExecutorService workers;
+    private Thread dispatcher;
+
+    private static class Request {
+
+        final VirusGenome virusGenome;
+        final String referenceDB;
+        final File output;
+        final CompletableFuture<File> result = new CompletableFuture<>();
+
+        Request ( VirusGenome virusGenome, String referenceDB, File output ) {
+
+            this.virusGenome = virusGenome;
+            this.referenceDB = referenceDB;
+            this.output = output;
+        }
+    }
+
+    /**
+     * Start the server if it is not already running. The exonerate binary is health checked before any requests are
+     * accepted. A running server is shared by every caller, so it must be started with the same settings each time.
+     *
+     * @param exoneratePath
+     * @param workerCount maximum number of concurrent exonerate processes
+     * @param batchSize maximum number of genomes aligned by a single exonerate process
+     * @param tempDirectory directory under which the server workspace is created
+     * @throws ServiceException if the server can't be started, or is already running with different settings
+     */
+    public synchronized void start ( String exoneratePath, int workerCount, int batchSize, String tempDirectory ) throws ServiceException {
+
+        if (isRunning()) {
+            if (! ( exoneratePath.equals(this.exoneratePath) && workerCount == this.workerCount
+                    && batchSize == this.batchSize && tempDirectory.equals(this.tempDirectory) )) {
+                throw new ServiceException(String.format("exonerate server already running using %s with %s worker(s), batch size %s and temporary directory %s",
+                                                         this.exoneratePath, this.workerCount, this.batchSize, this.tempDirectory));
+            }
+            return;
+        }
+        healthCheck(exoneratePath);
+        try {
+            this.workspace = Files.createTempDirectory(Paths.get(tempDirectory), "vigor4-exonerate");
+        } catch (IOException e) {
+            throw new ServiceException(String.format("Unable to create temporary directory under %s", tempDirectory), e);
+        }
+        this.exoneratePath = exoneratePath;
+        this.workerCount = workerCount;
+        this.batchSize = batchSize;
+        this.tempDirectory = tempDirectory;
+        this.workerPermits = new Semaphore(workerCount);
+        this.workers = Executors.newFixedThreadPool(workerCount, new ThreadFactoryBuilder()
+                .setNameFormat("vigor-exonerate-%d")
+                .setDaemon(true)
+                .build());
+        this.dispatcher = new Thread(this::dispatch, "vigor-exonerate-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+        LOGGER.debug("started exonerate server using {} with {} worker(s) and batch size {}", exoneratePath, workerCount, batchSize);
+    }
+
+    public synchronized boolean isRunning () {
+
+        return dispatcher != null && dispatcher.isAlive();
+    }
+
+    /**
+     * @param virusGenome
+     * @param referenceDB
+     * @param workspace directory for this genome's results
+     * @return exonerate output for this genome alone
+     * @throws ServiceException
+     */
+    public File align ( VirusGenome virusGenome, String referenceDB, String workspace ) throws ServiceException {
+
+        if (! isRunning()) {
+            throw new ServiceException("exonerate server is not running");
+        }
+        File resultsDirectory = Paths.get(workspace, GenerateExonerateOutput.getReferenceDBFolder(referenceDB)).toFile();
+        if (! ( resultsDirectory.exists() || resultsDirectory.mkdirs() )) {
+            throw new ServiceException(String.format("unable to create folder %s", resultsDirectory.getAbsolutePath()));
+        }
+        Request request = new Request(virusGenome, referenceDB,
+                                      new File(resultsDirectory, GenerateExonerateOutput.getOutputFileName(virusGenome)));
+        requests.add(request);
+        try {
+            return request.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException(String.format("interrupted waiting for alignment of %s", virusGenome.getId()), e);
+        } catch (ExecutionException e) {
+            throw new ServiceException(String.format("exonerate server failed to align %s: %s",
+                                                     virusGenome.getId(), e.getCause().getMessage()),
+                                       e.getCause());
+        }
+    }
+
+    @Override
+    public void destroy () {
+
+        stop();
+    }
+
+    public synchronized void stop () {
+
+        if (dispatcher == null) {
+            return;
+        }
+        dispatcher.interrupt();
+        workers.shutdownNow();
+        for (Process process : running) {
+            process.destroyForcibly();
+        }
+        List<Request> abandoned = new ArrayList<>(deferred);
+        requests.drainTo(abandoned);
+        for (Request request : abandoned) {
+            request.result.completeExceptionally(new ServiceException("exonerate server stopped"));
+        }
+        deferred.clear();
+        VigorUtils.deleteDirectory(workspace);
+        dispatcher = null;
+    }
+
+    private void healthCheck ( String exoneratePath ) throws ServiceException {
+
+        try {
+            Process process = new ProcessBuilder(exoneratePath, "--version")
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.PIPE)
+                    .start();
+            String version;
+            try (Scanner scanner = new Scanner(process.getInputStream())) {
+                version = scanner.hasNextLine() ? scanner.nextLine() : "";
+                while (scanner.hasNextLine()) {
+                    scanner.nextLine();
+                }
+            }
+            if (! process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                throw new ServiceException(String.format("exonerate at %s did not respond to --version", exoneratePath));
+            }
+            if (process.exitValue() != 0) {
+                throw new ServiceException(String.format("exonerate at %s failed health check with exit code %s",
+                                                         exoneratePath, process.exitValue()));
+            }
+            LOGGER.debug("exonerate health check passed: {}", version);
+        } catch (IOException e) {
+            throw new ServiceException(String.format("unable to run exonerate at %s", exoneratePath), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("interrupted during exonerate health check", e);
+        }
+    }
+
+    private void dispatch () {
+
+        try {
+            while (! Thread.currentThread().isInterrupted()) {
+                // wait for a free worker first so that requests accumulate into larger batches while all workers are busy
+                workerPermits.acquire();
+                List<Request> batch = nextBatch();
+                workers.execute(() -> {
+                    try {
+                        runBatch(batch);
+                    } finally {
+                        workerPermits.release();
+                    }
+                });
+            }
+        } catch (InterruptedException | RejectedExecutionException e) {
+            LOGGER.trace("exonerate dispatcher stopping");
+        }
+    }
+
+    private List<Request> nextBatch () throws InterruptedException {
+
+        Request first = deferred.isEmpty() ? requests.take() : deferred.remove();
+        List<Request> candidates = new ArrayList<>(deferred);
+        deferred.clear();
+        requests.drainTo(candidates);
+
+        List<Request> batch = new ArrayList<>();
+        batch.add(first);
+        Set<String> ids = new HashSet<>();
+        ids.add(first.virusGenome.getId());
+        for (Request candidate : candidates) {
+            // a batch runs against a single database and target IDs must be unique to split the output. Genomes given
+            // their own database, as by candidate_prefilter, are therefore aligned one at a time
+            if (batch.size() < batchSize && candidate.referenceDB.equals(first.referenceDB) && ids.add(candidate.virusGenome.getId())) {
+                batch.add(candidate);
+            } else {
+                deferred.add(candidate);
+            }
+        }
+        return batch;
+    }
+
+    private void runBatch ( List<Request> batch ) {
+
+        Path batchDirectory = null;
+        try {
+            batchDirectory = Files.createTempDirectory(workspace, "batch");
+            File target = batchDirectory.resolve("sequence_temp.fasta").toFile();
+            File output = batchDirectory.resolve("exonerate.txt").toFile();
+            try (BufferedWriter writer = Files.newBufferedWriter(target.toPath())) {
+                for (Request request : batch) {
+                    GenerateExonerateOutput.writeTarget(writer, request.virusGenome);
+                }
+            }
+            List<String> command = GenerateExonerateOutput.getExonerateCommand(exoneratePath, batch.get(0).referenceDB, target.getAbsolutePath());
+            LOGGER.debug("running exonerate for {} genome(s)", batch.size());
+            Process process = new ProcessBuilder(command).redirectOutput(output).start();
+            running.add(process);
+            int result;
+            try {
+                result = process.waitFor();
+            } finally {
+                running.remove(process);
+            }
+            if (result != 0) {
+                throw new VigorException(String.format("exonerate process %s returned with non-zero exit code %s",
+                                                       String.join(" ", command), result));
+            }
+            Map<String, File> outputs = new LinkedHashMap<>();
+            for (Request request : batch) {
+                outputs.put(request.virusGenome.getId(), request.output);
+            }
+            GenerateExonerateOutput.splitExonerateOutput(output, outputs);
+            for (Request request : batch) {
+                request.result.complete(request.output);
+            }
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            for (Request request : batch) {
+                request.result.completeExceptionally(e);
+            }
+        } finally {
+            VigorUtils.deleteDirectory(batchDirectory);
+        }
+    }
+}
@@ -10,20 +10,14 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jcvi.jillion.align.exonerate.Exonerate2;
 import org.jcvi.jillion.align.exonerate.vulgar.VulgarProtein2Genome2;
-import org.jcvi.jillion.core.datastore.DataStoreProviderHint;
-import org.jcvi.jillion.fasta.aa.ProteinFastaDataStore;
-import org.jcvi.jillion.fasta.aa.ProteinFastaFileDataStoreBuilder;
-import org.jcvi.jillion.fasta.aa.ProteinFastaRecord;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 /**
  * Created by snettem on 5/17/2017.
@@ -33,17 +27,19 @@ public class ExonerateService implements AlignmentService {
 
     private static final Logger LOGGER = LogManager.getLogger(ExonerateService.class);
     private final AlignmentTool alignmentTool = new Exonerate("exonerate");
+    @Autowired
+    private ExonerateServer exonerateServer;
 
      /**
      * @param config
      * @param virusGenome
-     * @param referenceDB
+     * @param referenceDatabase
      * @param workspace
      * @return
      * @throws ServiceException
      */
     @Override
-    public List<Alignment> getAlignment (VigorConfiguration config, VirusGenome virusGenome, String referenceDB, String workspace ) throws ServiceException {
+    public List<Alignment> getAlignment (VigorConfiguration config, VirusGenome virusGenome, ReferenceDatabase referenceDatabase, String workspace ) throws ServiceException {
 
         try {
             String exoneratePathString = config.get(ConfigurationParameters.ExoneratePath);
@@ -53,9 +49,31 @@ public class ExonerateService implements AlignmentService {
             VigorUtils.checkFilePath("exonerate path via config value " + ConfigurationParameters.ExoneratePath.configKey,
                                      exoneratePathString, VigorUtils.FileCheck.EXISTS, VigorUtils.FileCheck.EXECUTE);
             Path exoneratePath = Paths.get(exoneratePathString);
-            String outputFilePath = GenerateExonerateOutput.queryExonerate(virusGenome, referenceDB, workspace, null, exoneratePath.toString());
-            File outputFile = new File(outputFilePath);
-            return parseExonerateOutput(outputFile, virusGenome, referenceDB);
+            if (config.getOrDefault(ConfigurationParameters.ExonerateServer, false)) {
+                exonerateServer.start(exoneratePath.toString(),
+                                      config.getOrDefault(ConfigurationParameters.ExonerateServerWorkers, 1),
+                                      config.getOrDefault(ConfigurationParameters.ExonerateServerBatchSize, 16),
+                                      config.get(ConfigurationParameters.TemporaryDirectory));
+                File outputFile = exonerateServer.align(virusGenome, referenceDatabase.getAlignmentDB(), workspace);
+                return parseExonerateOutput(outputFile, virusGenome, referenceDatabase);
+            }
+            // the raw output is only kept for the ALN output
+            Set<String> outputFormats = config.getOrDefault(ConfigurationParameters.OutputFormats, Collections.EMPTY_SET);
+            File rawOutput = null;
+            if (outputFormats.contains("ALN")) {
+                rawOutput = Paths.get(workspace,
+                                      GenerateExonerateOutput.getReferenceDBFolder(referenceDatabase.getAlignmentDB()),
+                                      GenerateExonerateOutput.getOutputFileName(virusGenome)).toFile();
+            }
+            AlignmentEvidence evidence = getEvidence(referenceDatabase, rawOutput);
+            List<Alignment> alignments = new ArrayList<>();
+            GenerateExonerateOutput.streamExonerate(virusGenome, referenceDatabase.getAlignmentDB(), workspace, exoneratePath.toString(), rawOutput,
+                                                    vulgar -> {
+                                                        if (! referenceDatabase.isSkipped(vulgar.getQueryId())) {
+                                                            alignments.add(toAlignment(vulgar, virusGenome, referenceDatabase, evidence));
+                                                        }
+                                                    });
+            return alignments;
         } catch (VigorException e) {
             throw new ServiceException(String.format("error getting alignment got %s: %s", e.getClass().getSimpleName(), e.getMessage()), e);
         }
@@ -69,66 +87,84 @@ public class ExonerateService implements AlignmentService {
     /**
      * @param exonerateOutput
      * @param virusGenome
-     * @param referenceDB
+     * @param referenceDatabase database the alignment queries are looked up in
      * @return
      * @throws ServiceException
      */
-    public List<Alignment> parseExonerateOutput ( File exonerateOutput, VirusGenome virusGenome, String referenceDB) throws ServiceException {
+    public List<Alignment> parseExonerateOutput ( File exonerateOutput, VirusGenome virusGenome, ReferenceDatabase referenceDatabase) throws ServiceException {
 
         List<Alignment> alignments = new ArrayList<Alignment>();
         List<VulgarProtein2Genome2> Jalignments;
 
-        AlignmentEvidence evidence = new AlignmentEvidence();
-        evidence.setReference_db(referenceDB);
-        // TODO results directory
-        evidence.setRaw_alignment(exonerateOutput);
-        evidence.setResults_directory(exonerateOutput.getParentFile());
-        AlignmentTool alignmentTool = getAlignmentTool();
+        AlignmentEvidence evidence = getEvidence(referenceDatabase, exonerateOutput);
         try {
             Jalignments = Exonerate2.parseVulgarOutput(exonerateOutput);
         } catch (IOException e) {
             throw new ServiceException(String.format("Error parsing exonerate output %s", exonerateOutput.getName()));
         }
-        long sequenceLength = virusGenome.getSequence().getLength();
-        try (ProteinFastaDataStore datastore = new ProteinFastaFileDataStoreBuilder(new File(referenceDB))
-                .hint(DataStoreProviderHint.RANDOM_ACCESS_OPTIMIZE_SPEED).build();
-        ) {
-            for (VulgarProtein2Genome2 Jalignment : Jalignments) {
-                Alignment alignment = new Alignment();
-                Map<String, Double> alignmentScores = new HashMap<String, Double>();
-                alignmentScores.put(Scores.ALIGNMENT_SCORE, (double) Jalignment.getScore());
-                alignment.setAlignmentScore(alignmentScores);
-                alignment.setAlignmentTool(alignmentTool);
-                List<AlignmentFragment> alignmentFragments = new ArrayList<>();
-                Range nucleotideSequenceRange;
-                for (VulgarProtein2Genome2.AlignmentFragment fragment : Jalignment.getAlignmentFragments()) {
-                    nucleotideSequenceRange = fragment.getNucleotideSeqRange().getRange();
-                    if (fragment.getDirection() == Direction.REVERSE) {
-                        nucleotideSequenceRange = nucleotideSequenceRange.toBuilder()
-                                .setBegin(sequenceLength - nucleotideSequenceRange.getEnd(Range.CoordinateSystem.SPACE_BASED))
-                                .setEnd(sequenceLength - nucleotideSequenceRange.getBegin(Range.CoordinateSystem.SPACE_BASED) - 1)
-                                .build();
-                    }
-                    alignmentFragments.add(new AlignmentFragment(fragment.getProteinSeqRange().getRange(),
-                            nucleotideSequenceRange,
-                            fragment.getDirection(),
-                            fragment.getFrame()));
-                }
-                ProteinFastaRecord fasta = datastore.get(Jalignment.getQueryId());
-                ViralProtein viralProtein = new ViralProtein();
-                viralProtein.setProteinID(fasta.getId());
-                viralProtein.setDefline(fasta.getComment());
-                viralProtein.setSequence(fasta.getSequence());
-                alignment.setAlignmentFragments(alignmentFragments);
-                alignment.setViralProtein(viralProtein);
-                alignment.setVirusGenome(virusGenome);
-                alignment.setAlignmentEvidence(evidence.copy());
-                alignments.add(alignment);
+        for (VulgarProtein2Genome2 Jalignment : Jalignments) {
+            if (! referenceDatabase.isSkipped(Jalignment.getQueryId())) {
+                alignments.add(toAlignment(Jalignment, virusGenome, referenceDatabase, evidence));
             }
-        } catch (IOException e) {
-            LOGGER.error(String.format("Problem reading virus database file %s", referenceDB), e);
-            throw new ServiceException(e);
         }
         return alignments;
     }
+
+    /**
+     * @param referenceDatabase
+     * @param rawAlignment exonerate output, or null if it isn't kept
+     * @return
+     */
+    private AlignmentEvidence getEvidence ( ReferenceDatabase referenceDatabase, File rawAlignment ) {
+
+        AlignmentEvidence evidence = new AlignmentEvidence();
+        evidence.setReference_db(referenceDatabase.getReferenceDB());
+        // TODO results directory
+        if (rawAlignment != null) {
+            evidence.setRaw_alignment(rawAlignment);
+            evidence.setResults_directory(rawAlignment.getParentFile());
+        }
+        return evidence;
+    }
+
+    /**
+     * @param Jalignment
+     * @param virusGenome
+     * @param referenceDatabase database the alignment query is looked up in
+     * @param evidence
+     * @return
+     * @throws ServiceException
+     */
+    private Alignment toAlignment ( VulgarProtein2Genome2 Jalignment, VirusGenome virusGenome, ReferenceDatabase referenceDatabase, AlignmentEvidence evidence ) throws ServiceException {
+
+        long sequenceLength = virusGenome.getSequence().getLength();
+        Alignment alignment = new Alignment();
+        Map<String, Double> alignmentScores = new HashMap<String, Double>();
+        alignmentScores.put(Scores.ALIGNMENT_SCORE, (double) Jalignment.getScore());
+        alignment.setAlignmentScore(alignmentScores);
+        alignment.setAlignmentTool(getAlignmentTool());
+        List<AlignmentFragment> alignmentFragments = new ArrayList<>();
+        Range nucleotideSequenceRange;
+        for (VulgarProtein2Genome2.AlignmentFragment fragment : Jalignment.getAlignmentFragments()) {
+            nucleotideSequenceRange = fragment.getNucleotideSeqRange().getRange();
+            if (fragment.getDirection() == Direction.REVERSE) {
+                nucleotideSequenceRange = nucleotideSequenceRange.toBuilder()
+                        .setBegin(sequenceLength - nucleotideSequenceRange.getEnd(Range.CoordinateSystem.SPACE_BASED))
+                        .setEnd(sequenceLength - nucleotideSequenceRange.getBegin(Range.CoordinateSystem.SPACE_BASED) - 1)
+                        .build();
+            }
+            alignmentFragments.add(new AlignmentFragment(fragment.getProteinSeqRange().getRange(),
+                    nucleotideSequenceRange,
+                    fragment.getDirection(),
+                    fragment.getFrame()));
+        }
+        ViralProtein viralProtein = referenceDatabase.getProtein(Jalignment.getQueryId())
+                                                     .orElseThrow(() -> new ServiceException(String.format("protein %s not found in virus database file %s",
+                                                                                                           Jalignment.getQueryId(), referenceDatabase.getReferenceDB())));
+        alignment.setAlignmentFragments(alignmentFragments);
+        alignment.setViralProtein(viralProtein);
+        alignment.setVirusGenome(virusGenome);
+        alignment.setAlignmentEvidence(evidence.copy());
+        return alignment;
+    }
 }
@@ -1,13 +1,21 @@
 package org.jcvi.vigor.service;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.jcvi.jillion.core.Direction;
 import org.jcvi.jillion.core.Range;
+import org.jcvi.vigor.component.Alignment;
 import org.jcvi.vigor.component.Exon;
 import org.jcvi.vigor.component.ViralProtein;
 import org.jcvi.vigor.service.exception.ServiceException;
@@ -38,6 +46,9 @@ public class GeneModelGenerationService {
 
     private static final Logger LOGGER = LogManager.getLogger(GeneModelGenerationService.class);
 
+    // pools by parallelism, shared by all genomes
+    private final Map<Integer, ForkJoinPool> pools = new ConcurrentHashMap<>();
+
     private static Function<Model,Integer> getMinFunctionalLength = (model) -> model.getAlignment()
                                                                                     .getViralProtein()
                                                                                     .getGeneAttributes()
@@ -46,19 +57,59 @@ public class GeneModelGenerationService {
 
     public List<Model> generateGeneModel ( List<Model> models, VigorConfiguration configuration ) throws ServiceException {
 
+        return generateGeneModel(models, configuration, new GenomeMetrics(null));
+    }
+
+    /**
+     * @param models candidate models of a genome
+     * @param configuration
+     * @param metrics of the genome
+     * @return
+     * @throws ServiceException
+     */
+    public List<Model> generateGeneModel ( List<Model> models, VigorConfiguration configuration, GenomeMetrics metrics ) throws ServiceException {
+
         List<Model> pseudoGenes = new ArrayList<>();
         boolean isDebug = configuration.getOrDefault(ConfigurationParameters.Verbose, false);
         int max_gene_overlap = configuration.getOrDefault(ConfigurationParameters.MaxGeneOverlap, 0);
 
-        List<Model> processedModels = determineGeneFeatures(models, configuration, isDebug);
+        List<Model> processedModels = metrics.time(GenomeMetrics.GENE_FEATURES,
+                                                   () -> determineGeneFeatures(models, configuration, isDebug, metrics));
+        metrics.addCreated(GenomeMetrics.GENE_FEATURES, processedModels.size());
         // TODO process pseudogenes/partial genes, Not included in initial release
-        processedModels.stream().forEach(model -> checkCoverage.evaluate(model, configuration));
-        processedModels.stream().forEach(model -> evaluateScores.evaluate(model, configuration));
+        // a model may be listed more than once, and must not be scored on two threads at once
+        Map<Model, Integer> listings = new IdentityHashMap<>();
+        List<Model> distinctModels = new ArrayList<>();
+        for (Model model : processedModels) {
+            if (listings.merge(model, 1, Integer::sum) == 1) {
+                distinctModels.add(model);
+            }
+        }
+        HomologyCache homologyCache = new HomologyCache();
+        forEach(distinctModels, configuration, model -> {
+            int times = listings.get(model);
+            metrics.time(GenomeMetrics.COVERAGE, () -> {
+                for (int i = 0; i < times; i++) {
+                    checkCoverage.evaluate(model, configuration, homologyCache);
+                }
+                return model;
+            });
+            metrics.time(GenomeMetrics.SCORES, () -> {
+                for (int i = 0; i < times; i++) {
+                    evaluateScores.evaluate(model, configuration);
+                }
+                return model;
+            });
+            return model;
+        });
+        LOGGER.debug("homology scores: {} aligned, {} reused", homologyCache.getMisses(), homologyCache.getHits());
         processedModels.stream().forEach(model -> {
             if (model.isPseudogene()) {
                 pseudoGenes.add(model);
             }
         });
+        long filterStart = System.nanoTime();
+        int scoredModels = processedModels.size();
         processedModels.removeAll(pseudoGenes);
         List<Model> processedPseudoGenes = processPseudogenes(pseudoGenes);
         if (processedPseudoGenes.size() > 0 && isDebug) {
@@ -68,9 +119,14 @@ public class GeneModelGenerationService {
         processedPseudoGenes = filterModelsWithStructuralSpecifications(processedPseudoGenes, configuration);
         if (processedModels.size() <= 0) {
             LOGGER.error("No gene models found. Currently Vigor4 does not support annotating Pseudogenes ");
+            metrics.addTime(GenomeMetrics.FILTER_GENE_MODELS, System.nanoTime() - filterStart);
+            metrics.addPruned(GenomeMetrics.FILTER_GENE_MODELS, scoredModels);
             return Collections.EMPTY_LIST;
         }
         List<Model> geneModels = filterGeneModels(processedModels, processedPseudoGenes, max_gene_overlap, isDebug);
+        metrics.addTime(GenomeMetrics.FILTER_GENE_MODELS, System.nanoTime() - filterStart);
+        metrics.addCreated(GenomeMetrics.FILTER_GENE_MODELS, geneModels.size());
+        metrics.addPruned(GenomeMetrics.FILTER_GENE_MODELS, scoredModels - geneModels.size());
         return geneModels;
     }
 
@@ -104,36 +160,30 @@ public class GeneModelGenerationService {
     }
 
     /**
-     * @param m1
-     * @param m2
-     * @return
+     * @param models
+     * @return index of the exons of the models
      */
-    private boolean checkExonOverlap ( Model m1, Model m2 ) {
+    private IntervalIndex exonIndex ( Collection<Model> models ) {
 
-        for (Exon M1exon : m1.getExons()) {
-            for (Exon M2exon : m2.getExons()) {
-                Range intersection = M1exon.getRange().intersection(M2exon.getRange());
-                if (intersection.getLength() != 0) return true;
-            }
-        }
-        return false;
+        return IntervalIndex.of(models.stream()
+                                      .flatMap(m -> m.getExons().stream())
+                                      .map(Exon::getRange)
+                                      .collect(Collectors.toList()));
     }
 
     /**
-     * @param models
+     * @param exonIndex exons of the models to check against
      * @param model
-     * @return
+     * @return true if no exon of the model overlaps an indexed exon
      */
-    private boolean isUnoverlappedCandidateModel ( List<Model> models, Model model ) {
+    private boolean isUnoverlappedCandidateModel ( IntervalIndex exonIndex, Model model ) {
 
-        boolean overlap = false;
-        for (Model model1 : models) {
-            if (checkExonOverlap(model1, model)) {
-                overlap = true;
-                break;
+        for (Exon exon : model.getExons()) {
+            if (exonIndex.intersects(exon.getRange())) {
+                return false;
             }
         }
-        return ! overlap;
+        return true;
     }
 
     /**
@@ -163,9 +213,11 @@ public class GeneModelGenerationService {
             similarModels = sortModels(similarModels, Scores.TOTAL_SCORE);
             List<Model> unOverlappedModels = new ArrayList<>();
             unOverlappedModels.add(similarModels.remove(0));
+            IntervalIndex exonIndex = exonIndex(unOverlappedModels);
             for (Model checkModel : similarModels) {
-                if (isUnoverlappedCandidateModel(unOverlappedModels, checkModel)) {
+                if (isUnoverlappedCandidateModel(exonIndex, checkModel)) {
                     unOverlappedModels.add(checkModel);
+                    exonIndex = exonIndex(unOverlappedModels);
                 }
             }
             filteredModels.addAll(unOverlappedModels);
@@ -207,8 +259,9 @@ public class GeneModelGenerationService {
             }
             candidateGenes.addAll(highScoredModels);
             aGeneModels.removeAll(highScoredModels);
+            IntervalIndex exonIndex = exonIndex(aGeneModels);
             for (Model tempModel : aGeneModels) {
-                if (isUnoverlappedCandidateModel(aGeneModels, tempModel)) {
+                if (isUnoverlappedCandidateModel(exonIndex, tempModel)) {
                     candidateGenes.add(tempModel);
                 }
             }
@@ -232,6 +285,56 @@ public class GeneModelGenerationService {
                      .collect(Collectors.toList());
     }
 
+    /**
+     * Record an accepted gene model for the overlap checks of filterGeneModels
+     *
+     * @param model
+     * @param geneModels all accepted gene models
+     * @param sharedCDS
+     * @param exonsByDirection
+     */
+    private void addGeneModel ( Model model, List<Model> geneModels, Set<String> sharedCDS, Map<Direction, IntervalIndex> exonsByDirection ) {
+
+        sharedCDS.addAll(NullUtil.nullOrElse(model.getAlignment().getViralProtein().getGeneAttributes().getStructuralSpecifications().getShared_cds(), Collections.EMPTY_LIST));
+        exonsByDirection.put(model.getDirection(), exonIndex(geneModels.stream()
+                                                                       .filter(m -> m.getDirection().equals(model.getDirection()))
+                                                                       .collect(Collectors.toList())));
+    }
+
+    /**
+     * @param candidateGene
+     * @param geneModelExons exons of gene models in the direction of the candidate, may be null
+     * @param max_gene_overlap
+     * @return true if an exon of the candidate overlaps an exon of a gene model by more than max_gene_overlap
+     */
+    private boolean overlapsGeneModels ( Model candidateGene, IntervalIndex geneModelExons, int max_gene_overlap ) {
+
+        if (geneModelExons == null) {
+            return false;
+        }
+        for (Exon candidateExon : candidateGene.getExons()) {
+            for (Range exonRange : geneModelExons.findIntersecting(candidateExon.getRange())) {
+                if (candidateExon.getRange().intersection(exonRange).getLength() > max_gene_overlap) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param genomeID
+     * @return the prefix of the IDs of the gene models of the genome
+     */
+    public static String getGeneIDPrefix ( String genomeID ) {
+
+        String[] genomeIDParts = genomeID.split(Pattern.quote("|"));
+        if (genomeIDParts.length >= 2) {
+            return genomeIDParts[ 0 ] + "_" + genomeIDParts[ 1 ];
+        }
+        return genomeIDParts[ 0 ];
+    }
+
     /**
      * @param models
      * @param pseudogenes
@@ -249,15 +352,7 @@ public class GeneModelGenerationService {
         Model geneModel = candidateGenes.remove(0);
         geneModels.add(geneModel);
         //generate geneID
-        String genomeID = geneModel.getAlignment().getVirusGenome().getId();
-        String[] genomeIDParts = genomeID.split(Pattern.quote("|"));
-        String proteinIDOfGenome;
-        if (genomeIDParts.length >= 2) {
-            proteinIDOfGenome = genomeIDParts[ 0 ] + "_" + genomeIDParts[ 1 ];
-        } else {
-            proteinIDOfGenome = genomeIDParts[ 0 ];
-        }
-        IDGenerator idGenerator = IDGenerator.of(proteinIDOfGenome);
+        IDGenerator idGenerator = IDGenerator.of(getGeneIDPrefix(geneModel.getAlignment().getVirusGenome().getId()));
         ViralProtein protein = geneModel.getAlignment().getViralProtein();
         List<String> sharedCDSList = NullUtil.nullOrElse(protein.getGeneAttributes().getStructuralSpecifications().getShared_cds(), Collections.EMPTY_LIST);
         LOGGER.debug("for proteinID {}, gene {} checking for candidate models with shared cds: {}",
@@ -267,41 +362,25 @@ public class GeneModelGenerationService {
 
         LOGGER.debug("checking {} models for non overlapping models", candidateGenes.size());
 
+        // gene symbols shared with accepted gene models, and the exons of accepted gene models by direction. Gene
+        // models are accepted rarely compared to candidates being checked, so the index is rebuilt on each.
+        Set<String> sharedCDSOfGeneModels = new HashSet<>();
+        Map<Direction, IntervalIndex> geneModelExons = new HashMap<>();
+        for (Model model : geneModels) {
+            addGeneModel(model, geneModels, sharedCDSOfGeneModels, geneModelExons);
+        }
         for (int j = candidateGenes.size() - 1; j >= 0; j--) {
             Model candidateGene = candidateGenes.get(j);
-            List<Exon> candidateExons = candidateGene.getExons();
-            boolean overlap = false;
             // Best model is picked as a gene model. Now compare other candidate models with genemodel. Check for overlap and do not add shared_CDS models at this step.
-            CHECKOVERLAP:
-            for (Model model : geneModels) {
-                boolean isSharedCDS = false;
-                List<String> tempSharedCDS = NullUtil.nullOrElse(model.getAlignment().getViralProtein().getGeneAttributes().getStructuralSpecifications().getShared_cds(), Collections.EMPTY_LIST);
-               // below step is to not to add shared_CDS genes at this stage
-                for(String sharedCDS:tempSharedCDS){
-                    if(sharedCDS.equals(candidateGene.getGeneSymbol())) {
-                        isSharedCDS = true;
-                        overlap = true;
-                    }
-                }
-                List<Exon> exons = model.getExons();
-                if (!isSharedCDS && candidateGene.getDirection().equals(model.getDirection())){
-                    for (Exon candidateExon : candidateExons) {
-                        for (Exon exon : exons) {
-                            Range intersection = candidateExon.getRange().intersection(exon.getRange());
-                            if (intersection.getLength() > max_gene_overlap) {
-                                overlap = true;
-                                break CHECKOVERLAP;
-                            }
-                        }
-                    }
-            }
-            }
+            boolean overlap = sharedCDSOfGeneModels.contains(candidateGene.getGeneSymbol()) ||
+                    overlapsGeneModels(candidateGene, geneModelExons.get(candidateGene.getDirection()), max_gene_overlap);
             if (!overlap) {
                 LOGGER.debug("for protein {}, gene {} adding non-overlapping candidate {}",
                              protein.getProteinID(),
                              protein.getGeneSymbol(),
                              candidateGene);
                 geneModels.add(candidateGene);
+                addGeneModel(candidateGene, geneModels, sharedCDSOfGeneModels, geneModelExons);
                 candidateGenes.remove(j);
             }
         }
@@ -355,78 +434,228 @@ public class GeneModelGenerationService {
     }
 
     /**
+     * Refines the candidate models as tasks on the shared pool when model_threads is greater than 1. With a beam width,
+     * the candidate models of an alignment are refined together so that the beam is kept for each alignment;
+     * otherwise each candidate model is refined on its own. Results are gathered in the order of the candidate models,
+     * so the output does not depend on the number of threads.
+     *
      * @param models
      * @param configuration
      * @return
      * @throws ServiceException
      */
-    private List<Model> determineGeneFeatures ( List<Model> models, VigorConfiguration configuration, boolean isDebug ) throws ServiceException {
+    private List<Model> determineGeneFeatures ( List<Model> models, VigorConfiguration configuration, boolean isDebug,
+                                                GenomeMetrics metrics ) throws ServiceException {
 
-        List<Model> modelsWithMissingExonsDetermined = new ArrayList<Model>();
-        List<Model> modelsAfterDeterminingStart = new ArrayList<Model>();
-        List<Model> modelsAfterDeterminingViralTricks = new ArrayList<Model>();
-        List<Model> modelsAfterAdjustingBounds = new ArrayList<Model>();
-        List<Model> modelsAfterDeterminingStop = new ArrayList<Model>();
         if (isDebug) {
             FormatVigorOutput.printModels(models, "Models after processing fragments");
         }
+        int beamWidth = configuration.getOrDefault(ConfigurationParameters.ModelBeamWidth, 0);
+        List<List<Model>> candidates = beamWidth > 0 ?
+                groupByAlignment(models) :
+                models.stream().map(Collections::singletonList).collect(Collectors.toList());
+        List<ModelRefinement> refinements = forEach(candidates, configuration, c -> refineModels(c, beamWidth, metrics));
+        if (beamWidth > 0) {
+            LOGGER.info("model beam width {} pruned {} candidate model(s)",
+                        beamWidth, refinements.stream().mapToInt(r -> r.pruned).sum());
+        }
+        if (isDebug) {
+            FormatVigorOutput.printModels(collect(refinements, r -> r.afterStart), "After Determining Start");
+            FormatVigorOutput.printModels(collect(refinements, r -> r.afterViralTricks), "After determining viral tricks");
+            FormatVigorOutput.printModels(collect(refinements, r -> r.afterMissingExons), "After determining missing exons");
+        }
+        List<Model> modelsAfterDeterminingStop = collect(refinements, r -> r.afterStop);
+        if (isDebug) {
+            FormatVigorOutput.printModels(modelsAfterDeterminingStop, "Models after determining stop");
+        }
+        return modelsAfterDeterminingStop;
+    }
+
+    /**
+     * Models produced by each refinement step from the candidate models of an alignment, kept so that debug output can still be
+     * printed step by step
+     */
+    static class ModelRefinement {
+
+        final List<Model> afterStart = new ArrayList<>();
+        final List<Model> afterViralTricks = new ArrayList<>();
+        final List<Model> afterMissingExons = new ArrayList<>();
+        final List<Model> afterStop = new ArrayList<>();
+        int pruned;
+
+        /**
+         * Keep the beamWidth models with the best scores so far, in their original order
+         *
+         * @param models
+         * @param beamWidth 0 for no limit
+         * @param scoring
+         * @return number of models pruned
+         */
+        int prune ( List<Model> models, int beamWidth, ToDoubleFunction<Model> scoring ) {
+
+            if (beamWidth <= 0 || models.size() <= beamWidth) {
+                return 0;
+            }
+            double[] scores = models.stream().mapToDouble(scoring).toArray();
+            int[] kept = IntStream.range(0, models.size())
+                                  .boxed()
+                                  .sorted(Comparator.comparingDouble(i -> - scores[i]))
+                                  .limit(beamWidth)
+                                  .mapToInt(Integer::intValue)
+                                  .sorted()
+                                  .toArray();
+            List<Model> keptModels = Arrays.stream(kept).mapToObj(models::get).collect(Collectors.toList());
+            int prunedModels = models.size() - keptModels.size();
+            pruned += prunedModels;
+            models.clear();
+            models.addAll(keptModels);
+            return prunedModels;
+        }
+    }
+
+    /**
+     * @param models
+     * @return models grouped by alignment, in the order each alignment is first seen
+     */
+    static List<List<Model>> groupByAlignment ( List<Model> models ) {
 
+        Map<Alignment, List<Model>> groups = new IdentityHashMap<>();
+        List<List<Model>> grouped = new ArrayList<>();
+        for (Model model : models) {
+            groups.computeIfAbsent(model.getAlignment(), a -> {
+                List<Model> group = new ArrayList<>();
+                grouped.add(group);
+                return group;
+            }).add(model);
+        }
+        return grouped;
+    }
+
+    /**
+     * @param models candidate models of a single alignment
+     * @param beamWidth when greater than 0, the number of models of the alignment kept after each step
+     * @param metrics of the models' genome
+     * @return
+     * @throws ServiceException
+     */
+    private ModelRefinement refineModels ( List<Model> models, int beamWidth, GenomeMetrics metrics ) throws ServiceException {
+
+        ModelRefinement refinement = new ModelRefinement();
         /* Determine Start */
         for (Model model : models) {
-            if (!model.isPartial5p()) {
-                List<Model> outputModels = determineStart.determine(model);
-                modelsAfterDeterminingStart.addAll(outputModels);
+            if (! model.isPartial5p()) {
+                refinement.afterStart.addAll(metrics.time(GenomeMetrics.DETERMINE_START, () -> determineStart.determine(model)));
             } else {
-                modelsAfterDeterminingStart.add(model);
+                refinement.afterStart.add(model);
             }
         }
-        ;
-        if (isDebug) {
-            FormatVigorOutput.printModels(modelsAfterDeterminingStart, "After Determining Start");
-        }
+        prune(refinement, refinement.afterStart, beamWidth, GenomeMetrics.DETERMINE_START, metrics);
 
         /*Adjust RNAEditing, Ribosomal Slippage and find StopCodonReadThrough*/
-        for (Model model : modelsAfterDeterminingStart) {
-            List<Model> outputModels = adjustViralTricks.determine(model);
-            modelsAfterDeterminingViralTricks.addAll(outputModels);
-        }
-        if (isDebug) {
-            FormatVigorOutput.printModels(modelsAfterDeterminingViralTricks, "After determining viral tricks");
+        for (Model startModel : refinement.afterStart) {
+            refinement.afterViralTricks.addAll(metrics.time(GenomeMetrics.VIRAL_TRICKS, () -> adjustViralTricks.determine(startModel)));
         }
+        prune(refinement, refinement.afterViralTricks, beamWidth, GenomeMetrics.VIRAL_TRICKS, metrics);
 
         /*Adjust unedited Exon boundaries*/
-        for (Model model : modelsAfterDeterminingViralTricks) {
-            List<Model> outputModels = adjustUneditedExonBounds.determine(model);
-            for (Model adjustedModel : outputModels) {
+        for (Model trickModel : refinement.afterViralTricks) {
+            List<Model> adjustedModels = metrics.time(GenomeMetrics.EXON_BOUNDARIES, () -> adjustUneditedExonBounds.determine(trickModel));
+            metrics.addCreated(GenomeMetrics.EXON_BOUNDARIES, adjustedModels.size());
+            for (Model adjustedModel : adjustedModels) {
                 int exonsCount = adjustedModel.getExons().size();
-                Model missingExonsDeterminedModel = determineMissingExons.determine(adjustedModel).get(0);
+                Model missingExonsDeterminedModel = metrics.time(GenomeMetrics.MISSING_EXONS,
+                                                                 () -> determineMissingExons.determine(adjustedModel).get(0));
                 int afterExonsCount = missingExonsDeterminedModel.getExons().size();
                 if (afterExonsCount > exonsCount) {
-                    List<Model> revisitedModels = adjustUneditedExonBounds.determine(missingExonsDeterminedModel);
-                    modelsWithMissingExonsDetermined.addAll(revisitedModels);
+                    refinement.afterMissingExons.addAll(metrics.time(GenomeMetrics.EXON_BOUNDARIES,
+                                                                     () -> adjustUneditedExonBounds.determine(missingExonsDeterminedModel)));
                 } else {
-                    modelsWithMissingExonsDetermined.add(adjustedModel);
+                    refinement.afterMissingExons.add(adjustedModel);
                 }
             }
-            modelsAfterAdjustingBounds.addAll(outputModels);
-        }
-        if (isDebug) {
-            FormatVigorOutput.printModels(modelsWithMissingExonsDetermined, "After determining missing exons");
         }
+        prune(refinement, refinement.afterMissingExons, beamWidth, GenomeMetrics.MISSING_EXONS, metrics);
 
         /* Determine Stop */
-        for (Model model : modelsWithMissingExonsDetermined) {
-            if (!model.isPartial3p()) {
-                List<Model> outputModels = determineStop.determine(model);
-                modelsAfterDeterminingStop.addAll(outputModels);
+        for (Model exonModel : refinement.afterMissingExons) {
+            if (! exonModel.isPartial3p()) {
+                refinement.afterStop.addAll(metrics.time(GenomeMetrics.DETERMINE_STOP, () -> determineStop.determine(exonModel)));
             } else {
-                modelsAfterDeterminingStop.add(model);
+                refinement.afterStop.add(exonModel);
             }
         }
-        if (isDebug) {
-            FormatVigorOutput.printModels(modelsAfterDeterminingStop, "Models after determining stop");
+        prune(refinement, refinement.afterStop, beamWidth, GenomeMetrics.DETERMINE_STOP, metrics);
+        return refinement;
+    }
+
+    private void prune ( ModelRefinement refinement, List<Model> models, int beamWidth, String stage, GenomeMetrics metrics ) {
+
+        metrics.addCreated(stage, models.size());
+        metrics.addPruned(stage, refinement.prune(models, beamWidth, evaluateScores::partialScore));
+    }
+
+    private static List<Model> collect ( List<ModelRefinement> refinements, Function<ModelRefinement, List<Model>> step ) {
+
+        List<Model> models = new ArrayList<>();
+        for (ModelRefinement refinement : refinements) {
+            models.addAll(step.apply(refinement));
         }
-        return modelsAfterDeterminingStop;
+        return models;
+    }
+
+    @FunctionalInterface
+    private interface ModelTask<S, T> {
+
+        T apply ( S models ) throws ServiceException;
+    }
+
+    /**
+     * @param items models, or groups of models
+     * @param configuration
+     * @param task
+     * @param <S>
+     * @param <T>
+     * @return results of the task for each item, in the order of the items
+     * @throws ServiceException
+     */
+    private <S, T> List<T> forEach ( List<S> items, VigorConfiguration configuration, ModelTask<S, T> task ) throws ServiceException {
+
+        int threads = configuration.getOrDefault(ConfigurationParameters.ModelThreads, 1);
+        List<T> results = new ArrayList<>(items.size());
+        if (threads <= 1 || items.size() <= 1) {
+            for (S item : items) {
+                results.add(task.apply(item));
+            }
+            return results;
+        }
+        ForkJoinPool pool = pools.computeIfAbsent(threads, ForkJoinPool::new);
+        List<ForkJoinTask<T>> tasks = new ArrayList<>(items.size());
+        for (S item : items) {
+            tasks.add(pool.submit(() -> task.apply(item)));
+        }
+        try {
+            for (ForkJoinTask<T> forkJoinTask : tasks) {
+                results.add(forkJoinTask.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("interrupted while refining models", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ServiceException) {
+                throw (ServiceException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ServiceException(String.format("problem refining models. got %s: %s", cause.getClass().getSimpleName(), cause.getMessage()), cause);
+        } finally {
+            tasks.forEach(t -> t.cancel(false));
+        }
+        return results;
     }
 }
 
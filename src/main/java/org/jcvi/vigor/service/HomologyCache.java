@@ -0,0 +1,120 @@
+package org.jcvi.vigor.service;
+
+import org.jcvi.jillion.core.Range;
+import org.jcvi.jillion.core.residue.aa.ProteinSequence;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Homology scores of translated models against reference proteins, so that candidate models of a genome which
+ * translate to the same protein are aligned once. A cache is meant to be used for the models of a single genome.
+ */
+public class HomologyCache {
+
+    /**
+     * Percent identity, similarity and coverage of a translated model against a reference protein
+     */
+    public static class Homology {
+
+        private final double percentIdentity;
+        private final double percentSimilarity;
+        private final double percentCoverage;
+
+        public Homology ( double percentIdentity, double percentSimilarity, double percentCoverage ) {
+
+            this.percentIdentity = percentIdentity;
+            this.percentSimilarity = percentSimilarity;
+            this.percentCoverage = percentCoverage;
+        }
+
+        public double getPercentIdentity () {
+
+            return percentIdentity;
+        }
+
+        public double getPercentSimilarity () {
+
+            return percentSimilarity;
+        }
+
+        public double getPercentCoverage () {
+
+            return percentCoverage;
+        }
+    }
+
+    private static final class Key {
+
+        private final ProteinSequence query;
+        private final String proteinID;
+        private final Range diagonals;
+
+        Key ( ProteinSequence query, String proteinID, Range diagonals ) {
+
+            this.query = query;
+            this.proteinID = proteinID;
+            this.diagonals = diagonals;
+        }
+
+        @Override
+        public boolean equals ( Object o ) {
+
+            if (this == o) {
+                return true;
+            }
+            if (! ( o instanceof Key )) {
+                return false;
+            }
+            Key other = (Key) o;
+            return proteinID.equals(other.proteinID) && query.equals(other.query) && Objects.equals(diagonals, other.diagonals);
+        }
+
+        @Override
+        public int hashCode () {
+
+            return Objects.hash(query, proteinID, diagonals);
+        }
+    }
+
+    private final ConcurrentMap<Key, Homology> homologies = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param query translated model
+     * @param proteinID reference protein
+     * @param diagonals diagonals the alignment is limited to, as the same query may be aligned within different bands
+     *                  for different models, or null for a full alignment
+     * @param homology computes the scores if they are not cached
+     * @return
+     */
+    public Homology get ( ProteinSequence query, String proteinID, Range diagonals, Supplier<Homology> homology ) {
+
+        Key key = new Key(query, proteinID, diagonals);
+        Homology cached = homologies.get(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        // computed outside the map so that other alignments are not held up. Two threads may occasionally align the
+        // same query, with the same result.
+        Homology computed = homology.get();
+        Homology previous = homologies.putIfAbsent(key, computed);
+        return previous == null ? computed : previous;
+    }
+
+    public long getHits () {
+
+        return hits.get();
+    }
+
+    public long getMisses () {
+
+        return misses.get();
+    }
+}
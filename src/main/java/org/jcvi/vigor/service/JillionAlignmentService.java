@@ -0,0 +1,277 @@
+package org.jcvi.vigor.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jcvi.jillion.align.AminoAcidSubstitutionMatrix;
+import org.jcvi.jillion.align.BlosumMatrices;
+import org.jcvi.jillion.align.pairwise.PairwiseAlignmentBuilder;
+import org.jcvi.jillion.align.pairwise.ProteinPairwiseSequenceAlignment;
+import org.jcvi.jillion.core.Direction;
+import org.jcvi.jillion.core.Range;
+import org.jcvi.jillion.core.residue.Frame;
+import org.jcvi.jillion.core.residue.aa.IupacTranslationTables;
+import org.jcvi.jillion.core.residue.aa.ProteinSequence;
+import org.jcvi.jillion.core.residue.nt.NucleotideSequence;
+import org.jcvi.vigor.component.*;
+import org.jcvi.vigor.service.exception.ServiceException;
+import org.jcvi.vigor.utils.ConfigurationParameters;
+import org.jcvi.vigor.utils.ProteinKmerIndex;
+import org.jcvi.vigor.utils.VigorConfiguration;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * In-process protein to genome aligner. Each strand of the genome is translated in three frames and indexed by
+ * amino acid k-mer. Reference proteins with enough seed hits on a common diagonal are aligned locally against the
+ * seeded region of the translations, and the unaligned ends of the protein are recursively aligned against the
+ * flanking genome, up to max_intron_size away, which picks up spliced exons and frameshifted segments as separate
+ * alignment fragments.
+ */
+@Service
+public class JillionAlignmentService implements AlignmentService {
+
+    private static final Logger LOGGER = LogManager.getLogger(JillionAlignmentService.class);
+    private static final int KMER_SIZE = 4;
+    private static final int MIN_SEED_HITS = 3;
+    private static final int DIAGONAL_BAND_WIDTH = 30;
+    private static final int SHORT_FLANK_LENGTH = 30;
+    private static final Set<Integer> ALL_FRAMES = Collections.unmodifiableSet(new TreeSet<>(Arrays.asList(0, 1, 2)));
+    private static final int MIN_FRAGMENT_LENGTH = 8;
+    private static final int WINDOW_MARGIN = 30;
+    private static final int DEFAULT_MAX_INTRON_SIZE = 2500;
+    private static final float MIN_FRAGMENT_SCORE = 30;
+    // same as exonerate's default --score
+    private static final float MIN_ALIGNMENT_SCORE = 100;
+    private static final float GAP_OPEN_PENALTY = -11;
+    private static final float GAP_EXTEND_PENALTY = -1;
+    private final AlignmentTool alignmentTool = new JillionAligner("jillion");
+
+    @Override
+    public List<Alignment> getAlignment ( VigorConfiguration config, VirusGenome virusGenome, ReferenceDatabase referenceDatabase, String workspace ) throws ServiceException {
+
+        int maxIntronSize = config.getOrDefault(ConfigurationParameters.IntronMaximumSize, DEFAULT_MAX_INTRON_SIZE);
+        NucleotideSequence sequence = virusGenome.getSequence();
+        List<Strand> strands = Arrays.asList(new Strand(Direction.FORWARD, sequence),
+                                             new Strand(Direction.REVERSE, sequence.toBuilder().reverseComplement().build()));
+        AlignmentEvidence evidence = new AlignmentEvidence(referenceDatabase.getReferenceDB());
+        List<Alignment> alignments = new ArrayList<>();
+        for (ViralProtein viralProtein : referenceDatabase.getProteins()) {
+            for (Strand strand : strands) {
+                Optional<Alignment> alignment = alignProtein(viralProtein, strand, maxIntronSize);
+                if (alignment.isPresent()) {
+                    alignment.get().setVirusGenome(virusGenome);
+                    alignment.get().setAlignmentEvidence(evidence.copy());
+                    alignments.add(alignment.get());
+                }
+            }
+        }
+        LOGGER.debug("{} alignment(s) found for {}", alignments.size(), virusGenome.getId());
+        return alignments;
+    }
+
+    @Override
+    public AlignmentTool getAlignmentTool () {
+
+        return alignmentTool;
+    }
+
+    /**
+     * @param viralProtein reference protein
+     * @param strand
+     * @param maxIntronSize
+     * @return the alignment of the protein to the strand, if there is one scoring at least MIN_ALIGNMENT_SCORE
+     */
+    Optional<Alignment> alignProtein ( ViralProtein viralProtein, Strand strand, int maxIntronSize ) {
+
+        ProteinSequence protein = viralProtein.getSequence();
+        List<long[]> seeds = findSeeds(protein, strand);
+        List<long[]> band = bestDiagonalBand(seeds);
+        if (band.size() < MIN_SEED_HITS) {
+            return Optional.empty();
+        }
+        long sequenceLength = strand.sequence.getLength();
+        long minDiagonal = band.stream().mapToLong(JillionAlignmentService::diagonal).min().getAsLong();
+        long maxDiagonal = band.stream().mapToLong(JillionAlignmentService::diagonal).max().getAsLong();
+        Range window = Range.of(Math.max(0, minDiagonal - WINDOW_MARGIN),
+                                Math.min(sequenceLength - 1, maxDiagonal + 3 * protein.getLength() + WINDOW_MARGIN));
+
+        List<AlignmentFragment> fragments = new ArrayList<>();
+        float score = alignSegment(protein, Range.of(0, protein.getLength() - 1), window, strand,
+                                   seedFrames(band), seeds, maxIntronSize, fragments);
+        if (fragments.isEmpty() || score < MIN_ALIGNMENT_SCORE) {
+            return Optional.empty();
+        }
+        fragments.sort(AlignmentFragment.Comparators.Ascending);
+
+        Alignment alignment = new Alignment();
+        Map<String, Double> alignmentScores = new HashMap<>();
+        alignmentScores.put(Scores.ALIGNMENT_SCORE, (double) score);
+        alignment.setAlignmentScore(alignmentScores);
+        alignment.setAlignmentTool(alignmentTool);
+        alignment.setAlignmentFragments(fragments);
+        alignment.setViralProtein(viralProtein);
+        return Optional.of(alignment);
+    }
+
+    /**
+     * Align the protein segment to the best of the given frames within the window, then recurse on the unaligned
+     * flanks. Long flanks are only searched where they have seed hits; short ones are searched in every frame.
+     *
+     * @return total score of the fragments added
+     */
+    private float alignSegment ( ProteinSequence protein, Range proteinRange, Range window, Strand strand,
+                                 Set<Integer> frames, List<long[]> seeds, int maxIntronSize, List<AlignmentFragment> fragments ) {
+
+        if (proteinRange.getLength() < MIN_FRAGMENT_LENGTH || window.getLength() < 3 * MIN_FRAGMENT_LENGTH) {
+            return 0;
+        }
+        ProteinSequence query = protein.toBuilder().trim(proteinRange).build();
+        ProteinPairwiseSequenceAlignment best = null;
+        long bestNTOffset = 0;
+        for (int frame : frames) {
+            ProteinSequence translation = strand.translations[frame];
+            long aaBegin = Math.max(0, ( window.getBegin() - frame + 2 ) / 3);
+            long aaEnd = Math.min(translation.getLength() - 1, ( window.getEnd() - frame + 1 ) / 3 - 1);
+            if (aaEnd - aaBegin + 1 < MIN_FRAGMENT_LENGTH) {
+                continue;
+            }
+            ProteinSequence subject = translation.toBuilder().trim(Range.of(aaBegin, aaEnd)).build();
+            ProteinPairwiseSequenceAlignment alignment = PairwiseAlignmentBuilder.createProtienAlignmentBuilder(query, subject, strand.matrix)
+                                                                                 .gapPenalty(GAP_OPEN_PENALTY, GAP_EXTEND_PENALTY)
+                                                                                 .useLocalAlignment(true)
+                                                                                 .build();
+            if (best == null || alignment.getScore() > best.getScore()) {
+                best = alignment;
+                bestNTOffset = frame + 3 * aaBegin;
+            }
+        }
+        if (best == null || best.getScore() < MIN_FRAGMENT_SCORE || best.getQueryRange().getRange().getLength() < MIN_FRAGMENT_LENGTH) {
+            return 0;
+        }
+        Range queryRange = best.getQueryRange().getRange();
+        Range subjectRange = best.getSubjectRange().getRange();
+        Range fragmentProteinRange = Range.of(proteinRange.getBegin() + queryRange.getBegin(),
+                                              proteinRange.getBegin() + queryRange.getEnd());
+        Range fragmentNTRange = Range.of(bestNTOffset + 3 * subjectRange.getBegin(),
+                                         bestNTOffset + 3 * subjectRange.getEnd() + 2);
+        fragments.add(new AlignmentFragment(fragmentProteinRange, fragmentNTRange, strand.direction, Frame.ONE));
+        float score = best.getScore();
+
+        long sequenceEnd = strand.sequence.getLength() - 1;
+        if (fragmentProteinRange.getBegin() - proteinRange.getBegin() >= MIN_FRAGMENT_LENGTH && fragmentNTRange.getBegin() > 0) {
+            Range upstreamProtein = Range.of(proteinRange.getBegin(), fragmentProteinRange.getBegin() - 1);
+            Range upstreamWindow = Range.of(Math.max(0, fragmentNTRange.getBegin() - maxIntronSize - 3 * upstreamProtein.getLength()),
+                                            fragmentNTRange.getBegin() - 1);
+            Set<Integer> upstreamFrames = flankFrames(upstreamProtein, upstreamWindow, seeds);
+            score += alignSegment(protein, upstreamProtein, upstreamWindow, strand, upstreamFrames, seeds, maxIntronSize, fragments);
+        }
+        if (proteinRange.getEnd() - fragmentProteinRange.getEnd() >= MIN_FRAGMENT_LENGTH && fragmentNTRange.getEnd() < sequenceEnd) {
+            Range downstreamProtein = Range.of(fragmentProteinRange.getEnd() + 1, proteinRange.getEnd());
+            Range downstreamWindow = Range.of(fragmentNTRange.getEnd() + 1,
+                                              Math.min(sequenceEnd, fragmentNTRange.getEnd() + maxIntronSize + 3 * downstreamProtein.getLength()));
+            Set<Integer> downstreamFrames = flankFrames(downstreamProtein, downstreamWindow, seeds);
+            score += alignSegment(protein, downstreamProtein, downstreamWindow, strand, downstreamFrames, seeds, maxIntronSize, fragments);
+        }
+        return score;
+    }
+
+    /**
+     * @return frames to search for an unaligned flank: all frames for short flanks, otherwise only the frames
+     * of seeds falling inside the flank
+     */
+    private static Set<Integer> flankFrames ( Range proteinRange, Range window, List<long[]> seeds ) {
+
+        if (proteinRange.getLength() <= SHORT_FLANK_LENGTH) {
+            return ALL_FRAMES;
+        }
+        return seedFrames(seeds.stream()
+                               .filter(s -> proteinRange.intersects(Range.of(s[0])) && window.intersects(Range.of(s[1])))
+                               .collect(Collectors.toList()));
+    }
+
+    private static Set<Integer> seedFrames ( List<long[]> seeds ) {
+
+        Set<Integer> frames = new TreeSet<>();
+        for (long[] seed : seeds) {
+            frames.add((int) ( seed[1] % 3 ));
+        }
+        return frames;
+    }
+
+    private static long diagonal ( long[] seed ) {
+
+        return seed[1] - 3 * seed[0];
+    }
+
+    /**
+     * @return seed hits as {protein position, nucleotide position} pairs
+     */
+    private List<long[]> findSeeds ( ProteinSequence protein, Strand strand ) {
+
+        List<long[]> seeds = new ArrayList<>();
+        int[] kmers = ProteinKmerIndex.kmers(protein, KMER_SIZE);
+        for (int i = 0; i < kmers.length; i++) {
+            if (kmers[i] < 0) {
+                continue;
+            }
+            List<Long> positions = strand.kmerIndex.get(kmers[i]);
+            if (positions == null) {
+                continue;
+            }
+            for (Long ntPosition : positions) {
+                seeds.add(new long[] { i, ntPosition });
+            }
+        }
+        return seeds;
+    }
+
+    /**
+     * @return the largest set of seeds whose diagonals lie within DIAGONAL_BAND_WIDTH of each other. Unrelated
+     * seeds rarely share a diagonal, so this separates real hits from chance k-mer matches
+     */
+    private static List<long[]> bestDiagonalBand ( List<long[]> seeds ) {
+
+        List<long[]> sorted = new ArrayList<>(seeds);
+        sorted.sort(Comparator.comparingLong(JillionAlignmentService::diagonal));
+        int bestStart = 0;
+        int bestEnd = 0;
+        int start = 0;
+        for (int end = 0; end < sorted.size(); end++) {
+            while (diagonal(sorted.get(end)) - diagonal(sorted.get(start)) > DIAGONAL_BAND_WIDTH) {
+                start++;
+            }
+            if (end + 1 - start > bestEnd - bestStart) {
+                bestStart = start;
+                bestEnd = end + 1;
+            }
+        }
+        return sorted.subList(bestStart, bestEnd);
+    }
+
+    static class Strand {
+
+        final Direction direction;
+        final NucleotideSequence sequence;
+        final ProteinSequence[] translations = new ProteinSequence[3];
+        final Map<Integer, List<Long>> kmerIndex = new HashMap<>();
+        final AminoAcidSubstitutionMatrix matrix = BlosumMatrices.blosum62();
+
+        Strand ( Direction direction, NucleotideSequence sequence ) {
+
+            this.direction = direction;
+            this.sequence = sequence;
+            Frame[] frames = { Frame.ONE, Frame.TWO, Frame.THREE };
+            for (int frame = 0; frame < 3; frame++) {
+                translations[frame] = IupacTranslationTables.STANDARD.translate(sequence, frames[frame], false);
+                int[] kmers = ProteinKmerIndex.kmers(translations[frame], KMER_SIZE);
+                for (int i = 0; i < kmers.length; i++) {
+                    if (kmers[i] >= 0) {
+                        kmerIndex.computeIfAbsent(kmers[i], k -> new ArrayList<>()).add(frame + 3L * i);
+                    }
+                }
+            }
+        }
+    }
+}
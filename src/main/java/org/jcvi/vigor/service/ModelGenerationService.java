@@ -1,6 +1,5 @@
 package org.jcvi.vigor.service;
 
-import com.google.common.base.Predicates;
 import org.jcvi.vigor.component.*;
 import org.jcvi.vigor.service.exception.ServiceException;
 import org.jcvi.vigor.utils.*;
@@ -12,9 +11,9 @@ import org.jcvi.jillion.core.residue.Frame;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
-import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Created by snettem on 5/16/2017.
@@ -39,8 +38,25 @@ public class ModelGenerationService {
 
     public List<Model> generateModels ( List<Alignment> alignments, VigorConfiguration configuration ) throws ServiceException {
 
-        alignments = mergeIdenticalProteinAlignments(alignments);
-        return determineCandidateModels(alignments, configuration);
+        return generateModels(alignments, configuration, new GenomeMetrics(null));
+    }
+
+    /**
+     * @param alignments
+     * @param configuration
+     * @param metrics of the genome the alignments are for
+     * @return
+     * @throws ServiceException
+     */
+    public List<Model> generateModels ( List<Alignment> alignments, VigorConfiguration configuration, GenomeMetrics metrics ) throws ServiceException {
+
+        int alignmentCount = alignments.size();
+        List<Alignment> mergedAlignments = metrics.time(GenomeMetrics.MERGE_ALIGNMENTS, () -> mergeIdenticalProteinAlignments(alignments));
+        metrics.addCreated(GenomeMetrics.MERGE_ALIGNMENTS, mergedAlignments.size());
+        metrics.addPruned(GenomeMetrics.MERGE_ALIGNMENTS, alignmentCount - mergedAlignments.size());
+        List<Model> candidateModels = metrics.time(GenomeMetrics.CANDIDATE_MODELS, () -> determineCandidateModels(mergedAlignments, configuration));
+        metrics.addCreated(GenomeMetrics.CANDIDATE_MODELS, candidateModels.size());
+        return candidateModels;
     }
 
     /**
@@ -105,9 +121,9 @@ public class ModelGenerationService {
             sequenceGaps = initialModels.get(0).getAlignment().getVirusGenome().getSequenceGaps();
         }
         int minGapLength = configuration.getOrDefault(ConfigurationParameters.SequenceGapMinimumLength, 0);
-        List<Range> validSequenceGaps = sequenceGaps.stream()
-                                                    .filter(g -> g.getLength() >= minGapLength)
-                                                    .collect(Collectors.toList());
+        IntervalIndex validSequenceGaps = IntervalIndex.of(sequenceGaps.stream()
+                                                                       .filter(g -> g.getLength() >= minGapLength)
+                                                                       .collect(Collectors.toList()));
         // split models at sequence gaps
         for (Model model : initialModels) {
             try {
@@ -200,7 +216,7 @@ public class ModelGenerationService {
         fragments.sort(AlignmentFragment.Comparators.Ascending);
         List<AlignmentFragment> outFragments = new ArrayList<AlignmentFragment>();
         StopTranslationException stopTransExce = viralProtein.getGeneAttributes().getStopTranslationException();
-        List<Range> sequenceGaps = virusGenome.getSequenceGaps();
+        IntervalIndex sequenceGaps = virusGenome.getSequenceGapIndex();
         boolean isPreMerge = false;
         for (int i = 0; i < fragments.size(); i++) {
             if (i == fragments.size() - 1) {
@@ -246,7 +262,11 @@ public class ModelGenerationService {
                     List<Long> downStops = intronStops.getOrDefault(downSeqFrame, Collections.EMPTY_LIST);
 
                     if (stopTransExce.isHasStopTranslationException()) {
-                        List<Range> matches = virusGenome.getSequence().findMatches(stopTransExce.getMotif()).distinct().collect(Collectors.toList());
+                        List<Range> matches = virusGenome.getCodonIndex()
+                                                         .findPatternMatches(stopTransExce.getMotif(), Range.ofLength(virusGenome.getSequence().getLength()))
+                                                         .stream()
+                                                         .distinct()
+                                                         .collect(Collectors.toList());
                         int offset = stopTransExce.getOffset();
                         if (offset < 0) {
                             offset = offset + 1;
@@ -306,10 +326,21 @@ public class ModelGenerationService {
      */
     public Model splitExonsAtSequenceGaps ( Model model, List<Range> sequenceGaps ) {
 
+        return splitExonsAtSequenceGaps(model, IntervalIndex.of(sequenceGaps));
+    }
+
+    /**
+     * @param model
+     * @param sequenceGaps
+     * @return
+     */
+    public Model splitExonsAtSequenceGaps ( Model model, IntervalIndex sequenceGaps ) {
+
         List<Exon> exons = model.getExons();
         List<Exon> newExons = new ArrayList<Exon>();
         for (Exon exon : exons) {
-            for (Range sequenceGap: sequenceGaps ) {
+            // splitting only shrinks the exon, so later gaps can only intersect it if they intersect the original
+            for (Range sequenceGap : sequenceGaps.findIntersecting(exon.getRange())) {
                 if (sequenceGap.isSubRangeOf(exon.getRange())) {
                     Exon firstExon = new Exon();
                     firstExon.setRange(Range.of(exon.getRange().getBegin(), sequenceGap.getBegin() - 1));
@@ -349,6 +380,17 @@ public class ModelGenerationService {
      */
     public List<Model> splitModelAtSequenceGaps ( Model initModel, List<Range> validSequenceGaps ) throws CloneNotSupportedException {
 
+        return splitModelAtSequenceGaps(initModel, IntervalIndex.of(validSequenceGaps));
+    }
+
+    /**
+     * @param: initModels
+     * @param: validSequenceGaps
+     * @return Models are split at sequence gaps and new list of models are
+     * returned
+     */
+    public List<Model> splitModelAtSequenceGaps ( Model initModel, IntervalIndex validSequenceGaps ) throws CloneNotSupportedException {
+
         initModel = splitExonsAtSequenceGaps(initModel, validSequenceGaps);
         List<Model> newModels = new ArrayList<Model>();
         Model model = initModel.clone();
@@ -378,12 +420,10 @@ public class ModelGenerationService {
                     expectedStart = lastExon.getRange().getEnd() + difference * 3;
                 }
                 Range searchRangeTemp = Range.of(lastExon.getRange().getEnd(), expectedStart);
-                for (Range gap : validSequenceGaps) {
-                    if (gap.intersects(searchRangeTemp)) {
-                        model.setPartial3p(true);
-                        lastExon.setRange(Range.of(lastExon.getRange().getBegin(), gap.getBegin() - 1));
-                        break;
-                    }
+                Optional<Range> gap = validSequenceGaps.findFirstIntersecting(searchRangeTemp);
+                if (gap.isPresent()) {
+                    model.setPartial3p(true);
+                    lastExon.setRange(Range.of(lastExon.getRange().getBegin(), gap.get().getBegin() - 1));
                 }
             } else {
                 nextExon = modelExons.get(j + 1);
@@ -392,47 +432,45 @@ public class ModelGenerationService {
                     diffRange = Range.of(currentExon.getRange().getEnd(), nextExon.getRange().getBegin());
                     if (diffRange.getLength() >= 20) {
                         firstGroup.add(modelExons.get(j));
-                        boolean temp = true;
-                        for (int k = 0; k < validSequenceGaps.size(); k++) {
-                            if (diffRange.intersects(validSequenceGaps.get(k)) && temp) {
-                                secondModel = model.clone();
-                                firstModel = model.clone();
-                                if (currentExon.getRange().getEnd() < validSequenceGaps.get(k).getBegin() - 1) {
-                                    currentExon.setRange(Range.of(currentExon.getRange().getBegin(), validSequenceGaps.get(k).getBegin() - 1));
-                                    currentExon.set_3p_adjusted(true);
-                                }
-                                if (nextExon.getRange().getBegin() > validSequenceGaps.get(k).getEnd() + 1) {
-                                    Range seqGapRange = VigorFunctionalUtils.get5pNearestSequenceGap(validSequenceGaps, nextExon.getRange());
-                                    int reminder = (int) ( ( nextExon.getRange().getBegin() - 1 - ( seqGapRange.getEnd() + 1 ) ) + 1 ) % 3;
-                                    nextExon.setRange(Range.of(seqGapRange.getEnd() + 1, nextExon.getRange().getEnd()));
-                                    if (reminder > 0) {
-                                        nextExon.setFrame(currentExon.getFrame().shift(reminder));
-                                    }
-                                    nextExon.set_5p_adjusted(true);
-                                }
-                                List<Exon> tempFirst = new ArrayList<>();
-                                tempFirst.addAll(firstGroup);
-                                List<Exon> tempSecond = new ArrayList<>();
-                                tempSecond.addAll(secondGroup);
-                                firstModel.setExons(tempFirst);
-                                firstModel.setPartial3p(true);
-                                firstModel.addNote(NoteType.Sequence_Gap);
-
-                                firstModel.getStatus().add("Model split at sequence gaps");
-                                if (!startExist) {
-                                    firstModel.setPartial5p(true);
+                        Optional<Range> gap = validSequenceGaps.findFirstIntersecting(diffRange);
+                        if (gap.isPresent()) {
+                            Range sequenceGap = gap.get();
+                            secondModel = model.clone();
+                            firstModel = model.clone();
+                            if (currentExon.getRange().getEnd() < sequenceGap.getBegin() - 1) {
+                                currentExon.setRange(Range.of(currentExon.getRange().getBegin(), sequenceGap.getBegin() - 1));
+                                currentExon.set_3p_adjusted(true);
+                            }
+                            if (nextExon.getRange().getBegin() > sequenceGap.getEnd() + 1) {
+                                Range seqGapRange = VigorFunctionalUtils.get5pNearestSequenceGap(validSequenceGaps, nextExon.getRange());
+                                int reminder = (int) ( ( nextExon.getRange().getBegin() - 1 - ( seqGapRange.getEnd() + 1 ) ) + 1 ) % 3;
+                                nextExon.setRange(Range.of(seqGapRange.getEnd() + 1, nextExon.getRange().getEnd()));
+                                if (reminder > 0) {
+                                    nextExon.setFrame(currentExon.getFrame().shift(reminder));
                                 }
-                                secondGroup.removeAll(tempFirst);
-                                tempSecond.removeAll(tempFirst);
-                                secondModel.setExons(tempSecond);
-                                secondModel.setPartial5p(true);
-                                secondModel.addNote(NoteType.Sequence_Gap);
-                                secondModel.getStatus().add("Model split at sequence gaps");
-                                newModels.add(firstModel);
-                                startExist = false;
-                                firstGroup.clear();
-                                temp = false;
+                                nextExon.set_5p_adjusted(true);
                             }
+                            List<Exon> tempFirst = new ArrayList<>();
+                            tempFirst.addAll(firstGroup);
+                            List<Exon> tempSecond = new ArrayList<>();
+                            tempSecond.addAll(secondGroup);
+                            firstModel.setExons(tempFirst);
+                            firstModel.setPartial3p(true);
+                            firstModel.addNote(NoteType.Sequence_Gap);
+
+                            firstModel.getStatus().add("Model split at sequence gaps");
+                            if (!startExist) {
+                                firstModel.setPartial5p(true);
+                            }
+                            secondGroup.removeAll(tempFirst);
+                            tempSecond.removeAll(tempFirst);
+                            secondModel.setExons(tempSecond);
+                            secondModel.setPartial5p(true);
+                            secondModel.addNote(NoteType.Sequence_Gap);
+                            secondModel.getStatus().add("Model split at sequence gaps");
+                            newModels.add(firstModel);
+                            startExist = false;
+                            firstGroup.clear();
                         }
                     }
                 }
@@ -450,62 +488,225 @@ public class ModelGenerationService {
 
 
     /**
+     * Chains are the maximal paths through the fragments in which each fragment is followed by a compatible fragment
+     * with no other compatible fragment in between. The fragments are ordered by nucleotide and then protein start.
+     * A fragment shorter than the allowed overlap may be followed by one that starts before it.
+     *
      * @param fragments : alignment fragments that are grouped based on direction
-     * @return List<List<AlignmentFragment>>: compatible(check for overlap) list
-     * of alignment fragments and their permutations and combinations are
-     * grouped
+     * @param configuration
+     * @return List<List<AlignmentFragment>>: compatible(check for overlap) chains of alignment fragments. If
+     * max_fragment_chains is set, only that many chains covering the most of the reference protein are returned
      */
     public List<List<AlignmentFragment>> generateCompatibleFragsChains(List<AlignmentFragment> fragments, VigorConfiguration configuration) {
         int ntOverlap = configuration.getOrDefault(ConfigurationParameters.NTOverlapMaximum, DEFAULT_NTOVERLAP_MAX);
         int aaOverlap = configuration.getOrDefault(ConfigurationParameters.AAOverlapMaximum, DEFAULT_AAOVERLAP_MAX);
-
-        BiFunction<AlignmentFragment,AlignmentFragment, Boolean> areCompatible = (a, b) ->
-                (! a.equals(b)) &&
-                (a.getNucleotideSeqRange().getEnd() - ntOverlap) < b.getNucleotideSeqRange().getBegin() &&
-                        (a.getProteinSeqRange().getEnd() - aaOverlap) < b.getProteinSeqRange().getBegin();
+        int maxChains = configuration.getOrDefault(ConfigurationParameters.MaxFragmentChains, 0);
+
+        List<AlignmentFragment> sortedFragments = new ArrayList<>(fragments);
+        sortedFragments.sort(Comparator.comparing((AlignmentFragment f) -> f.getNucleotideSeqRange().getBegin())
+                                       .thenComparing(f -> f.getProteinSeqRange().getBegin()));
+        int size = sortedFragments.size();
+        BitSet[] successors = new BitSet[size];
+        BitSet[] predecessors = new BitSet[size];
+        for (int i = 0; i < size; i++) {
+            successors[i] = new BitSet(size);
+            predecessors[i] = new BitSet(size);
+        }
+        long[] ntBegins = sortedFragments.stream().mapToLong(f -> f.getNucleotideSeqRange().getBegin()).toArray();
+        for (int i = 0; i < size; i++) {
+            AlignmentFragment upFragment = sortedFragments.get(i);
+            long ntEnd = upFragment.getNucleotideSeqRange().getEnd() - ntOverlap;
+            long aaEnd = upFragment.getProteinSeqRange().getEnd() - aaOverlap;
+            // every fragment starting after ntEnd, which may include fragments sorted before this one
+            for (int j = firstStartingAfter(ntBegins, ntEnd); j < size; j++) {
+                AlignmentFragment downFragment = sortedFragments.get(j);
+                if (j != i &&
+                        aaEnd < downFragment.getProteinSeqRange().getBegin() &&
+                        ! upFragment.equals(downFragment)) {
+                    successors[i].set(j);
+                    predecessors[j].set(i);
+                }
+            }
+        }
+        int[] order = topologicalOrder(successors, predecessors);
+        if (order == null) {
+            // fragments within the overlap of each other can be compatible both ways. Only chain them in sorted order
+            LOGGER.debug("compatible fragments form a cycle, chaining fragments in nucleotide order only");
+            for (int i = 0; i < size; i++) {
+                for (int j = successors[i].nextSetBit(0); j >= 0 && j < i; j = successors[i].nextSetBit(j + 1)) {
+                    successors[i].clear(j);
+                    predecessors[j].clear(i);
+                }
+            }
+            order = IntStream.range(0, size).toArray();
+        }
+        // a fragment is only followed directly by the compatible fragments that no other compatible fragment fits before
+        int[][] nextFragments = new int[size][];
+        for (int i = 0; i < size; i++) {
+            BitSet current = successors[i];
+            nextFragments[i] = current.stream().filter(j -> ! current.intersects(predecessors[j])).toArray();
+        }
+        // starting fragments have no compatible fragments upstream
+        int[] startFragments = IntStream.range(0, size).filter(i -> predecessors[i].isEmpty()).toArray();
 
         List<List<AlignmentFragment>> compatibleFragmentList = new ArrayList<>();
-        for (AlignmentFragment fragment: fragments) {
-            // starting fragments have no compatible fragments downstream
-            if (! fragments.stream()
-                           .filter(Predicates.not(fragment::equals))
-                           .anyMatch(f -> areCompatible.apply(f,fragment))) {
-                compatibleFragmentList.addAll(generateCompatibleFragsList(fragment, fragments, areCompatible));
+        if (maxChains <= 0) {
+            for (int start : startFragments) {
+                addCompatibleFragsChains(start, nextFragments, sortedFragments, new ArrayList<>(), compatibleFragmentList);
             }
+            return compatibleFragmentList;
+        }
+
+        // keep the best chains starting at each fragment, working back from the last fragment
+        List<List<FragmentChain>> bestChains = new ArrayList<>(Collections.nCopies(size, null));
+        long[] chainCounts = new long[size];
+        for (int k = size - 1; k >= 0; k--) {
+            int i = order[ k ];
+            long length = sortedFragments.get(i).getProteinSeqRange().getLength();
+            List<FragmentChain> chains = new ArrayList<>();
+            if (nextFragments[i].length == 0) {
+                chains.add(new FragmentChain(i, null, length));
+                chainCounts[i] = 1;
+            }
+            for (int next : nextFragments[i]) {
+                for (FragmentChain chain : bestChains.get(next)) {
+                    chains.add(new FragmentChain(i, chain, length + chain.coverage));
+                }
+                chainCounts[i] = saturatedAdd(chainCounts[i], chainCounts[next]);
+            }
+            chains.sort(FragmentChain.BY_COVERAGE);
+            bestChains.set(i, chains.size() > maxChains ? new ArrayList<>(chains.subList(0, maxChains)) : chains);
+        }
+        List<FragmentChain> chains = new ArrayList<>();
+        long chainCount = 0;
+        for (int start : startFragments) {
+            chains.addAll(bestChains.get(start));
+            chainCount = saturatedAdd(chainCount, chainCounts[start]);
+        }
+        chains.sort(FragmentChain.BY_COVERAGE);
+        if (chains.size() > maxChains) {
+            chains = chains.subList(0, maxChains);
+        }
+        if (chainCount > maxChains) {
+            LOGGER.debug("using {} of {} compatible fragment chains", maxChains, chainCount == Long.MAX_VALUE ? "too many" : chainCount);
+        }
+        // same order as the unlimited chains
+        chains.sort(FragmentChain::compareFragments);
+        for (FragmentChain chain : chains) {
+            List<AlignmentFragment> compatibleFragments = new ArrayList<>();
+            for (FragmentChain link = chain; link != null; link = link.next) {
+                compatibleFragments.add(sortedFragments.get(link.fragment));
+            }
+            compatibleFragmentList.add(compatibleFragments);
         }
         return compatibleFragmentList;
     }
 
-    public List<List<AlignmentFragment>> generateCompatibleFragsList(AlignmentFragment currentFragment,
-                                                                     List<AlignmentFragment> fragments,
-                                                                     BiFunction<AlignmentFragment,AlignmentFragment, Boolean> areCompatible) {
-
-
-        List<List<AlignmentFragment>> compatibleFragments = new ArrayList<>();
+    /**
+     * @param sortedBegins
+     * @param position
+     * @return index of the first begin after the position, or the number of begins if there is none
+     */
+    private static int firstStartingAfter ( long[] sortedBegins, long position ) {
+
+        int low = 0;
+        int high = sortedBegins.length;
+        while (low < high) {
+            int middle = ( low + high ) >>> 1;
+            if (sortedBegins[ middle ] <= position) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
 
-        for (int i=0;i<fragments.size(); i++) {
-            AlignmentFragment nextFragment = fragments.get(i);
-            if (areCompatible.apply(currentFragment, nextFragment)) {
-                // only add consider this fragment by itself if it's not included in some other chain
-                if (fragments.stream()
-                             .filter(f -> ! (f.equals(currentFragment)|| f.equals(nextFragment)) )
-                             .anyMatch(f -> areCompatible.apply(currentFragment, f) && areCompatible.apply(f,nextFragment))) {
-                    continue;
+    /**
+     * @param successors
+     * @param predecessors
+     * @return fragment indices ordered so that each fragment comes before its successors, and otherwise in sorted
+     * order, or null if the fragments form a cycle
+     */
+    private static int[] topologicalOrder ( BitSet[] successors, BitSet[] predecessors ) {
+
+        int size = successors.length;
+        int[] remainingPredecessors = new int[size];
+        PriorityQueue<Integer> ready = new PriorityQueue<>();
+        for (int i = 0; i < size; i++) {
+            remainingPredecessors[i] = predecessors[i].cardinality();
+            if (remainingPredecessors[i] == 0) {
+                ready.add(i);
+            }
+        }
+        int[] order = new int[size];
+        int ordered = 0;
+        while (! ready.isEmpty()) {
+            int current = ready.poll();
+            order[ordered++] = current;
+            for (int next = successors[current].nextSetBit(0); next >= 0; next = successors[current].nextSetBit(next + 1)) {
+                if (--remainingPredecessors[next] == 0) {
+                    ready.add(next);
                 }
-                compatibleFragments.addAll(generateCompatibleFragsList(nextFragment,
-                                                                       fragments.subList(i+1, fragments.size()),
-                                                                       areCompatible));
             }
         }
+        return ordered == size ? order : null;
+    }
+
+    private void addCompatibleFragsChains ( int current, int[][] nextFragments, List<AlignmentFragment> fragments,
+                                            List<AlignmentFragment> chain, List<List<AlignmentFragment>> chains ) {
+
+        chain.add(fragments.get(current));
+        if (nextFragments[current].length == 0) {
+            chains.add(new ArrayList<>(chain));
+        }
+        for (int next : nextFragments[current]) {
+            addCompatibleFragsChains(next, nextFragments, fragments, chain, chains);
+        }
+        chain.remove(chain.size() - 1);
+    }
+
+    private static long saturatedAdd ( long a, long b ) {
+
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
 
-        if (compatibleFragments.isEmpty()) {
-            compatibleFragments.add(new ArrayList<>());
+    /**
+     * A chain of fragments, by index in the sorted fragment list, sharing its tail with other chains
+     */
+    private static class FragmentChain {
+
+        private static final Comparator<FragmentChain> BY_COVERAGE = Comparator.comparingLong((FragmentChain c) -> c.coverage)
+                                                                               .reversed()
+                                                                               .thenComparing(FragmentChain::compareFragments);
+
+        private final int fragment;
+        private final FragmentChain next;
+        // number of reference protein residues aligned by the chain
+        private final long coverage;
+
+        FragmentChain ( int fragment, FragmentChain next, long coverage ) {
+
+            this.fragment = fragment;
+            this.next = next;
+            this.coverage = coverage;
         }
 
-        for (List<AlignmentFragment> compatibleList: compatibleFragments) {
-            compatibleList.add(0,currentFragment);
+        private static int compareFragments ( FragmentChain a, FragmentChain b ) {
+
+            while (a != null && b != null) {
+                if (a.fragment != b.fragment) {
+                    return Integer.compare(a.fragment, b.fragment);
+                }
+                if (a == b) {
+                    return 0;
+                }
+                a = a.next;
+                b = b.next;
+            }
+            return a == null ? ( b == null ? 0 : -1 ) : 1;
         }
-        return compatibleFragments;
     }
 
     /**
@@ -1,7 +1,7 @@
 package org.jcvi.vigor.service;
 
-import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Sets;
+import com.google.common.graph.Graph;
 import com.google.common.graph.GraphBuilder;
 import com.google.common.graph.MutableGraph;
 import org.apache.logging.log4j.LogManager;
@@ -14,22 +14,26 @@ import org.jcvi.jillion.core.Range;
 import org.jcvi.jillion.core.residue.aa.AminoAcid;
 import org.jcvi.jillion.core.residue.aa.ProteinSequence;
 import org.jcvi.jillion.fasta.aa.ProteinFastaFileDataStore;
-;
 import org.jcvi.jillion.fasta.aa.ProteinFastaRecord;
 import org.jcvi.vigor.component.MaturePeptideMatch;
 import org.jcvi.vigor.component.Model;
 import org.jcvi.vigor.component.PartialProteinSequence;
 import org.jcvi.vigor.component.ViralProtein;
 import org.jcvi.vigor.service.exception.ServiceException;
+import org.jcvi.vigor.utils.ConfigurationParameters;
+import org.jcvi.vigor.utils.ProteinKmerIndex;
 import org.jcvi.vigor.utils.SequenceUtils;
+import org.jcvi.vigor.utils.VigorConfiguration;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -45,6 +49,11 @@ public class PeptideService implements PeptideMatchingService {
      */
     private static final long PROXIMITY_MAX = 10L;
     private static final long MAX_GAP = 5L;
+    // short k-mers as mature peptides may be as little as 25% identical to the polyprotein
+    private static final int PREFILTER_KMER_SIZE = 3;
+    private static final int PREFILTER_MIN_SEEDS = 2;
+    // partial paths kept for each match when choosing the best peptide matches, see findBestPath
+    static final int MAX_PARTIAL_PATHS = 16;
     private static Pattern productPattern = Pattern.compile("product\\s*=\\s*\"(?<product>[^\"]+)\"");
     private static Logger LOGGER = LogManager.getLogger(PeptideService.class);
 
@@ -140,6 +149,75 @@ public class PeptideService implements PeptideMatchingService {
         return result;
     };
 
+    // databases are shared by configurations, so the least recently used are dropped past this many rather than
+    // released with a configuration
+    static final int MAXIMUM_PEPTIDE_DATABASES = 16;
+
+    private final Map<File, PeptideDatabase> peptideDatabases =
+            new LinkedHashMap<File, PeptideDatabase>(16, 0.75f, true) {
+
+                @Override
+                protected boolean removeEldestEntry ( Map.Entry<File, PeptideDatabase> eldest ) {
+
+                    return size() > MAXIMUM_PEPTIDE_DATABASES;
+                }
+            };
+    private final AtomicLong pathStatesEvaluated = new AtomicLong();
+
+    /**
+     * Path of peptide matches, linked back from its last match
+     */
+    private static class PartialPath<T> {
+
+        final T match;
+        final PartialPath<T> previous;
+        final double score;
+        // indexes of the products used by the path
+        final BitSet products;
+
+        PartialPath ( T match, int product, PartialPath<T> previous, double score ) {
+
+            this.match = match;
+            this.previous = previous;
+            this.score = score;
+            this.products = previous == null ? new BitSet() : (BitSet) previous.products.clone();
+            this.products.set(product);
+        }
+
+        List<T> toList () {
+
+            LinkedList<T> matches = new LinkedList<>();
+            for (PartialPath<T> path = this; path != null; path = path.previous) {
+                matches.addFirst(path.match);
+            }
+            return new ArrayList<>(matches);
+        }
+    }
+
+    /**
+     * Mature peptide database loaded into memory
+     */
+    static class PeptideDatabase {
+
+        final long lastModified;
+        final Map<String, ProteinFastaRecord> peptides;
+        private ProteinKmerIndex index;
+
+        PeptideDatabase ( long lastModified, Map<String, ProteinFastaRecord> peptides ) {
+
+            this.lastModified = lastModified;
+            this.peptides = peptides;
+        }
+
+        synchronized ProteinKmerIndex getIndex () {
+
+            if (index == null) {
+                index = ProteinKmerIndex.of(new ArrayList<>(peptides.values()), PREFILTER_KMER_SIZE);
+            }
+            return index;
+        }
+    }
+
     @Autowired
     public PeptideService() {
 
@@ -196,7 +274,10 @@ public class PeptideService implements PeptideMatchingService {
         };
 
 
-        try (Stream<PeptideMatch> alignments = getAlignments(partialProtein, peptideDatabase).peek(m -> m.setScores(getMatchScores(m)))) {
+        VigorConfiguration config = model.getAlignment() == null || model.getAlignment().getViralProtein() == null ? null :
+                model.getAlignment().getViralProtein().getConfiguration();
+        boolean prefilter = config != null && config.<Boolean>getOrDefault(ConfigurationParameters.MaturePeptidePrefilter, false);
+        try (Stream<PeptideMatch> alignments = getAlignments(partialProtein, peptideDatabase, prefilter)) {
             String header = String.format("%-20s     %-4s    %-9s     %-9s   %-6s   %-6s   %-6s   %s",
                                           "id","len","sub","qry","%id","%sim","%cov","comment");
             LOGGER.debug(header);
@@ -327,77 +408,102 @@ public class PeptideService implements PeptideMatchingService {
         LOGGER.trace("{} alignments after removing redundant matches", matches.size());
 
         MutableGraph<PeptideMatch> graph = matchesToGraph(matches);
-        Function<List<PeptideMatch>, Double> scorePath = a -> {
-            //
-            if (a.stream().map(m -> extractProduct(m.peptide.getComment())).distinct().count() != a.size()) {
-                return 0d;
-            }
-            double scoreSum = a.stream()
-                               .collect(Collectors.summingDouble(m->sumScores.apply(m.getScores())));
-
-            double coverageScore = 0;
-            if (! a.isEmpty()) {
-                coverageScore = (double) a.stream().collect(Collectors.summingLong(m -> m.alignment.getSubjectRange().getLength())) / (double) a.get(0).protein.getSequence().getLength();
-            }
-            return scoreSum +  coverageScore;
-        };
-
-        List<PeptideMatch> bestPath = Collections.EMPTY_LIST;
-        double bestScore = 0d;
-
-        List<PeptideMatch> testPath;
-        double testScore;
-
-        List<PeptideMatch> starts = matches.stream().filter(m -> graph.inDegree(m) == 0).collect(Collectors.toList());
-        LOGGER.trace("Found {} path starts", starts.size());
-        int totalPaths = 0;
-        for (PeptideMatch start: starts) {
-            int pathCount = 0;
-            LOGGER.trace("Finding paths starting at {}", start.peptide.getId());
-            Iterator<List<PeptideMatch>> pathIter = findPaths(graph, start);
-            while (pathIter.hasNext()) {
-                pathCount++;
-                testPath = pathIter.next();
-                testScore = scorePath.apply(testPath);
-                if (testScore > bestScore) {
-                    bestScore = testScore;
-                    bestPath = testPath;
-                }
-            }
-            LOGGER.trace("{} path(s) checked for {}", pathCount, start.peptide.getId());
-            totalPaths += pathCount;
+        if (matches.isEmpty()) {
+            return Collections.EMPTY_LIST;
         }
-        LOGGER.trace("{} path(s) examined", totalPaths);
+        double proteinLength = matches.get(0).protein.getSequence().getLength();
+        AtomicLong states = new AtomicLong();
+        List<PeptideMatch> bestPath = findBestPath(matches, graph, match -> extractProduct(match.peptide.getComment()),
+                                                   match -> sumScores.apply(match.getScores()) + match.alignment.getSubjectRange().getLength() / proteinLength,
+                                                   MAX_PARTIAL_PATHS, states);
+        pathStatesEvaluated.addAndGet(states.get());
+        LOGGER.trace("{} path state(s) evaluated for {} alignments", states.get(), matches.size());
         return bestPath;
     }
 
-    private Iterator<List<PeptideMatch>> findPaths(MutableGraph<PeptideMatch> graph, PeptideMatch node) {
-
-        AbstractIterator<List<PeptideMatch>> pathIterator = new AbstractIterator<List<PeptideMatch>>() {
-            private List<PeptideMatch> path = Arrays.asList(node);
-            private Iterator<PeptideMatch> successorsIter = graph.successors(node).iterator();
-            private Iterator<List<PeptideMatch>> successorPathIter = Collections.EMPTY_LIST.iterator();
+    /**
+     * Highest scoring path through a DAG, from a node without predecessors to one without successors, using each
+     * product at most once. Nodes are visited in topological order, so each node's partial paths are complete before
+     * its successors are visited. Of the partial paths ending at a node, those using the same products among the
+     * products of later nodes have the same extensions, so only the best of them is kept.
+     *
+     * At most maxPartialPaths of those are kept for each node, the best first, so that the work is bounded by
+     * O(nodes + edges * maxPartialPaths). The result is exact while no node has more distinct sets of products, as
+     * with few products repeated in the graph, and otherwise the best path may be among those dropped.
+     *
+     * @param nodes nodes of the graph in topological order
+     * @param graph
+     * @param productOf product of a node
+     * @param scoreOf score of a node, the score of a path being the sum of its nodes' scores
+     * @param maxPartialPaths partial paths kept for each node, Integer.MAX_VALUE for an exact search whose work may
+     *                        be exponential
+     * @param states incremented by the number of partial paths evaluated
+     * @param <T>
+     * @return the nodes of the best path, or an empty list if no path scores above 0. Ties keep the earliest path
+     */
+    static <T> List<T> findBestPath ( List<T> nodes, Graph<T> graph, Function<T, String> productOf,
+                                      ToDoubleFunction<T> scoreOf, int maxPartialPaths, AtomicLong states ) {
 
-            private int hadSuccessors = 0;
+        Map<String, Integer> productIndexes = new HashMap<>();
+        Map<T, Integer> products = new HashMap<>();
+        for (T node : nodes) {
+            products.put(node, productIndexes.computeIfAbsent(productOf.apply(node), p -> productIndexes.size()));
+        }
+        // products of the nodes after each node, which are the only products its paths can still conflict with
+        Map<T, BitSet> laterProducts = new HashMap<>();
+        BitSet later = new BitSet();
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            laterProducts.put(nodes.get(i), (BitSet) later.clone());
+            later.set(products.get(nodes.get(i)));
+        }
 
-            @Override
-            protected List<PeptideMatch> computeNext() {
-                if ( (! successorPathIter.hasNext()) && successorsIter.hasNext()) {
-                        hadSuccessors++;
-                        successorPathIter = findPaths(graph, successorsIter.next());
+        Map<T, List<PartialPath<T>>> bestPaths = new HashMap<>();
+        PartialPath<T> bestPath = null;
+        for (T node : nodes) {
+            double nodeScore = scoreOf.applyAsDouble(node);
+            int product = products.get(node);
+            List<PartialPath<T>> paths = new ArrayList<>();
+            if (graph.inDegree(node) == 0) {
+                paths.add(new PartialPath<>(node, product, null, nodeScore));
+                states.incrementAndGet();
+            } else {
+                List<PartialPath<T>> candidates = new ArrayList<>();
+                for (T predecessor : graph.predecessors(node)) {
+                    for (PartialPath<T> path : bestPaths.getOrDefault(predecessor, Collections.emptyList())) {
+                        states.incrementAndGet();
+                        if (! path.products.get(product)) {
+                            candidates.add(new PartialPath<>(node, product, path, path.score + nodeScore));
+                        }
+                    }
                 }
-                if (successorPathIter.hasNext()) {
-                    List<PeptideMatch> temp = new ArrayList<>(path);
-                    temp.addAll(successorPathIter.next());
-                    return temp;
-                } else if (hadSuccessors == 0) {
-                    hadSuccessors++;
-                    return path;
+                // stable sort so that ties keep the earliest predecessor
+                candidates.sort(Comparator.comparingDouble((PartialPath<T> path) -> path.score).reversed());
+                Set<BitSet> keys = new HashSet<>();
+                for (PartialPath<T> path : candidates) {
+                    BitSet key = (BitSet) path.products.clone();
+                    key.and(laterProducts.get(node));
+                    if (keys.add(key)) {
+                        paths.add(path);
+                        if (paths.size() == maxPartialPaths) {
+                            LOGGER.trace("keeping the best {} partial paths of {} candidates", maxPartialPaths, candidates.size());
+                            break;
+                        }
+                    }
                 }
-                return endOfData();
             }
-        };
-        return pathIterator;
+            bestPaths.put(node, paths);
+            if (graph.outDegree(node) == 0 && ! paths.isEmpty() && paths.get(0).score > ( bestPath == null ? 0d : bestPath.score )) {
+                bestPath = paths.get(0);
+            }
+        }
+        return bestPath == null ? Collections.emptyList() : bestPath.toList();
+    }
+
+    /**
+     * @return total number of partial path states evaluated when choosing the best peptide matches
+     */
+    public long getPathStatesEvaluated() {
+        return pathStatesEvaluated.get();
     }
 
     // TODO return new MaturePeptideMatch objects rather than altering the existing ones.
@@ -578,23 +684,61 @@ public class PeptideService implements PeptideMatchingService {
         return score;
     }
 
-    Stream<PeptideMatch> getAlignments(PartialProteinSequence protein, File peptideDatabase) throws IOException {
+    /**
+     * Align the protein to the peptides in the database. Peptides are aligned in parallel and the matches, with
+     * scores set, are returned in database order.
+     *
+     * @param protein
+     * @param peptideDatabase
+     * @param prefilter only align peptides sharing k-mers on a common diagonal with the protein
+     * @return
+     * @throws IOException
+     */
+    Stream<PeptideMatch> getAlignments(PartialProteinSequence protein, File peptideDatabase, boolean prefilter) throws IOException {
 
         LOGGER.info("finding alignments in {} for seq {}", peptideDatabase,protein.getProteinID());
 
-        ProteinFastaFileDataStore peptideDataStore = ProteinFastaFileDataStore.fromFile(peptideDatabase);
+        PeptideDatabase database = getPeptideDatabase(peptideDatabase);
+        Collection<ProteinFastaRecord> peptides = database.peptides.values();
+        if (prefilter) {
+            Set<String> candidates = database.getIndex().getCandidates(protein.getSequence(), PREFILTER_MIN_SEEDS);
+            LOGGER.debug("mature peptide prefilter kept {} of {} peptides for {}", candidates.size(), peptides.size(), protein.getProteinID());
+            peptides = candidates.stream().map(database.peptides::get).collect(Collectors.toList());
+        }
         // TODO configurable gap penalties and blosum matrix
-        return peptideDataStore.records()
-                               .map(record -> PeptideMatch.of(record,
-                                       protein,
-                                       PairwiseAlignmentBuilder.createProtienAlignmentBuilder(
-                                               record.getSequence(),
-                                               protein.getSequence(),
-                                               BlosumMatrices.blosum40())
-                                                               .useLocalAlignment(true)
-                                                               .gapPenalty(-16F,-8F)
-                                                               .build())
-                               );
+        List<PeptideMatch> matches = peptides.parallelStream()
+                                             .map(record -> PeptideMatch.of(record,
+                                                     protein,
+                                                     PairwiseAlignmentBuilder.createProtienAlignmentBuilder(
+                                                             record.getSequence(),
+                                                             protein.getSequence(),
+                                                             BlosumMatrices.blosum40())
+                                                                             .useLocalAlignment(true)
+                                                                             .gapPenalty(-16F,-8F)
+                                                                             .build())
+                                             )
+                                             .peek(m -> m.setScores(getMatchScores(m)))
+                                             .collect(Collectors.toList());
+        return matches.stream();
+    }
+
+    PeptideDatabase getPeptideDatabase(File peptideDatabase) throws IOException {
+
+        File key = peptideDatabase.getAbsoluteFile();
+        long lastModified = key.lastModified();
+        synchronized (peptideDatabases) {
+            PeptideDatabase database = peptideDatabases.get(key);
+            if (database == null || database.lastModified != lastModified) {
+                Map<String, ProteinFastaRecord> peptides = new LinkedHashMap<>();
+                try (ProteinFastaFileDataStore peptideDataStore = ProteinFastaFileDataStore.fromFile(key);
+                     Stream<ProteinFastaRecord> records = peptideDataStore.records()) {
+                    records.forEachOrdered(record -> peptides.put(record.getId(), record));
+                }
+                database = new PeptideDatabase(lastModified, peptides);
+                peptideDatabases.put(key, database);
+            }
+            return database;
+        }
     }
 
     private static Scores getMatchScores(PeptideMatch match) {
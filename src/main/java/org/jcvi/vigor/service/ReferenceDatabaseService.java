@@ -0,0 +1,113 @@
+package org.jcvi.vigor.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jcvi.vigor.component.ReferenceDatabase;
+import org.jcvi.vigor.component.ViralProtein;
+import org.jcvi.vigor.exception.VigorException;
+import org.jcvi.vigor.service.exception.ServiceException;
+import org.jcvi.vigor.utils.VigorConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Registry of reference databases. Each database is read once and its proteins have their defline attributes, gene
+ * configuration and gene structure determined once, rather than for every alignment of every genome. Databases are
+ * held for each configuration they were loaded with, until that configuration is released.
+ */
+@Service
+public class ReferenceDatabaseService {
+
+    private static final Logger LOGGER = LogManager.getLogger(ReferenceDatabaseService.class);
+    // the loaded proteins refer to their configuration, so configurations are released explicitly, and the least
+    // recently used are dropped past this many in case one is used again after it was released
+    private static final int MAXIMUM_CONFIGURATIONS = 32;
+
+    @Autowired
+    private ViralProteinService viralProteinService;
+    private final Map<VigorConfiguration, Map<String, Entry>> databases =
+            new LinkedHashMap<VigorConfiguration, Map<String, Entry>>(16, 0.75f, true) {
+
+                @Override
+                protected boolean removeEldestEntry ( Map.Entry<VigorConfiguration, Map<String, Entry>> eldest ) {
+
+                    return size() > MAXIMUM_CONFIGURATIONS;
+                }
+            };
+
+    private static class Entry {
+
+        final long lastModified;
+        final ReferenceDatabase database;
+
+        Entry ( long lastModified, ReferenceDatabase database ) {
+
+            this.lastModified = lastModified;
+            this.database = database;
+        }
+    }
+
+    /**
+     * @param referenceDB
+     * @param config configuration the protein attributes are determined from
+     * @return the database, loading it if it hasn't been loaded with this configuration or has changed since
+     * @throws VigorException
+     */
+    public synchronized ReferenceDatabase getReferenceDatabase ( String referenceDB, VigorConfiguration config ) throws VigorException {
+
+        long lastModified = new File(referenceDB).lastModified();
+        Map<String, Entry> configDatabases = databases.computeIfAbsent(config, c -> new HashMap<>());
+        Entry entry = configDatabases.get(referenceDB);
+        if (entry == null || entry.lastModified != lastModified) {
+            entry = new Entry(lastModified, loadReferenceDatabase(referenceDB, config));
+            configDatabases.put(referenceDB, entry);
+        }
+        return entry.database;
+    }
+
+    /**
+     * Drop the databases loaded with a configuration that is no longer used
+     *
+     * @param config
+     */
+    public synchronized void release ( VigorConfiguration config ) {
+
+        Map<String, Entry> released = databases.remove(config);
+        if (released != null) {
+            LOGGER.debug("released {} reference database(s)", released.size());
+        }
+    }
+
+    private ReferenceDatabase loadReferenceDatabase ( String referenceDB, VigorConfiguration config ) throws VigorException {
+
+        ReferenceDatabase records;
+        try {
+            records = ReferenceDatabase.read(referenceDB);
+        } catch (IOException e) {
+            LOGGER.error(String.format("Problem reading virus database file %s", referenceDB), e);
+            throw new ServiceException(String.format("Problem reading virus database file %s", referenceDB), e);
+        }
+        Map<String, ViralProtein> proteins = new LinkedHashMap<>();
+        Set<String> skipped = new HashSet<>();
+        for (ViralProtein record : records.getProteins()) {
+            // one malformed defline mustn't fail every genome, only alignments to that protein are lost
+            try {
+                proteins.put(record.getProteinID(),
+                             viralProteinService.createViralProtein(record.getProteinID(), record.getDefline(), record.getSequence(), config));
+            } catch (VigorException | RuntimeException e) {
+                LOGGER.error("skipping protein {} of reference database {}: {}", record.getProteinID(), referenceDB, e.getMessage());
+                skipped.add(record.getProteinID());
+            }
+        }
+        LOGGER.debug("loaded {} proteins from reference database {}", proteins.size(), referenceDB);
+        return new ReferenceDatabase(referenceDB, proteins, skipped);
+    }
+}
@@ -332,6 +332,15 @@ public class VigorInitializationService {
                                         inputs.getBoolean(CommandLineParameters.overwriteOutputFiles) ? "true" : "false");
         }
 
+        if (inputs.getBoolean(CommandLineParameters.resume)) {
+            commandLineConfig.putString(ConfigurationParameters.Resume, "true");
+        }
+
+        String shard = inputs.getString(CommandLineParameters.shard);
+        if (shard != null) {
+            commandLineConfig.putString(ConfigurationParameters.Shard, shard);
+        }
+
         String min_gene_coverage = inputs.getString(CommandLineParameters.minCoverage);
         if (min_gene_coverage != null ) {
             commandLineConfig.putString(ConfigurationParameters.GeneMinimumCoverage, min_gene_coverage);
@@ -379,6 +388,10 @@ public class VigorInitializationService {
         if (virus_specific_path != null) {
             commandLineConfig.putString(ConfigurationParameters.VirusSpecificConfiguration, virus_specific_path);
         }
+        String threads = inputs.getString(CommandLineParameters.threads);
+        if (threads != null) {
+            commandLineConfig.putString(ConfigurationParameters.Threads, threads);
+        }
         commandLineConfig.putString(ConfigurationParameters.Verbose,
                                     inputs.getInt(CommandLineParameters.verbose) > 0 ? "true": "false");
 
@@ -50,7 +50,7 @@ public class VigorInputValidationService {
               .action(Arguments.store())
               .dest(CommandLineParameters.inputFile)
               .metavar("<input fasta>")
-              .help("path to fasta file of genomic sequences to be annotated.");
+              .help("path to fasta file of genomic sequences to be annotated, which may be gzip compressed, or - for standard input.");
 
         parser.addArgument("-o","--output-prefix")
               .action(Arguments.store())
@@ -159,11 +159,40 @@ public class VigorInputValidationService {
               .dest(CommandLineParameters.overwriteOutputFiles)
               .help("overwrite existing output files if they exist");
 
+        parser.addArgument("--resume")
+              .action(Arguments.storeTrue())
+              .dest(CommandLineParameters.resume)
+              .help("resume an interrupted run, keeping the output of genomes already annotated");
+
+        parser.addArgument("--shard")
+              .action(Arguments.store())
+              .dest(CommandLineParameters.shard)
+              .metavar("<i/N>")
+              .help("annotate every Nth genome starting from the ith, writing output with the prefix outputprefix.shard-i-of-N");
+
+        parser.addArgument("--merge-shards")
+              .action(Arguments.store())
+              .type(Integer.class)
+              .dest(CommandLineParameters.mergeShards)
+              .metavar("<N>")
+              .help("merge the output of N completed shards into the output for outputprefix and exit");
+
+        parser.addArgument("--server")
+              .action(Arguments.storeTrue())
+              .dest(CommandLineParameters.server)
+              .help(String.format("run as a local annotation server on the port set by %s, annotating the fasta posted to /annotate with the other options as defaults", ConfigurationParameters.ServerPort.configKey));
+
         parser.addArgument("--temporary-directory")
               .action(Arguments.store())
               .dest(CommandLineParameters.temporaryDirectory)
               .help("Root directory to use for temporary directories");
 
+        parser.addArgument("--threads")
+              .action(Arguments.store())
+              .dest(CommandLineParameters.threads)
+              .metavar("<threads>")
+              .help("number of genomes to annotate concurrently (default 1). Output order is unaffected");
+
         parser.addArgument("--list-output-formats")
               .action(new PrintFormats())
               .help("list acceptable output formats and exit");
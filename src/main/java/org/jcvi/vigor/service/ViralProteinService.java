@@ -10,6 +10,7 @@ import org.jcvi.vigor.component.SpliceSite;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jcvi.jillion.core.Range;
+import org.jcvi.jillion.core.residue.aa.ProteinSequence;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
@@ -35,35 +36,57 @@ public class ViralProteinService {
      */
     public Alignment setViralProteinAttributes ( Alignment alignment, VigorConfiguration config ) throws VigorException {
         ViralProtein viralProtein = alignment.getViralProtein();
-        Map<String, String> attributes = parseDeflineAttributes(StringUtils.normalizeSpace(viralProtein.getDefline()),
-                                                                viralProtein.getProteinID());
+        alignment.setViralProtein(createViralProtein(viralProtein.getProteinID(), viralProtein.getDefline(),
+                                                     viralProtein.getSequence(), config));
+        setMaturePeptideDB(alignment);
+        return alignment;
+    }
 
+    /**
+     * @param proteinID
+     * @param defline
+     * @param sequence
+     * @param config
+     * @return ViralProtein with attributes from the defline, gene configuration and gene structure set
+     * @throws VigorException
+     */
+    public ViralProtein createViralProtein ( String proteinID, String defline, ProteinSequence sequence, VigorConfiguration config ) throws VigorException {
+        ViralProtein viralProtein = new ViralProtein();
+        viralProtein.setProteinID(proteinID);
+        viralProtein.setDefline(defline);
+        viralProtein.setSequence(sequence);
+        Map<String, String> attributes = parseDeflineAttributes(StringUtils.normalizeSpace(defline), proteinID);
 
-        VigorConfiguration defaultConfig = config;
         viralProtein = setProteinAttributes(viralProtein, attributes);
-        viralProtein.setConfiguration(getGeneConfiguration(viralProtein, defaultConfig, attributes));
+        viralProtein.setConfiguration(getGeneConfiguration(viralProtein, config, attributes));
         /* set geneStructure property of viralProtein */
-        viralProtein = setAttributesFromConfig(alignment, viralProtein.getConfiguration());
+        viralProtein = setAttributesFromConfig(viralProtein, viralProtein.getConfiguration());
         int min_intron_length = viralProtein.getConfiguration().getOrDefault(ConfigurationParameters.IntronMinimumSize, 0);
-        viralProtein = determineGeneStructure(viralProtein, min_intron_length);
-
-        alignment.setViralProtein(viralProtein);
-        return alignment;
+        return determineGeneStructure(viralProtein, min_intron_length);
     }
 
-    // TODO make sure configuration values are appropriate
-    private ViralProtein setAttributesFromConfig(Alignment alignment, VigorConfiguration geneConfig) {
+    /**
+     * Set the mature peptide database of the alignment evidence from the viral protein's configuration, if it is
+     * not already set
+     *
+     * @param alignment
+     */
+    public void setMaturePeptideDB ( Alignment alignment ) {
         ViralProtein viralProtein = alignment.getViralProtein();
-        String product = viralProtein.getProduct();
-        viralProtein.setProduct(product != null ? product : geneConfig.getOrDefault(ConfigurationParameters.DBProduct,""));
-        String geneSynonym = viralProtein.getGeneSynonym();
-        viralProtein.setGeneSynonym(geneSynonym != null ? geneSynonym : geneConfig.getOrDefault(ConfigurationParameters.DBGeneSynonym,""));
-
+        VigorConfiguration geneConfig = viralProtein.getConfiguration();
         String matpepDB = alignment.getAlignmentEvidence().getMatpep_db();
         matpepDB = ! NullUtil.isNullOrEmpty(matpepDB) ? matpepDB: geneConfig.getOrDefault(ConfigurationParameters.MaturePeptideDB, "");
         matpepDB = matpepDB.replace("<vigordata>", geneConfig.get(ConfigurationParameters.ReferenceDatabasePath));
         LOGGER.trace("setting mature peptide db for {} (gene {}) to {}", viralProtein.getProteinID(), viralProtein.getGeneSymbol(), matpepDB);
         alignment.getAlignmentEvidence().setMatpep_db(matpepDB);
+    }
+
+    // TODO make sure configuration values are appropriate
+    private ViralProtein setAttributesFromConfig(ViralProtein viralProtein, VigorConfiguration geneConfig) {
+        String product = viralProtein.getProduct();
+        viralProtein.setProduct(product != null ? product : geneConfig.getOrDefault(ConfigurationParameters.DBProduct,""));
+        String geneSynonym = viralProtein.getGeneSynonym();
+        viralProtein.setGeneSynonym(geneSynonym != null ? geneSynonym : geneConfig.getOrDefault(ConfigurationParameters.DBGeneSynonym,""));
 
         GeneAttributes attributes = viralProtein.getGeneAttributes();
         attributes.setRibosomal_slippage(geneConfig.getOrDefault(ConfigurationParameters.RibosomalSlippage, Ribosomal_Slippage.NO_SLIPPAGE));
@@ -69,7 +69,6 @@ public class VirusGenomeService {
         VirusGenome virusGenome = new VirusGenome(record.getSequence(), record.getComment(), record.getId(),
                 config.getOrDefault(ConfigurationParameters.CircularGene, false));
         Integer min_gap_length = config.get(ConfigurationParameters.SequenceGapMinimumLength);
-        virusGenome.setInternalStops(findInternalStops(virusGenome.getSequence()));
         virusGenome.setSequenceGaps(findSequenceGapRanges(min_gap_length,virusGenome.getSequence()));
         return virusGenome;
     }
@@ -78,7 +77,7 @@ public class VirusGenomeService {
      *
      * @param inputGenome
      * @param config
-     * @return reverse complement input sequence and create virusGenome object
+     * @return reverse complement input sequence and create virusGenome object. Stops are found on first use
      */
     public static VirusGenome reverseComplementVirusGenome(VirusGenome inputGenome,VigorConfiguration config){
         NucleotideSequence reverseCompGenome = inputGenome.getSequence().toBuilder().reverseComplement().build();
@@ -87,7 +86,6 @@ public class VirusGenomeService {
                                                   inputGenome.getId(),
                                                   inputGenome.getIsCircular());
         Integer min_gap_length = config.get(ConfigurationParameters.SequenceGapMinimumLength);
-        virusGenome.setInternalStops(findInternalStops(virusGenome.getSequence()));
         virusGenome.setSequenceGaps(findSequenceGapRanges(min_gap_length,virusGenome.getSequence()));
         return virusGenome;
     }
@@ -5,10 +5,9 @@ import org.apache.logging.log4j.Logger;
 import org.jcvi.vigor.component.Model;
 import org.jcvi.vigor.exception.VigorException;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.List;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 public class AlignmentWriter extends BaseOutputWriter {
@@ -24,22 +23,17 @@ public class AlignmentWriter extends BaseOutputWriter {
         context.addContext(OutputContext.Key.GENOME, models.get(0).getGeneID());
 
         try (WriterBundle bw  = getWriter(outfiles, context, OutputContext.Key.GENOME)) {
-            List<File> raw_files = models.stream()
-                                         .map(m -> m.getAlignment().getAlignmentEvidence().getRaw_alignment())
-                                         .distinct()
-                                         .collect(Collectors.toList());
-
-            for (File raw_alignment : raw_files) {
-                printAlignment(bw, raw_alignment);
+            List<String> raw_alignments = models.stream()
+                                                .map(m -> m.getAlignment().getAlignmentEvidence().getRaw_alignment_text())
+                                                // in-process aligners have no raw alignment
+                                                .filter(Objects::nonNull)
+                                                .distinct()
+                                                .collect(Collectors.toList());
+
+            for (String raw_alignment : raw_alignments) {
+                bw.write(raw_alignment);
             }
         }
-        List<File> temp_directories = models.stream()
-                .map(m -> m.getAlignment().getAlignmentEvidence().getResults_directory())
-                .distinct()
-                .collect(Collectors.toList());
-        for (File temp_directory: temp_directories) {
-            VigorUtils.deleteTempFiles(temp_directory.getAbsolutePath());
-        }
     }
 
     @Override
@@ -47,19 +41,4 @@ public class AlignmentWriter extends BaseOutputWriter {
         return "aln";
     }
 
-        // TODO don't write alignments one character at a time.
-    public void printAlignment (WriterBundle bw, File inputFile ) {
-
-        try {
-            FileInputStream fRead = new FileInputStream(inputFile);
-            int c;
-            while (( c = fRead.read() ) != -1) {
-                bw.write((char) c);
-            }
-            fRead.close();
-        } catch (Exception e) {
-            LOGGER.warn("Error reading temporory alignment file {}", inputFile.getAbsolutePath());
-        }
-    }
-
 }
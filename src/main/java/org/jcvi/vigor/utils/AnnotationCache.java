@@ -0,0 +1,225 @@
+package org.jcvi.vigor.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Directory of cached values by key, bounded in size. When the entries grow beyond the maximum size the least recently
+ * used are removed until they are below 90% of it, so that a full cache isn't scanned on every addition. Entries are
+ * written to a temporary file and moved into place, so that runs sharing the directory never see partial entries.
+ *
+ * Keys are hexadecimal digests and entries are spread over subdirectories by the first two characters of the key.
+ */
+public class AnnotationCache {
+
+    private static final Logger LOGGER = LogManager.getLogger(AnnotationCache.class);
+    static final String ENTRY_SUFFIX = ".annotation";
+
+    private final Path directory;
+    private final long maximumSize;
+    // approximate, as other runs may share the directory. Recounted on eviction
+    private final AtomicLong size;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param directory created if it doesn't exist
+     * @param maximumSize in bytes
+     * @throws IOException
+     */
+    public AnnotationCache ( Path directory, long maximumSize ) throws IOException {
+
+        this.directory = Files.createDirectories(directory);
+        this.maximumSize = maximumSize;
+        this.size = new AtomicLong(getEntries().stream().mapToLong(e -> e.size).sum());
+    }
+
+    public Path getDirectory () {
+
+        return directory;
+    }
+
+    /**
+     * @param key
+     * @return the cached value, if any. The entry is marked as recently used
+     */
+    public Optional<byte[]> get ( String key ) {
+
+        Path entry = getEntry(key);
+        try {
+            byte[] value = Files.readAllBytes(entry);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.incrementAndGet();
+            return Optional.of(value);
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        } catch (IOException e) {
+            LOGGER.warn("unable to read annotation cache entry {}: {}", entry, e.getMessage());
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Add or replace a value, removing the least recently used entries if the cache is full. Values which can't be
+     * written are only logged.
+     *
+     * @param key
+     * @param value
+     */
+    public void put ( String key, byte[] value ) {
+
+        if (value.length > maximumSize) {
+            LOGGER.debug("not caching {} byte entry larger than the cache", value.length);
+            return;
+        }
+        Path entry = getEntry(key);
+        long replaced;
+        try {
+            Files.createDirectories(entry.getParent());
+            Path tempFile = Files.createTempFile(entry.getParent(), key, ".tmp");
+            try {
+                Files.write(tempFile, value);
+                replaced = entrySize(entry);
+                Files.move(tempFile, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("unable to write annotation cache entry {}: {}", entry, e.getMessage());
+            return;
+        }
+        if (size.addAndGet(value.length - replaced) > maximumSize) {
+            evict();
+        }
+    }
+
+    /**
+     * @param key of an entry which could not be used
+     */
+    public void remove ( String key ) {
+
+        Path entry = getEntry(key);
+        try {
+            long length = Files.size(entry);
+            if (Files.deleteIfExists(entry)) {
+                size.addAndGet(-length);
+            }
+        } catch (NoSuchFileException e) {
+            // already removed
+        } catch (IOException e) {
+            LOGGER.warn("unable to remove annotation cache entry {}: {}", entry, e.getMessage());
+        }
+    }
+
+    /**
+     * @param entry
+     * @return size of the entry, or 0 if there is none
+     * @throws IOException
+     */
+    private static long entrySize ( Path entry ) throws IOException {
+
+        try {
+            return Files.size(entry);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    public long getSize () {
+
+        return size.get();
+    }
+
+    public long getHits () {
+
+        return hits.get();
+    }
+
+    public long getMisses () {
+
+        return misses.get();
+    }
+
+    Path getEntry ( String key ) {
+
+        if (key.length() < 3 || !key.matches("[0-9a-f]+")) {
+            throw new IllegalArgumentException(String.format("invalid annotation cache key \"%s\"", key));
+        }
+        return directory.resolve(key.substring(0, 2)).resolve(key + ENTRY_SUFFIX);
+    }
+
+    private synchronized void evict () {
+
+        List<CacheEntry> entries;
+        try {
+            entries = getEntries();
+        } catch (IOException e) {
+            LOGGER.warn("unable to list annotation cache {}: {}", directory, e.getMessage());
+            return;
+        }
+        long total = entries.stream().mapToLong(e -> e.size).sum();
+        long target = maximumSize / 10 * 9;
+        int removed = 0;
+        entries.sort(Comparator.comparing((CacheEntry e) -> e.lastUsed));
+        for (CacheEntry entry : entries) {
+            if (total <= target) {
+                break;
+            }
+            try {
+                if (Files.deleteIfExists(entry.path)) {
+                    removed++;
+                }
+                total -= entry.size;
+            } catch (IOException e) {
+                LOGGER.warn("unable to remove annotation cache entry {}: {}", entry.path, e.getMessage());
+            }
+        }
+        size.set(total);
+        LOGGER.debug("removed {} least recently used entries from annotation cache {}, {} bytes remaining",
+                     removed, directory, total);
+    }
+
+    private static final class CacheEntry {
+
+        final Path path;
+        final long size;
+        final FileTime lastUsed;
+
+        CacheEntry ( Path path, BasicFileAttributes attributes ) {
+
+            this.path = path;
+            this.size = attributes.size();
+            this.lastUsed = attributes.lastModifiedTime();
+        }
+    }
+
+    private List<CacheEntry> getEntries () throws IOException {
+
+        List<CacheEntry> entries = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(directory, 2)) {
+            for (Path path : paths.filter(p -> p.getFileName().toString().endsWith(ENTRY_SUFFIX))
+                                  .collect(Collectors.toList())) {
+                try {
+                    entries.add(new CacheEntry(path, Files.readAttributes(path, BasicFileAttributes.class)));
+                } catch (NoSuchFileException e) {
+                    // removed by another run
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return entries;
+    }
+}
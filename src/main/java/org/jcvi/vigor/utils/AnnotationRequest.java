@@ -0,0 +1,139 @@
+package org.jcvi.vigor.utils;
+
+import org.jcvi.vigor.service.exception.UserFacingException;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.*;
+
+/**
+ * Parameters of a request to the annotation server, given as a URL query. reference_database selects the reference
+ * database by name or alias, as with -d, and any other parameters are configuration parameters, as with -P.
+ *
+ * Parameters which decide where or with what programs and files the server runs may not be set by a request, as
+ * requests share the server's directories and caches. Neither may those deciding the threads used, which are limited
+ * by the server's settings, nor verbose, which sets the log level of every request.
+ */
+public class AnnotationRequest {
+
+    public static final String REFERENCE_DATABASE = "reference_database";
+
+    private static final EnumSet<ConfigurationParameters> SERVER_PARAMETERS = EnumSet.of(
+            ConfigurationParameters.AnnotationCacheDirectory,
+            ConfigurationParameters.AnnotationCacheMaximumSize,
+            ConfigurationParameters.ExoneratePath,
+            ConfigurationParameters.ExonerateServer,
+            ConfigurationParameters.ExonerateServerBatchSize,
+            ConfigurationParameters.ExonerateServerWorkers,
+            ConfigurationParameters.MaturePeptideDB,
+            ConfigurationParameters.ModelThreads,
+            ConfigurationParameters.MultiFile,
+            ConfigurationParameters.OutputDirectory,
+            ConfigurationParameters.OutputPrefix,
+            ConfigurationParameters.OverwriteOutputFiles,
+            ConfigurationParameters.Pipeline,
+            ConfigurationParameters.PipelineQueueSize,
+            ConfigurationParameters.ReferenceDatabaseFile,
+            ConfigurationParameters.ReferenceDatabasePath,
+            ConfigurationParameters.Resume,
+            ConfigurationParameters.ServerPort,
+            ConfigurationParameters.ServerQueueSize,
+            ConfigurationParameters.ServerThreads,
+            ConfigurationParameters.Shard,
+            ConfigurationParameters.TemporaryDirectory,
+            ConfigurationParameters.Threads,
+            ConfigurationParameters.Verbose,
+            ConfigurationParameters.VirusSpecificConfiguration,
+            ConfigurationParameters.VirusSpecificConfigurationPath);
+
+    private final String referenceDatabase;
+    private final SortedMap<String, String> parameters;
+
+    private AnnotationRequest ( String referenceDatabase, SortedMap<String, String> parameters ) {
+
+        this.referenceDatabase = referenceDatabase;
+        this.parameters = parameters;
+    }
+
+    /**
+     * @param query URL query of the request, may be null
+     * @return
+     * @throws UserFacingException if a parameter is unknown, repeated or may not be set by a request
+     */
+    public static AnnotationRequest parse ( String query ) throws UserFacingException {
+
+        String referenceDatabase = null;
+        SortedMap<String, String> parameters = new TreeMap<>();
+        if (NullUtil.isNullOrEmpty(query)) {
+            return new AnnotationRequest(referenceDatabase, parameters);
+        }
+        for (String field : query.split("&")) {
+            if (field.isEmpty()) {
+                continue;
+            }
+            String[] keyValue = field.split("=", 2);
+            String key = decode(keyValue[ 0 ]);
+            String value = keyValue.length > 1 ? decode(keyValue[ 1 ]) : "";
+            if (REFERENCE_DATABASE.equals(key)) {
+                // only databases under the server's reference database path may be used
+                if (referenceDatabase != null || value.isEmpty() || value.contains("/") || value.startsWith(".")) {
+                    throw new UserFacingException(String.format("invalid %s %s", REFERENCE_DATABASE, value));
+                }
+                referenceDatabase = value;
+                continue;
+            }
+            ConfigurationParameters parameter = ConfigurationParameters.getParameterByConfigKey(key);
+            if (parameter == null || !parameter.hasFlag(ConfigurationParameters.Flags.VERSION_4)) {
+                throw new UserFacingException(String.format("unknown parameter %s", key));
+            }
+            if (SERVER_PARAMETERS.contains(parameter)) {
+                throw new UserFacingException(String.format("parameter %s is set by the server and may not be set by a request", key));
+            }
+            // ~~ separates parameters passed together
+            if (value.contains("~~")) {
+                throw new UserFacingException(String.format("invalid value %s for parameter %s", value, key));
+            }
+            if (parameters.put(key, value) != null) {
+                throw new UserFacingException(String.format("parameter %s is repeated", key));
+            }
+        }
+        return new AnnotationRequest(referenceDatabase, parameters);
+    }
+
+    private static String decode ( String encoded ) throws UserFacingException {
+
+        try {
+            return URLDecoder.decode(encoded, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            throw new UserFacingException(String.format("invalid request parameter %s", encoded));
+        }
+    }
+
+    public Optional<String> getReferenceDatabase () {
+
+        return Optional.ofNullable(referenceDatabase);
+    }
+
+    /**
+     * @return configuration parameters of the request, by configuration key
+     */
+    public SortedMap<String, String> getParameters () {
+
+        return parameters;
+    }
+
+    /**
+     * @return command line arguments setting the request's parameters, the same for requests with the same parameters
+     */
+    public List<String> getArguments () {
+
+        List<String> arguments = new ArrayList<>(parameters.size() + 1);
+        if (referenceDatabase != null) {
+            arguments.add("--reference-database=" + referenceDatabase);
+        }
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            arguments.add("--parameter=" + parameter.getKey() + "=" + parameter.getValue());
+        }
+        return arguments;
+    }
+}
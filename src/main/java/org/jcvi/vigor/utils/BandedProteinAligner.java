@@ -0,0 +1,198 @@
+package org.jcvi.vigor.utils;
+
+import org.jcvi.jillion.align.AminoAcidSubstitutionMatrix;
+import org.jcvi.jillion.core.Range;
+import org.jcvi.jillion.core.residue.aa.AminoAcid;
+import org.jcvi.jillion.core.residue.aa.ProteinSequence;
+import org.jcvi.jillion.core.residue.aa.ProteinSequenceBuilder;
+
+/**
+ * Local protein alignment restricted to a band of diagonals, for sequences already known to align near those
+ * diagonals. Time and memory are proportional to the query length times the band width rather than to the product of
+ * the sequence lengths. Scoring matches the Smith-Waterman alignment of the Jillion pairwise aligner with equal gap
+ * open and extension penalties.
+ */
+public class BandedProteinAligner {
+
+    private static final byte STOP = 0;
+    private static final byte DIAGONAL = 1;
+    private static final byte UP = 2;
+    private static final byte LEFT = 3;
+
+    /**
+     * Result of a banded alignment
+     */
+    public static class Result {
+
+        private final float score;
+        private final double percentIdentity;
+        private final ProteinSequence gappedQueryAlignment;
+        private final ProteinSequence gappedSubjectAlignment;
+        private final Range queryRange;
+        private final Range subjectRange;
+
+        private Result ( float score, double percentIdentity, ProteinSequence gappedQueryAlignment, ProteinSequence gappedSubjectAlignment,
+                         Range queryRange, Range subjectRange ) {
+
+            this.score = score;
+            this.percentIdentity = percentIdentity;
+            this.gappedQueryAlignment = gappedQueryAlignment;
+            this.gappedSubjectAlignment = gappedSubjectAlignment;
+            this.queryRange = queryRange;
+            this.subjectRange = subjectRange;
+        }
+
+        public float getScore () {
+
+            return score;
+        }
+
+        /**
+         * @return identical positions divided by alignment length, between 0 and 1
+         */
+        public double getPercentIdentity () {
+
+            return percentIdentity;
+        }
+
+        public ProteinSequence getGappedQueryAlignment () {
+
+            return gappedQueryAlignment;
+        }
+
+        public ProteinSequence getGappedSubjectAlignment () {
+
+            return gappedSubjectAlignment;
+        }
+
+        public Range getQueryRange () {
+
+            return queryRange;
+        }
+
+        public Range getSubjectRange () {
+
+            return subjectRange;
+        }
+    }
+
+    /**
+     * @param query
+     * @param subject
+     * @param matrix
+     * @param gapPenalty score of each gap position, usually negative
+     * @param minDiagonal lowest subject position minus query position the alignment may use
+     * @param maxDiagonal highest subject position minus query position the alignment may use
+     * @return the best local alignment within the band, or null if no positive scoring alignment exists
+     */
+    public static Result align ( ProteinSequence query, ProteinSequence subject, AminoAcidSubstitutionMatrix matrix,
+                                 float gapPenalty, int minDiagonal, int maxDiagonal ) {
+
+        if (minDiagonal > maxDiagonal) {
+            throw new IllegalArgumentException(String.format("band %s to %s is empty", minDiagonal, maxDiagonal));
+        }
+        AminoAcid[] queryResidues = toArray(query);
+        AminoAcid[] subjectResidues = toArray(subject);
+        int rows = queryResidues.length;
+        int columns = subjectResidues.length;
+        int width = maxDiagonal - minDiagonal + 1;
+        // cell (i, j) for 1 based positions is stored at index j - i - minDiagonal of row i
+        byte[][] traceback = new byte[rows + 1][width];
+        float[] previous = new float[width];
+        float[] current = new float[width];
+        float bestScore = 0;
+        int bestRow = 0;
+        int bestColumn = 0;
+        for (int i = 1; i <= rows; i++) {
+            for (int k = 0; k < width; k++) {
+                int j = i + minDiagonal + k;
+                current[k] = 0;
+                traceback[i][k] = STOP;
+                if (j < 1 || j > columns) {
+                    continue;
+                }
+                // cells of row 0, column 0 and outside the sequences score 0.
+                // diagonal neighbour (i-1, j-1) is at the same offset of the previous row
+                float best = 0;
+                byte direction = STOP;
+                float score = previous[k] + matrix.getValue(queryResidues[i - 1], subjectResidues[j - 1]);
+                if (score > best) {
+                    best = score;
+                    direction = DIAGONAL;
+                }
+                // up neighbour (i-1, j) is at offset k + 1 of the previous row
+                if (k + 1 < width && ( score = previous[k + 1] + gapPenalty ) > best) {
+                    best = score;
+                    direction = UP;
+                }
+                // left neighbour (i, j-1) is at offset k - 1 of this row
+                if (k > 0 && ( score = current[k - 1] + gapPenalty ) > best) {
+                    best = score;
+                    direction = LEFT;
+                }
+                current[k] = best;
+                traceback[i][k] = direction;
+                if (best > bestScore) {
+                    bestScore = best;
+                    bestRow = i;
+                    bestColumn = j;
+                }
+            }
+            float[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        if (bestScore <= 0) {
+            return null;
+        }
+        return traceBack(queryResidues, subjectResidues, traceback, minDiagonal, bestScore, bestRow, bestColumn);
+    }
+
+    private static Result traceBack ( AminoAcid[] query, AminoAcid[] subject, byte[][] traceback, int minDiagonal,
+                                      float score, int row, int column ) {
+
+        StringBuilder gappedQuery = new StringBuilder();
+        StringBuilder gappedSubject = new StringBuilder();
+        int matches = 0;
+        int i = row;
+        int j = column;
+        int queryEnd = row - 1;
+        int subjectEnd = column - 1;
+        byte direction;
+        while (i > 0 && j > 0 && ( direction = traceback[i][j - i - minDiagonal] ) != STOP) {
+            if (direction == DIAGONAL) {
+                gappedQuery.append(query[i - 1].getCharacter());
+                gappedSubject.append(subject[j - 1].getCharacter());
+                if (query[i - 1] == subject[j - 1]) {
+                    matches++;
+                }
+                i--;
+                j--;
+            } else if (direction == UP) {
+                gappedQuery.append(query[i - 1].getCharacter());
+                gappedSubject.append('-');
+                i--;
+            } else {
+                gappedQuery.append('-');
+                gappedSubject.append(subject[j - 1].getCharacter());
+                j--;
+            }
+        }
+        int alignmentLength = gappedQuery.length();
+        return new Result(score,
+                          alignmentLength == 0 ? 0 : matches / (double) alignmentLength,
+                          new ProteinSequenceBuilder(gappedQuery.reverse().toString()).build(),
+                          new ProteinSequenceBuilder(gappedSubject.reverse().toString()).build(),
+                          Range.of(i, queryEnd),
+                          Range.of(j, subjectEnd));
+    }
+
+    private static AminoAcid[] toArray ( ProteinSequence sequence ) {
+
+        AminoAcid[] residues = new AminoAcid[(int) sequence.getLength()];
+        for (int i = 0; i < residues.length; i++) {
+            residues[i] = sequence.get(i);
+        }
+        return residues;
+    }
+}
@@ -0,0 +1,298 @@
+package org.jcvi.vigor.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Journal of the records whose output has been written, so that an interrupted run can be resumed. After each record
+ * a line is appended with the record ID and the size of each open output file, relative to the output directory.
+ * A run is resumed from the last complete record line: output files are truncated to the sizes recorded there and the
+ * records already written are skipped.
+ *
+ * The sizes of the files once their headers are written and at the end of the run are recorded on #start and #end
+ * lines, so that the output of each record can be found, for instance to merge the outputs of several runs.
+ *
+ * <pre>
+ * #vigor-checkpoint	1	/path/to/input.fasta
+ * #start	prefix.tbl	0	prefix.pep	0
+ * record1	prefix.tbl	2130	prefix.pep	4211
+ * #end	prefix.tbl	2130	prefix.pep	4211
+ * </pre>
+ */
+public class Checkpoint implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger(Checkpoint.class);
+    public static final String EXTENSION = "checkpoint";
+    private static final String HEADER = "#vigor-checkpoint";
+    private static final String START = "#start";
+    private static final String END = "#end";
+    private static final int VERSION = 1;
+
+    /**
+     * Records written and output file sizes as of the last complete line of a journal
+     */
+    public static final class State {
+
+        private final String inputFile;
+        private final List<String> recordIDs = new ArrayList<>();
+        private final List<Map<Path, Long>> recordOffsets = new ArrayList<>();
+        private Map<Path, Long> startOffsets = Collections.emptyMap();
+        private Map<Path, Long> endSizes;
+        // length of the journal up to the end of the last complete record line
+        private long length;
+
+        private State ( String inputFile, long length ) {
+
+            this.inputFile = inputFile;
+            this.length = length;
+        }
+
+        public String getInputFile () {
+
+            return inputFile;
+        }
+
+        /**
+         * @return IDs of the records written, in input order
+         */
+        public List<String> getRecordIDs () {
+
+            return recordIDs;
+        }
+
+        /**
+         * @return size of each output file after the last record, relative to the output directory
+         */
+        public Map<Path, Long> getOffsets () {
+
+            return recordOffsets.isEmpty() ? Collections.emptyMap() : recordOffsets.get(recordOffsets.size() - 1);
+        }
+
+        /**
+         * @return size of each output file after each record, in the order of {@link #getRecordIDs()}
+         */
+        public List<Map<Path, Long>> getRecordOffsets () {
+
+            return recordOffsets;
+        }
+
+        /**
+         * @return size of each output file before the first record
+         */
+        public Map<Path, Long> getStartOffsets () {
+
+            return startOffsets;
+        }
+
+        /**
+         * @return size of each output file at the end of the run, if the run completed
+         */
+        public Optional<Map<Path, Long>> getEndSizes () {
+
+            return Optional.ofNullable(endSizes);
+        }
+
+        public boolean isComplete () {
+
+            return endSizes != null;
+        }
+    }
+
+    private final Path journal;
+    private final Path outputDirectory;
+    private final BufferedWriter writer;
+    private int records;
+
+    private Checkpoint ( Path journal, BufferedWriter writer, int records ) {
+
+        this.journal = journal;
+        this.outputDirectory = journal.toAbsolutePath().getParent();
+        this.writer = writer;
+        this.records = records;
+    }
+
+    /**
+     * @param journal
+     * @return the state as of the last complete line of the journal, if the journal exists
+     * @throws IOException if the journal isn't a checkpoint journal
+     */
+    public static Optional<State> read ( Path journal ) throws IOException {
+
+        if (!Files.exists(journal)) {
+            return Optional.empty();
+        }
+        byte[] bytes = Files.readAllBytes(journal);
+        String content = new String(bytes, StandardCharsets.UTF_8);
+        State state = null;
+        int start = 0;
+        int end;
+        long length = 0;
+        // only lines terminated by a newline were completely written
+        while (( end = content.indexOf('\n', start) ) >= 0) {
+            String[] fields = content.substring(start, end).split("\t", -1);
+            length += content.substring(start, end + 1).getBytes(StandardCharsets.UTF_8).length;
+            if (state == null) {
+                if (fields.length != 3 || !HEADER.equals(fields[ 0 ])) {
+                    throw new IOException(String.format("%s is not a checkpoint journal", journal));
+                }
+                if (Integer.parseInt(fields[ 1 ]) != VERSION) {
+                    throw new IOException(String.format("unsupported checkpoint journal version %s", fields[ 1 ]));
+                }
+                state = new State(fields[ 2 ], length);
+            } else {
+                if (fields.length % 2 != 1) {
+                    LOGGER.warn("ignoring malformed checkpoint line {}", content.substring(start, end));
+                    break;
+                }
+                Map<Path, Long> lineOffsets = new LinkedHashMap<>();
+                try {
+                    for (int i = 1; i < fields.length; i += 2) {
+                        lineOffsets.put(Paths.get(fields[ i ]), Long.parseLong(fields[ i + 1 ]));
+                    }
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("ignoring malformed checkpoint line {}", content.substring(start, end));
+                    break;
+                }
+                if (START.equals(fields[ 0 ])) {
+                    state.startOffsets = lineOffsets;
+                } else if (END.equals(fields[ 0 ])) {
+                    state.endSizes = lineOffsets;
+                } else {
+                    state.recordIDs.add(fields[ 0 ]);
+                    state.recordOffsets.add(lineOffsets);
+                    state.length = length;
+                }
+            }
+            start = end + 1;
+        }
+        return Optional.ofNullable(state);
+    }
+
+    /**
+     * Start a new journal
+     *
+     * @param journal
+     * @param inputFile
+     * @param overwrite replace an existing journal
+     * @return
+     * @throws IOException
+     */
+    public static Checkpoint create ( Path journal, String inputFile, boolean overwrite ) throws IOException {
+
+        OpenOption[] options = overwrite ?
+                new OpenOption[] { StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING } :
+                new OpenOption[] { StandardOpenOption.CREATE_NEW };
+        BufferedWriter writer = Files.newBufferedWriter(journal, StandardCharsets.UTF_8, options);
+        writer.write(String.join("\t", HEADER, Integer.toString(VERSION), inputFile));
+        writer.newLine();
+        writer.flush();
+        return new Checkpoint(journal, writer, 0);
+    }
+
+    /**
+     * Continue a journal from its last complete record line, truncating the output files to their sizes at that point
+     *
+     * @param journal
+     * @param state as read from the journal
+     * @return
+     * @throws IOException if an output file is shorter than recorded
+     */
+    public static Checkpoint resume ( Path journal, State state ) throws IOException {
+
+        Path outputDirectory = journal.toAbsolutePath().getParent();
+        for (Map.Entry<Path, Long> offset : state.getOffsets().entrySet()) {
+            truncate(outputDirectory.resolve(offset.getKey()), offset.getValue());
+        }
+        truncate(journal, state.length);
+        BufferedWriter writer = Files.newBufferedWriter(journal, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        return new Checkpoint(journal, writer, state.recordIDs.size());
+    }
+
+    private static void truncate ( Path path, long size ) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            if (channel.size() < size) {
+                throw new IOException(String.format("%s is shorter than the %s bytes recorded in the checkpoint", path, size));
+            }
+            if (channel.size() > size) {
+                LOGGER.debug("truncating {} from {} to {} bytes", path, channel.size(), size);
+                channel.truncate(size);
+            }
+        } catch (NoSuchFileException e) {
+            throw new IOException(String.format("%s recorded in the checkpoint is missing", path), e);
+        }
+    }
+
+    /**
+     * Record the sizes of the output files before the first record is written
+     *
+     * @param sizes of the open output files, which must have been flushed
+     * @throws IOException
+     */
+    public synchronized void start ( Map<Path, Long> sizes ) throws IOException {
+
+        writeLine(START, sizes);
+    }
+
+    /**
+     * Record that a record's output has been written
+     *
+     * @param recordID
+     * @param sizes of the open output files, which must have been flushed
+     * @throws IOException
+     */
+    public synchronized void record ( String recordID, Map<Path, Long> sizes ) throws IOException {
+
+        writeLine(recordID, sizes);
+        records++;
+    }
+
+    /**
+     * Record that the run completed
+     *
+     * @param sizes of the open output files, which must have been flushed
+     * @throws IOException
+     */
+    public synchronized void finish ( Map<Path, Long> sizes ) throws IOException {
+
+        writeLine(END, sizes);
+    }
+
+    private void writeLine ( String label, Map<Path, Long> sizes ) throws IOException {
+
+        StringBuilder line = new StringBuilder(label);
+        for (Map.Entry<Path, Long> size : sizes.entrySet()) {
+            line.append('\t').append(outputDirectory.relativize(size.getKey().toAbsolutePath()))
+                .append('\t').append(size.getValue());
+        }
+        writer.write(line.toString());
+        writer.newLine();
+        writer.flush();
+    }
+
+    /**
+     * @return number of records written, including those of the runs resumed
+     */
+    public synchronized int getRecords () {
+
+        return records;
+    }
+
+    public Path getJournal () {
+
+        return journal;
+    }
+
+    @Override
+    public void close () throws IOException {
+
+        writer.close();
+    }
+}
@@ -0,0 +1,273 @@
+package org.jcvi.vigor.utils;
+
+import org.jcvi.jillion.core.Range;
+import org.jcvi.jillion.core.residue.Frame;
+import org.jcvi.jillion.core.residue.aa.IupacTranslationTables;
+import org.jcvi.jillion.core.residue.nt.NucleotideSequence;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Index of the stop codons of a genome sequence and of the positions of short motifs such as start codons and splice
+ * site dinucleotides, so that searches in a window of the genome are binary searches rather than scans of a copy of the
+ * window. Positions are kept in sorted arrays per sequence frame, as given by
+ * {@link VigorFunctionalUtils#getSequenceFrame(long)}.
+ *
+ * Regular expression motifs, such as those for ribosomal slippage, RNA editing and stop codon readthrough, are indexed
+ * by the match starting at each position of the sequence.
+ *
+ * The stops are found when the index is created, and the positions of each motif on its first use.
+ */
+public class CodonIndex {
+
+    private static final Frame[] FRAMES = { Frame.ONE, Frame.TWO, Frame.THREE };
+    // anchors, boundaries and lookaround may match differently in a window than in the whole sequence
+    private static final Pattern CONTEXT_DEPENDENT = Pattern.compile("[$^]|\\(\\?|\\\\[bBAGzZ]");
+    private static final ConcurrentMap<String, Pattern> PATTERNS = new ConcurrentHashMap<>();
+    private static final PatternMatches UNINDEXED = new PatternMatches(null, null);
+
+    private final NucleotideSequence sequence;
+    private final long[][] stops;
+    private final ConcurrentMap<String, long[][]> motifs = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, PatternMatches> patternMatches = new ConcurrentHashMap<>();
+    private volatile String sequenceString;
+
+    public CodonIndex ( NucleotideSequence sequence ) {
+
+        this.sequence = sequence;
+        Map<Frame, List<Long>> stopMap = IupacTranslationTables.STANDARD.findStops(sequence);
+        List<Long> allStops = new ArrayList<>();
+        stopMap.values().forEach(allStops::addAll);
+        this.stops = byFrame(allStops.stream().mapToLong(Long::longValue).toArray());
+    }
+
+    /**
+     * @return stops in the sequence by sequence frame, omitting frames without stops, as returned by
+     * VirusGenomeService.findInternalStops
+     */
+    public Map<Frame, List<Long>> getStops () {
+
+        return findStops(Range.ofLength(sequence.getLength()));
+    }
+
+    /**
+     * @param window
+     * @return stop codons lying entirely within the window by sequence frame, omitting frames without stops
+     */
+    public Map<Frame, List<Long>> findStops ( Range window ) {
+
+        Map<Frame, List<Long>> stopsInWindow = new HashMap<>();
+        for (int frame = 0; frame < FRAMES.length; frame++) {
+            List<Long> positions = positions(stops[frame], window.getBegin(), window.getEnd() - 2);
+            if (! positions.isEmpty()) {
+                stopsInWindow.put(FRAMES[frame], positions);
+            }
+        }
+        return stopsInWindow;
+    }
+
+    /**
+     * @param sequenceFrame
+     * @param window
+     * @return sorted positions of the stop codons in the sequence frame which start within the window
+     */
+    public List<Long> getStops ( Frame sequenceFrame, Range window ) {
+
+        return positions(stops[frameIndex(sequenceFrame)], window.getBegin(), window.getEnd());
+    }
+
+    /**
+     * @param motif literal nucleotide string
+     * @param window
+     * @return all occurrences, including overlapping ones, of the motif lying entirely within the window, sorted by
+     * position
+     */
+    public List<Range> findMatches ( String motif, Range window ) {
+
+        long[][] positions = getMotifPositions(motif);
+        List<Long> matches = new ArrayList<>();
+        for (long[] framePositions : positions) {
+            matches.addAll(positions(framePositions, window.getBegin(), window.getEnd() - motif.length() + 1));
+        }
+        Collections.sort(matches);
+        return toRanges(matches, motif.length());
+    }
+
+    /**
+     * @param motif literal nucleotide string
+     * @param window
+     * @param sequenceFrame
+     * @return occurrences of the motif in the sequence frame lying entirely within the window, sorted by position
+     */
+    public List<Range> findMatches ( String motif, Range window, Frame sequenceFrame ) {
+
+        long[] framePositions = getMotifPositions(motif)[frameIndex(sequenceFrame)];
+        return toRanges(positions(framePositions, window.getBegin(), window.getEnd() - motif.length() + 1), motif.length());
+    }
+
+    /**
+     * @param motif literal nucleotide string
+     * @param position
+     * @return true if the motif occurs at the position
+     */
+    public boolean isMatch ( String motif, long position ) {
+
+        long[] framePositions = getMotifPositions(motif)[(int) Math.floorMod(position, 3L)];
+        return Arrays.binarySearch(framePositions, position) >= 0;
+    }
+
+    /**
+     * @param regex regular expression
+     * @param window
+     * @return the matches found by scanning a copy of the window for the regular expression, in sequence coordinates
+     * and in order, as NucleotideSequence.findMatches would return them
+     */
+    public List<Range> findPatternMatches ( String regex, Range window ) {
+
+        Pattern pattern = PATTERNS.computeIfAbsent(regex, Pattern::compile);
+        PatternMatches matches = patternMatches.computeIfAbsent(regex, r -> indexPattern(pattern));
+        List<Range> ranges = new ArrayList<>();
+        if (matches == UNINDEXED) {
+            scan(pattern, window.getBegin(), window.getEnd(), ranges);
+            return ranges;
+        }
+        long position = window.getBegin();
+        while (position <= window.getEnd()) {
+            int index = Arrays.binarySearch(matches.starts, (int) position);
+            index = index < 0 ? - index - 1 : index;
+            if (index >= matches.starts.length || matches.starts[ index ] > window.getEnd()) {
+                break;
+            }
+            if (matches.ends[ index ] > window.getEnd()) {
+                // the match runs past the window, where a shorter match or none may be found instead
+                scan(pattern, position, window.getEnd(), ranges);
+                break;
+            }
+            ranges.add(Range.of(matches.starts[ index ], matches.ends[ index ]));
+            position = matches.ends[ index ] + 1;
+        }
+        return ranges;
+    }
+
+    /**
+     * Matches starting at each position of the sequence, in order. Ends are inclusive.
+     */
+    private static final class PatternMatches {
+
+        final int[] starts;
+        final int[] ends;
+
+        PatternMatches ( int[] starts, int[] ends ) {
+
+            this.starts = starts;
+            this.ends = ends;
+        }
+    }
+
+    private PatternMatches indexPattern ( Pattern pattern ) {
+
+        if (CONTEXT_DEPENDENT.matcher(pattern.pattern()).find()) {
+            return UNINDEXED;
+        }
+        String target = getSequenceString();
+        Matcher matcher = pattern.matcher(target);
+        List<Integer> starts = new ArrayList<>();
+        List<Integer> ends = new ArrayList<>();
+        int from = 0;
+        // the leftmost match at or after each position is the match starting there, so only positions where a match
+        // starts need to be tried
+        while (from < target.length() && matcher.find(from)) {
+            if (matcher.end() == matcher.start()) {
+                return UNINDEXED;
+            }
+            starts.add(matcher.start());
+            ends.add(matcher.end() - 1);
+            from = matcher.start() + 1;
+        }
+        return new PatternMatches(starts.stream().mapToInt(Integer::intValue).toArray(),
+                                  ends.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private void scan ( Pattern pattern, long begin, long end, List<Range> ranges ) {
+
+        if (begin > end) {
+            return;
+        }
+        Matcher matcher = pattern.matcher(getSequenceString().substring((int) begin, (int) end + 1));
+        while (matcher.find()) {
+            ranges.add(Range.of(matcher.start() + begin, matcher.end() - 1 + begin));
+        }
+    }
+
+    private long[][] getMotifPositions ( String motif ) {
+
+        return motifs.computeIfAbsent(motif, m -> {
+            String target = getSequenceString();
+            List<Long> positions = new ArrayList<>();
+            if (! m.isEmpty()) {
+                for (int i = target.indexOf(m); i >= 0; i = target.indexOf(m, i + 1)) {
+                    positions.add((long) i);
+                }
+            }
+            return byFrame(positions.stream().mapToLong(Long::longValue).toArray());
+        });
+    }
+
+    private String getSequenceString () {
+
+        String string = sequenceString;
+        if (string == null) {
+            string = sequence.toString();
+            sequenceString = string;
+        }
+        return string;
+    }
+
+    private static int frameIndex ( Frame sequenceFrame ) {
+
+        if (sequenceFrame.getFrame() < 1 || sequenceFrame.getFrame() > 3) {
+            throw new IllegalArgumentException(String.format("%s is not a sequence frame", sequenceFrame));
+        }
+        return sequenceFrame.getFrame() - 1;
+    }
+
+    private static long[][] byFrame ( long[] positions ) {
+
+        Arrays.sort(positions);
+        long[][] framePositions = new long[FRAMES.length][];
+        for (int frame = 0; frame < FRAMES.length; frame++) {
+            final int f = frame;
+            framePositions[frame] = Arrays.stream(positions).filter(p -> p % 3 == f).toArray();
+        }
+        return framePositions;
+    }
+
+    /**
+     * @return positions from the sorted array between from and to inclusive
+     */
+    private static List<Long> positions ( long[] sorted, long from, long to ) {
+
+        List<Long> positions = new ArrayList<>();
+        if (from > to) {
+            return positions;
+        }
+        int index = Arrays.binarySearch(sorted, from);
+        for (index = index < 0 ? - index - 1 : index; index < sorted.length && sorted[index] <= to; index++) {
+            positions.add(sorted[index]);
+        }
+        return positions;
+    }
+
+    private static List<Range> toRanges ( List<Long> positions, int length ) {
+
+        List<Range> ranges = new ArrayList<>(positions.size());
+        for (long position : positions) {
+            ranges.add(Range.of(position, position + length - 1));
+        }
+        return ranges;
+    }
+}
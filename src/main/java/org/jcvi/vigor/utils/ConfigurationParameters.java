@@ -13,16 +13,35 @@ import static org.jcvi.vigor.utils.ConfigurationParameterFunctions.*;
 public enum ConfigurationParameters {
     Alias("alias", "One or more aliases used for the database", toListOfStrings, Flags.VERSION_4, Flags.METADATA_SET),
     AAOverlapMaximum("max_aa_overlap", "Maximum number of proteins that may overlap for alignment fragments to be considered compatible when generating a gene model", toInteger, Flags.VERSION_4),
-    AlignmentModule("alignment_module", "Alignment Module", isMemberOfSet("exonerate"),
+    AlignmentModule("alignment_module", "Alignment Module. exonerate runs the external exonerate tool, jillion aligns in-process", isMemberOfSet("exonerate", "jillion"),
                     Flags.COMMANDLINE_SET,
                     Flags.PROGRAM_CONFIG_SET,
                     Flags.VERSION_4,
                     Flags.REQUIRED),
+    AnnotationCacheDirectory("annotation_cache_directory", "Directory of cached annotations. Genomes annotated before with the same sequence, reference database, configuration and Vigor version reuse the cached gene models instead of being aligned and modelled again. Unset to disable the cache",
+                             Flags.VERSION_4,
+                             Flags.COMMANDLINE_SET,
+                             Flags.PROGRAM_CONFIG_SET),
+    AnnotationCacheMaximumSize("annotation_cache_max_size", "Maximum size of the annotation cache in megabytes. The least recently used annotations are removed beyond this",
+                               toBoundedInteger(1, Integer.MAX_VALUE),
+                               Flags.VERSION_4,
+                               Flags.COMMANDLINE_SET,
+                               Flags.PROGRAM_CONFIG_SET),
     AlternateStartCodons("alternate_startcodon", "Alternate start codons for gene. Format is CODON[,CODON,..]",
                          ConfigurationParameterFunctions.toListOfStrings,
                          Flags.VERSION_4, Flags.GENE_SET),
     CandidateBlastOpts("candidate_blastopts", "Blast options when generating candidate models", Flags.VERSION_3_5),
 
+    CandidatePrefilter("candidate_prefilter", "Only align the reference proteins which share enough amino acid k-mers with a translation of the genome. The k-mer index is cached next to the reference database",
+                       toBoolean,
+                       Flags.VERSION_4,
+                       Flags.COMMANDLINE_SET,
+                       Flags.PROGRAM_CONFIG_SET),
+    CandidatePrefilterMinimumSeeds("candidate_prefilter_min_seeds", "Minimum number of k-mer hits on a common diagonal for a reference protein to pass the candidate prefilter",
+                                   toBoundedInteger(1, Integer.MAX_VALUE),
+                                   Flags.VERSION_4,
+                                   Flags.COMMANDLINE_SET,
+                                   Flags.PROGRAM_CONFIG_SET),
     CandidateEvalue("candidate_evalue", "Evalue for identifying potential genes", Flags.VERSION_3),
     CandidateMinimumSimilarity("min_candidate_pctsimilarity", "Minimum percent similarity between the candidate model and the reference protein (for definition of similarity see mature_pep_minsimilarity)", toPercent, Flags.VERSION_3),
 
@@ -30,6 +49,11 @@ public enum ConfigurationParameters {
     CandidateSelection("candidate_selection", "", Flags.VERSION_3),
 
     CircularGene("circular_genome", "When this parameter is set to TRUE, VIGOR consider the genome as circular, enabling annotating genes spanning both ends of the sequence (which would be continuous when circularized).", toBoolean, Flags.UNIMPLEMENTED, Flags.VERSION_3, Flags.VERSION_4),
+    CoverageAlignmentBand("coverage_alignment_band", "When scoring a model against its reference protein, if their lengths differ by at most this many amino acids, only align within this many diagonals of those found by the initial alignment. 0 to always align in full",
+                          toBoundedInteger(0, Integer.MAX_VALUE),
+                          Flags.VERSION_4,
+                          Flags.COMMANDLINE_SET,
+                          Flags.PROGRAM_CONFIG_SET),
 
     Description("description", "Description of virus database", Flags.METADATA_SET),
 
@@ -57,6 +81,21 @@ public enum ConfigurationParameters {
                   Flags.PLATFORM_DEPENDENT,
                   Flags.COMMANDLINE_SET,
                   Flags.PROGRAM_CONFIG_SET),
+    ExonerateServer("exonerate_server", "Keep a long-lived exonerate front end for the run which aligns genomes that are waiting at the same time with a single exonerate process. Genomes only wait together when threads is greater than 1, and are only batched when aligned against the same database, which candidate_prefilter prevents",
+                    toBoolean,
+                    Flags.VERSION_4,
+                    Flags.COMMANDLINE_SET,
+                    Flags.PROGRAM_CONFIG_SET),
+    ExonerateServerBatchSize("exonerate_server_batch_size", "Maximum number of genomes aligned by one exonerate process when exonerate_server is enabled",
+                             toBoundedInteger(1, Integer.MAX_VALUE),
+                             Flags.VERSION_4,
+                             Flags.COMMANDLINE_SET,
+                             Flags.PROGRAM_CONFIG_SET),
+    ExonerateServerWorkers("exonerate_server_workers", "Maximum number of concurrent exonerate processes when exonerate_server is enabled",
+                           toBoundedInteger(1, Integer.MAX_VALUE),
+                           Flags.VERSION_4,
+                           Flags.COMMANDLINE_SET,
+                           Flags.PROGRAM_CONFIG_SET),
     FrameShiftSensitivity("frameshift_sensitivity", "Dictates the sensitivity VIGOR should use in handling frame-shifts. Accepted values: 0, 1, 2, with 2 being the strictest, forcing VIGOR to create pseudogenes and raising error messages whenever a perfect model for a given gene cannot be created (this is used most for validating assemblies).", Flags.VERSION_3, Flags.VERSION_4, Flags.UNIMPLEMENTED),
     GeneMinimumCoverage("min_gene_coverage", "Minimum coverage of genes",  toPercent, Flags.VERSION_3, Flags.VERSION_4), // TODO elaborate
 
@@ -68,6 +107,11 @@ public enum ConfigurationParameters {
 
     Locustag("locus_tag", "Prefix to be used for the locus_tag attribute in the feature table (.tbl) and in the GFF 3 outputs", Flags.VERSION_3, Flags.VERSION_4, Flags.COMMANDLINE_SET),
     MaturePeptideDB("matpepdb", "Location and name of the mature peptides reference database (e.g. matpepdb=<vigordata>/flua_ha_mp)", Flags.VERSION_4, Flags.GENE_SET),
+    MaturePeptidePrefilter("mature_pep_prefilter", "Only align the mature peptides which share amino acid 3-mers on a common diagonal with the polyprotein. Faster, but may miss highly divergent peptides",
+                           toBoolean,
+                           Flags.VERSION_4,
+                           Flags.COMMANDLINE_SET,
+                           Flags.PROGRAM_CONFIG_SET),
     MaturePeptideMinimumCoverage("mature_pep_mincoverage", "Minimum percent coverage of the sequence of the reference mature peptide to consider the prediction valid.", ConfigurationParameterFunctions.toPercent,
                                  Flags.VERSION_3, Flags.VERSION_4),
     MaturePeptideMinimumIdentity("mature_pep_minidentity", "Minimum percent identity between the sequence of the reference mature peptide and the sequence of the candidate mature peptide.",
@@ -78,10 +122,30 @@ public enum ConfigurationParameters {
                                    Flags.VERSION_3, Flags.VERSION_4),
 
     MaxAlignMergeAAGap("max_align_merge_aa_gap", "Maximum number of proteins in a gap between two alignments to consider them for merging.", toPositiveInteger, Flags.VERSION_4),
+    MaxFragmentChains("max_fragment_chains", "Maximum number of compatible alignment fragment chains used to build models from an alignment, keeping the chains covering the most of the reference protein. 0 for no limit",
+                      toBoundedInteger(0, Integer.MAX_VALUE),
+                      Flags.VERSION_4,
+                      Flags.COMMANDLINE_SET,
+                      Flags.PROGRAM_CONFIG_SET),
     MaxGeneOverlap("max_gene_overlap", " In reporting gene models, maximum overlap of genes allowed.", toPositiveInteger, Flags.VERSION_4),
     MinFunctionalLength("min_functional_len" , "Minimum functional length for a protein (expressed in aa) to be functional: if a premature stop codon makes it shorter than that, it should be annotated as pseudogene.", toPositiveInteger, Flags.VERSION_4, Flags.GENE_SET),
     MinimumMissingAASize("min_missing_AA_size", "Minimum number of proteins missing in a given alignment to search for missing exons.", toPositiveInteger),
-
+    MissingExonSeedSize("missing_exon_seed_size", "Length of the amino acid k-mers, at most 6, used to seed the search for missing exons. The region is only aligned near the best seeded diagonal, and is skipped when no k-mer is shared. 0 to align the whole region in each frame",
+                        toBoundedInteger(0, 6),
+                        Flags.VERSION_4,
+                        Flags.COMMANDLINE_SET,
+                        Flags.PROGRAM_CONFIG_SET),
+
+    ModelBeamWidth("model_beam_width", "Maximum number of models of each alignment kept after each refinement step, keeping those with the best scores so far. 0 for no limit",
+                   toBoundedInteger(0, Integer.MAX_VALUE),
+                   Flags.VERSION_4,
+                   Flags.COMMANDLINE_SET,
+                   Flags.PROGRAM_CONFIG_SET),
+    ModelThreads("model_threads", "Number of threads used to refine and score the candidate models of each genome. Results do not depend on this setting",
+                 toBoundedInteger(1, Integer.MAX_VALUE),
+                 Flags.VERSION_4,
+                 Flags.COMMANDLINE_SET,
+                 Flags.PROGRAM_CONFIG_SET),
     MultiFile("multifile", "Generate genome, gene, peptide, CDS etc specific files as well as the overall files", toBoolean, Flags.COMMANDLINE_SET, Flags.PROGRAM_CONFIG_SET, Flags.VERSION_4),
     NTOverlapMaximum("max_nt_overlap", "Maximum number of nucleotides that may overlap for alignment fragments to be considered compatible when generating a gene model", toInteger, Flags.VERSION_4),
     NonCanonicalSplicing("noncanonical_splicing", "List of alternative splicing donor and acceptor sequence pairs. Format: noncanonical_splicing=donor+acceptor,donor+acceptor,... (e.g. noncanonical_splicing=AA+GT)", Flags.VERSION_4, Flags.VIRUS_SET, Flags.GENE_SET),
@@ -98,6 +162,16 @@ public enum ConfigurationParameters {
                          Flags.VERSION_4,
                          Flags.COMMANDLINE_SET,
                          Flags.PROGRAM_CONFIG_SET),
+    Pipeline("pipeline", "Annotate genomes in stages, aligning the next genome while models are built for the current one and the previous one is written. Ignored when threads is greater than 1",
+             toBoolean,
+             Flags.VERSION_4,
+             Flags.COMMANDLINE_SET,
+             Flags.PROGRAM_CONFIG_SET),
+    PipelineQueueSize("pipeline_queue_size", "Number of genomes which may wait between two pipeline stages",
+                      toBoundedInteger(1, Integer.MAX_VALUE),
+                      Flags.VERSION_4,
+                      Flags.COMMANDLINE_SET,
+                      Flags.PROGRAM_CONFIG_SET),
     PseudoGeneMinimumCoverage("min_pseudogene_coverage", "Minimum percentage of coverage in the alignment between candidate pseudogene and reference protein, based on the longest of the two.", toPercent, Flags.UNIMPLEMENTED),
 
     PseudoGeneMinimumIdentity("min_pseudogene_identity", "Minimum percentage of identity in the alignment between candidate pseudogene and reference protein, based on the longest of the two.", toPercent, Flags.UNIMPLEMENTED),
@@ -114,6 +188,10 @@ public enum ConfigurationParameters {
                           Flags.VERSION_4, Flags.REQUIRED, Flags.COMMANDLINE_SET, Flags.PROGRAM_CONFIG_SET),
 
     RelaxAlignMergeAAGap("relax_align_merge_aa_gap", "", toPositiveInteger, Flags.VERSION_4),
+    Resume("resume", "Resume an interrupted run from the checkpoint journal in the output directory, skipping the genomes already written",
+           toBoolean,
+           Flags.VERSION_4,
+           Flags.COMMANDLINE_SET),
     RibosomalSlippage("ribosomal_slippage",  "Ribosomal slippage. Format is ribosomal_slippage=offset/frameshift/regex (e.g. ribosomal_slippage=-7/+1/[BDHKNTWY][BCHMNSVY][BCHMNSVY][BDHKNTWY][BDHKNTWY][BDHKNTWY][BCHMNSVY][BDGKNRSV][BCDHKMNSTVWY][BCHMNSVY])",
                       ConfigurationParameterFunctions.of(Ribosomal_Slippage.class, Ribosomal_Slippage::parseFromString),
                       Flags.VERSION_4, Flags.GENE_SET),
@@ -124,7 +202,19 @@ public enum ConfigurationParameters {
     ScoreFactorStart("start_score_factor", "Weight to apply on start codons (e.g. canonical v.s. non-canonical, how far from expected location, etc.) in the scoring of gene models.", toDouble, Flags.VERSION_4),
     ScoreFactorStop("stop_score_factor", "Weight to apply on stop codons (e.g. how far from expected location, etc.) in the scoring of gene models.", toDouble, Flags.VERSION_4),
     SequenceGapMinimumLength("min_seq_gap_length", "Minimum number of undefined nucleotides (i.e. Ns) to consider it a sequencing gap.", toPositiveInteger, Flags.VERSION_4),
-
+    ServerPort("server_port", "Local port the annotation server started with --server listens on, 0 for any free port",
+               toBoundedInteger(0, 65535),
+               Flags.VERSION_4, Flags.COMMANDLINE_SET, Flags.PROGRAM_CONFIG_SET),
+    ServerQueueSize("server_queue_size", "Number of annotation server requests which may wait for a free thread. Further requests are refused as busy",
+                    toPositiveInteger,
+                    Flags.VERSION_4, Flags.COMMANDLINE_SET, Flags.PROGRAM_CONFIG_SET),
+    ServerThreads("server_threads", "Number of annotation server requests annotated concurrently",
+                  toBoundedInteger(1, Integer.MAX_VALUE),
+                  Flags.VERSION_4, Flags.COMMANDLINE_SET, Flags.PROGRAM_CONFIG_SET),
+
+    Shard("shard", "Annotate one of N shards of the input, as i/N, writing output with the prefix <output_prefix>.shard-i-of-N. Genomes are assigned to shards round robin",
+          ConfigurationParameterFunctions.of(InputShard.class, InputShard::parse),
+          Flags.VERSION_4, Flags.COMMANDLINE_SET),
     SharedCDS("shared_cds", "List of other genes (gene symbols) sharing the same region of the viral genome. Format: shared_cds=Gene1_ID,Gene_2ID (e.g. shared_cds=NSP1-2; shared_cds=NSP1-1,NSP1-3)",
               ConfigurationParameterFunctions.toListOfStrings,
               Flags.VERSION_4, Flags.GENE_SET),
@@ -141,8 +231,16 @@ public enum ConfigurationParameters {
                          Flags.VERSION_4, Flags.GENE_SET),
     StopCodonSearchWindow("stop_codon_search_window", "Number of nucleotides before and after a candidate site to check for a stop codon",
                           toPositiveInteger, Flags.VERSION_4),
+    StreamInput("stream_input", "Read the input one sequence at a time rather than loading it into memory. Always used for compressed input and standard input",
+                toBoolean,
+                Flags.VERSION_4, Flags.COMMANDLINE_SET, Flags.PROGRAM_CONFIG_SET),
     TemporaryDirectory("temporary_directory", "Directory under which Vigor creates temporary files and directories",
                        Flags.VERSION_4, Flags.COMMANDLINE_SET, Flags.PROGRAM_CONFIG_SET, Flags.REQUIRED),
+    Threads("threads", "Number of genomes to annotate concurrently. Output is written in input order regardless of this setting",
+            toBoundedInteger(1, Integer.MAX_VALUE),
+            Flags.VERSION_4,
+            Flags.COMMANDLINE_SET,
+            Flags.PROGRAM_CONFIG_SET),
     TinyExon3("tiny_exon3", "Tiny exon 3. Format is regex:[offset]", toTinyExonMap, Flags.VERSION_4, Flags.GENE_SET),
     TinyExon5("tiny_exon5", "Tiny exon 5. Format is regex:[offset]", toTinyExonMap, Flags.VERSION_4, Flags.GENE_SET),
     Variation("variation", "Variation. TODO", Flags.VERSION_3_5),
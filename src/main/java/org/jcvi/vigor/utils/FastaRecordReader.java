@@ -0,0 +1,153 @@
+package org.jcvi.vigor.utils;
+
+import org.jcvi.jillion.core.util.iter.StreamingIterator;
+import org.jcvi.jillion.fasta.nt.AbstractNucleotideFastaRecordVisitor;
+import org.jcvi.jillion.fasta.nt.NucleotideFastaRecord;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads nucleotide fasta records one at a time, so that only the record being read is held in memory. Records are
+ * built as the jillion fasta parser builds them. Input may be gzip or bgzip compressed, and "-" reads standard input.
+ *
+ * Errors reading the input are thrown as {@link UncheckedIOException}
+ */
+public class FastaRecordReader implements StreamingIterator<NucleotideFastaRecord> {
+
+    public static final String STANDARD_INPUT = "-";
+    private static final Pattern DEFLINE_PATTERN = Pattern.compile("^>(\\S+)(\\s+(.*))?");
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    private final BufferedReader reader;
+    private String defline;
+    private NucleotideFastaRecord next;
+
+    public FastaRecordReader ( InputStream inputStream ) {
+
+        this.reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param inputFileName path to a fasta file, which may be compressed, or "-" for standard input
+     * @return
+     * @throws IOException
+     */
+    public static FastaRecordReader open ( String inputFileName ) throws IOException {
+
+        InputStream inputStream = STANDARD_INPUT.equals(inputFileName) ?
+                new FilterInputStream(System.in) {
+                    @Override
+                    public void close () {
+                        // leave standard input open
+                    }
+                } :
+                new FileInputStream(inputFileName);
+        return new FastaRecordReader(decompress(new BufferedInputStream(inputStream)));
+    }
+
+    /**
+     * @param inputFileName
+     * @return true if the input can only be read sequentially, being standard input or compressed
+     * @throws IOException
+     */
+    public static boolean isSequentialOnly ( String inputFileName ) throws IOException {
+
+        if (STANDARD_INPUT.equals(inputFileName)) {
+            return true;
+        }
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(inputFileName))) {
+            return isCompressed(inputStream);
+        }
+    }
+
+    private static boolean isCompressed ( InputStream inputStream ) throws IOException {
+
+        inputStream.mark(2);
+        int magic = inputStream.read() | ( inputStream.read() << 8 );
+        inputStream.reset();
+        return magic == GZIP_MAGIC;
+    }
+
+    private static InputStream decompress ( InputStream inputStream ) throws IOException {
+
+        // GZIPInputStream reads concatenated members, so bgzip blocks are read as one stream
+        return isCompressed(inputStream) ? new GZIPInputStream(inputStream) : inputStream;
+    }
+
+    @Override
+    public boolean hasNext () {
+
+        if (next == null) {
+            try {
+                next = readRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public NucleotideFastaRecord next () {
+
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        NucleotideFastaRecord record = next;
+        next = null;
+        return record;
+    }
+
+    private NucleotideFastaRecord readRecord () throws IOException {
+
+        String line;
+        // as with the jillion parser, blank lines and lines before the first defline are ignored
+        while (defline == null) {
+            line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+            if (DEFLINE_PATTERN.matcher(line).find()) {
+                defline = line;
+            }
+        }
+        Matcher matcher = DEFLINE_PATTERN.matcher(defline);
+        matcher.find();
+        NucleotideFastaRecord[] record = new NucleotideFastaRecord[ 1 ];
+        AbstractNucleotideFastaRecordVisitor visitor = new AbstractNucleotideFastaRecordVisitor(matcher.group(1), matcher.group(3)) {
+            @Override
+            protected void visitRecord ( NucleotideFastaRecord fastaRecord ) {
+
+                record[ 0 ] = fastaRecord;
+            }
+        };
+        defline = null;
+        while (( line = reader.readLine() ) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            if (DEFLINE_PATTERN.matcher(line).find()) {
+                defline = line;
+                break;
+            }
+            visitor.visitBodyLine(line);
+        }
+        visitor.visitEnd();
+        return record[ 0 ];
+    }
+
+    @Override
+    public void close () {
+
+        try {
+            reader.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
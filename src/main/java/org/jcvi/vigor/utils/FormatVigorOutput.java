@@ -18,7 +18,7 @@ import org.jcvi.vigor.service.Scores;
 public class FormatVigorOutput {
 
     private static final Logger LOGGER = LogManager.getLogger(FormatVigorOutput.class);
-    private static Range.CoordinateSystem oneBased = Range.CoordinateSystem.RESIDUE_BASED;
+    private static final Range.CoordinateSystem oneBased = Range.CoordinateSystem.RESIDUE_BASED;
 
     public static void printModels ( List<Model> models, String message ) {
 
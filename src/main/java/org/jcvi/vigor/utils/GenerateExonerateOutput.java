@@ -1,91 +1,226 @@
 package org.jcvi.vigor.utils;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Arrays;
-import java.util.Iterator;
-import java.util.List;
-import java.util.stream.Stream;
-
-import org.jcvi.jillion.core.datastore.DataStoreProviderHint;
-import org.jcvi.jillion.fasta.aa.ProteinFastaDataStore;
-import org.jcvi.jillion.fasta.aa.ProteinFastaFileDataStoreBuilder;
-import org.jcvi.jillion.fasta.aa.ProteinFastaRecord;
+import java.util.*;
+
+import org.jcvi.jillion.align.exonerate.Exonerate2;
+import org.jcvi.jillion.align.exonerate.vulgar.VulgarProtein2Genome2;
 import org.jcvi.vigor.component.VirusGenome;
 import org.jcvi.vigor.exception.VigorException;
 
 public class GenerateExonerateOutput {
 
-    public static String queryExonerate ( VirusGenome virusGenome, String referenceDB,
-                                          String workspace, String proteinID, String exoneratePath ) throws VigorException {
+    private static final String ALIGNMENT_START = "C4 Alignment:";
+    private static final String ANALYSIS_COMPLETE = "-- completed exonerate analysis";
+    private static final String VULGAR_PREFIX = "vulgar:";
 
-        File file = new File(workspace + File.separator + "sequence_temp.fasta");
-        Path path = Paths.get(file.getAbsolutePath());
-        Iterator<String> sequence = SequenceUtils.steamOf(virusGenome.getSequence(), 70).iterator();
-        try (BufferedWriter writer = Files.newBufferedWriter(path)) {
-            writer.write(">" + virusGenome.getId() + " "
-                    + virusGenome.getDefline());
-            writer.newLine();
-            while (sequence.hasNext()) {
-                writer.write(sequence.next());
-                writer.newLine();
-            }
-            ;
+    /**
+     * Called with each alignment as it is read from the exonerate output
+     */
+    @FunctionalInterface
+    public interface AlignmentHandler {
+
+        void handle ( VulgarProtein2Genome2 alignment ) throws VigorException;
+    }
+
+    /**
+     * Run exonerate against the genome, reading its output from a pipe and handing each alignment to the handler as
+     * soon as exonerate reports it, rather than parsing an output file after exonerate finishes.
+     *
+     * @param virusGenome
+     * @param referenceDB
+     * @param workspace
+     * @param exoneratePath
+     * @param rawOutput if not null, the exonerate output is also written to this file
+     * @param handler
+     * @throws VigorException
+     */
+    public static void streamExonerate ( VirusGenome virusGenome, String referenceDB, String workspace,
+                                         String exoneratePath, File rawOutput, AlignmentHandler handler ) throws VigorException {
+
+        // exonerate reads the target more than once, so it has to be a file rather than a pipe
+        File targetFile = new File(workspace + File.separator + "sequence_temp.fasta");
+        try (BufferedWriter writer = Files.newBufferedWriter(targetFile.toPath())) {
+            writeTarget(writer, virusGenome);
         } catch (IOException e) {
-            throw new VigorException(String.format("problem creating input file %s", file), e);
+            throw new VigorException(String.format("problem creating input file %s", targetFile), e);
         }
-        String fileName = virusGenome.getId()
-                                     .replaceAll("\\|", "")
-                                     .replaceAll("/","_") + ".txt";
-        File dbFile = new File(referenceDB);
-        String refDBFolder = dbFile.getName().replaceAll("_db", "");
-        String dbPath = referenceDB;
+        List<String> exonerateCommand = getExonerateCommand(exoneratePath, referenceDB, targetFile.getAbsolutePath());
+        Process process = null;
         try {
-            if (proteinID != null) {
-                File dbFileTemp = new File(workspace + File.separator + "db_temp.fasta");
-                ProteinFastaDataStore dataStore = new ProteinFastaFileDataStoreBuilder(
-                        dbFile).hint(DataStoreProviderHint.RANDOM_ACCESS_OPTIMIZE_SPEED)
-                        .build();
-                Stream<ProteinFastaRecord> records = dataStore.records();
-                ProteinFastaRecord record = records.filter(r -> r.getId().equals(proteinID)).findFirst().get();
-                Path dbpath = Paths.get(dbFileTemp.getAbsolutePath());
-                Iterator<String> pSequence = SequenceUtils.steamOf(record.getSequence(), 70).iterator();
-                try (BufferedWriter writer = Files.newBufferedWriter(dbpath)) {
-                    writer.write(">" + record.getId() + " "
-                            + record.getComment());
-                    writer.newLine();
-                    while (pSequence.hasNext()) {
-                        writer.write(pSequence.next());
-                        writer.newLine();
-                    }
-                } catch (IOException e) {
-                    throw new VigorException(String.format("problem writing reference file %s for protein %s", dbFileTemp, proteinID), e);
+            if (rawOutput != null) {
+                File rawOutputFolder = rawOutput.getAbsoluteFile().getParentFile();
+                if (!( rawOutputFolder.exists() || rawOutputFolder.mkdirs() )) {
+                    throw new VigorException(String.format("unable to create folder %s", rawOutputFolder.getAbsolutePath()));
                 }
-                dbPath = dbFileTemp.getAbsolutePath();
             }
-            File refDBFolderFile = Paths.get(workspace, refDBFolder).toFile();
-            if (!( refDBFolderFile.exists() || refDBFolderFile.mkdirs() )) {
-                throw new VigorException(String.format("unable to create folder %s", refDBFolderFile.getAbsolutePath()));
+            process = new ProcessBuilder(exonerateCommand).start();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+                 Writer raw = rawOutput == null ? null : Files.newBufferedWriter(rawOutput.toPath())) {
+                parseExonerateOutput(reader, raw, handler);
             }
-            List<String> exonerateCommand = Arrays.asList(exoneratePath, "--model",
-                    "protein2genome", "-q", dbPath, "-t",
-                    file.getAbsolutePath(), "--showcigar", "true");
-            Process p2 = new ProcessBuilder(exonerateCommand)
-                    .redirectOutput(Paths.get(workspace, refDBFolder, fileName).toFile())
-                    .start();
-            int result = p2.waitFor();
-            p2.destroy();
+            int result = process.waitFor();
             if (result != 0) {
                 throw new VigorException(String.format("exonerate process %s returned with non-zero exit code %s",
-                        String.join(" ", exonerateCommand), result));
+                                                       String.join(" ", exonerateCommand), result));
             }
-        } catch (Exception e) {
+        } catch (IOException e) {
             throw new VigorException(String.format("Exception running exonerate. got %s: %s", e.getClass().getSimpleName(), e.getMessage()), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VigorException(String.format("interrupted running exonerate for %s", virusGenome.getId()), e);
+        } finally {
+            if (process != null) {
+                process.destroy();
+            }
+            targetFile.delete();
+        }
+    }
+
+    /**
+     * Parse exonerate output as it is read, handing each alignment to the handler once its vulgar line is read.
+     *
+     * @param reader exonerate output
+     * @param rawOutput if not null, each line read is copied here
+     * @param handler
+     * @throws IOException
+     * @throws VigorException
+     */
+    public static void parseExonerateOutput ( BufferedReader reader, Writer rawOutput, AlignmentHandler handler ) throws IOException, VigorException {
+
+        String line;
+        while (( line = reader.readLine() ) != null) {
+            if (rawOutput != null) {
+                rawOutput.write(line);
+                rawOutput.write(System.lineSeparator());
+            }
+            if (line.startsWith(VULGAR_PREFIX)) {
+                // jillion only uses the vulgar line of an alignment block
+                byte[] block = String.join("\n", ALIGNMENT_START, line, "").getBytes(StandardCharsets.UTF_8);
+                for (VulgarProtein2Genome2 alignment : Exonerate2.parseVulgarOutput(() -> new ByteArrayInputStream(block))) {
+                    handler.handle(alignment);
+                }
+            }
+        }
+    }
+
+    public static List<String> getExonerateCommand ( String exoneratePath, String queryPath, String targetPath ) {
+
+        return Arrays.asList(exoneratePath, "--model",
+                             "protein2genome", "-q", queryPath, "-t",
+                             targetPath, "--showcigar", "true");
+    }
+
+    /**
+     * @param writer
+     * @param virusGenome
+     * @throws IOException
+     */
+    public static void writeTarget ( Writer writer, VirusGenome virusGenome ) throws IOException {
+
+        Iterator<String> sequence = SequenceUtils.steamOf(virusGenome.getSequence(), 70).iterator();
+        writer.write(">" + virusGenome.getId() + " "
+                + virusGenome.getDefline());
+        writer.write(System.lineSeparator());
+        while (sequence.hasNext()) {
+            writer.write(sequence.next());
+            writer.write(System.lineSeparator());
+        }
+    }
+
+    public static String getOutputFileName ( VirusGenome virusGenome ) {
+
+        return virusGenome.getId()
+                          .replaceAll("\\|", "")
+                          .replaceAll("/", "_") + ".txt";
+    }
+
+    public static String getReferenceDBFolder ( String referenceDB ) {
+
+        return new File(referenceDB).getName().replaceAll("_db", "");
+    }
+
+    /**
+     * Split the output of a single exonerate run against several target sequences into one file per target, each
+     * in the same format as a run against that target alone.
+     *
+     * @param exonerateOutput combined exonerate output
+     * @param outputsByTargetID output file for each target ID. Targets without alignments get a file with only the
+     *                          header and trailer
+     * @throws IOException
+     */
+    public static void splitExonerateOutput ( File exonerateOutput, Map<String, File> outputsByTargetID ) throws IOException {
+
+        List<String> header = new ArrayList<>();
+        Map<String, List<String>> blocksByTargetID = new HashMap<>();
+        for (String targetID : outputsByTargetID.keySet()) {
+            blocksByTargetID.put(targetID, new ArrayList<>());
+        }
+        List<String> block = null;
+        boolean complete = false;
+        try (BufferedReader reader = Files.newBufferedReader(exonerateOutput.toPath())) {
+            String line;
+            while (( line = reader.readLine() ) != null) {
+                if (line.startsWith(ALIGNMENT_START) || line.startsWith(ANALYSIS_COMPLETE)) {
+                    addBlock(block, blocksByTargetID);
+                    block = null;
+                    if (line.startsWith(ANALYSIS_COMPLETE)) {
+                        complete = true;
+                        continue;
+                    }
+                    block = new ArrayList<>();
+                }
+                if (block == null) {
+                    header.add(line);
+                } else {
+                    block.add(line);
+                }
+            }
+        }
+        addBlock(block, blocksByTargetID);
+
+        for (Map.Entry<String, File> entry : outputsByTargetID.entrySet()) {
+            try (BufferedWriter writer = Files.newBufferedWriter(entry.getValue().toPath())) {
+                for (String line : header) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+                for (String line : blocksByTargetID.get(entry.getKey())) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+                if (complete) {
+                    writer.write(ANALYSIS_COMPLETE);
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    private static void addBlock ( List<String> block, Map<String, List<String>> blocksByTargetID ) throws IOException {
+
+        if (block == null) {
+            return;
+        }
+        String targetID = block.stream()
+                               .filter(l -> l.startsWith(VULGAR_PREFIX))
+                               .map(l -> l.split("\\s+"))
+                               .filter(f -> f.length > 5)
+                               .map(f -> f[5])
+                               .findFirst()
+                               .orElseThrow(() -> new IOException("exonerate alignment without vulgar line"));
+        List<String> targetBlocks = blocksByTargetID.get(targetID);
+        if (targetBlocks == null) {
+            throw new IOException(String.format("exonerate alignment for unexpected target %s", targetID));
         }
-        return Paths.get(workspace, refDBFolder, fileName).toString();
+        targetBlocks.addAll(block);
     }
 }
@@ -0,0 +1,181 @@
+package org.jcvi.vigor.utils;
+
+import java.util.*;
+
+/**
+ * Time spent in each annotation stage for a single genome, with the number of candidates each stage created and
+ * pruned. Stages may be recorded from several threads, as when models are refined concurrently, in which case the time
+ * of a stage is the sum over its calls.
+ */
+public class GenomeMetrics {
+
+    public static final String ANNOTATION_CACHE = "annotation_cache";
+    public static final String ALIGNMENT = "alignment";
+    public static final String MERGE_ALIGNMENTS = "merge_identical_alignments";
+    public static final String CANDIDATE_MODELS = "candidate_models";
+    public static final String GENE_FEATURES = "gene_features";
+    public static final String DETERMINE_START = "determine_start";
+    public static final String VIRAL_TRICKS = "adjust_viral_tricks";
+    public static final String EXON_BOUNDARIES = "adjust_exon_boundaries";
+    public static final String MISSING_EXONS = "determine_missing_exons";
+    public static final String DETERMINE_STOP = "determine_stop";
+    public static final String COVERAGE = "check_coverage";
+    public static final String SCORES = "evaluate_scores";
+    public static final String FILTER_GENE_MODELS = "filter_gene_models";
+    public static final String PEPTIDES = "peptides";
+    public static final String WRITE_PREFIX = "write_";
+
+    // stages are reported in pipeline order, then any others by name
+    private static final List<String> STAGE_ORDER = Arrays.asList(ANNOTATION_CACHE, ALIGNMENT, MERGE_ALIGNMENTS, CANDIDATE_MODELS,
+                                                                  GENE_FEATURES, DETERMINE_START, VIRAL_TRICKS,
+                                                                  EXON_BOUNDARIES, MISSING_EXONS, DETERMINE_STOP,
+                                                                  COVERAGE, SCORES, FILTER_GENE_MODELS, PEPTIDES);
+
+    public static final Comparator<String> STAGE_COMPARATOR = Comparator.comparingInt((String stage) -> {
+        int rank = STAGE_ORDER.indexOf(stage);
+        return rank < 0 ? STAGE_ORDER.size() : rank;
+    }).thenComparing(Comparator.naturalOrder());
+
+    @FunctionalInterface
+    public interface Timed<T, E extends Exception> {
+
+        T get () throws E;
+    }
+
+    /**
+     * Totals for one stage
+     */
+    public static final class Stage {
+
+        private final String name;
+        private long nanos;
+        private long calls;
+        private long created;
+        private long pruned;
+
+        private Stage ( String name ) {
+
+            this.name = name;
+        }
+
+        private Stage ( Stage stage ) {
+
+            this.name = stage.name;
+            this.nanos = stage.nanos;
+            this.calls = stage.calls;
+            this.created = stage.created;
+            this.pruned = stage.pruned;
+        }
+
+        public String getName () {
+
+            return name;
+        }
+
+        /**
+         * @return time spent in the stage, in nanoseconds
+         */
+        public long getNanos () {
+
+            return nanos;
+        }
+
+        /**
+         * @return number of times the stage was timed
+         */
+        public long getCalls () {
+
+            return calls;
+        }
+
+        public long getCreated () {
+
+            return created;
+        }
+
+        public long getPruned () {
+
+            return pruned;
+        }
+    }
+
+    private final String genomeID;
+    private final Map<String, Stage> stages = new HashMap<>();
+
+    public GenomeMetrics ( String genomeID ) {
+
+        this.genomeID = genomeID;
+    }
+
+    public String getGenomeID () {
+
+        return genomeID;
+    }
+
+    /**
+     * Run a task, adding the time it took to the stage
+     *
+     * @param stage
+     * @param task
+     * @param <T>
+     * @param <E>
+     * @return the result of the task
+     * @throws E
+     */
+    public <T, E extends Exception> T time ( String stage, Timed<T, E> task ) throws E {
+
+        long start = System.nanoTime();
+        try {
+            return task.get();
+        } finally {
+            addTime(stage, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @param stage
+     * @param nanos
+     */
+    public synchronized void addTime ( String stage, long nanos ) {
+
+        Stage totals = getStage(stage);
+        totals.nanos += nanos;
+        totals.calls++;
+    }
+
+    /**
+     * @param stage
+     * @param created number of candidates, such as alignments or models, the stage produced
+     */
+    public synchronized void addCreated ( String stage, long created ) {
+
+        getStage(stage).created += created;
+    }
+
+    /**
+     * @param stage
+     * @param pruned number of candidates the stage discarded
+     */
+    public synchronized void addPruned ( String stage, long pruned ) {
+
+        getStage(stage).pruned += pruned;
+    }
+
+    /**
+     * @return a copy of the totals of each recorded stage, in pipeline order
+     */
+    public synchronized List<Stage> getStages () {
+
+        List<Stage> copies = new ArrayList<>(stages.size());
+        for (Stage stage : stages.values()) {
+            copies.add(new Stage(stage));
+        }
+        copies.sort(Comparator.comparing(Stage::getName, STAGE_COMPARATOR));
+        return copies;
+    }
+
+    private Stage getStage ( String stage ) {
+
+        return stages.computeIfAbsent(stage, Stage::new);
+    }
+}
@@ -0,0 +1,111 @@
+package org.jcvi.vigor.utils;
+
+import com.google.common.collect.Iterators;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One of N shards of the input, as i/N with i from 1 to N. Records are assigned to shards round robin by their index
+ * in the input, so that the outputs of the shards can be merged back into input order without reading the input.
+ */
+public class InputShard {
+
+    private final int index;
+    private final int count;
+
+    public InputShard ( int index, int count ) {
+
+        if (count < 1 || index < 1 || index > count) {
+            throw new IllegalArgumentException(String.format("invalid shard %s/%s", index, count));
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * @param shard as i/N
+     * @return
+     */
+    public static InputShard parse ( String shard ) {
+
+        String[] parts = shard.trim().split("/");
+        if (parts.length != 2) {
+            throw new ConfigurationParameterFunctions.InvalidValue(String.format("shard %s must be given as i/N", shard));
+        }
+        try {
+            return new InputShard(Integer.parseInt(parts[ 0 ].trim()), Integer.parseInt(parts[ 1 ].trim()));
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationParameterFunctions.InvalidValue(String.format("shard %s must be given as i/N with i from 1 to N", shard));
+        }
+    }
+
+    public int getIndex () {
+
+        return index;
+    }
+
+    public int getCount () {
+
+        return count;
+    }
+
+    /**
+     * @param recordIndex 0 based index of a record in the input
+     * @return true if the record belongs to this shard
+     */
+    public boolean contains ( long recordIndex ) {
+
+        return recordIndex % count == index - 1;
+    }
+
+    /**
+     * @param records all records of the input, in order
+     * @return the records of this shard
+     */
+    public <T> Iterator<T> select ( Iterator<T> records ) {
+
+        AtomicLong recordIndex = new AtomicLong();
+        return Iterators.filter(records, r -> contains(recordIndex.getAndIncrement()));
+    }
+
+    /**
+     * @param outputPrefix of the merged output
+     * @return prefix of this shard's output files
+     */
+    public String getOutputPrefix ( String outputPrefix ) {
+
+        return getOutputPrefix(outputPrefix, index, count);
+    }
+
+    public static String getOutputPrefix ( String outputPrefix, int index, int count ) {
+
+        return String.format("%s.shard-%s-of-%s", outputPrefix, index, count);
+    }
+
+    @Override
+    public boolean equals ( Object o ) {
+
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        InputShard that = (InputShard) o;
+        return index == that.index && count == that.count;
+    }
+
+    @Override
+    public int hashCode () {
+
+        return Objects.hash(index, count);
+    }
+
+    @Override
+    public String toString () {
+
+        return index + "/" + count;
+    }
+}
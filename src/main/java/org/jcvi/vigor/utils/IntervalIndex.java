@@ -0,0 +1,205 @@
+package org.jcvi.vigor.utils;
+
+import org.jcvi.jillion.core.Range;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable index of ranges for intersection queries, such as the sequence gaps of a genome or the exons of a set of
+ * models. Ranges are kept in arrays sorted by begin and searched as an implicit balanced tree, where each node also
+ * holds the largest end in its subtree, so a query only visits the ranges it returns and the paths leading to them.
+ *
+ * Intersection follows {@link Range#intersects(Range)}: empty ranges are not indexed and an empty query matches
+ * nothing. Where a query returns several ranges they are in the order the ranges were given.
+ */
+public class IntervalIndex {
+
+    private static final IntervalIndex EMPTY = new IntervalIndex(Collections.emptyList());
+
+    private final List<Range> ranges;
+    // by begin, then by position in ranges
+    private final long[] begins;
+    private final long[] ends;
+    private final int[] order;
+    // largest end of the subtree rooted at each position
+    private final long[] maxEnds;
+    // by end, then by position in ranges
+    private final long[] sortedEnds;
+    private final int[] endOrder;
+
+    private IntervalIndex ( List<Range> ranges ) {
+
+        this.ranges = ranges;
+        int[] sorted = IntStream.range(0, ranges.size())
+                                .filter(i -> ! ranges.get(i).isEmpty())
+                                .boxed()
+                                .sorted(Comparator.comparingLong((Integer i) -> ranges.get(i).getBegin())
+                                                  .thenComparingInt(i -> i))
+                                .mapToInt(Integer::intValue)
+                                .toArray();
+        this.order = sorted;
+        this.begins = new long[sorted.length];
+        this.ends = new long[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            begins[ i ] = ranges.get(sorted[ i ]).getBegin();
+            ends[ i ] = ranges.get(sorted[ i ]).getEnd();
+        }
+        this.maxEnds = new long[sorted.length];
+        computeMaxEnds(0, sorted.length);
+        this.endOrder = Arrays.stream(sorted)
+                              .boxed()
+                              .sorted(Comparator.comparingLong((Integer i) -> ranges.get(i).getEnd())
+                                                .thenComparingInt(i -> i))
+                              .mapToInt(Integer::intValue)
+                              .toArray();
+        this.sortedEnds = Arrays.stream(endOrder).mapToLong(i -> ranges.get(i).getEnd()).toArray();
+    }
+
+    /**
+     * @param ranges
+     * @return
+     */
+    public static IntervalIndex of ( Collection<Range> ranges ) {
+
+        if (ranges == null || ranges.isEmpty()) {
+            return EMPTY;
+        }
+        return new IntervalIndex(Collections.unmodifiableList(new ArrayList<>(ranges)));
+    }
+
+    /**
+     * @return the indexed ranges in the order given
+     */
+    public List<Range> getRanges () {
+
+        return ranges;
+    }
+
+    public boolean isEmpty () {
+
+        return ranges.isEmpty();
+    }
+
+    /**
+     * @param range
+     * @return true if any indexed range intersects the range
+     */
+    public boolean intersects ( Range range ) {
+
+        return ! range.isEmpty() && anyIntersecting(0, order.length, range.getBegin(), range.getEnd());
+    }
+
+    /**
+     * @param range
+     * @return the indexed ranges intersecting the range
+     */
+    public List<Range> findIntersecting ( Range range ) {
+
+        List<Range> found = new ArrayList<>();
+        for (int i : intersectingPositions(range)) {
+            found.add(ranges.get(i));
+        }
+        return found;
+    }
+
+    /**
+     * @param range
+     * @return the first of the indexed ranges intersecting the range
+     */
+    public Optional<Range> findFirstIntersecting ( Range range ) {
+
+        int[] positions = intersectingPositions(range);
+        return positions.length == 0 ? Optional.empty() : Optional.of(ranges.get(positions[ 0 ]));
+    }
+
+    /**
+     * @param range
+     * @return the last of the indexed ranges intersecting the range
+     */
+    public Optional<Range> findLastIntersecting ( Range range ) {
+
+        int[] positions = intersectingPositions(range);
+        return positions.length == 0 ? Optional.empty() : Optional.of(ranges.get(positions[ positions.length - 1 ]));
+    }
+
+    /**
+     * @param position
+     * @return the indexed range with the largest end at or before the position, or the last given of those ending
+     * there. For ranges given in order and not overlapping, as sequence gaps are, this is the last range ending at or
+     * before the position.
+     */
+    public Optional<Range> findNearestEndingAtOrBefore ( long position ) {
+
+        // first position ending after the given position
+        int low = 0;
+        int high = sortedEnds.length;
+        while (low < high) {
+            int middle = ( low + high ) >>> 1;
+            if (sortedEnds[ middle ] <= position) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low == 0 ? Optional.empty() : Optional.of(ranges.get(endOrder[ low - 1 ]));
+    }
+
+    private long computeMaxEnds ( int low, int high ) {
+
+        if (low >= high) {
+            return Long.MIN_VALUE;
+        }
+        int middle = ( low + high ) >>> 1;
+        long max = Math.max(ends[ middle ], Math.max(computeMaxEnds(low, middle), computeMaxEnds(middle + 1, high)));
+        maxEnds[ middle ] = max;
+        return max;
+    }
+
+    private boolean anyIntersecting ( int low, int high, long begin, long end ) {
+
+        if (low >= high) {
+            return false;
+        }
+        int middle = ( low + high ) >>> 1;
+        if (maxEnds[ middle ] < begin) {
+            return false;
+        }
+        if (anyIntersecting(low, middle, begin, end)) {
+            return true;
+        }
+        if (begins[ middle ] > end) {
+            return false;
+        }
+        return ends[ middle ] >= begin || anyIntersecting(middle + 1, high, begin, end);
+    }
+
+    private int[] intersectingPositions ( Range range ) {
+
+        if (range.isEmpty()) {
+            return new int[ 0 ];
+        }
+        List<Integer> positions = new ArrayList<>();
+        collectIntersecting(0, order.length, range.getBegin(), range.getEnd(), positions);
+        return positions.stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    private void collectIntersecting ( int low, int high, long begin, long end, List<Integer> positions ) {
+
+        if (low >= high) {
+            return;
+        }
+        int middle = ( low + high ) >>> 1;
+        if (maxEnds[ middle ] < begin) {
+            return;
+        }
+        collectIntersecting(low, middle, begin, end, positions);
+        if (begins[ middle ] > end) {
+            return;
+        }
+        if (ends[ middle ] >= begin) {
+            positions.add(order[ middle ]);
+        }
+        collectIntersecting(middle + 1, high, begin, end, positions);
+    }
+}
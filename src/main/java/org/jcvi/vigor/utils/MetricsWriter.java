@@ -0,0 +1,95 @@
+package org.jcvi.vigor.utils;
+
+import org.jcvi.vigor.component.Model;
+import org.jcvi.vigor.exception.VigorException;
+import org.jcvi.vigor.exception.VigorRuntimeException;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Writes the time and candidate counts of each annotation stage as tab separated values, one row per genome and stage,
+ * and at the end of the run a summary of each stage over all genomes. Metrics are written for every genome, including
+ * those without gene models, so this writer ignores the models it is given.
+ */
+public class MetricsWriter extends BaseOutputWriter {
+
+    public static final String SUMMARY_EXTENSION = "metrics.summary";
+
+    private static final double[] PERCENTILES = { 50, 90, 99 };
+
+    private static Consumer<BufferedWriter> onOpen = b -> {
+        try {
+            b.write("genome_id\tstage\tcalls\ttime_ms\tcreated\tpruned");
+            b.newLine();
+        } catch (IOException e) {
+            throw new VigorRuntimeException("Problem writing metrics header");
+        }
+    };
+
+    @Override
+    public Consumer<BufferedWriter> getOnOpen() {
+        return onOpen;
+    }
+
+    @Override
+    public void writeModels(Outfiles outfiles, List<Model> models) {
+    }
+
+    /**
+     * @param outfiles
+     * @param metrics of an annotated genome
+     * @throws VigorException
+     * @throws IOException
+     */
+    public void writeMetrics(Outfiles outfiles, GenomeMetrics metrics) throws VigorException, IOException {
+        BufferedWriter bw = outfiles.getWriter(outfiles.getBaseFilePath(getExtension()), getOnOpen(), getOnClose());
+        for (GenomeMetrics.Stage stage : metrics.getStages()) {
+            bw.write(String.join("\t",
+                                 metrics.getGenomeID(),
+                                 stage.getName(),
+                                 Long.toString(stage.getCalls()),
+                                 formatMillis(stage.getNanos()),
+                                 Long.toString(stage.getCreated()),
+                                 Long.toString(stage.getPruned())));
+            bw.newLine();
+        }
+    }
+
+    /**
+     * @param outfiles
+     * @param runMetrics
+     * @throws VigorException
+     * @throws IOException
+     */
+    public void writeSummary(Outfiles outfiles, RunMetrics runMetrics) throws VigorException, IOException {
+        BufferedWriter bw = outfiles.getWriter(outfiles.getBaseFilePath(SUMMARY_EXTENSION));
+        bw.write("stage\tgenomes\tcalls\ttotal_ms\tmean_ms\tp50_ms\tp90_ms\tp99_ms\tmax_ms\tcreated\tpruned");
+        bw.newLine();
+        for (RunMetrics.StageSummary summary : runMetrics.getSummaries()) {
+            bw.write(String.join("\t", summary.getName(),
+                                 Integer.toString(summary.getGenomes()),
+                                 Long.toString(summary.getCalls()),
+                                 formatMillis(summary.getTotalNanos()),
+                                 formatMillis(summary.getMeanNanos())));
+            for (double percentile : PERCENTILES) {
+                bw.write("\t" + formatMillis(summary.getPercentileNanos(percentile)));
+            }
+            bw.write("\t" + formatMillis(summary.getPercentileNanos(100)));
+            bw.write("\t" + summary.getCreated());
+            bw.write("\t" + summary.getPruned());
+            bw.newLine();
+        }
+    }
+
+    public static String formatMillis(double nanos) {
+        return String.format("%.3f", nanos / 1_000_000d);
+    }
+
+    @Override
+    public String getExtension() {
+        return "metrics";
+    }
+}
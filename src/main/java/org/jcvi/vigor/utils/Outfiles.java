@@ -41,6 +41,8 @@ public class Outfiles implements AutoCloseable {
     private final Path rootPath;
     private final boolean overwrite;
     private final String baseName;
+    // set when resuming a run, for files to be continued rather than replaced
+    private Set<Path> continued;
 
     public Outfiles(Path rootPath, String baseName, boolean overwrite) {
         this.rootPath = rootPath;
@@ -96,11 +98,15 @@ public class Outfiles implements AutoCloseable {
         Path newPath = getAbsolutePath(path);
         synchronized (writers) {
             if (!writers.containsKey(newPath)) {
-                BufferedWriter writer = getBuffer(newPath);
+                boolean append = continued != null && continued.remove(newPath);
+                BufferedWriter writer = append ? getAppendingBuffer(newPath) : getBuffer(newPath);
                 LOGGER.trace("for path {} got new buffer {}", newPath, writer);
                 Buffer b = new Buffer(writer, onOpen, onClose);
                 writers.put(newPath, b);
-                b.open();
+                // headers were written by the run being continued
+                if (!append) {
+                    b.open();
+                }
             }
             BufferedWriter writer = writers.get(newPath).bufferedWriter;
             LOGGER.trace("for path {} returning buffer {}", newPath, writer);
@@ -120,13 +126,57 @@ public class Outfiles implements AutoCloseable {
         return newPath;
     }
 
+    public Path getRootPath() {
+        return rootPath;
+    }
+
+    public String getBaseName() {
+        return baseName;
+    }
+
     public Path getBaseFilePath(String extension) {
         return rootPath.resolve(baseName + "." + extension);
     }
 
+    /**
+     * Continue the output of an interrupted run. The given files are appended to, and any other files are replaced.
+     *
+     * @param paths files to append to, relative to the output directory
+     * @throws VigorException
+     */
+    public void resume(Collection<Path> paths) throws VigorException {
+        synchronized (writers) {
+            continued = new HashSet<>();
+            for (Path path: paths) {
+                continued.add(getAbsolutePath(path));
+            }
+        }
+    }
+
+    /**
+     * Flush the open files and get their sizes
+     *
+     * @return size of each open file by absolute path
+     * @throws IOException
+     */
+    public Map<Path, Long> getSizes() throws IOException {
+        synchronized (writers) {
+            flush();
+            Map<Path, Long> sizes = new TreeMap<>();
+            for (Path path: writers.keySet()) {
+                sizes.put(path, Files.size(path));
+            }
+            return sizes;
+        }
+    }
+
+    private BufferedWriter getAppendingBuffer(Path path) throws IOException {
+        return Files.newBufferedWriter(path, Charset.forName("UTF-8"), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
     private BufferedWriter getBuffer(Path path) throws IOException {
         List<OpenOption> openOptionsList = new ArrayList<>();
-        if (overwrite) {
+        if (overwrite || continued != null) {
             openOptionsList.add(StandardOpenOption.CREATE);
             openOptionsList.add(StandardOpenOption.TRUNCATE_EXISTING);
         } else {
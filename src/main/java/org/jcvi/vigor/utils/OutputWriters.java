@@ -18,5 +18,6 @@ public class OutputWriters {
         Writers.put("ALN", AlignmentWriter::new);
         Writers.put("SUM", SUMWriter::new);
         Writers.put("GFF3", GFF3Writer::new);
+        Writers.put("METRICS", MetricsWriter::new);
     }
 }
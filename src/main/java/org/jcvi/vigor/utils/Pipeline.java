@@ -0,0 +1,300 @@
+package org.jcvi.vigor.utils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jcvi.vigor.exception.VigorException;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A chain of stages connected by bounded queues. Each stage runs on its own thread and the final sink runs on the
+ * calling thread, so different items can be in different stages at the same time while every stage still sees the
+ * items in input order.
+ *
+ * Each stage counts the items it handled, the time it spent busy and the depth of its input queue, to show which
+ * stage the pipeline is waiting on.
+ *
+ * @param <I> input type
+ * @param <O> type handed to the sink
+ */
+public class Pipeline<I, O> {
+
+    private static final Logger LOGGER = LogManager.getLogger(Pipeline.class);
+
+    @FunctionalInterface
+    public interface Step<A, B> {
+
+        B apply ( A input ) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface Sink<A> {
+
+        void accept ( A output ) throws Exception;
+    }
+
+    private static final class Item {
+
+        static final Item END = new Item(null, null);
+
+        final Object value;
+        final Throwable error;
+
+        Item ( Object value, Throwable error ) {
+
+            this.value = value;
+            this.error = error;
+        }
+    }
+
+    /**
+     * A stage of the pipeline and its counters
+     */
+    public static final class Stage {
+
+        private final String name;
+        private final Step<Object, Object> step;
+        private final BlockingQueue<Item> input;
+        private final AtomicLong items = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicLong queueDepthTotal = new AtomicLong();
+        private volatile int maxQueueDepth;
+
+        private Stage ( String name, Step<Object, Object> step, int queueSize ) {
+
+            this.name = name;
+            this.step = step;
+            this.input = new ArrayBlockingQueue<>(queueSize);
+        }
+
+        public String getName () {
+
+            return name;
+        }
+
+        /**
+         * @return number of items handled
+         */
+        public long getItems () {
+
+            return items.get();
+        }
+
+        /**
+         * @return time spent handling items, in nanoseconds
+         */
+        public long getBusyNanos () {
+
+            return busyNanos.get();
+        }
+
+        /**
+         * @return mean number of items left waiting in the input queue when the stage took an item
+         */
+        public double getMeanQueueDepth () {
+
+            long count = items.get();
+            return count == 0 ? 0 : queueDepthTotal.get() / (double) count;
+        }
+
+        /**
+         * @return largest number of items left waiting in the input queue when the stage took an item
+         */
+        public int getMaxQueueDepth () {
+
+            return maxQueueDepth;
+        }
+
+        private Item take () throws InterruptedException {
+
+            Item item = input.take();
+            if (item != Item.END) {
+                int depth = input.size();
+                queueDepthTotal.addAndGet(depth);
+                if (depth > maxQueueDepth) {
+                    maxQueueDepth = depth;
+                }
+            }
+            return item;
+        }
+
+        private Object handle ( Object value ) throws Exception {
+
+            return handle(step, value);
+        }
+
+        private Object handle ( Step<Object, Object> step, Object value ) throws Exception {
+
+            long start = System.nanoTime();
+            try {
+                return step.apply(value);
+            } finally {
+                busyNanos.addAndGet(System.nanoTime() - start);
+                items.incrementAndGet();
+            }
+        }
+    }
+
+    private final List<Stage> stages;
+
+    private Pipeline ( List<Stage> stages ) {
+
+        this.stages = stages;
+    }
+
+    /**
+     * @param queueSize capacity of the queue in front of each stage
+     * @param <I> input type
+     * @return
+     */
+    public static <I> Builder<I, I> builder ( int queueSize ) {
+
+        return new Builder<>(queueSize, new ArrayList<>());
+    }
+
+    public static class Builder<I, T> {
+
+        private final int queueSize;
+        private final List<Stage> stages;
+
+        private Builder ( int queueSize, List<Stage> stages ) {
+
+            if (queueSize < 1) {
+                throw new IllegalArgumentException("queue size must be at least 1");
+            }
+            this.queueSize = queueSize;
+            this.stages = stages;
+        }
+
+        /**
+         * @param name used when reporting statistics
+         * @param step
+         * @param <U> output type of the stage
+         * @return
+         */
+        @SuppressWarnings("unchecked")
+        public <U> Builder<I, U> stage ( String name, Step<? super T, ? extends U> step ) {
+
+            stages.add(new Stage(name, value -> step.apply((T) value), queueSize));
+            return new Builder<>(queueSize, stages);
+        }
+
+        /**
+         * @param sinkName name of the final stage, which runs on the thread calling {@link Pipeline#run}
+         * @return
+         */
+        public Pipeline<I, T> build ( String sinkName ) {
+
+            List<Stage> allStages = new ArrayList<>(stages);
+            allStages.add(new Stage(sinkName, null, queueSize));
+            return new Pipeline<>(Collections.unmodifiableList(allStages));
+        }
+    }
+
+    /**
+     * @return the stages, ending with the sink
+     */
+    public List<Stage> getStages () {
+
+        return stages;
+    }
+
+    /**
+     * Pass every input through the stages and hand the results to the sink, in input order. The first error from
+     * reading the inputs, a stage or the sink stops the pipeline and is thrown once the items before it have reached
+     * the sink.
+     *
+     * @param inputs read on a separate thread
+     * @param sink called on this thread
+     * @throws VigorException
+     */
+    @SuppressWarnings("unchecked")
+    public void run ( Iterator<? extends I> inputs, Sink<? super O> sink ) throws VigorException {
+
+        ExecutorService executor = Executors.newFixedThreadPool(stages.size(), new ThreadFactoryBuilder()
+                .setNameFormat("vigor-pipeline-%d")
+                .setDaemon(true)
+                .build());
+        long start = System.nanoTime();
+        try {
+            executor.submit(() -> feed(inputs));
+            for (int i = 0; i < stages.size() - 1; i++) {
+                Stage stage = stages.get(i);
+                Stage next = stages.get(i + 1);
+                executor.submit(() -> work(stage, next));
+            }
+            Stage sinkStage = stages.get(stages.size() - 1);
+            Item item;
+            while (( item = sinkStage.take() ) != Item.END) {
+                if (item.error != null) {
+                    throw item.error;
+                }
+                sinkStage.handle(value -> {
+                    sink.accept((O) value);
+                    return null;
+                }, item.value);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VigorException("interrupted while running pipeline", e);
+        } catch (VigorException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new VigorException(String.format("pipeline error. got %s: %s", e.getClass().getSimpleName(), e.getMessage()), e);
+        } finally {
+            executor.shutdownNow();
+            logStatistics(System.nanoTime() - start);
+        }
+    }
+
+    private Void feed ( Iterator<? extends I> inputs ) throws InterruptedException {
+
+        BlockingQueue<Item> first = stages.get(0).input;
+        try {
+            while (inputs.hasNext()) {
+                first.put(new Item(inputs.next(), null));
+            }
+        } catch (RuntimeException e) {
+            first.put(new Item(null, e));
+        }
+        first.put(Item.END);
+        return null;
+    }
+
+    private Void work ( Stage stage, Stage next ) throws InterruptedException {
+
+        Item item;
+        while (( item = stage.take() ) != Item.END) {
+            if (item.error != null) {
+                next.input.put(item);
+                continue;
+            }
+            try {
+                next.input.put(new Item(stage.handle(item.value), null));
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Throwable e) {
+                next.input.put(new Item(null, e));
+            }
+        }
+        next.input.put(Item.END);
+        return null;
+    }
+
+    private void logStatistics ( long elapsedNanos ) {
+
+        for (Stage stage : stages) {
+            LOGGER.info("pipeline stage {}: {} item(s), busy {} ms ({}% of {} ms), input queue depth mean {} max {}",
+                        stage.getName(),
+                        stage.getItems(),
+                        TimeUnit.NANOSECONDS.toMillis(stage.getBusyNanos()),
+                        elapsedNanos == 0 ? 0 : Math.round(100d * stage.getBusyNanos() / elapsedNanos),
+                        TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                        String.format("%.2f", stage.getMeanQueueDepth()),
+                        stage.getMaxQueueDepth());
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package org.jcvi.vigor.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jcvi.jillion.core.datastore.DataStoreProviderHint;
+import org.jcvi.jillion.core.residue.Frame;
+import org.jcvi.jillion.core.residue.aa.AminoAcid;
+import org.jcvi.jillion.core.residue.aa.IupacTranslationTables;
+import org.jcvi.jillion.core.residue.aa.ProteinSequence;
+import org.jcvi.jillion.core.residue.nt.NucleotideSequence;
+import org.jcvi.jillion.fasta.aa.ProteinFastaDataStore;
+import org.jcvi.jillion.fasta.aa.ProteinFastaFileDataStoreBuilder;
+import org.jcvi.jillion.fasta.aa.ProteinFastaRecord;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Amino acid k-mer index over a protein database, used to find the proteins that could align to a genome or protein
+ * before running the aligner. A protein is a candidate if enough of its k-mers occur on a common diagonal in the
+ * query protein or in one of the six frame translations of the query genome.
+ *
+ * Reference database indexes are cached in a file next to the database and rebuilt when the database changes.
+ */
+public class ProteinKmerIndex {
+
+    private static final Logger LOGGER = LogManager.getLogger(ProteinKmerIndex.class);
+    public static final String INDEX_SUFFIX = ".kmer_index";
+    public static final int KMER_SIZE = 5;
+    private static final int MAGIC = 0x564b4d52;
+    private static final int VERSION = 1;
+    // seeds whose diagonals are within one bin of each other are counted together
+    private static final int DIAGONAL_BIN_SIZE = 32;
+
+    private final int kmerSize;
+    private final List<String> proteinIDs;
+    // k-mer code -> (protein index << 32 | protein position)
+    private final Map<Integer, long[]> postings;
+
+    private ProteinKmerIndex ( int kmerSize, List<String> proteinIDs, Map<Integer, long[]> postings ) {
+
+        this.kmerSize = kmerSize;
+        this.proteinIDs = proteinIDs;
+        this.postings = postings;
+    }
+
+    /**
+     * @return number of proteins in the indexed database
+     */
+    public int getProteinCount () {
+
+        return proteinIDs.size();
+    }
+
+    /**
+     * Load the cached index for the reference database, building and caching it if the cache is missing or out of
+     * date. If the cache can't be written the index is only kept in memory.
+     *
+     * @param referenceDB
+     * @return
+     * @throws IOException
+     */
+    public static ProteinKmerIndex load ( File referenceDB ) throws IOException {
+
+        File indexFile = getIndexFile(referenceDB);
+        if (indexFile.exists()) {
+            try {
+                Optional<ProteinKmerIndex> index = read(indexFile, referenceDB);
+                if (index.isPresent()) {
+                    LOGGER.debug("using k-mer index {}", indexFile);
+                    return index.get();
+                }
+                LOGGER.debug("k-mer index {} is out of date", indexFile);
+            } catch (IOException e) {
+                LOGGER.warn("unable to read k-mer index {}: {}", indexFile, e.getMessage());
+            }
+        }
+        ProteinKmerIndex index = build(referenceDB);
+        try {
+            index.write(indexFile, referenceDB);
+            LOGGER.debug("wrote k-mer index {}", indexFile);
+        } catch (IOException e) {
+            LOGGER.warn("unable to write k-mer index {}: {}", indexFile, e.getMessage());
+        }
+        return index;
+    }
+
+    /**
+     * @param referenceDB
+     * @return index file for the reference database
+     */
+    public static File getIndexFile ( File referenceDB ) {
+
+        return new File(referenceDB.getAbsolutePath() + INDEX_SUFFIX);
+    }
+
+    /**
+     * @param referenceDB
+     * @return
+     * @throws IOException
+     */
+    public static ProteinKmerIndex build ( File referenceDB ) throws IOException {
+
+        List<ProteinFastaRecord> records = new ArrayList<>();
+        try (ProteinFastaDataStore datastore = new ProteinFastaFileDataStoreBuilder(referenceDB)
+                .hint(DataStoreProviderHint.ITERATION_ONLY).build();
+             Stream<ProteinFastaRecord> recordStream = datastore.records()) {
+            Iterator<ProteinFastaRecord> recordIterator = recordStream.iterator();
+            while (recordIterator.hasNext()) {
+                records.add(recordIterator.next());
+            }
+        }
+        return of(records, KMER_SIZE);
+    }
+
+    /**
+     * @param records
+     * @param kmerSize at most 6
+     * @return in memory index of the records
+     */
+    public static ProteinKmerIndex of ( List<ProteinFastaRecord> records, int kmerSize ) {
+
+        List<String> proteinIDs = new ArrayList<>(records.size());
+        Map<Integer, List<Long>> postingLists = new HashMap<>();
+        for (ProteinFastaRecord record : records) {
+            long proteinIndex = proteinIDs.size();
+            proteinIDs.add(record.getId());
+            int[] kmers = kmers(record.getSequence(), kmerSize);
+            for (int i = 0; i < kmers.length; i++) {
+                if (kmers[i] >= 0) {
+                    postingLists.computeIfAbsent(kmers[i], k -> new ArrayList<>()).add(proteinIndex << 32 | i);
+                }
+            }
+        }
+        Map<Integer, long[]> postings = new HashMap<>(postingLists.size() * 2);
+        for (Map.Entry<Integer, List<Long>> entry : postingLists.entrySet()) {
+            postings.put(entry.getKey(), entry.getValue().stream().mapToLong(Long::longValue).toArray());
+        }
+        return new ProteinKmerIndex(kmerSize, proteinIDs, postings);
+    }
+
+    /**
+     * @param sequence genome sequence
+     * @param minimumSeeds minimum number of k-mer hits on a common diagonal
+     * @return IDs of the proteins with at least minimumSeeds hits on a common diagonal in any frame of either strand,
+     * in database order
+     */
+    public Set<String> getCandidates ( NucleotideSequence sequence, int minimumSeeds ) {
+
+        BitSet candidates = new BitSet(proteinIDs.size());
+        Frame[] frames = { Frame.ONE, Frame.TWO, Frame.THREE };
+        NucleotideSequence[] strands = { sequence, sequence.toBuilder().reverseComplement().build() };
+        for (NucleotideSequence strand : strands) {
+            // diagonals are in nucleotide coordinates so that all three frames of a strand share them
+            Map<Long, Integer> binCounts = new HashMap<>();
+            for (int frame = 0; frame < frames.length; frame++) {
+                ProteinSequence translation = IupacTranslationTables.STANDARD.translate(strand, frames[frame], false);
+                countSeeds(kmers(translation, kmerSize), frame, 3, minimumSeeds, binCounts, candidates);
+            }
+        }
+        return getCandidateIDs(candidates);
+    }
+
+    /**
+     * @param sequence query protein
+     * @param minimumSeeds minimum number of k-mer hits on a common diagonal
+     * @return IDs of the proteins with at least minimumSeeds hits on a common diagonal with the query, in database
+     * order
+     */
+    public Set<String> getCandidates ( ProteinSequence sequence, int minimumSeeds ) {
+
+        BitSet candidates = new BitSet(proteinIDs.size());
+        countSeeds(kmers(sequence, kmerSize), 0, 1, minimumSeeds, new HashMap<>(), candidates);
+        return getCandidateIDs(candidates);
+    }
+
+    /**
+     * Count the hits of the query k-mers per protein and diagonal bin, marking the proteins reaching minimumSeeds in
+     * any bin as candidates. Query k-mer i is at position offset + scale * i, and protein positions are scaled by
+     * scale.
+     */
+    private void countSeeds ( int[] kmers, long offset, long scale, int minimumSeeds, Map<Long, Integer> binCounts, BitSet candidates ) {
+
+        for (int i = 0; i < kmers.length; i++) {
+            long[] hits = kmers[i] < 0 ? null : postings.get(kmers[i]);
+            if (hits == null) {
+                continue;
+            }
+            long queryPosition = offset + scale * i;
+            for (long hit : hits) {
+                int proteinIndex = (int) ( hit >>> 32 );
+                if (candidates.get(proteinIndex)) {
+                    continue;
+                }
+                long bin = Math.floorDiv(queryPosition - scale * ( hit & 0xFFFFFFFFL ), DIAGONAL_BIN_SIZE);
+                // count each seed in its own bin and the one below so that seeds straddling a bin boundary
+                // are still counted together
+                for (long b = bin - 1; b <= bin; b++) {
+                    long key = ( (long) proteinIndex << 32 ) | ( b & 0xFFFFFFFFL );
+                    if (binCounts.merge(key, 1, Integer::sum) >= minimumSeeds) {
+                        candidates.set(proteinIndex);
+                    }
+                }
+            }
+        }
+    }
+
+    private Set<String> getCandidateIDs ( BitSet candidates ) {
+
+        Set<String> candidateIDs = new LinkedHashSet<>();
+        candidates.stream().forEach(i -> candidateIDs.add(proteinIDs.get(i)));
+        return candidateIDs;
+    }
+
+    /**
+     * @param sequence
+     * @param kmerSize at most 6
+     * @return k-mer codes for each position in the sequence, or -1 where the k-mer includes a stop, gap or unknown
+     * residue
+     */
+    public static int[] kmers ( ProteinSequence sequence, int kmerSize ) {
+
+        int length = (int) sequence.getLength() - kmerSize + 1;
+        if (length <= 0) {
+            return new int[0];
+        }
+        int[] codes = new int[length];
+        for (int i = 0; i < length; i++) {
+            int code = 0;
+            for (int j = 0; j < kmerSize; j++) {
+                AminoAcid aa = sequence.get(i + j);
+                if (aa == AminoAcid.STOP || aa == AminoAcid.Gap || aa == AminoAcid.Unknown_Amino_Acid) {
+                    code = - 1;
+                    break;
+                }
+                code = ( code << 5 ) | aa.getOrdinalAsByte();
+            }
+            codes[i] = code;
+        }
+        return codes;
+    }
+
+    private void write ( File indexFile, File referenceDB ) throws IOException {
+
+        Path tempFile = Files.createTempFile(indexFile.getAbsoluteFile().getParentFile().toPath(), indexFile.getName(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(kmerSize);
+                out.writeLong(referenceDB.length());
+                out.writeLong(referenceDB.lastModified());
+                out.writeInt(proteinIDs.size());
+                for (String proteinID : proteinIDs) {
+                    out.writeUTF(proteinID);
+                }
+                out.writeInt(postings.size());
+                for (Map.Entry<Integer, long[]> entry : postings.entrySet()) {
+                    out.writeInt(entry.getKey());
+                    out.writeInt(entry.getValue().length);
+                    for (long hit : entry.getValue()) {
+                        out.writeLong(hit);
+                    }
+                }
+            }
+            // concurrent runs may be building the same index, so replace the index in a single step
+            Files.move(tempFile, indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static Optional<ProteinKmerIndex> read ( File indexFile, File referenceDB ) throws IOException {
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a k-mer index file");
+            }
+            if (in.readInt() != VERSION || in.readInt() != KMER_SIZE
+                    || in.readLong() != referenceDB.length() || in.readLong() != referenceDB.lastModified()) {
+                return Optional.empty();
+            }
+            int proteinCount = in.readInt();
+            List<String> proteinIDs = new ArrayList<>(proteinCount);
+            for (int i = 0; i < proteinCount; i++) {
+                proteinIDs.add(in.readUTF());
+            }
+            int kmerCount = in.readInt();
+            Map<Integer, long[]> postings = new HashMap<>(kmerCount * 2);
+            for (int i = 0; i < kmerCount; i++) {
+                int code = in.readInt();
+                long[] hits = new long[in.readInt()];
+                for (int j = 0; j < hits.length; j++) {
+                    hits[j] = in.readLong();
+                }
+                postings.put(code, hits);
+            }
+            return Optional.of(new ProteinKmerIndex(KMER_SIZE, proteinIDs, postings));
+        }
+    }
+}
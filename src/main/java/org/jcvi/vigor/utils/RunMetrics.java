@@ -0,0 +1,145 @@
+package org.jcvi.vigor.utils;
+
+import java.util.*;
+
+/**
+ * Per stage summary of the genome metrics of a run: how many genomes went through each stage, the distribution of the
+ * time each genome spent there and the candidates created and pruned overall.
+ */
+public class RunMetrics {
+
+    /**
+     * Summary of one stage over the genomes of a run
+     */
+    public static final class StageSummary {
+
+        private final String name;
+        private final long[] sortedNanos;
+        private final long totalNanos;
+        private final long calls;
+        private final long created;
+        private final long pruned;
+
+        private StageSummary ( String name, long[] sortedNanos, long calls, long created, long pruned ) {
+
+            this.name = name;
+            this.sortedNanos = sortedNanos;
+            this.totalNanos = Arrays.stream(sortedNanos).sum();
+            this.calls = calls;
+            this.created = created;
+            this.pruned = pruned;
+        }
+
+        public String getName () {
+
+            return name;
+        }
+
+        /**
+         * @return number of genomes which went through the stage
+         */
+        public int getGenomes () {
+
+            return sortedNanos.length;
+        }
+
+        public long getTotalNanos () {
+
+            return totalNanos;
+        }
+
+        public double getMeanNanos () {
+
+            return sortedNanos.length == 0 ? 0 : totalNanos / (double) sortedNanos.length;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the nearest rank percentile of the time per genome, in nanoseconds
+         */
+        public long getPercentileNanos ( double percentile ) {
+
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException(String.format("percentile %s is not between 0 and 100", percentile));
+            }
+            if (sortedNanos.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percentile / 100 * sortedNanos.length);
+            return sortedNanos[ Math.max(rank, 1) - 1 ];
+        }
+
+        public long getCalls () {
+
+            return calls;
+        }
+
+        public long getCreated () {
+
+            return created;
+        }
+
+        public long getPruned () {
+
+            return pruned;
+        }
+    }
+
+    private static final class StageTotals {
+
+        private long[] nanos = new long[ 16 ];
+        private int genomes;
+        private long calls;
+        private long created;
+        private long pruned;
+
+        void add ( GenomeMetrics.Stage stage ) {
+
+            if (genomes == nanos.length) {
+                nanos = Arrays.copyOf(nanos, genomes * 2);
+            }
+            nanos[ genomes++ ] = stage.getNanos();
+            calls += stage.getCalls();
+            created += stage.getCreated();
+            pruned += stage.getPruned();
+        }
+    }
+
+    private final Map<String, StageTotals> stages = new HashMap<>();
+    private int genomes;
+
+    /**
+     * @param metrics of an annotated genome
+     */
+    public synchronized void add ( GenomeMetrics metrics ) {
+
+        genomes++;
+        for (GenomeMetrics.Stage stage : metrics.getStages()) {
+            stages.computeIfAbsent(stage.getName(), s -> new StageTotals()).add(stage);
+        }
+    }
+
+    /**
+     * @return number of genomes added
+     */
+    public synchronized int getGenomes () {
+
+        return genomes;
+    }
+
+    /**
+     * @return summaries of the stages, in pipeline order
+     */
+    public synchronized List<StageSummary> getSummaries () {
+
+        List<StageSummary> summaries = new ArrayList<>(stages.size());
+        for (Map.Entry<String, StageTotals> entry : stages.entrySet()) {
+            StageTotals totals = entry.getValue();
+            long[] sorted = Arrays.copyOf(totals.nanos, totals.genomes);
+            Arrays.sort(sorted);
+            summaries.add(new StageSummary(entry.getKey(), sorted, totals.calls, totals.created, totals.pruned));
+        }
+        summaries.sort(Comparator.comparing(StageSummary::getName, GenomeMetrics.STAGE_COMPARATOR));
+        return summaries;
+    }
+}
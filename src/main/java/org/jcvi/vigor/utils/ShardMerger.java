@@ -0,0 +1,171 @@
+package org.jcvi.vigor.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jcvi.vigor.exception.VigorException;
+import org.jcvi.vigor.service.exception.UserFacingException;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Merges the outputs of the shards of a run into the outputs of a single run. The output of each record is found from
+ * the shard's checkpoint journal, and records are taken from the shards round robin as they were assigned by
+ * {@link InputShard}. Gene IDs are derived from the genome IDs, so the output of each record is copied unchanged.
+ *
+ * Headers are taken from the first shard. Anything written after the last record, such as run summaries, describes
+ * a single shard and isn't merged.
+ */
+public class ShardMerger {
+
+    private static final Logger LOGGER = LogManager.getLogger(ShardMerger.class);
+
+    private final Path outputDirectory;
+    private final String outputPrefix;
+    private final int shards;
+
+    /**
+     * @param outputDirectory containing the outputs of the shards
+     * @param outputPrefix of the merged output
+     * @param shards number of shards
+     */
+    public ShardMerger ( Path outputDirectory, String outputPrefix, int shards ) {
+
+        this.outputDirectory = outputDirectory;
+        this.outputPrefix = outputPrefix;
+        this.shards = shards;
+    }
+
+    /**
+     * @param overwrite replace existing merged output files
+     * @return number of records merged
+     * @throws VigorException if a shard is incomplete or the shards don't belong to the same run
+     * @throws IOException
+     */
+    public int merge ( boolean overwrite ) throws VigorException, IOException {
+
+        List<Checkpoint.State> states = readShards();
+        int records = states.stream().mapToInt(s -> s.getRecordIDs().size()).sum();
+        for (int shard = 0; shard < shards; shard++) {
+            // round robin assignment gives the earlier shards any extra records
+            int expected = ( records - shard + shards - 1 ) / shards;
+            if (states.get(shard).getRecordIDs().size() != expected) {
+                throw new UserFacingException(String.format("shard %s/%s has %s genome(s), expected %s of %s in total",
+                                                            shard + 1, shards, states.get(shard).getRecordIDs().size(),
+                                                            expected, records));
+            }
+        }
+        for (String suffix : getSuffixes(states)) {
+            Path merged = outputDirectory.resolve(outputPrefix + suffix);
+            LOGGER.debug("merging {} genome(s) into {}", records, merged);
+            mergeFile(states, suffix, merged, records, overwrite);
+        }
+        return records;
+    }
+
+    private List<Checkpoint.State> readShards () throws VigorException, IOException {
+
+        List<Checkpoint.State> states = new ArrayList<>(shards);
+        for (int shard = 1; shard <= shards; shard++) {
+            Path journal = outputDirectory.resolve(InputShard.getOutputPrefix(outputPrefix, shard, shards) + "." + Checkpoint.EXTENSION);
+            Optional<Checkpoint.State> state = Checkpoint.read(journal);
+            if (!state.isPresent()) {
+                throw new UserFacingException(String.format("no checkpoint %s for shard %s/%s", journal, shard, shards));
+            }
+            if (!state.get().isComplete()) {
+                throw new UserFacingException(String.format("shard %s/%s has not completed, checkpoint %s", shard, shards, journal));
+            }
+            if (!states.isEmpty() && !states.get(0).getInputFile().equals(state.get().getInputFile())) {
+                LOGGER.warn("shard {}/{} annotated {}, shard 1/{} annotated {}", shard, shards, state.get().getInputFile(),
+                            shards, states.get(0).getInputFile());
+            }
+            states.add(state.get());
+        }
+        return states;
+    }
+
+    /**
+     * @return suffixes after the shard's output prefix of the files with output for each record
+     */
+    private Set<String> getSuffixes ( List<Checkpoint.State> states ) throws VigorException {
+
+        Set<String> firstSuffixes = null;
+        for (int shard = 0; shard < shards; shard++) {
+            Checkpoint.State state = states.get(shard);
+            String shardPrefix = InputShard.getOutputPrefix(outputPrefix, shard + 1, shards);
+            Set<String> suffixes = new TreeSet<>();
+            for (Path path : state.getEndSizes().get().keySet()) {
+                String fileName = path.toString();
+                if (!fileName.startsWith(shardPrefix + ".")) {
+                    LOGGER.warn("not merging {} of shard {}/{}", path, shard + 1, shards);
+                    continue;
+                }
+                if (state.getStartOffsets().containsKey(path) ||
+                        state.getRecordOffsets().stream().anyMatch(o -> o.containsKey(path))) {
+                    suffixes.add(fileName.substring(shardPrefix.length()));
+                } else {
+                    LOGGER.info("not merging {}, written after the last genome of shard {}/{}", path, shard + 1, shards);
+                }
+            }
+            if (firstSuffixes == null) {
+                firstSuffixes = suffixes;
+            } else if (!firstSuffixes.equals(suffixes)) {
+                throw new UserFacingException(String.format("shard %s/%s has output files %s, shard 1/%s has %s",
+                                                            shard + 1, shards, suffixes, shards, firstSuffixes));
+            }
+        }
+        return firstSuffixes;
+    }
+
+    private void mergeFile ( List<Checkpoint.State> states, String suffix, Path merged, int records, boolean overwrite ) throws IOException {
+
+        OpenOption[] options = overwrite ?
+                new OpenOption[] { StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING } :
+                new OpenOption[] { StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW };
+        List<FileChannel> inputs = new ArrayList<>(shards);
+        List<Path> paths = new ArrayList<>(shards);
+        try (FileChannel output = FileChannel.open(merged, options)) {
+            for (int shard = 1; shard <= shards; shard++) {
+                Path path = Paths.get(InputShard.getOutputPrefix(outputPrefix, shard, shards) + suffix);
+                paths.add(path);
+                inputs.add(FileChannel.open(outputDirectory.resolve(path), StandardOpenOption.READ));
+            }
+            transfer(inputs.get(0), 0, states.get(0).getStartOffsets().getOrDefault(paths.get(0), 0L), output);
+            long[] positions = new long[ shards ];
+            for (int shard = 0; shard < shards; shard++) {
+                positions[ shard ] = states.get(shard).getStartOffsets().getOrDefault(paths.get(shard), 0L);
+            }
+            for (int record = 0; record < records; record++) {
+                int shard = record % shards;
+                Map<Path, Long> offsets = states.get(shard).getRecordOffsets().get(record / shards);
+                long end = offsets.getOrDefault(paths.get(shard), positions[ shard ]);
+                transfer(inputs.get(shard), positions[ shard ], end, output);
+                positions[ shard ] = end;
+            }
+            for (int shard = 0; shard < shards; shard++) {
+                long end = states.get(shard).getEndSizes().get().getOrDefault(paths.get(shard), positions[ shard ]);
+                if (end > positions[ shard ]) {
+                    LOGGER.info("not merging {} bytes written after the last genome of {}", end - positions[ shard ], paths.get(shard));
+                }
+            }
+        } finally {
+            for (FileChannel input : inputs) {
+                input.close();
+            }
+        }
+    }
+
+    private static void transfer ( FileChannel input, long start, long end, FileChannel output ) throws IOException {
+
+        long position = start;
+        while (position < end) {
+            long transferred = input.transferTo(position, end - position, output);
+            if (transferred <= 0) {
+                throw new IOException(String.format("unable to read %s bytes at %s", end - position, position));
+            }
+            position += transferred;
+        }
+    }
+}
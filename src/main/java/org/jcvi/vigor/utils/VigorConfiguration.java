@@ -177,6 +177,14 @@ public class VigorConfiguration {
         return values.containsKey(section) || (defaults != null && defaults.hasSection(section));
     }
 
+    public Set<String> getSections() {
+        Set<String> sections = new HashSet<>(values.keySet());
+        if (defaults != null) {
+            sections.addAll(defaults.getSections());
+        }
+        return sections;
+    }
+
     public Optional<ValueWithSource> getWithSource ( ConfigurationParameters parameter ) {
         return getWithSource(DEFAULT_SECTION, parameter);
     }
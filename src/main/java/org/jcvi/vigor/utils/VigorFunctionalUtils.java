@@ -4,14 +4,12 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jcvi.jillion.core.Direction;
 import org.jcvi.jillion.core.Range;
 import org.jcvi.jillion.core.residue.Frame;
-import org.jcvi.jillion.core.residue.aa.IupacTranslationTables;
 import org.jcvi.jillion.core.residue.nt.NucleotideSequence;
 import org.jcvi.jillion.core.residue.nt.NucleotideSequenceBuilder;
 import org.jcvi.vigor.component.Exon;
@@ -33,7 +31,7 @@ public class VigorFunctionalUtils {
         return cds;
     }
 
-    private static Frame[] FRAMES = { Frame.ONE, Frame.TWO, Frame.THREE };
+    private static final Frame[] FRAMES = { Frame.ONE, Frame.TWO, Frame.THREE };
 
     public static Frame getSequenceFrame ( long coordinate ) {
 
@@ -129,6 +127,16 @@ public class VigorFunctionalUtils {
         return false;
     }
 
+    /**
+     * @param sequenceGapIndex
+     * @param match
+     * @return true if the match intersects any sequence gap
+     */
+    public static boolean intheSequenceGap ( IntervalIndex sequenceGapIndex, Range match ) {
+
+        return sequenceGapIndex != null && sequenceGapIndex.intersects(match);
+    }
+
     public static Map<Frame, List<Long>> frameToSequenceFrame ( Map<Frame, List<Long>> rangeFrameMaP ) {
 
         Map<Frame, List<Long>> outRangeFrameMap = new HashMap<>();
@@ -153,6 +161,16 @@ public class VigorFunctionalUtils {
         return nearestRange;
     }
 
+    /**
+     * @param sequenceGapIndex
+     * @param exonRange
+     * @return the nearest sequence gap ending at or before the start of the exon, or null
+     */
+    public static Range get5pNearestSequenceGap ( IntervalIndex sequenceGapIndex, Range exonRange ) {
+
+        return sequenceGapIndex.findNearestEndingAtOrBefore(exonRange.getBegin()).orElse(null);
+    }
+
     public static long getNTRange ( List<Exon> exons, long CDSNTCoordinate ) {
 
         exons.sort(Exon.Comparators.Ascending);
@@ -176,17 +194,14 @@ public class VigorFunctionalUtils {
         return outputStart;
     }
 
+    /**
+     * @param virusGenome
+     * @param searchRange
+     * @return stops lying within the search range by sequence frame
+     */
     public static Map<Frame, List<Long>> findStopsInSequenceFrame ( VirusGenome virusGenome, Range searchRange ) {
 
-        Map<Frame, List<Long>> stops = IupacTranslationTables.STANDARD.findStops(virusGenome.getSequence().toBuilder(searchRange).build());
-        Map<Frame, List<Long>> stopsTemp = new HashMap<>();
-        final long startCoordinate = searchRange.getBegin();
-        for (Frame frame : stops.keySet()) {
-            List<Long> temp = stops.get(frame).stream().map(x -> x + startCoordinate).collect(Collectors.toList());
-            stopsTemp.put(frame, temp);
-        }
-        Map<Frame, List<Long>> outStopsMap = VigorFunctionalUtils.frameToSequenceFrame(stopsTemp);
-        return outStopsMap;
+        return virusGenome.getCodonIndex().findStops(searchRange);
     }
 
 
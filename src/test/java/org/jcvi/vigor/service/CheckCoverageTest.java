@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 @Category({Fast.class, Isolated.class})
 @RunWith(SpringRunner.class)
@@ -131,4 +132,36 @@ public class CheckCoverageTest {
         NucleotideSequence cds = checkCoverage.determineCDS(model);
         assertEquals("GTCTTCTAAAAATCGTGA", cds.toString());
     }
+
+    @Test
+    public void determineHomologyOutsideBand () {
+
+        // WWW aligns 6 diagonals away from where the model's exons put it, nothing scores within the band
+        NucleotideSequence cds = new NucleotideSequenceBuilder("TGGTGGTGGCCTCCTCCTCCTCCTCCT").build();
+        Model unbanded = checkCoverage.determineHomology(getBandTestModel(cds), cds, null, 0);
+        Model banded = checkCoverage.determineHomology(getBandTestModel(cds), cds, null, 1);
+        assertEquals("WWWPPPPPP", banded.getTranslatedSeq().toString());
+        assertTrue(unbanded.getScores().get(Scores.COVERAGE_SCORE) > 0);
+        assertEquals(unbanded.getScores(), banded.getScores());
+    }
+
+    private Model getBandTestModel ( NucleotideSequence cds ) {
+
+        Exon exon = new Exon();
+        exon.setRange(Range.of(0, cds.getLength() - 1));
+        exon.setFrame(Frame.ONE);
+        List<Exon> exons = new ArrayList<>();
+        exons.add(exon);
+        ViralProtein vp = new ViralProtein();
+        vp.setSequence(new ProteinSequenceBuilder("GGGGGGWWW").build());
+        GeneAttributes attributes = new GeneAttributes();
+        attributes.setStopTranslationException(StopTranslationException.NO_EXCEPTION);
+        vp.setGeneAttributes(attributes);
+        Alignment alignment = new Alignment();
+        alignment.setViralProtein(vp);
+        Model model = new Model();
+        model.setAlignment(alignment);
+        model.setExons(exons);
+        return model;
+    }
 }
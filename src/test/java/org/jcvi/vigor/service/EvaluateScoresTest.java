@@ -0,0 +1,70 @@
+package org.jcvi.vigor.service;
+
+import org.jcvi.vigor.component.Alignment;
+import org.jcvi.vigor.component.Model;
+import org.jcvi.vigor.component.ViralProtein;
+import org.jcvi.vigor.testing.category.Fast;
+import org.jcvi.vigor.testing.category.Isolated;
+import org.jcvi.vigor.utils.ConfigurationParameters;
+import org.jcvi.vigor.utils.VigorConfiguration;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+@Category({Fast.class, Isolated.class})
+public class EvaluateScoresTest {
+
+    private final EvaluateScores evaluateScores = new EvaluateScores();
+
+    @Test
+    public void testPartialScoreMatchesEvaluate () {
+
+        Map<String, Double> scores = new HashMap<>();
+        scores.put(Scores.ALIGNMENT_SCORE, 87.5);
+        scores.put(Scores.START_CODON_SCORE, 1d);
+        scores.put(Scores.LEAKY_STOP_SCORE, .5);
+        scores.put(Scores.SPLICE_SCORE, 2d);
+        scores.put(Scores.STOP_CODON_SCORE, .75);
+        Model model = model(scores);
+
+        double partialScore = evaluateScores.partialScore(model);
+        assertEquals("partialScore should not change the model's scores", scores, model.getScores());
+        evaluateScores.evaluate(model, model.getAlignment().getViralProtein().getConfiguration());
+        assertEquals(model.getScores().get(Scores.TOTAL_SCORE), partialScore, 1e-9);
+    }
+
+    @Test
+    public void testPartialScoreWithMissingScores () {
+
+        Map<String, Double> scores = new HashMap<>();
+        scores.put(Scores.ALIGNMENT_SCORE, 42d);
+        scores.put(Scores.SPLICE_SCORE, 3d);
+        Model model = model(scores);
+
+        double partialScore = evaluateScores.partialScore(model);
+        evaluateScores.evaluate(model, model.getAlignment().getViralProtein().getConfiguration());
+        assertEquals(model.getScores().get(Scores.TOTAL_SCORE), partialScore, 1e-9);
+    }
+
+    private static Model model ( Map<String, Double> scores ) {
+
+        VigorConfiguration configuration = new VigorConfiguration("test");
+        configuration.put(ConfigurationParameters.ScoreFactorAlignment, 2d);
+        configuration.put(ConfigurationParameters.ScoreFactorStart, 3d);
+        configuration.put(ConfigurationParameters.ScoreFactorLeakyStop, .5);
+        configuration.put(ConfigurationParameters.ScoreFactorSplicing, 1.5);
+        configuration.put(ConfigurationParameters.ScoreFactorStop, 4d);
+        ViralProtein viralProtein = new ViralProtein();
+        viralProtein.setConfiguration(configuration);
+        Alignment alignment = new Alignment();
+        alignment.setViralProtein(viralProtein);
+        Model model = new Model();
+        model.setAlignment(alignment);
+        model.setScores(new HashMap<>(scores));
+        return model;
+    }
+}
@@ -0,0 +1,103 @@
+package org.jcvi.vigor.service;
+
+import org.jcvi.vigor.component.Alignment;
+import org.jcvi.vigor.component.Model;
+import org.jcvi.vigor.testing.category.Fast;
+import org.jcvi.vigor.testing.category.Isolated;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+@Category({Fast.class, Isolated.class})
+public class GeneModelGenerationServiceTest {
+
+    private final Map<Model, Double> scores = new IdentityHashMap<>();
+
+    @Test
+    public void testPruneKeepsBestInOriginalOrder () {
+
+        List<Model> models = models(3, 1, 5, 5, 2, 4);
+        List<Model> original = new ArrayList<>(models);
+        GeneModelGenerationService.ModelRefinement refinement = new GeneModelGenerationService.ModelRefinement();
+
+        assertEquals(3, refinement.prune(models, 3, scores::get));
+        assertEquals(3, refinement.pruned);
+        assertModels(models, original.get(2), original.get(3), original.get(5));
+    }
+
+    @Test
+    public void testPruneTiesKeepEarliest () {
+
+        List<Model> models = models(1, 2, 2, 2, 0);
+        List<Model> original = new ArrayList<>(models);
+        GeneModelGenerationService.ModelRefinement refinement = new GeneModelGenerationService.ModelRefinement();
+
+        assertEquals(3, refinement.prune(models, 2, scores::get));
+        assertModels(models, original.get(1), original.get(2));
+    }
+
+    @Test
+    public void testPruneCountsAcrossSteps () {
+
+        GeneModelGenerationService.ModelRefinement refinement = new GeneModelGenerationService.ModelRefinement();
+        assertEquals(2, refinement.prune(models(1, 2, 3, 4), 2, scores::get));
+        assertEquals(1, refinement.prune(models(1, 2, 3), 2, scores::get));
+        assertEquals(3, refinement.pruned);
+    }
+
+    @Test
+    public void testPruneWithoutLimit () {
+
+        GeneModelGenerationService.ModelRefinement refinement = new GeneModelGenerationService.ModelRefinement();
+        List<Model> models = models(1, 2, 3);
+        List<Model> original = new ArrayList<>(models);
+
+        assertEquals(0, refinement.prune(models, 0, scores::get));
+        assertEquals(0, refinement.prune(models, 3, scores::get));
+        assertEquals(0, refinement.pruned);
+        assertModels(models, original.toArray(new Model[ 0 ]));
+    }
+
+    @Test
+    public void testGroupByAlignment () {
+
+        Alignment first = new Alignment();
+        Alignment second = new Alignment();
+        List<Model> models = models(1, 2, 3, 4);
+        models.get(0).setAlignment(first);
+        models.get(1).setAlignment(second);
+        models.get(2).setAlignment(first);
+        models.get(3).setAlignment(second);
+
+        List<List<Model>> groups = GeneModelGenerationService.groupByAlignment(models);
+        assertEquals(2, groups.size());
+        assertModels(groups.get(0), models.get(0), models.get(2));
+        assertModels(groups.get(1), models.get(1), models.get(3));
+    }
+
+    private List<Model> models ( double... modelScores ) {
+
+        List<Model> models = new ArrayList<>();
+        for (double score : modelScores) {
+            Model model = new Model();
+            scores.put(model, score);
+            models.add(model);
+        }
+        return models;
+    }
+
+    private static void assertModels ( List<Model> models, Model... expected ) {
+
+        assertEquals(expected.length, models.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertSame(String.format("model %s", i), expected[ i ], models.get(i));
+        }
+    }
+}
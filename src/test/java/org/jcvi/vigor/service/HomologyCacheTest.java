@@ -0,0 +1,32 @@
+package org.jcvi.vigor.service;
+
+import org.jcvi.jillion.core.Range;
+import org.jcvi.jillion.core.residue.aa.ProteinSequence;
+import org.jcvi.jillion.core.residue.aa.ProteinSequenceBuilder;
+import org.jcvi.vigor.testing.category.Fast;
+import org.jcvi.vigor.testing.category.Isolated;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.assertEquals;
+
+@Category({Fast.class, Isolated.class})
+public class HomologyCacheTest {
+
+    @Test
+    public void testBandedAlignmentsAreCachedByDiagonals () {
+
+        HomologyCache cache = new HomologyCache();
+        ProteinSequence query = new ProteinSequenceBuilder("MKTAYIAKQRQISFVKSHFSRQ").build();
+
+        assertEquals(90d, cache.get(query, "P1", null, () -> new HomologyCache.Homology(90, 95, 100)).getPercentIdentity(), 0);
+        assertEquals(80d, cache.get(query, "P1", Range.of(-5, 5), () -> new HomologyCache.Homology(80, 85, 100)).getPercentIdentity(), 0);
+        assertEquals(70d, cache.get(query, "P1", Range.of(-2, 8), () -> new HomologyCache.Homology(70, 75, 100)).getPercentIdentity(), 0);
+        assertEquals(3, cache.getMisses());
+
+        assertEquals(90d, cache.get(query, "P1", null, () -> new HomologyCache.Homology(0, 0, 0)).getPercentIdentity(), 0);
+        assertEquals(80d, cache.get(query, "P1", Range.of(-5, 5), () -> new HomologyCache.Homology(0, 0, 0)).getPercentIdentity(), 0);
+        assertEquals(2, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+}
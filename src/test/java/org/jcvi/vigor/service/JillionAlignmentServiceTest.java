@@ -0,0 +1,128 @@
+package org.jcvi.vigor.service;
+
+import org.jcvi.jillion.core.Direction;
+import org.jcvi.jillion.core.Range;
+import org.jcvi.jillion.core.residue.aa.IupacTranslationTables;
+import org.jcvi.jillion.core.residue.aa.ProteinSequence;
+import org.jcvi.jillion.core.residue.nt.NucleotideSequence;
+import org.jcvi.jillion.core.residue.nt.NucleotideSequenceBuilder;
+import org.jcvi.vigor.component.Alignment;
+import org.jcvi.vigor.component.AlignmentFragment;
+import org.jcvi.vigor.component.ReferenceDatabase;
+import org.jcvi.vigor.component.VirusGenome;
+import org.jcvi.vigor.service.exception.ServiceException;
+import org.jcvi.vigor.testing.category.Fast;
+import org.jcvi.vigor.testing.category.Isolated;
+import org.jcvi.vigor.utils.ConfigurationParameters;
+import org.jcvi.vigor.utils.VigorConfiguration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@Category({Fast.class, Isolated.class})
+public class JillionAlignmentServiceTest {
+
+    private static final List<String> STOPS = Arrays.asList("TAA", "TAG", "TGA");
+    private static final int FLANK = 200;
+    private static final int EXON1_CODONS = 60;
+    private static final int INTRON_LENGTH = 304;
+    private static final int EXON2_CODONS = 80;
+    // alignment ends may extend by a residue or two into the flanks by chance
+    private static final long TOLERANCE = 9;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final Random random = new Random(20181004);
+    private NucleotideSequence genomeSequence;
+    private File referenceDB;
+    private VigorConfiguration config;
+
+    @Before
+    public void setup () throws IOException {
+
+        String exon1 = "ATG" + randomCodons(EXON1_CODONS - 1);
+        String exon2 = randomCodons(EXON2_CODONS);
+        String intron = "GT" + randomNucleotides(INTRON_LENGTH - 4) + "AG";
+        genomeSequence = new NucleotideSequenceBuilder(randomNucleotides(FLANK) + exon1 + intron + exon2 + "TAA" + randomNucleotides(FLANK)).build();
+        ProteinSequence protein = IupacTranslationTables.STANDARD.translate(new NucleotideSequenceBuilder(exon1 + exon2).build());
+        referenceDB = tempFolder.newFile("test_db");
+        Files.write(referenceDB.toPath(), Arrays.asList(">prot1 gene=\"G1\" product=\"test protein\"", protein.toString()));
+        config = new VigorConfiguration("test");
+        config.put(ConfigurationParameters.IntronMaximumSize, 2500);
+    }
+
+    @Test
+    public void testSplicedForwardAlignment () throws ServiceException, IOException {
+
+        VirusGenome genome = new VirusGenome(genomeSequence, "test genome", "genome1", false);
+        List<Alignment> alignments = new JillionAlignmentService().getAlignment(config, genome, ReferenceDatabase.read(referenceDB.getAbsolutePath()), tempFolder.getRoot().getAbsolutePath());
+        assertThat("expected a single alignment", alignments.size(), equalTo(1));
+        checkExons(alignments.get(0), Direction.FORWARD);
+    }
+
+    @Test
+    public void testSplicedReverseAlignment () throws ServiceException, IOException {
+
+        VirusGenome genome = new VirusGenome(genomeSequence.toBuilder().reverseComplement().build(), "test genome", "genome1", false);
+        List<Alignment> alignments = new JillionAlignmentService().getAlignment(config, genome, ReferenceDatabase.read(referenceDB.getAbsolutePath()), tempFolder.getRoot().getAbsolutePath());
+        assertThat("expected a single alignment", alignments.size(), equalTo(1));
+        // reverse strand coordinates are relative to the reverse complemented sequence
+        checkExons(alignments.get(0), Direction.REVERSE);
+    }
+
+    private void checkExons ( Alignment alignment, Direction direction ) {
+
+        List<AlignmentFragment> fragments = alignment.getAlignmentFragments();
+        assertThat("expected one fragment per exon", fragments.size(), equalTo(2));
+        assertThat(alignment.getDirection(), equalTo(direction));
+        long exon2Begin = FLANK + 3 * EXON1_CODONS + INTRON_LENGTH;
+        assertNear("exon 1 begin", fragments.get(0).getNucleotideSeqRange().getBegin(), FLANK);
+        assertNear("exon 1 end", fragments.get(0).getNucleotideSeqRange().getEnd(), FLANK + 3 * EXON1_CODONS - 1);
+        assertNear("exon 2 begin", fragments.get(1).getNucleotideSeqRange().getBegin(), exon2Begin);
+        assertNear("exon 2 end", fragments.get(1).getNucleotideSeqRange().getEnd(), exon2Begin + 3 * EXON2_CODONS - 1);
+        for (AlignmentFragment fragment : fragments) {
+            Range ntRange = fragment.getNucleotideSeqRange();
+            assertThat("nucleotide range should be whole codons", ntRange.getLength(), equalTo(3 * fragment.getProteinSeqRange().getLength()));
+        }
+    }
+
+    private static void assertNear ( String message, long actual, long expected ) {
+
+        assertTrue(String.format("%s: expected %s got %s", message, expected, actual), Math.abs(actual - expected) <= TOLERANCE);
+    }
+
+    private String randomNucleotides ( int length ) {
+
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append("ACGT".charAt(random.nextInt(4)));
+        }
+        return builder.toString();
+    }
+
+    private String randomCodons ( int count ) {
+
+        StringBuilder builder = new StringBuilder(count * 3);
+        while (builder.length() < count * 3) {
+            String codon = randomNucleotides(3);
+            if (! STOPS.contains(codon)) {
+                builder.append(codon);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -1,8 +1,11 @@
 package org.jcvi.vigor.service;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.commons.lang.RandomStringUtils;
@@ -132,5 +135,70 @@ public class ModelGenerationServiceTest {
         assertEquals(5, outList.size());
         // TODO check for uniqueness
 
+        config.put(ConfigurationParameters.MaxFragmentChains, 10);
+        assertEquals("a limit above the number of chains should not change the chains",
+                     outList, modelGenerationService.generateCompatibleFragsChains(alignmentFrags, config));
+    }
+
+    @Test
+    public void generateLimitedCompatibleFragsChainsTest () throws VigorException {
+
+        VigorConfiguration config = initializationService.mergeConfigurations(initializationService.getDefaultConfigurations());
+        config.put(ConfigurationParameters.AAOverlapMaximum, 10);
+        config.put(ConfigurationParameters.NTOverlapMaximum, 30);
+        config.put(ConfigurationParameters.MaxFragmentChains, 4);
+
+        // three overlapping alternatives for each of 100 positions of a repetitive protein, or 3^100 chains
+        List<AlignmentFragment> alignmentFrags = new ArrayList<AlignmentFragment>();
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < 3; j++) {
+                alignmentFrags.add(new AlignmentFragment(Range.of(i * 20 + j, i * 20 + 15), Range.of(i * 60 + j * 3, i * 60 + 45),
+                                                         Direction.FORWARD, Frame.ONE));
+            }
+        }
+        List<List<AlignmentFragment>> outList = modelGenerationService.generateCompatibleFragsChains(alignmentFrags, config);
+        assertEquals(4, outList.size());
+        for (List<AlignmentFragment> chain : outList) {
+            assertEquals(100, chain.size());
+        }
+        assertTrue("chain of the longest fragments should be kept",
+                   outList.get(0).stream().allMatch(f -> f.getProteinSeqRange().getBegin() % 20 == 0));
+    }
+
+    @Test
+    public void generateCompatibleFragsChainsFollowingShortFragmentTest () throws VigorException {
+
+        VigorConfiguration config = initializationService.mergeConfigurations(initializationService.getDefaultConfigurations());
+        config.put(ConfigurationParameters.AAOverlapMaximum, 10);
+        config.put(ConfigurationParameters.NTOverlapMaximum, 30);
+
+        // the short fragment is within the overlap of the fragment starting before it, so may be followed by it
+        AlignmentFragment shortFragment = new AlignmentFragment(Range.of(0, 5), Range.of(100, 110), Direction.FORWARD, Frame.ONE);
+        AlignmentFragment longFragment = new AlignmentFragment(Range.of(20, 80), Range.of(90, 270), Direction.FORWARD, Frame.ONE);
+        List<AlignmentFragment> alignmentFrags = new ArrayList<AlignmentFragment>();
+        alignmentFrags.add(shortFragment);
+        alignmentFrags.add(longFragment);
+        List<List<AlignmentFragment>> outList = modelGenerationService.generateCompatibleFragsChains(alignmentFrags, config);
+        assertEquals(Collections.singletonList(Arrays.asList(shortFragment, longFragment)), outList);
+
+        config.put(ConfigurationParameters.MaxFragmentChains, 10);
+        assertEquals(outList, modelGenerationService.generateCompatibleFragsChains(alignmentFrags, config));
+    }
+
+    @Test
+    public void generateCompatibleFragsChainsBothWaysTest () throws VigorException {
+
+        VigorConfiguration config = initializationService.mergeConfigurations(initializationService.getDefaultConfigurations());
+        config.put(ConfigurationParameters.AAOverlapMaximum, 10);
+        config.put(ConfigurationParameters.NTOverlapMaximum, 30);
+
+        // each fragment is within the overlap of the other, so either may follow the other
+        AlignmentFragment first = new AlignmentFragment(Range.of(0, 3), Range.of(0, 9), Direction.FORWARD, Frame.ONE);
+        AlignmentFragment second = new AlignmentFragment(Range.of(5, 8), Range.of(5, 14), Direction.FORWARD, Frame.ONE);
+        List<AlignmentFragment> alignmentFrags = new ArrayList<AlignmentFragment>();
+        alignmentFrags.add(second);
+        alignmentFrags.add(first);
+        assertEquals(Collections.singletonList(Arrays.asList(first, second)),
+                     modelGenerationService.generateCompatibleFragsChains(alignmentFrags, config));
     }
 }
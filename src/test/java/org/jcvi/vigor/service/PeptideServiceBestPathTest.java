@@ -0,0 +1,307 @@
+package org.jcvi.vigor.service;
+
+import com.google.common.graph.GraphBuilder;
+import com.google.common.graph.MutableGraph;
+import org.jcvi.jillion.core.residue.aa.ProteinSequenceBuilder;
+import org.jcvi.vigor.component.Alignment;
+import org.jcvi.vigor.component.MaturePeptideMatch;
+import org.jcvi.vigor.component.Model;
+import org.jcvi.vigor.component.ViralProtein;
+import org.jcvi.vigor.service.exception.ServiceException;
+import org.jcvi.vigor.testing.category.Fast;
+import org.jcvi.vigor.testing.category.Isolated;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@Category({Fast.class, Isolated.class})
+public class PeptideServiceBestPathTest {
+
+    private static final int PEPTIDE_COUNT = 12;
+    private static final int PEPTIDE_LENGTH = 40;
+    private static final int VARIANTS = 3;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final Random random = new Random(20181004);
+
+    @Test
+    public void testLeastRecentlyUsedDatabasesAreDropped () throws IOException {
+
+        PeptideService peptideService = new PeptideService();
+        List<File> peptideDBs = new ArrayList<>();
+        for (int i = 0; i <= PeptideService.MAXIMUM_PEPTIDE_DATABASES; i++) {
+            File peptideDB = tempFolder.newFile("test_mp" + i);
+            Files.write(peptideDB.toPath(), Arrays.asList(">pep" + i, randomResidues(PEPTIDE_LENGTH)));
+            peptideDBs.add(peptideDB);
+        }
+        PeptideService.PeptideDatabase first = peptideService.getPeptideDatabase(peptideDBs.get(0));
+        PeptideService.PeptideDatabase second = peptideService.getPeptideDatabase(peptideDBs.get(1));
+        for (File peptideDB : peptideDBs.subList(2, peptideDBs.size())) {
+            peptideService.getPeptideDatabase(peptideDB);
+            // the first database stays recently used
+            assertTrue(first == peptideService.getPeptideDatabase(peptideDBs.get(0)));
+        }
+        assertTrue("the least recently used database should be loaded again",
+                   second != peptideService.getPeptideDatabase(peptideDBs.get(1)));
+    }
+
+    /**
+     * Each peptide position of the polyprotein is matched by several reference peptides with different products, so
+     * there are VARIANTS ^ PEPTIDE_COUNT complete paths through the matches.
+     */
+    @Test
+    public void testBestPathWithManyAlternatives () throws IOException, ServiceException {
+
+        StringBuilder polyprotein = new StringBuilder("M");
+        List<String> deflines = new ArrayList<>();
+        for (int i = 0; i < PEPTIDE_COUNT; i++) {
+            String peptide = randomResidues(PEPTIDE_LENGTH);
+            polyprotein.append(peptide);
+            for (int variant = 0; variant < VARIANTS; variant++) {
+                deflines.add(String.format(">pep%s_%s product=\"peptide %s variant %s\"", i, variant, i, variant));
+                // the first variant is identical to the polyprotein, the others differ at a few positions
+                deflines.add(mutate(peptide, variant * 4));
+            }
+        }
+        File peptideDB = tempFolder.newFile("test_mp");
+        Files.write(peptideDB.toPath(), deflines);
+
+        Model model = new Model();
+        Alignment alignment = new Alignment();
+        ViralProtein viralProtein = new ViralProtein();
+        viralProtein.setProteinID("polyprotein");
+        alignment.setViralProtein(viralProtein);
+        model.setAlignment(alignment);
+        model.setTranslatedSeq(new ProteinSequenceBuilder(polyprotein.toString()).build());
+
+        PeptideService peptideService = new PeptideService();
+        List<MaturePeptideMatch> peptides = peptideService.findPeptides(model, peptideDB, PeptideMatchingService.Scores.of(.25, .5, .4));
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < PEPTIDE_COUNT; i++) {
+            expected.add(String.format("pep%s_0", i));
+        }
+        assertThat(peptides.stream().map(p -> p.getReference().getProteinID()).collect(Collectors.toList()), equalTo(expected));
+        long matches = PEPTIDE_COUNT * VARIANTS;
+        assertTrue(String.format("expected a polynomial number of path states, got %s", peptideService.getPathStatesEvaluated()),
+                   peptideService.getPathStatesEvaluated() <= matches * matches * 16);
+    }
+
+    /**
+     * More than 16 higher scoring paths reach "join" using product X, so keeping only the best 16 paths for each match
+     * loses the only path that can continue to "last", which also has product X.
+     */
+    @Test
+    public void testBestPathNeedsLowerScoringPartialPath () {
+
+        MutableGraph<String> graph = GraphBuilder.directed().build();
+        Map<String, String> products = new HashMap<>();
+        Map<String, Double> scores = new HashMap<>();
+        List<String> nodes = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String node = "x" + i;
+            nodes.add(node);
+            products.put(node, "X");
+            scores.put(node, 2d);
+            graph.putEdge(node, "join");
+        }
+        nodes.addAll(Arrays.asList("z", "join", "last"));
+        products.put("z", "Z");
+        scores.put("z", 1d);
+        graph.putEdge("z", "join");
+        products.put("join", "J");
+        scores.put("join", 1d);
+        products.put("last", "X");
+        scores.put("last", 10d);
+        graph.putEdge("join", "last");
+
+        List<String> bestPath = PeptideService.findBestPath(nodes, graph, products::get, scores::get,
+                                                            PeptideService.MAX_PARTIAL_PATHS, new AtomicLong());
+        assertThat(bestPath, equalTo(Arrays.asList("z", "join", "last")));
+        assertThat(bestPath, equalTo(enumerateBestPath(nodes, graph, products, scores)));
+    }
+
+    @Test
+    public void testBestPathMatchesEnumeration () {
+
+        for (int test = 0; test < 200; test++) {
+            // few products, so that paths often repeat them
+            RandomGraph randomGraph = new RandomGraph(8 + random.nextInt(12), 5);
+            assertEquals(String.format("test %s %s", test, randomGraph),
+                         enumerateBestPath(randomGraph.nodes, randomGraph.graph, randomGraph.products, randomGraph.scores),
+                         PeptideService.findBestPath(randomGraph.nodes, randomGraph.graph, randomGraph.products::get,
+                                                     randomGraph.scores::get, Integer.MAX_VALUE, new AtomicLong()));
+        }
+    }
+
+    /**
+     * With 4 products there are at most 16 sets of products, so keeping MAX_PARTIAL_PATHS paths for each match is
+     * still exact
+     */
+    @Test
+    public void testLimitedBestPathIsExactForFewProducts () {
+
+        for (int test = 0; test < 200; test++) {
+            RandomGraph randomGraph = new RandomGraph(8 + random.nextInt(12), 4);
+            assertEquals(String.format("test %s %s", test, randomGraph),
+                         enumerateBestPath(randomGraph.nodes, randomGraph.graph, randomGraph.products, randomGraph.scores),
+                         PeptideService.findBestPath(randomGraph.nodes, randomGraph.graph, randomGraph.products::get,
+                                                     randomGraph.scores::get, PeptideService.MAX_PARTIAL_PATHS, new AtomicLong()));
+        }
+    }
+
+    /**
+     * Layers of two matches whose products are all used again after the middle layer, so that paths reaching the
+     * middle have 2 ^ LAYERS distinct sets of products still to conflict with. The exact search keeps all of them,
+     * while the limited search stays within its bound and still finds a valid path.
+     */
+    @Test
+    public void testWorstCaseIsBounded () {
+
+        final int layers = 10;
+        MutableGraph<String> graph = GraphBuilder.directed().build();
+        Map<String, String> products = new HashMap<>();
+        Map<String, Double> scores = new HashMap<>();
+        List<String> nodes = new ArrayList<>();
+        List<String> previousLayer = Collections.emptyList();
+        for (int layer = 0; layer < 2 * layers; layer++) {
+            List<String> currentLayer = new ArrayList<>();
+            for (String variant : Arrays.asList("a", "b")) {
+                String node = layer + variant;
+                nodes.add(node);
+                graph.addNode(node);
+                products.put(node, ( layer % layers ) + variant);
+                scores.put(node, random.nextDouble());
+                for (String previous : previousLayer) {
+                    graph.putEdge(previous, node);
+                }
+                currentLayer.add(node);
+            }
+            previousLayer = currentLayer;
+        }
+
+        AtomicLong exactStates = new AtomicLong();
+        List<String> exactPath = PeptideService.findBestPath(nodes, graph, products::get, scores::get, Integer.MAX_VALUE, exactStates);
+        AtomicLong limitedStates = new AtomicLong();
+        List<String> limitedPath = PeptideService.findBestPath(nodes, graph, products::get, scores::get,
+                                                               PeptideService.MAX_PARTIAL_PATHS, limitedStates);
+
+        long bound = nodes.size() + (long) graph.edges().size() * PeptideService.MAX_PARTIAL_PATHS;
+        assertTrue(String.format("exact search evaluated %s states", exactStates.get()), exactStates.get() > bound);
+        assertTrue(String.format("limited search evaluated %s states", limitedStates.get()), limitedStates.get() <= bound);
+        assertEquals(2 * layers, exactPath.size());
+        assertEquals("the limited path should use each product once", limitedPath.size(),
+                     limitedPath.stream().map(products::get).distinct().count());
+        assertTrue(pathScore(limitedPath, scores) <= pathScore(exactPath, scores));
+    }
+
+    private static double pathScore ( List<String> path, Map<String, Double> scores ) {
+
+        return path.stream().mapToDouble(scores::get).sum();
+    }
+
+    private class RandomGraph {
+
+        final MutableGraph<String> graph = GraphBuilder.directed().build();
+        final Map<String, String> products = new HashMap<>();
+        final Map<String, Double> scores = new HashMap<>();
+        final List<String> nodes = new ArrayList<>();
+
+        RandomGraph ( int nodeCount, int productCount ) {
+
+            for (int i = 0; i < nodeCount; i++) {
+                String node = "n" + i;
+                nodes.add(node);
+                graph.addNode(node);
+                products.put(node, "p" + random.nextInt(productCount));
+                scores.put(node, random.nextDouble());
+                for (int previous = 0; previous < i; previous++) {
+                    if (random.nextInt(3) == 0) {
+                        graph.putEdge(nodes.get(previous), node);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public String toString () {
+
+            return String.format("graph %s products %s", graph, products);
+        }
+    }
+
+    /**
+     * Best path found by enumerating every path from a node without predecessors to one without successors, as
+     * PeptideService did before, with paths repeating a product scoring 0
+     */
+    private static List<String> enumerateBestPath ( List<String> nodes, MutableGraph<String> graph,
+                                                    Map<String, String> products, Map<String, Double> scores ) {
+
+        List<List<String>> paths = new ArrayList<>();
+        for (String node : nodes) {
+            if (graph.inDegree(node) == 0) {
+                enumeratePaths(graph, new ArrayList<>(Collections.singletonList(node)), paths);
+            }
+        }
+        List<String> bestPath = Collections.emptyList();
+        double bestScore = 0d;
+        for (List<String> path : paths) {
+            double score = path.stream().map(products::get).distinct().count() != path.size() ?
+                    0d :
+                    path.stream().mapToDouble(scores::get).sum();
+            if (score > bestScore) {
+                bestScore = score;
+                bestPath = path;
+            }
+        }
+        return bestPath;
+    }
+
+    private static void enumeratePaths ( MutableGraph<String> graph, List<String> path, List<List<String>> paths ) {
+
+        String last = path.get(path.size() - 1);
+        if (graph.outDegree(last) == 0) {
+            paths.add(new ArrayList<>(path));
+            return;
+        }
+        for (String successor : graph.successors(last)) {
+            path.add(successor);
+            enumeratePaths(graph, path, paths);
+            path.remove(path.size() - 1);
+        }
+    }
+
+    private String mutate ( String peptide, int mutations ) {
+
+        StringBuilder mutated = new StringBuilder(peptide);
+        for (int i = 0; i < mutations; i++) {
+            int position = random.nextInt(mutated.length());
+            mutated.setCharAt(position, mutated.charAt(position) == 'W' ? 'C' : 'W');
+        }
+        return mutated.toString();
+    }
+
+    private String randomResidues ( int length ) {
+
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append("ACDEFGHIKLMNPQRSTVWY".charAt(random.nextInt(20)));
+        }
+        return builder.toString();
+    }
+}
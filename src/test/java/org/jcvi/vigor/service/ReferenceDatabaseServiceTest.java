@@ -0,0 +1,130 @@
+package org.jcvi.vigor.service;
+
+import org.jcvi.vigor.Application;
+import org.jcvi.vigor.component.ReferenceDatabase;
+import org.jcvi.vigor.component.ViralProtein;
+import org.jcvi.vigor.exception.VigorException;
+import org.jcvi.vigor.testing.category.Fast;
+import org.jcvi.vigor.testing.category.Isolated;
+import org.jcvi.vigor.utils.VigorConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@Category({Fast.class, Isolated.class})
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = Application.class)
+public class ReferenceDatabaseServiceTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Autowired
+    private ReferenceDatabaseService referenceDatabaseService;
+
+    @Test
+    public void testProteinAttributesAreLoadedOnce () throws IOException, VigorException {
+
+        File referenceDB = tempFolder.newFile("test_db");
+        Files.write(referenceDB.toPath(), Arrays.asList(
+                ">prot1 gene=\"NS1\" product=\"nonstructural protein 1\" splice_form=\"e30i400e30\"",
+                "MDPNTVSSFQVDCFLWHVRKRVADQELGDA",
+                ">prot2 gene=\"M2\" gene_synonym=\"M\"",
+                "MSLLTEVETPIRNEWGCRCNDSSDPLVVAA"));
+        VigorConfiguration config = new VigorConfiguration("test");
+        ReferenceDatabase database = referenceDatabaseService.getReferenceDatabase(referenceDB.getAbsolutePath(), config);
+
+        assertThat(database.size(), equalTo(2));
+        ViralProtein prot1 = database.getProtein("prot1").get();
+        assertThat(prot1.getGeneSymbol(), equalTo("NS1"));
+        assertThat(prot1.getProduct(), equalTo("nonstructural protein 1"));
+        assertThat("gene structure should be determined from the splice form", prot1.getNTfragments().size(), equalTo(2));
+        assertThat(database.getProtein("prot2").get().getGeneSynonym(), equalTo("M"));
+        assertThat(database.getProtein("missing").isPresent(), is(false));
+
+        assertThat("database should be loaded once for a configuration",
+                   referenceDatabaseService.getReferenceDatabase(referenceDB.getAbsolutePath(), config), sameInstance(database));
+        assertThat("database should be reloaded for a different configuration",
+                   referenceDatabaseService.getReferenceDatabase(referenceDB.getAbsolutePath(), new VigorConfiguration("other")),
+                   not(sameInstance(database)));
+
+        ReferenceDatabase subset = database.subset(Collections.singleton("prot2"), "candidates_db");
+        assertThat(subset.size(), equalTo(1));
+        assertThat(subset.getReferenceDB(), equalTo(referenceDB.getAbsolutePath()));
+        assertThat(subset.getAlignmentDB(), equalTo("candidates_db"));
+        assertThat(subset.getProtein("prot2").get(), sameInstance(database.getProtein("prot2").get()));
+    }
+
+    @Test
+    public void testMalformedProteinIsSkipped () throws IOException, VigorException {
+
+        File referenceDB = tempFolder.newFile("test_db");
+        Files.write(referenceDB.toPath(), Arrays.asList(
+                ">prot1 gene=\"NS1\"",
+                "MDPNTVSSFQVDCFLWHVRKRVADQELGDA",
+                ">prot2 product=\"no gene attribute\"",
+                "MSLLTEVETPIRNEWGCRCNDSSDPLVVAA"));
+        ReferenceDatabase database = referenceDatabaseService.getReferenceDatabase(referenceDB.getAbsolutePath(), new VigorConfiguration("test"));
+
+        assertThat(database.size(), equalTo(1));
+        assertThat(database.getProtein("prot1").isPresent(), is(true));
+        assertThat(database.getProtein("prot2").isPresent(), is(false));
+        assertThat(database.isSkipped("prot2"), is(true));
+        assertThat(database.isSkipped("prot1"), is(false));
+        assertThat("skipped proteins are still skipped in a subset",
+                   database.subset(Arrays.asList("prot1", "prot2"), "candidates_db").isSkipped("prot2"), is(true));
+    }
+
+    @Test
+    public void testReleasedConfigurationCanBeCollected () throws IOException, VigorException, InterruptedException {
+
+        File referenceDB = tempFolder.newFile("test_db");
+        Files.write(referenceDB.toPath(), Arrays.asList(">prot1 gene=\"NS1\"", "MDPNTVSSFQVDCFLWHVRKRVADQELGDA"));
+
+        VigorConfiguration keptConfig = new VigorConfiguration("kept");
+        WeakReference<ReferenceDatabase> kept = loadDatabase(referenceDB, keptConfig, false);
+        WeakReference<ReferenceDatabase> released = loadDatabase(referenceDB, new VigorConfiguration("released"), true);
+        collect(released);
+        assertNull("database of a released configuration should be collectable", released.get());
+        assertNotNull("database of a configuration in use should be kept", kept.get());
+
+        referenceDatabaseService.release(keptConfig);
+        collect(kept);
+        assertNull(kept.get());
+    }
+
+    private WeakReference<ReferenceDatabase> loadDatabase ( File referenceDB, VigorConfiguration config, boolean release ) throws VigorException {
+
+        ReferenceDatabase database = referenceDatabaseService.getReferenceDatabase(referenceDB.getAbsolutePath(), config);
+        WeakReference<ReferenceDatabase> reference = new WeakReference<>(database);
+        if (release) {
+            referenceDatabaseService.release(config);
+        }
+        return reference;
+    }
+
+    private static void collect ( WeakReference<?> reference ) throws InterruptedException {
+
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.jcvi.vigor.utils;
+
+import org.jcvi.vigor.testing.category.Fast;
+import org.jcvi.vigor.testing.category.Isolated;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Category({Fast.class, Isolated.class})
+public class AnnotationCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testValuesAreStoredByKey () throws IOException {
+
+        AnnotationCache cache = new AnnotationCache(folder.getRoot().toPath(), 1000);
+        cache.put("abc1", new byte[] { 1, 2, 3 });
+        assertThat(cache.get("abc1").map(v -> v[ 2 ]), equalTo(Optional.of((byte) 3)));
+        assertThat(cache.get("abc2"), equalTo(Optional.empty()));
+        assertThat(cache.getHits(), equalTo(1L));
+        assertThat(cache.getMisses(), equalTo(1L));
+
+        // sizes are counted when the cache is opened again
+        assertThat(new AnnotationCache(folder.getRoot().toPath(), 1000).getSize(), equalTo(3L));
+        cache.remove("abc1");
+        assertThat(cache.get("abc1"), equalTo(Optional.empty()));
+        assertThat(cache.getSize(), equalTo(0L));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted () throws IOException {
+
+        AnnotationCache cache = new AnnotationCache(folder.getRoot().toPath(), 100);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            String key = "abc" + i;
+            cache.put(key, new byte[ 20 ]);
+            Files.setLastModifiedTime(cache.getEntry(key), FileTime.fromMillis(now - 10000 * ( 5 - i )));
+        }
+        assertThat(cache.getSize(), equalTo(100L));
+        // abc0 was used most recently, so abc1 is the oldest when the cache is full
+        assertThat(cache.get("abc0").isPresent(), equalTo(true));
+        cache.put("abc5", new byte[ 20 ]);
+
+        // evicted to below 90% of the maximum size
+        assertThat(cache.getSize(), equalTo(80L));
+        assertThat(cache.get("abc1").isPresent(), equalTo(false));
+        assertThat(cache.get("abc2").isPresent(), equalTo(false));
+        for (String key : new String[] { "abc0", "abc3", "abc4", "abc5" }) {
+            assertThat(key, cache.get(key).isPresent(), equalTo(true));
+        }
+    }
+
+    @Test
+    public void testReplacedValuesAreNotCountedTwice () throws IOException {
+
+        AnnotationCache cache = new AnnotationCache(folder.getRoot().toPath(), 100);
+        for (int i = 0; i < 10; i++) {
+            cache.put("abc1", new byte[ 30 ]);
+        }
+        cache.put("abc1", new byte[ 20 ]);
+        assertThat(cache.getSize(), equalTo(20L));
+        assertThat(cache.get("abc1").map(v -> v.length), equalTo(Optional.of(20)));
+    }
+
+    @Test
+    public void testValuesLargerThanTheCacheAreNotStored () throws IOException {
+
+        AnnotationCache cache = new AnnotationCache(folder.getRoot().toPath(), 10);
+        cache.put("abc1", new byte[ 11 ]);
+        assertThat(cache.get("abc1").isPresent(), equalTo(false));
+        assertThat(cache.getSize(), equalTo(0L));
+    }
+}
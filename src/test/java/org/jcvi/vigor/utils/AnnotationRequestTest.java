@@ -0,0 +1,68 @@
+package org.jcvi.vigor.utils;
+
+import org.jcvi.vigor.service.exception.UserFacingException;
+import org.jcvi.vigor.testing.category.Fast;
+import org.jcvi.vigor.testing.category.Isolated;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+@Category({Fast.class, Isolated.class})
+public class AnnotationRequestTest {
+
+    @Test
+    public void testParametersAreDecodedAndOrdered () throws UserFacingException {
+
+        AnnotationRequest request = AnnotationRequest.parse("output_formats=TBL%2CGFF3&reference_database=Influenza+A&min_seq_gap_length=10");
+        assertThat(request.getReferenceDatabase().get(), equalTo("Influenza A"));
+        assertThat(request.getArguments(), equalTo(Arrays.asList("--reference-database=Influenza A",
+                                                                 "--parameter=min_seq_gap_length=10",
+                                                                 "--parameter=output_formats=TBL,GFF3")));
+    }
+
+    @Test
+    public void testEmptyQuery () throws UserFacingException {
+
+        AnnotationRequest request = AnnotationRequest.parse(null);
+        assertThat(request.getReferenceDatabase().isPresent(), equalTo(false));
+        assertThat(request.getArguments(), equalTo(Collections.emptyList()));
+    }
+
+    @Test(expected = UserFacingException.class)
+    public void testServerParametersAreRejected () throws UserFacingException {
+
+        AnnotationRequest.parse("output_directory=/tmp");
+    }
+
+    @Test
+    public void testThreadsAndLoggingAreSetByTheServer () {
+
+        for (String parameter : Arrays.asList("threads=8", "model_threads=8", "pipeline=true", "pipeline_queue_size=4", "verbose=true")) {
+            try {
+                AnnotationRequest.parse(parameter);
+                fail(String.format("%s should be rejected", parameter));
+            } catch (UserFacingException e) {
+                assertThat(e.getMessage(), containsString("set by the server"));
+            }
+        }
+    }
+
+    @Test(expected = UserFacingException.class)
+    public void testUnknownParametersAreRejected () throws UserFacingException {
+
+        AnnotationRequest.parse("no_such_parameter=1");
+    }
+
+    @Test(expected = UserFacingException.class)
+    public void testReferenceDatabasePathsAreRejected () throws UserFacingException {
+
+        AnnotationRequest.parse("reference_database=%2Fetc%2Fpasswd");
+    }
+}
@@ -0,0 +1,67 @@
+package org.jcvi.vigor.utils;
+
+import org.jcvi.jillion.align.AminoAcidSubstitutionMatrix;
+import org.jcvi.jillion.align.BlosumMatrices;
+import org.jcvi.jillion.align.pairwise.PairwiseAlignmentBuilder;
+import org.jcvi.jillion.align.pairwise.ProteinPairwiseSequenceAlignment;
+import org.jcvi.jillion.core.residue.aa.ProteinSequence;
+import org.jcvi.jillion.core.residue.aa.ProteinSequenceBuilder;
+import org.jcvi.vigor.testing.category.Fast;
+import org.jcvi.vigor.testing.category.Isolated;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
+
+@Category({Fast.class, Isolated.class})
+public class BandedProteinAlignerTest {
+
+    private final Random random = new Random(20181004);
+
+    /**
+     * For near identical proteins the best alignment lies close to the main diagonal, so a banded alignment should
+     * find the same score as a full one
+     */
+    @Test
+    public void testNearIdenticalMatchesFullAlignment () {
+
+        AminoAcidSubstitutionMatrix blosum62 = BlosumMatrices.blosum62();
+        for (int trial = 0; trial < 20; trial++) {
+            String reference = randomResidues(200 + random.nextInt(200));
+            StringBuilder variant = new StringBuilder(reference);
+            for (int i = 0; i < 10; i++) {
+                int position = random.nextInt(variant.length());
+                variant.setCharAt(position, variant.charAt(position) == 'W' ? 'C' : 'W');
+            }
+            // a short deletion and insertion keep the alignment within a few diagonals
+            variant.delete(50, 52);
+            variant.insert(120, "GG");
+            ProteinSequence query = new ProteinSequenceBuilder(variant.toString()).build();
+            ProteinSequence subject = new ProteinSequenceBuilder(reference).build();
+
+            ProteinPairwiseSequenceAlignment full = PairwiseAlignmentBuilder.createProtienAlignmentBuilder(query, subject, blosum62)
+                                                                            .gapPenalty(-8, -8)
+                                                                            .build();
+            BandedProteinAligner.Result banded = BandedProteinAligner.align(query, subject, blosum62, -8, -5, 5);
+
+            assertEquals(full.getScore(), banded.getScore(), 0.001);
+            assertThat(banded.getQueryRange().getLength(), equalTo(full.getQueryRange().getLength()));
+            assertThat(banded.getSubjectRange().getLength(), equalTo(full.getSubjectRange().getLength()));
+            assertThat(banded.getGappedQueryAlignment().getLength(), equalTo(banded.getGappedSubjectAlignment().getLength()));
+            assertEquals(full.getPercentIdentity(), banded.getPercentIdentity(), 0.02);
+        }
+    }
+
+    private String randomResidues ( int length ) {
+
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append("ACDEFGHIKLMNPQRSTVWY".charAt(random.nextInt(20)));
+        }
+        return builder.toString();
+    }
+}
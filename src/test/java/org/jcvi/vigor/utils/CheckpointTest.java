@@ -0,0 +1,84 @@
+package org.jcvi.vigor.utils;
+
+import org.jcvi.vigor.testing.category.Fast;
+import org.jcvi.vigor.testing.category.Isolated;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Category({Fast.class, Isolated.class})
+public class CheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResumeFromLastCompleteRecord () throws IOException {
+
+        Path journal = folder.getRoot().toPath().resolve("test.checkpoint");
+        Path output = folder.getRoot().toPath().resolve("test.tbl");
+        try (Checkpoint checkpoint = Checkpoint.create(journal, "input.fasta", false)) {
+            Files.write(output, "header\n".getBytes(StandardCharsets.UTF_8));
+            checkpoint.start(Collections.singletonMap(output, Files.size(output)));
+            Files.write(output, "record1\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            checkpoint.record("record1", Collections.singletonMap(output, Files.size(output)));
+            Files.write(output, "record2\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            checkpoint.record("record2", Collections.singletonMap(output, Files.size(output)));
+        }
+        // interrupted while writing record3
+        Files.write(output, "rec".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        Files.write(journal, "record3\ttest.t".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        Checkpoint.State state = Checkpoint.read(journal).get();
+        assertThat(state.getInputFile(), equalTo("input.fasta"));
+        assertThat(state.getRecordIDs(), equalTo(Arrays.asList("record1", "record2")));
+        assertThat(state.getStartOffsets(), equalTo(Collections.singletonMap(Paths.get("test.tbl"), 7L)));
+        assertThat(state.getOffsets(), equalTo(Collections.singletonMap(Paths.get("test.tbl"), 23L)));
+        assertThat(state.isComplete(), equalTo(false));
+
+        try (Checkpoint checkpoint = Checkpoint.resume(journal, state)) {
+            assertThat(checkpoint.getRecords(), equalTo(2));
+            assertThat(new String(Files.readAllBytes(output), StandardCharsets.UTF_8), equalTo("header\nrecord1\nrecord2\n"));
+            checkpoint.record("record3", Collections.singletonMap(output, 31L));
+            checkpoint.finish(Collections.singletonMap(output, 40L));
+        }
+        List<String> lines = Files.readAllLines(journal, StandardCharsets.UTF_8);
+        assertThat(lines.size(), equalTo(6));
+        assertThat(lines.get(4), equalTo("record3\ttest.tbl\t31"));
+        state = Checkpoint.read(journal).get();
+        assertThat(state.getRecordOffsets().size(), equalTo(3));
+        assertThat(state.getEndSizes().get(), equalTo(Collections.singletonMap(Paths.get("test.tbl"), 40L)));
+    }
+
+    @Test
+    public void testMissingJournal () throws IOException {
+
+        assertThat(Checkpoint.read(folder.getRoot().toPath().resolve("missing.checkpoint")).isPresent(), equalTo(false));
+    }
+
+    @Test(expected = IOException.class)
+    public void testOutputShorterThanCheckpointIsRejected () throws IOException {
+
+        Path journal = folder.getRoot().toPath().resolve("test.checkpoint");
+        Path output = folder.getRoot().toPath().resolve("test.tbl");
+        Files.write(output, "record1\n".getBytes(StandardCharsets.UTF_8));
+        try (Checkpoint checkpoint = Checkpoint.create(journal, "input.fasta", false)) {
+            checkpoint.record("record1", Collections.singletonMap(output, 100L));
+        }
+        Checkpoint.resume(journal, Checkpoint.read(journal).get());
+    }
+}
@@ -0,0 +1,115 @@
+package org.jcvi.vigor.utils;
+
+import org.jcvi.jillion.core.Range;
+import org.jcvi.jillion.core.residue.Frame;
+import org.jcvi.jillion.core.residue.aa.IupacTranslationTables;
+import org.jcvi.jillion.core.residue.nt.NucleotideSequence;
+import org.jcvi.jillion.core.residue.nt.NucleotideSequenceBuilder;
+import org.jcvi.vigor.service.VirusGenomeService;
+import org.jcvi.vigor.testing.category.Fast;
+import org.jcvi.vigor.testing.category.Isolated;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@Category({Fast.class, Isolated.class})
+public class CodonIndexTest {
+
+    private final Random random = new Random(20181004);
+
+    /**
+     * Window queries should return what searching a copy of the window does
+     */
+    @Test
+    public void testWindowsMatchSubsequenceSearches () {
+
+        StringBuilder bases = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            bases.append("ACGT".charAt(random.nextInt(4)));
+        }
+        NucleotideSequence sequence = new NucleotideSequenceBuilder(bases.toString()).build();
+        CodonIndex index = new CodonIndex(sequence);
+        Map<Frame, List<Long>> internalStops = VirusGenomeService.findInternalStops(sequence);
+        assertThat(index.getStops(), equalTo(internalStops));
+
+        for (int i = 0; i < 200; i++) {
+            long begin = random.nextInt(2900);
+            Range window = Range.of(begin, begin + random.nextInt(100));
+            NucleotideSequence windowSequence = sequence.toBuilder(window).build();
+
+            Map<Frame, List<Long>> expectedStops = VigorFunctionalUtils.frameToSequenceFrame(
+                    IupacTranslationTables.STANDARD.findStops(windowSequence)
+                                                   .entrySet()
+                                                   .stream()
+                                                   .collect(Collectors.toMap(Map.Entry::getKey,
+                                                                             e -> e.getValue().stream()
+                                                                                   .map(p -> p + begin)
+                                                                                   .collect(Collectors.toList()))));
+            assertThat(index.findStops(window), equalTo(expectedStops));
+
+            for (String motif : Arrays.asList("GT", "AG", "ATG")) {
+                List<Range> expectedMatches = windowSequence.findMatches(motif, true)
+                                                            .distinct()
+                                                            .map(r -> r.toBuilder().shift(begin).build())
+                                                            .sorted(Range.Comparators.ARRIVAL)
+                                                            .collect(Collectors.toList());
+                assertThat(index.findMatches(motif, window), equalTo(expectedMatches));
+                for (Frame frame : Arrays.asList(Frame.ONE, Frame.TWO, Frame.THREE)) {
+                    assertThat(index.findMatches(motif, window, frame),
+                               equalTo(expectedMatches.stream()
+                                                      .filter(r -> VigorFunctionalUtils.getSequenceFrame(r.getBegin()) == frame)
+                                                      .collect(Collectors.toList())));
+                }
+                for (Range match : expectedMatches) {
+                    assertTrue(index.isMatch(motif, match.getBegin()));
+                }
+            }
+            for (Frame frame : Arrays.asList(Frame.ONE, Frame.TWO, Frame.THREE)) {
+                assertThat(index.getStops(frame, window),
+                           equalTo(internalStops.getOrDefault(frame, Collections.emptyList())
+                                                .stream()
+                                                .filter(stop -> Range.of(stop).isSubRangeOf(window))
+                                                .collect(Collectors.toList())));
+            }
+        }
+    }
+
+    /**
+     * Regular expression queries should return what NucleotideSequence.findMatches finds in a copy of the window,
+     * including for variable length and anchored expressions
+     */
+    @Test
+    public void testPatternMatchesMatchSubsequenceSearches () {
+
+        StringBuilder bases = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            bases.append("ACGT".charAt(random.nextInt(4)));
+        }
+        NucleotideSequence sequence = new NucleotideSequenceBuilder(bases.toString()).build();
+        CodonIndex index = new CodonIndex(sequence);
+        List<String> regexes = Arrays.asList("[AG]GGG",
+                                             "A[CT]G+T?",
+                                             "(A|AC)G",
+                                             "^[ACGT]{3}",
+                                             "[NA][NA][NG][NA]GGG",
+                                             "[NATC][NATC][NT][NG][NA][NC][NTG][NAG][NATG][NATCG][NTC][NAG][NAG]");
+
+        for (int i = 0; i < 200; i++) {
+            long begin = random.nextInt(2900);
+            Range window = Range.of(begin, begin + random.nextInt(100));
+            NucleotideSequence windowSequence = sequence.toBuilder(window).build();
+            for (String regex : regexes) {
+                List<Range> expectedMatches = windowSequence.findMatches(regex)
+                                                            .map(r -> r.toBuilder().shift(begin).build())
+                                                            .collect(Collectors.toList());
+                assertThat(regex, index.findPatternMatches(regex, window), equalTo(expectedMatches));
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.jcvi.vigor.utils;
+
+import org.jcvi.jillion.core.residue.nt.NucleotideSequenceBuilder;
+import org.jcvi.jillion.fasta.nt.NucleotideFastaRecord;
+import org.jcvi.vigor.testing.category.Fast;
+import org.jcvi.vigor.testing.category.Isolated;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Category({Fast.class, Isolated.class})
+public class FastaRecordReaderTest {
+
+    private static final String FASTA = "\n>seq1  first sequence\nACGT\n\nNNAC gt\n>seq2\n>seq3 third\nAC\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecordsAreReadInOrder () {
+
+        List<NucleotideFastaRecord> records = readAll(new FastaRecordReader(new ByteArrayInputStream(FASTA.getBytes(StandardCharsets.UTF_8))));
+        assertThat(records.size(), equalTo(3));
+        assertThat(records.get(0).getId(), equalTo("seq1"));
+        assertThat(records.get(0).getComment(), equalTo("first sequence"));
+        assertThat(records.get(0).getSequence(), equalTo(new NucleotideSequenceBuilder("ACGTNNACGT").build()));
+        assertThat(records.get(1).getId(), equalTo("seq2"));
+        assertThat(records.get(1).getComment(), nullValue());
+        assertThat(records.get(1).getSequence().getLength(), equalTo(0L));
+        assertThat(records.get(2).getSequence(), equalTo(new NucleotideSequenceBuilder("AC").build()));
+    }
+
+    @Test
+    public void testConcatenatedGzipMembersAreRead () throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // bgzip output is a series of gzip members
+        int split = FASTA.indexOf(">seq2");
+        gzip(bytes, FASTA.substring(0, split));
+        gzip(bytes, FASTA.substring(split));
+        Path input = folder.getRoot().toPath().resolve("input.fasta.gz");
+        Files.write(input, bytes.toByteArray());
+
+        assertThat(FastaRecordReader.isSequentialOnly(input.toString()), equalTo(true));
+        List<NucleotideFastaRecord> records = readAll(FastaRecordReader.open(input.toString()));
+        assertThat(records.size(), equalTo(3));
+        assertThat(records.get(2).getId(), equalTo("seq3"));
+    }
+
+    @Test
+    public void testUncompressedFilesAreNotSequentialOnly () throws IOException {
+
+        Path input = folder.getRoot().toPath().resolve("input.fasta");
+        Files.write(input, FASTA.getBytes(StandardCharsets.UTF_8));
+        assertThat(FastaRecordReader.isSequentialOnly(input.toString()), equalTo(false));
+        assertThat(FastaRecordReader.isSequentialOnly(FastaRecordReader.STANDARD_INPUT), equalTo(true));
+    }
+
+    private static void gzip ( OutputStream out, String content ) throws IOException {
+
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(content.getBytes(StandardCharsets.UTF_8));
+        gzip.finish();
+    }
+
+    private static List<NucleotideFastaRecord> readAll ( FastaRecordReader reader ) {
+
+        List<NucleotideFastaRecord> records = new ArrayList<>();
+        try (FastaRecordReader r = reader) {
+            r.forEachRemaining(records::add);
+        }
+        return records;
+    }
+}
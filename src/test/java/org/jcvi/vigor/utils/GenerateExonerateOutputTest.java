@@ -0,0 +1,95 @@
+package org.jcvi.vigor.utils;
+
+import org.jcvi.jillion.align.exonerate.Exonerate2;
+import org.jcvi.jillion.align.exonerate.vulgar.VulgarProtein2Genome2;
+import org.jcvi.jillion.core.residue.nt.NucleotideSequenceBuilder;
+import org.jcvi.vigor.component.VirusGenome;
+import org.jcvi.vigor.exception.VigorException;
+import org.jcvi.vigor.testing.category.Fast;
+import org.jcvi.vigor.testing.category.Isolated;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@Category({Isolated.class, Fast.class})
+public class GenerateExonerateOutputTest {
+
+    private static final String TARGET = "gi|155016325|gb|CY024819.1|";
+    private static final String OTHER_TARGET = "other_target";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testSplitExonerateOutput () throws IOException {
+
+        File original = new File(GenerateExonerateOutputTest.class.getResource("/vigorUnitTestInput/exonerate_flua.txt").getFile());
+        List<String> lines = Files.readAllLines(original.toPath());
+        // duplicate the alignments against a second target after the originals
+        List<String> combined = new ArrayList<>(lines.subList(0, lines.size() - 1));
+        for (String line : lines.subList(3, lines.size() - 1)) {
+            combined.add(line.replace(TARGET, OTHER_TARGET));
+        }
+        combined.add(lines.get(lines.size() - 1));
+        File combinedFile = tempFolder.newFile("combined.txt");
+        Files.write(combinedFile.toPath(), combined);
+
+        Map<String, File> outputs = new LinkedHashMap<>();
+        outputs.put(TARGET, tempFolder.newFile("target.txt"));
+        outputs.put(OTHER_TARGET, tempFolder.newFile("other.txt"));
+        outputs.put("no_alignments", tempFolder.newFile("none.txt"));
+        GenerateExonerateOutput.splitExonerateOutput(combinedFile, outputs);
+
+        assertThat("split output should match output for a single target",
+                   Files.readAllLines(outputs.get(TARGET).toPath()), equalTo(lines));
+        List<VulgarProtein2Genome2> expected = Exonerate2.parseVulgarOutput(original);
+        List<VulgarProtein2Genome2> other = Exonerate2.parseVulgarOutput(outputs.get(OTHER_TARGET));
+        assertThat(other.size(), equalTo(expected.size()));
+        for (VulgarProtein2Genome2 alignment : other) {
+            assertThat(alignment.getTargetId(), equalTo(OTHER_TARGET));
+        }
+        assertThat(Exonerate2.parseVulgarOutput(outputs.get("no_alignments")).size(), equalTo(0));
+    }
+
+    @Test
+    public void testStreamExonerate () throws IOException, VigorException {
+
+        File original = new File(GenerateExonerateOutputTest.class.getResource("/vigorUnitTestInput/exonerate_flua.txt").getFile());
+        // stands in for exonerate, printing its output for the flua genome
+        File exonerate = tempFolder.newFile("exonerate");
+        Files.write(exonerate.toPath(), Arrays.asList("#!/bin/sh", "cat '" + original.getAbsolutePath() + "'"));
+        assertTrue(exonerate.setExecutable(true));
+        File workspace = tempFolder.newFolder("workspace");
+        File rawOutput = new File(workspace, "flua/output.txt");
+        VirusGenome virusGenome = new VirusGenome(new NucleotideSequenceBuilder("ACGTACGT").build(), "test genome", TARGET, false);
+
+        List<VulgarProtein2Genome2> streamed = new ArrayList<>();
+        GenerateExonerateOutput.streamExonerate(virusGenome, "flua_db", workspace.getAbsolutePath(), exonerate.getAbsolutePath(),
+                                                rawOutput, streamed::add);
+
+        List<VulgarProtein2Genome2> expected = Exonerate2.parseVulgarOutput(original);
+        assertThat(streamed.size(), equalTo(expected.size()));
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(streamed.get(i).getQueryId(), equalTo(expected.get(i).getQueryId()));
+            assertThat(streamed.get(i).getScore(), equalTo(expected.get(i).getScore()));
+            assertThat(streamed.get(i).getElements(), equalTo(expected.get(i).getElements()));
+        }
+        assertThat("raw output should be copied for the ALN output",
+                   Files.readAllLines(rawOutput.toPath()), equalTo(Files.readAllLines(original.toPath())));
+        assertThat("target file should be removed", new File(workspace, "sequence_temp.fasta").exists(), equalTo(false));
+    }
+}
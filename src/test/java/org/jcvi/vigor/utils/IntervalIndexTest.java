@@ -0,0 +1,75 @@
+package org.jcvi.vigor.utils;
+
+import org.jcvi.jillion.core.Range;
+import org.jcvi.vigor.testing.category.Fast;
+import org.jcvi.vigor.testing.category.Isolated;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Category({Fast.class, Isolated.class})
+public class IntervalIndexTest {
+
+    private final Random random = new Random(20181004);
+
+    /**
+     * Queries should return what scanning the ranges in order does, for overlapping, nested and empty ranges
+     */
+    @Test
+    public void testQueriesMatchLinearScans () {
+
+        for (int trial = 0; trial < 20; trial++) {
+            List<Range> ranges = new ArrayList<>();
+            for (int i = 0; i < random.nextInt(100); i++) {
+                ranges.add(randomRange());
+            }
+            IntervalIndex index = IntervalIndex.of(ranges);
+            for (int i = 0; i < 200; i++) {
+                Range query = randomRange();
+                List<Range> expected = ranges.stream().filter(query::intersects).collect(Collectors.toList());
+                assertThat(index.findIntersecting(query), equalTo(expected));
+                assertThat(index.intersects(query), equalTo(! expected.isEmpty()));
+                assertThat(VigorFunctionalUtils.intheSequenceGap(index, query),
+                           equalTo(VigorFunctionalUtils.intheSequenceGap(ranges, query)));
+                assertThat(index.findFirstIntersecting(query), equalTo(expected.stream().findFirst()));
+                assertThat(index.findLastIntersecting(query),
+                           equalTo(expected.isEmpty() ? Optional.empty() : Optional.of(expected.get(expected.size() - 1))));
+            }
+        }
+    }
+
+    /**
+     * For sequence gaps, which are in order and do not overlap, the nearest gap should be the one the list scan finds
+     */
+    @Test
+    public void testNearestSequenceGap () {
+
+        List<Range> gaps = new ArrayList<>();
+        long position = 0;
+        for (int i = 0; i < 50; i++) {
+            position += 1 + random.nextInt(100);
+            long length = 1 + random.nextInt(30);
+            gaps.add(Range.of(position, position + length - 1));
+            position += length;
+        }
+        IntervalIndex index = IntervalIndex.of(gaps);
+        for (int i = 0; i < 500; i++) {
+            long begin = random.nextInt((int) position + 100);
+            Range exonRange = Range.of(begin, begin + random.nextInt(50));
+            assertThat(VigorFunctionalUtils.get5pNearestSequenceGap(index, exonRange),
+                       equalTo(VigorFunctionalUtils.get5pNearestSequenceGap(gaps, exonRange)));
+        }
+    }
+
+    private Range randomRange () {
+
+        long begin = random.nextInt(1000);
+        // some empty ranges
+        return random.nextInt(20) == 0 ? Range.ofLength(0) : Range.of(begin, begin + random.nextInt(random.nextBoolean() ? 20 : 300));
+    }
+}
@@ -0,0 +1,69 @@
+package org.jcvi.vigor.utils;
+
+import org.jcvi.vigor.exception.VigorException;
+import org.jcvi.vigor.testing.category.Fast;
+import org.jcvi.vigor.testing.category.Isolated;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@Category({Fast.class, Isolated.class})
+public class PipelineTest {
+
+    private final Random random = new Random(20181004);
+
+    @Test
+    public void testOutputInInputOrder () throws VigorException {
+
+        List<Integer> inputs = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+        Pipeline<Integer, String> pipeline = Pipeline.<Integer>builder(2)
+                .stage("double", (Integer i) -> {
+                    Thread.sleep(random.nextInt(2));
+                    return i * 2;
+                })
+                .stage("format", (Integer i) -> "item " + i)
+                .build("collect");
+        List<String> outputs = new ArrayList<>();
+        pipeline.run(inputs.iterator(), outputs::add);
+
+        assertThat(outputs, equalTo(inputs.stream().map(i -> "item " + i * 2).collect(Collectors.toList())));
+        assertThat(pipeline.getStages().stream().map(Pipeline.Stage::getName).collect(Collectors.toList()),
+                   equalTo(Arrays.asList("double", "format", "collect")));
+        for (Pipeline.Stage stage : pipeline.getStages()) {
+            assertThat(stage.getItems(), equalTo(100L));
+            assertTrue(stage.getMaxQueueDepth() <= 2);
+        }
+    }
+
+    @Test
+    public void testErrorAfterEarlierItemsWritten () {
+
+        Pipeline<Integer, Integer> pipeline = Pipeline.<Integer>builder(1)
+                .stage("check", (Integer i) -> {
+                    if (i == 5) {
+                        throw new VigorException("bad item " + i);
+                    }
+                    return i;
+                })
+                .build("collect");
+        List<Integer> outputs = new ArrayList<>();
+        try {
+            pipeline.run(IntStream.range(0, 10).boxed().iterator(), outputs::add);
+            fail("expected the stage error to be thrown");
+        } catch (VigorException e) {
+            assertThat(e.getMessage(), equalTo("bad item 5"));
+        }
+        assertThat(outputs, equalTo(IntStream.range(0, 5).boxed().collect(Collectors.toList())));
+    }
+}
@@ -0,0 +1,112 @@
+package org.jcvi.vigor.utils;
+
+import org.jcvi.jillion.core.Range;
+import org.jcvi.jillion.core.residue.aa.IupacTranslationTables;
+import org.jcvi.jillion.core.residue.aa.ProteinSequence;
+import org.jcvi.jillion.core.residue.aa.ProteinSequenceBuilder;
+import org.jcvi.jillion.core.residue.nt.NucleotideSequence;
+import org.jcvi.jillion.core.residue.nt.NucleotideSequenceBuilder;
+import org.jcvi.jillion.fasta.aa.ProteinFastaRecord;
+import org.jcvi.jillion.fasta.aa.ProteinFastaRecordBuilder;
+import org.jcvi.vigor.testing.category.Fast;
+import org.jcvi.vigor.testing.category.Isolated;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@Category({Fast.class, Isolated.class})
+public class ProteinKmerIndexTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final Random random = new Random(20181004);
+    private NucleotideSequence genomeSequence;
+    private File referenceDB;
+
+    @Before
+    public void setup () throws IOException {
+
+        String gene = randomNucleotides(450).replaceAll("TAA|TAG|TGA", "CCC");
+        genomeSequence = new NucleotideSequenceBuilder(randomNucleotides(300) + gene + randomNucleotides(300)).build();
+        ProteinSequence present = IupacTranslationTables.STANDARD.translate(new NucleotideSequenceBuilder(gene).build());
+        ProteinSequence absent = IupacTranslationTables.STANDARD.translate(new NucleotideSequenceBuilder(randomNucleotides(450).replaceAll("TAA|TAG|TGA", "CCC")).build());
+        referenceDB = tempFolder.newFile("test_db");
+        Files.write(referenceDB.toPath(), Arrays.asList(">absent", absent.toString(), ">present", present.toString()));
+    }
+
+    @Test
+    public void testCandidates () throws IOException {
+
+        ProteinKmerIndex index = ProteinKmerIndex.build(referenceDB);
+        assertThat(index.getProteinCount(), equalTo(2));
+        assertThat(index.getCandidates(genomeSequence, 3), equalTo(Collections.singleton("present")));
+        assertThat("reverse strand hits should be found",
+                   index.getCandidates(genomeSequence.toBuilder().reverseComplement().build(), 3),
+                   equalTo(Collections.singleton("present")));
+    }
+
+    @Test
+    public void testProteinCandidates () {
+
+        ProteinSequence protein = new ProteinSequenceBuilder(randomResidues(300)).build();
+        // a peptide from the middle of the protein with every fourth residue changed
+        StringBuilder peptide = new StringBuilder(protein.toBuilder().trim(Range.of(100, 179)).build().toString());
+        for (int i = 0; i < peptide.length(); i += 4) {
+            peptide.setCharAt(i, peptide.charAt(i) == 'W' ? 'C' : 'W');
+        }
+        List<ProteinFastaRecord> peptides = Arrays.asList(
+                new ProteinFastaRecordBuilder("unrelated", randomResidues(80)).build(),
+                new ProteinFastaRecordBuilder("peptide", peptide.toString()).build());
+        ProteinKmerIndex index = ProteinKmerIndex.of(peptides, 3);
+        // one unchanged 3-mer in every four residues of the peptide, and only chance hits for the unrelated peptide
+        assertThat(index.getCandidates(protein, 5), equalTo(Collections.singleton("peptide")));
+    }
+
+    @Test
+    public void testIndexIsCachedAndRebuilt () throws IOException {
+
+        File indexFile = ProteinKmerIndex.getIndexFile(referenceDB);
+        ProteinKmerIndex.load(referenceDB);
+        assertTrue("index should be cached next to the database", indexFile.exists());
+        long cachedModified = indexFile.lastModified();
+        assertThat(ProteinKmerIndex.load(referenceDB).getCandidates(genomeSequence, 3), equalTo(Collections.singleton("present")));
+        assertThat("cached index should be reused", indexFile.lastModified(), equalTo(cachedModified));
+
+        Files.write(referenceDB.toPath(), Arrays.asList(">other", "MKVLAAGIVALLLAAGCSS"));
+        assertThat("index should be rebuilt when the database changes",
+                   ProteinKmerIndex.load(referenceDB).getProteinCount(), equalTo(1));
+    }
+
+    private String randomResidues ( int length ) {
+
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append("ACDEFGHIKLMNPQRSTVWY".charAt(random.nextInt(20)));
+        }
+        return builder.toString();
+    }
+
+    private String randomNucleotides ( int length ) {
+
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append("ACGT".charAt(random.nextInt(4)));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,74 @@
+package org.jcvi.vigor.utils;
+
+import org.jcvi.vigor.testing.category.Fast;
+import org.jcvi.vigor.testing.category.Isolated;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Category({Fast.class, Isolated.class})
+public class RunMetricsTest {
+
+    @Test
+    public void testStagesAreTotalledInPipelineOrder () {
+
+        GenomeMetrics metrics = new GenomeMetrics("genome");
+        metrics.addTime(GenomeMetrics.WRITE_PREFIX + "tbl", 5);
+        metrics.addTime(GenomeMetrics.DETERMINE_STOP, 3);
+        metrics.addTime(GenomeMetrics.DETERMINE_STOP, 4);
+        metrics.addCreated(GenomeMetrics.DETERMINE_STOP, 6);
+        metrics.addPruned(GenomeMetrics.DETERMINE_STOP, 2);
+        metrics.addTime(GenomeMetrics.ALIGNMENT, 10);
+
+        List<GenomeMetrics.Stage> stages = metrics.getStages();
+        assertThat(stages.stream().map(GenomeMetrics.Stage::getName).collect(Collectors.toList()),
+                   equalTo(Arrays.asList(GenomeMetrics.ALIGNMENT, GenomeMetrics.DETERMINE_STOP, "write_tbl")));
+        GenomeMetrics.Stage stop = stages.get(1);
+        assertThat(stop.getNanos(), equalTo(7L));
+        assertThat(stop.getCalls(), equalTo(2L));
+        assertThat(stop.getCreated(), equalTo(6L));
+        assertThat(stop.getPruned(), equalTo(2L));
+    }
+
+    @Test
+    public void testPercentilesOfTimePerGenome () {
+
+        RunMetrics runMetrics = new RunMetrics();
+        // added out of order, 1 to 100 nanoseconds
+        for (int i = 0; i < 100; i++) {
+            GenomeMetrics metrics = new GenomeMetrics("genome" + i);
+            metrics.addTime(GenomeMetrics.ALIGNMENT, ( i * 37 ) % 100 + 1);
+            metrics.addCreated(GenomeMetrics.ALIGNMENT, 2);
+            if (i % 2 == 0) {
+                metrics.addTime(GenomeMetrics.PEPTIDES, 1);
+            }
+            runMetrics.add(metrics);
+        }
+        assertThat(runMetrics.getGenomes(), equalTo(100));
+        List<RunMetrics.StageSummary> summaries = runMetrics.getSummaries();
+        assertThat(summaries.size(), equalTo(2));
+
+        RunMetrics.StageSummary alignment = summaries.get(0);
+        assertThat(alignment.getName(), equalTo(GenomeMetrics.ALIGNMENT));
+        assertThat(alignment.getGenomes(), equalTo(100));
+        assertThat(alignment.getTotalNanos(), equalTo(5050L));
+        assertThat(alignment.getMeanNanos(), equalTo(50.5));
+        assertThat(alignment.getPercentileNanos(0), equalTo(1L));
+        assertThat(alignment.getPercentileNanos(50), equalTo(50L));
+        assertThat(alignment.getPercentileNanos(90), equalTo(90L));
+        assertThat(alignment.getPercentileNanos(99), equalTo(99L));
+        assertThat(alignment.getPercentileNanos(100), equalTo(100L));
+        assertThat(alignment.getCreated(), equalTo(200L));
+
+        RunMetrics.StageSummary peptides = summaries.get(1);
+        assertThat(peptides.getName(), equalTo(GenomeMetrics.PEPTIDES));
+        assertThat(peptides.getGenomes(), equalTo(50));
+        assertThat(peptides.getPercentileNanos(99), equalTo(1L));
+    }
+}
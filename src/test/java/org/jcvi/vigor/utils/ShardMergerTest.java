@@ -0,0 +1,94 @@
+package org.jcvi.vigor.utils;
+
+import org.jcvi.vigor.exception.VigorException;
+import org.jcvi.vigor.service.exception.UserFacingException;
+import org.jcvi.vigor.testing.category.Fast;
+import org.jcvi.vigor.testing.category.Isolated;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Category({Fast.class, Isolated.class})
+public class ShardMergerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecordsAreAssignedRoundRobin () {
+
+        InputShard shard = InputShard.parse("2/3");
+        Iterator<Integer> selected = shard.select(IntStream.range(0, 8).boxed().iterator());
+        List<Integer> records = Arrays.asList(selected.next(), selected.next(), selected.next());
+        assertThat(records, equalTo(Arrays.asList(1, 4, 7)));
+        assertThat(selected.hasNext(), equalTo(false));
+        assertThat(shard.getOutputPrefix("test"), equalTo("test.shard-2-of-3"));
+    }
+
+    @Test(expected = ConfigurationParameterFunctions.InvalidValue.class)
+    public void testInvalidShard () {
+
+        InputShard.parse("4/3");
+    }
+
+    @Test
+    public void testShardsAreMergedInInputOrder () throws IOException, VigorException {
+
+        List<String> records = IntStream.rangeClosed(1, 5).mapToObj(i -> "seq" + i).collect(Collectors.toList());
+        for (int shard = 1; shard <= 2; shard++) {
+            writeShard(new InputShard(shard, 2), records, true);
+        }
+        assertThat(new ShardMerger(folder.getRoot().toPath(), "test", 2).merge(false), equalTo(5));
+        assertThat(new String(Files.readAllBytes(folder.getRoot().toPath().resolve("test.tbl")), StandardCharsets.UTF_8),
+                   equalTo("header\nseq1\nseq2\nseq3\nseq4\nseq5\n"));
+    }
+
+    @Test(expected = UserFacingException.class)
+    public void testIncompleteShardsAreNotMerged () throws IOException, VigorException {
+
+        List<String> records = Arrays.asList("seq1", "seq2", "seq3");
+        writeShard(new InputShard(1, 2), records, true);
+        writeShard(new InputShard(2, 2), records, false);
+        new ShardMerger(folder.getRoot().toPath(), "test", 2).merge(false);
+    }
+
+    /**
+     * Write the output of a shard as a run would, a line per record after a header and followed by a summary
+     */
+    private void writeShard ( InputShard shard, List<String> records, boolean complete ) throws IOException {
+
+        Path directory = folder.getRoot().toPath();
+        Path output = directory.resolve(shard.getOutputPrefix("test") + ".tbl");
+        Path journal = directory.resolve(shard.getOutputPrefix("test") + "." + Checkpoint.EXTENSION);
+        try (Checkpoint checkpoint = Checkpoint.create(journal, "input.fasta", false)) {
+            Files.write(output, "header\n".getBytes(StandardCharsets.UTF_8));
+            checkpoint.start(Collections.singletonMap(output, Files.size(output)));
+            Iterator<String> selected = shard.select(records.iterator());
+            while (selected.hasNext()) {
+                String record = selected.next();
+                Files.write(output, ( record + "\n" ).getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+                checkpoint.record(record, Collections.singletonMap(output, Files.size(output)));
+            }
+            Files.write(output, "summary\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            if (complete) {
+                checkpoint.finish(Collections.singletonMap(output, Files.size(output)));
+            }
+        }
+    }
+}
@@ -15,6 +15,7 @@ import org.jcvi.jillion.fasta.nt.NucleotideFastaFileDataStoreBuilder;
 import org.jcvi.jillion.fasta.nt.NucleotideFastaRecord;
 import org.jcvi.vigor.component.Alignment;
 import org.jcvi.vigor.component.AlignmentEvidence;
+import org.jcvi.vigor.component.ReferenceDatabase;
 import org.jcvi.vigor.component.VirusGenome;
 import org.jcvi.vigor.exception.VigorException;
 import org.jcvi.vigor.service.ExonerateService;
@@ -43,7 +44,7 @@ public class VigorTestUtils {
             AlignmentEvidence alignmentEvidence = new AlignmentEvidence();
             config.put(ConfigurationParameters.ReferenceDatabaseFile, refDB);
             List<Alignment> alignments = exonerateService.parseExonerateOutput(alignmentOutput,
-                     virusGenome, refDB);
+                     virusGenome, ReferenceDatabase.read(refDB));
             for (int i = 0; i < alignments.size(); i++) {
                 alignments.set(i, viralProteinService
                         .setViralProteinAttributes(alignments.get(i), config));